@@ -0,0 +1,110 @@
+/*
+ * Copyright 2021 Mark de Reeper
+ *
+ *  Permission is hereby granted, free of charge, to any person
+ *  obtaining a copy of this software and associated documentation
+ *  files (the "Software"), to deal in the Software without
+ *  restriction, including without limitation the rights to use,
+ *  copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the
+ *  Software is furnished to do so, subject to the following
+ *  conditions:
+ *
+ *  The above copyright notice and this permission notice shall be
+ *  included in all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ *  EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ *  OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ *  NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ *  HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ *  WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ *  FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ *  OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package nz.dereeper.dmdviewer;
+
+import android.graphics.Bitmap;
+import android.os.Build;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import timber.log.Timber;
+
+import static android.graphics.Bitmap.createBitmap;
+
+/**
+ * Keeps bitmaps that are no longer shown so they can be used again when the DMD size changes,
+ * rather than allocating a new one each time. A bitmap of the same size is used as it is, on
+ * KitKat and later a bigger one can also be reconfigured in place to the new size. Bitmaps must
+ * only be released back to the pool once the UI thread has stopped drawing them.
+ */
+class BitmapPool {
+
+    private static final int MAX_POOLED = 3;
+
+    private final List<Bitmap> free = new ArrayList<>();
+    private final Stats.Counter created = Stats.counter("bitmapCreated");
+    private final Stats.Counter reused = Stats.counter("bitmapReused");
+    private final Stats.Counter reconfigured = Stats.counter("bitmapReconfigured");
+
+    /**
+     * Get an opaque ARGB bitmap of the given size, its pixels are left as they were.
+     * @param width the width of the bitmap.
+     * @param height the height of the bitmap.
+     * @return the bitmap, from the pool if one could be used.
+     */
+    synchronized Bitmap acquire(final int width, final int height) {
+        for (int i = 0; i < free.size(); i++) {
+            final Bitmap bitmap = free.get(i);
+            if (bitmap.getWidth() == width && bitmap.getHeight() == height) {
+                free.remove(i);
+                reused.increment();
+                return bitmap;
+            }
+        }
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT) {
+            final int bytes = width * height * 4;
+            for (int i = 0; i < free.size(); i++) {
+                final Bitmap bitmap = free.get(i);
+                if (bitmap.getAllocationByteCount() >= bytes) {
+                    free.remove(i);
+                    bitmap.reconfigure(width, height, Bitmap.Config.ARGB_8888);
+                    reconfigured.increment();
+                    return bitmap;
+                }
+            }
+        }
+        created.increment();
+        final Bitmap bitmap = createBitmap(width, height, Bitmap.Config.ARGB_8888);
+        bitmap.setHasAlpha(false);
+        return bitmap;
+    }
+
+    /**
+     * Give a bitmap back to the pool, the UI must no longer be drawing it.
+     * @param bitmap the bitmap to keep for later.
+     */
+    synchronized void release(final Bitmap bitmap) {
+        if (free.size() == MAX_POOLED) {
+            // Keep the more recent sizes, they are the most likely to come back.
+            free.remove(0).recycle();
+        }
+        free.add(bitmap);
+    }
+
+    /**
+     * Let go of all the pooled bitmaps.
+     */
+    synchronized void clear() {
+        if (!free.isEmpty()) {
+            Timber.d("Clearing %s pooled bitmaps", free.size());
+        }
+        for (Bitmap bitmap : free) {
+            bitmap.recycle();
+        }
+        free.clear();
+    }
+}
@@ -0,0 +1,62 @@
+/*
+ * Copyright 2021 Mark de Reeper
+ *
+ *  Permission is hereby granted, free of charge, to any person
+ *  obtaining a copy of this software and associated documentation
+ *  files (the "Software"), to deal in the Software without
+ *  restriction, including without limitation the rights to use,
+ *  copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the
+ *  Software is furnished to do so, subject to the following
+ *  conditions:
+ *
+ *  The above copyright notice and this permission notice shall be
+ *  included in all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ *  EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ *  OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ *  NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ *  HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ *  WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ *  FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ *  OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package nz.dereeper.dmdviewer;
+
+import android.graphics.Bitmap;
+
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+
+/**
+ * A {@link RenderTarget} for a bitmap. On a little endian device the pixels are kept in the byte
+ * order of an ARGB_8888 bitmap, so they are uploaded with a straight copy rather than converting
+ * every pixel as {@link Bitmap#setPixels} does. The buffer wrapping the pixels is reused.
+ */
+class BitmapRenderTarget extends RenderTarget {
+
+    /** The pixel order used for bitmaps on this device. */
+    static final boolean ABGR = ByteOrder.nativeOrder() == ByteOrder.LITTLE_ENDIAN;
+
+    private final IntBuffer buffer;
+
+    BitmapRenderTarget(final int width, final int height) {
+        super(width, height, ABGR);
+        buffer = IntBuffer.wrap(pixels);
+    }
+
+    /**
+     * Copy the pixels into a bitmap of the same size.
+     * @param bitmap the bitmap to copy them to.
+     */
+    void upload(final Bitmap bitmap) {
+        if (isAbgr()) {
+            buffer.rewind();
+            bitmap.copyPixelsFromBuffer(buffer);
+        } else {
+            bitmap.setPixels(pixels, 0, getWidth(), 0, 0, getWidth(), getHeight());
+        }
+    }
+}
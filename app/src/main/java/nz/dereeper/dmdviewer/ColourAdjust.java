@@ -0,0 +1,129 @@
+/*
+ * Copyright 2021 Mark de Reeper
+ *
+ *  Permission is hereby granted, free of charge, to any person
+ *  obtaining a copy of this software and associated documentation
+ *  files (the "Software"), to deal in the Software without
+ *  restriction, including without limitation the rights to use,
+ *  copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the
+ *  Software is furnished to do so, subject to the following
+ *  conditions:
+ *
+ *  The above copyright notice and this permission notice shall be
+ *  included in all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ *  EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ *  OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ *  NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ *  HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ *  WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ *  FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ *  OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package nz.dereeper.dmdviewer;
+
+import androidx.annotation.NonNull;
+
+/**
+ * Brightness, contrast and gamma for a panel. The adjustment is worked out once into a table
+ * for each value a colour channel can have, so adjusting a colour is just three lookups. It is
+ * applied to palettes and shades rather than the rendered image, so costs nothing per pixel
+ * except for RGB24 frames.
+ */
+class ColourAdjust {
+
+    /** Leaves colours as they are. */
+    static final ColourAdjust NONE = new ColourAdjust(0, 100, 1.0f);
+
+    private final int brightness;
+    private final int contrast;
+    private final float gamma;
+    // The adjusted value for each channel value, already shifted into place.
+    private final int[] red = new int[256];
+    private final int[] green = new int[256];
+    private final int[] blue = new int[256];
+    private final boolean identity;
+
+    /**
+     * Create the adjustment, gamma is applied first then contrast then brightness.
+     * @param brightness added to each channel as a percentage of full brightness, -100 to 100.
+     * @param contrast percentage to stretch each channel around the middle, 100 leaves it alone.
+     * @param gamma the gamma to correct for, 1.0 leaves it alone.
+     */
+    ColourAdjust(final int brightness, final int contrast, final float gamma) {
+        this.brightness = brightness;
+        this.contrast = contrast;
+        this.gamma = gamma > 0 ? gamma : 1.0f;
+        boolean same = true;
+        for (int v = 0; v < 256; v++) {
+            double value = 255.0 * Math.pow(v / 255.0, 1.0 / this.gamma);
+            value = (value - 128) * contrast / 100.0 + 128;
+            value += brightness * 255 / 100.0;
+            final int adjusted = (int) Math.max(0, Math.min(255, Math.round(value)));
+            same &= adjusted == v;
+            red[v] = adjusted << 16;
+            green[v] = adjusted << 8;
+            blue[v] = adjusted;
+        }
+        identity = same;
+    }
+
+    /**
+     * Return true if this adjustment leaves every colour as it is.
+     * @return true if there is nothing to adjust.
+     */
+    boolean isIdentity() {
+        return identity;
+    }
+
+    /**
+     * Adjust a single colour, the alpha is set to opaque.
+     * @param colour the RGB colour to adjust.
+     * @return the adjusted colour.
+     */
+    int apply(final int colour) {
+        return 0xFF000000 |
+               red[(colour >> 16) & 0xFF] |
+               green[(colour >> 8) & 0xFF] |
+               blue[colour & 0xFF];
+    }
+
+    /**
+     * Adjust a colour given as separate channels, the alpha is set to opaque.
+     * @param r the red channel, 0 to 255.
+     * @param g the green channel, 0 to 255.
+     * @param b the blue channel, 0 to 255.
+     * @return the adjusted colour.
+     */
+    int apply(final int r, final int g, final int b) {
+        return 0xFF000000 | red[r] | green[g] | blue[b];
+    }
+
+    @NonNull
+    @Override
+    public String toString() {
+        return "brightness:" + brightness +
+               " contrast:" + contrast +
+               " gamma:" + gamma;
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        if (this == other) {
+            return true;
+        }
+        if (other instanceof ColourAdjust) {
+            ColourAdjust a = (ColourAdjust)other;
+            return brightness == a.brightness && contrast == a.contrast && gamma == a.gamma;
+        }
+        return false;
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * (31 * brightness + contrast) + Float.floatToIntBits(gamma);
+    }
+}
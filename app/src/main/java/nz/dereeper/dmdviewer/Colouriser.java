@@ -0,0 +1,260 @@
+/*
+ * Copyright 2021 Mark de Reeper
+ *
+ *  Permission is hereby granted, free of charge, to any person
+ *  obtaining a copy of this software and associated documentation
+ *  files (the "Software"), to deal in the Software without
+ *  restriction, including without limitation the rights to use,
+ *  copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the
+ *  Software is furnished to do so, subject to the following
+ *  conditions:
+ *
+ *  The above copyright notice and this permission notice shall be
+ *  included in all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ *  EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ *  OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ *  NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ *  HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ *  WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ *  FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ *  OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package nz.dereeper.dmdviewer;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+import timber.log.Timber;
+
+import static java.nio.ByteOrder.LITTLE_ENDIAN;
+import static java.nio.channels.FileChannel.MapMode.READ_ONLY;
+import static nz.dereeper.dmdviewer.Frame.FrameType.GRAY_2_PLANES;
+import static nz.dereeper.dmdviewer.Frame.FrameType.GRAY_4_PLANES;
+
+/**
+ * Colours gray frames from a colourisation database, so older games can be shown in colour
+ * without the cabinet PC doing it. The database is memory-mapped rather than read onto the heap,
+ * everything is looked up in place. All numbers are little-endian:
+ * <pre>
+ *   header:   int magic "DMDC", int version, int slot count (a power of two),
+ *             int palette count, int mask count, int plane length
+ *   slots:    slot count of {long hash, int palette, int flags}, a hash of 0 is an empty slot
+ *   palettes: palette count of 16 ARGB ints
+ *   masks:    mask count of plane length bytes
+ * </pre>
+ * A frame is hashed over all of its planes, once as it is and once with each mask ANDed over
+ * every plane so changing parts such as scores can be ignored. The first hash found in the open
+ * addressed table gives the palette. With {@link #SWITCH} set the palette is kept for the frames
+ * that follow until the next switch, otherwise it only applies to the matching frame. The cost
+ * per frame depends on the number of masks, not the number of frames in the database.
+ */
+class Colouriser {
+
+    static final int MAGIC = 'D' | 'M' << 8 | 'D' << 16 | 'C' << 24;
+    static final int VERSION = 1;
+    static final int HEADER_BYTES = 24;
+    static final int SLOT_BYTES = 16;
+    static final int PALETTE_COLOURS = 16;
+    static final int MAX_MASKS = 32;
+    /** Flag on a slot for a palette that is kept for the frames that follow. */
+    static final int SWITCH = 1;
+
+    private static final Stats.Counter HITS = Stats.counter("colourHits");
+    private static final Stats.Counter MISSES = Stats.counter("colourMisses");
+
+    private final ByteBuffer db;
+    private final int slotMask;
+    private final int paletteCount;
+    private final int maskCount;
+    private final int planeLength;
+    private final int palettesStart;
+    private final int masksStart;
+    private final int[] colours = new int[PALETTE_COLOURS];
+    // The palette switched to, null when there has been no switch.
+    private int[] switchColours;
+
+    /**
+     * Map a colourisation database from storage.
+     * @param file the database file.
+     * @return the colouriser, or null if there is no such file.
+     * @throws IOException if the file could not be mapped or is not a colourisation database.
+     */
+    static Colouriser open(final File file) throws IOException {
+        if (!file.isFile()) {
+            return null;
+        }
+        final RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            final FileChannel channel = raf.getChannel();
+            // The mapping stays valid after the channel is closed.
+            return new Colouriser(channel.map(READ_ONLY, 0, channel.size()));
+        } finally {
+            raf.close();
+        }
+    }
+
+    Colouriser(final ByteBuffer db) throws IOException {
+        this.db = db.duplicate().order(LITTLE_ENDIAN);
+        if (this.db.capacity() < HEADER_BYTES || this.db.getInt(0) != MAGIC) {
+            throw new IOException("Not a colourisation database");
+        }
+        if (this.db.getInt(4) != VERSION) {
+            throw new IOException("Unsupported colourisation database version: " + this.db.getInt(4));
+        }
+        final int slotCount = this.db.getInt(8);
+        paletteCount = this.db.getInt(12);
+        maskCount = this.db.getInt(16);
+        planeLength = this.db.getInt(20);
+        if (slotCount <= 0 || Integer.bitCount(slotCount) != 1 || paletteCount < 0 ||
+            maskCount < 0 || maskCount > MAX_MASKS || planeLength < 0) {
+            throw new IOException("Colourisation database header is not valid");
+        }
+        slotMask = slotCount - 1;
+        // Worked out in longs, a header with big counts must not wrap around to a small size.
+        final long palettes = HEADER_BYTES + (long) slotCount * SLOT_BYTES;
+        final long masks = palettes + (long) paletteCount * PALETTE_COLOURS * 4;
+        final long size = masks + (long) maskCount * planeLength;
+        if (size > this.db.capacity()) {
+            throw new IOException("Colourisation database is truncated");
+        }
+        palettesStart = (int) palettes;
+        masksStart = (int) masks;
+        Timber.i("Colourisation database with %s slots, %s palettes, %s masks",
+                slotCount, paletteCount, maskCount);
+    }
+
+    /**
+     * Work out the palette for a frame, following any palette switch it triggers.
+     * @param frame the frame about to be rendered.
+     * @return the shared 16 colour palette, or null if the frame is not coloured by the database.
+     */
+    int[] paletteFor(final Frame frame) {
+        final int bitLength;
+        if (frame.getFrameType() == GRAY_2_PLANES) {
+            bitLength = 2;
+        } else if (frame.getFrameType() == GRAY_4_PLANES) {
+            bitLength = 4;
+        } else {
+            return null;
+        }
+        final byte[] planes = frame.getPlanes();
+        int slot = find(hash(planes, bitLength, db, -1, 0, 0));
+        // Masks only make sense for frames the same size as the ones they were made for.
+        if (planes.length == planeLength * bitLength) {
+            for (int mask = 0; slot < 0 && mask < maskCount; mask++) {
+                slot = find(hash(planes, bitLength, db, masksStart + mask * planeLength,
+                        planeLength, mask + 1));
+            }
+        }
+        if (slot < 0) {
+            MISSES.increment();
+            return switchColours;
+        }
+        HITS.increment();
+        final int palette = db.getInt(slot + 8);
+        if (palette < 0 || palette >= paletteCount) {
+            return switchColours;
+        }
+        readPalette(palette, colours);
+        // Shared palettes let the rasteriser keep its colour table for each one.
+        final int[] shared = Palettes.intern(colours);
+        if ((db.getInt(slot + 12) & SWITCH) != 0) {
+            switchColours = shared;
+        }
+        return shared;
+    }
+
+    /**
+     * Forget any palette switch, for when a new game starts.
+     */
+    void reset() {
+        switchColours = null;
+    }
+
+    // Returns the byte offset of the slot holding the hash, or -1 if it is not there.
+    private int find(final long hash) {
+        int index = (int) (hash ^ (hash >>> 32)) & slotMask;
+        for (int probes = 0; probes <= slotMask; probes++) {
+            final int offset = HEADER_BYTES + index * SLOT_BYTES;
+            final long found = db.getLong(offset);
+            if (found == hash) {
+                return offset;
+            }
+            if (found == 0) {
+                return -1;
+            }
+            index = (index + 1) & slotMask;
+        }
+        return -1;
+    }
+
+    private void readPalette(final int palette, final int[] colours) {
+        final int offset = palettesStart + palette * PALETTE_COLOURS * 4;
+        for (int i = 0; i < PALETTE_COLOURS; i++) {
+            colours[i] = db.getInt(offset + i * 4);
+        }
+    }
+
+    /**
+     * Hash the planes of a frame, eight bytes at a time.
+     * @param planes the plane data.
+     * @param bitLength the number of planes, so 2 and 4 plane frames never share a hash.
+     * @param masks where the mask is, in little-endian order.
+     * @param maskStart the offset of the mask in masks, or -1 for no mask.
+     * @param maskLength the length of the mask, which is ANDed over each plane in turn.
+     * @param seed 0 for no mask, otherwise one more than the index of the mask.
+     * @return the hash, never 0.
+     */
+    static long hash(final byte[] planes,
+                     final int bitLength,
+                     final ByteBuffer masks,
+                     final int maskStart,
+                     final int maskLength,
+                     final int seed) {
+        long hash = 0x9E3779B97F4A7C15L * (bitLength << 8 | seed + 1);
+        final int words = planes.length & ~7;
+        for (int i = 0; i < words; i += 8) {
+            long word = (planes[i] & 0xFFL) | (planes[i + 1] & 0xFFL) << 8 |
+                    (planes[i + 2] & 0xFFL) << 16 | (planes[i + 3] & 0xFFL) << 24 |
+                    (planes[i + 4] & 0xFFL) << 32 | (planes[i + 5] & 0xFFL) << 40 |
+                    (planes[i + 6] & 0xFFL) << 48 | (planes[i + 7] & 0xFFL) << 56;
+            if (maskStart >= 0) {
+                final int inMask = i % maskLength;
+                word &= inMask + 8 <= maskLength ?
+                        masks.getLong(maskStart + inMask) : maskWord(masks, maskStart, maskLength, i);
+            }
+            hash = Long.rotateLeft(hash ^ word * 0xC2B2AE3D27D4EB4FL, 31) * 0x9E3779B97F4A7C15L;
+        }
+        for (int i = words; i < planes.length; i++) {
+            long value = planes[i] & 0xFFL;
+            if (maskStart >= 0) {
+                value &= masks.get(maskStart + i % maskLength) & 0xFFL;
+            }
+            hash = Long.rotateLeft(hash ^ value * 0xC2B2AE3D27D4EB4FL, 31) * 0x9E3779B97F4A7C15L;
+        }
+        hash ^= planes.length;
+        hash = (hash ^ (hash >>> 33)) * 0xFF51AFD7ED558CCDL;
+        hash = (hash ^ (hash >>> 33)) * 0xC4CEB9FE1A85EC53L;
+        hash ^= hash >>> 33;
+        return hash != 0 ? hash : 1;
+    }
+
+    // A word of mask that wraps from the end of the mask back to the start.
+    private static long maskWord(final ByteBuffer masks,
+                                 final int maskStart,
+                                 final int maskLength,
+                                 final int position) {
+        long word = 0;
+        for (int i = 0; i < 8; i++) {
+            word |= (masks.get(maskStart + (position + i) % maskLength) & 0xFFL) << (i * 8);
+        }
+        return word;
+    }
+}
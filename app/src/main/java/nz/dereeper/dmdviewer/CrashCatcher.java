@@ -25,21 +25,135 @@
 
 package nz.dereeper.dmdviewer;
 
+import android.util.Log;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+
 /**
  * Catch any serious logging details in the released version of DMDViewer.
+ * Entries are kept in a fixed size circular buffer that is allocated up front. Adding an entry
+ * only stores the values passed in, turning a throwable into a stack trace is left until the
+ * buffer is dumped. Messages arrive already formatted by Timber. Each writer claims its own slot
+ * and fills it in holding that slot's lock, which a dump takes while copying the slot out, so
+ * writers only wait for each other when the buffer wraps all the way round onto a slot still
+ * being written. A dump skips any slot that has been overwritten.
  */
 class CrashCatcher {
 
+    // Must be a power of 2
+    static final int CAPACITY = 256;
+    private static final int MASK = CAPACITY - 1;
+
+    private static final AtomicLong next = new AtomicLong();
+    private static final Object[] locks = new Object[CAPACITY];
+    private static final long[] sequences = new long[CAPACITY];
+    private static final long[] times = new long[CAPACITY];
+    private static final long[] threadIds = new long[CAPACITY];
+    private static final int[] priorities = new int[CAPACITY];
+    private static final String[] tags = new String[CAPACITY];
+    private static final String[] messages = new String[CAPACITY];
+    private static final Throwable[] throwables = new Throwable[CAPACITY];
+
+    static {
+        for (int i = 0; i < CAPACITY; i++) {
+            locks[i] = new Object();
+            sequences[i] = -1;
+        }
+    }
+
     static void log(int priority, String tag, String message) {
-        // TODO add log entry to circular buffer.
+        add(priority, tag, message, null);
     }
 
     static void logWarning(Throwable t) {
-        // TODO report non-fatal warning.
+        add(Log.WARN, null, null, t);
     }
 
     static void logError(Throwable t) {
-        // TODO report non-fatal error.
+        add(Log.ERROR, null, null, t);
+    }
+
+    /**
+     * Format the entries currently held in the buffer, oldest first.
+     * @return the formatted entries, one or more lines per entry.
+     */
+    static String dump() {
+        final StringBuilder sb = new StringBuilder();
+        final SimpleDateFormat timeFormat = new SimpleDateFormat("HH:mm:ss.SSS", Locale.US);
+        final long end = next.get();
+        for (long seq = Math.max(0, end - CAPACITY); seq < end; seq++) {
+            final int slot = (int) (seq & MASK);
+            final long time;
+            final long threadId;
+            final int priority;
+            final String tag;
+            final String message;
+            final Throwable throwable;
+            synchronized (locks[slot]) {
+                if (sequences[slot] != seq) {
+                    // Not written yet or already overwritten.
+                    continue;
+                }
+                time = times[slot];
+                threadId = threadIds[slot];
+                priority = priorities[slot];
+                tag = tags[slot];
+                message = messages[slot];
+                throwable = throwables[slot];
+            }
+            sb.append(timeFormat.format(new Date(time)))
+              .append(" [").append(threadId).append("] ")
+              .append(priorityLetter(priority)).append('/')
+              .append(tag != null ? tag : "DMDViewer").append(": ");
+            if (message != null) {
+                sb.append(message);
+            }
+            sb.append('\n');
+            if (throwable != null) {
+                final StringWriter stackTrace = new StringWriter();
+                throwable.printStackTrace(new PrintWriter(stackTrace));
+                sb.append(stackTrace);
+            }
+        }
+        return sb.toString();
+    }
+
+    private static void add(int priority, String tag, String message, Throwable t) {
+        final long seq = next.getAndIncrement();
+        final int slot = (int) (seq & MASK);
+        final long time = System.currentTimeMillis();
+        final long threadId = Thread.currentThread().getId();
+        synchronized (locks[slot]) {
+            sequences[slot] = seq;
+            times[slot] = time;
+            threadIds[slot] = threadId;
+            priorities[slot] = priority;
+            tags[slot] = tag;
+            messages[slot] = message;
+            throwables[slot] = t;
+        }
+    }
+
+    private static char priorityLetter(int priority) {
+        switch (priority) {
+            case Log.VERBOSE:
+                return 'V';
+            case Log.DEBUG:
+                return 'D';
+            case Log.INFO:
+                return 'I';
+            case Log.WARN:
+                return 'W';
+            case Log.ERROR:
+                return 'E';
+            default:
+                return 'A';
+        }
     }
 
     private CrashCatcher() {
@@ -0,0 +1,98 @@
+/*
+ * Copyright 2021 Mark de Reeper
+ *
+ *  Permission is hereby granted, free of charge, to any person
+ *  obtaining a copy of this software and associated documentation
+ *  files (the "Software"), to deal in the Software without
+ *  restriction, including without limitation the rights to use,
+ *  copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the
+ *  Software is furnished to do so, subject to the following
+ *  conditions:
+ *
+ *  The above copyright notice and this permission notice shall be
+ *  included in all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ *  EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ *  OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ *  NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ *  HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ *  WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ *  FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ *  OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package nz.dereeper.dmdviewer;
+
+import androidx.annotation.NonNull;
+
+/**
+ * A mutable rectangle describing the part of an image that has changed, left and top are
+ * inclusive, right and bottom are exclusive.
+ */
+class DirtyRegion {
+
+    int left;
+    int top;
+    int right;
+    int bottom;
+
+    boolean isEmpty() {
+        return left >= right || top >= bottom;
+    }
+
+    void set(final int left, final int top, final int right, final int bottom) {
+        this.left = left;
+        this.top = top;
+        this.right = right;
+        this.bottom = bottom;
+    }
+
+    void setEmpty() {
+        set(0, 0, 0, 0);
+    }
+
+    /**
+     * Grow this region to also cover the other region.
+     * @param other the region to include.
+     */
+    void union(final DirtyRegion other) {
+        if (other.isEmpty()) {
+            return;
+        }
+        if (isEmpty()) {
+            set(other.left, other.top, other.right, other.bottom);
+        } else {
+            left = Math.min(left, other.left);
+            top = Math.min(top, other.top);
+            right = Math.max(right, other.right);
+            bottom = Math.max(bottom, other.bottom);
+        }
+    }
+
+    /**
+     * Grow the region by the given amount in all directions, without going outside of the image.
+     * @param amount how many pixels to grow by.
+     * @param width the width of the image.
+     * @param height the height of the image.
+     */
+    void expand(final int amount, final int width, final int height) {
+        if (!isEmpty()) {
+            left = Math.max(0, left - amount);
+            top = Math.max(0, top - amount);
+            right = Math.min(width, right + amount);
+            bottom = Math.min(height, bottom + amount);
+        }
+    }
+
+    int area() {
+        return isEmpty() ? 0 : (right - left) * (bottom - top);
+    }
+
+    @NonNull
+    @Override
+    public String toString() {
+        return "[" + left + "," + top + "][" + right + "," + bottom + "]";
+    }
+}
@@ -34,6 +34,10 @@ public class Dmd {
     private final int combined; // the combined number of pixels and margin
     private final boolean enabled;
     private final boolean round;
+    private final boolean unlit;
+
+    // The colour of a pixel that is off, when unlit pixels are shown.
+    private static final int UNLIT_COLOUR = 0xFF161616;
 
     private static final boolean[][] square4x4 = {
         { true, true, true, true },
@@ -56,10 +60,22 @@ public class Dmd {
      * @param round set to true to enable round pixels.
      */
     Dmd(boolean enabled, boolean round) {
+        this(enabled, round, false);
+    }
+
+    /**
+     * Defines a simple representation of a Dot Matrix Display (DMD).
+     * Currently set to fixed size of 4 x 4 pixels with a margin of 1 pixel.
+     * @param enabled set to true to enable.
+     * @param round set to true to enable round pixels.
+     * @param unlit set to true to show pixels that are off as faint dots rather than black.
+     */
+    Dmd(boolean enabled, boolean round, boolean unlit) {
         this.pixels = 4;
         this.margin = 1;
         this.enabled = enabled;
         this.round = round;
+        this.unlit = unlit;
         combined = pixels + margin;
     }
 
@@ -71,6 +87,22 @@ public class Dmd {
         return enabled;
     }
 
+    /**
+     * Return true if pixels that are off should be shown as faint dots.
+     * @return true if unlit pixels should be shown.
+     */
+    public boolean isUnlit() {
+        return enabled && unlit;
+    }
+
+    /**
+     * The colour to draw a pixel that is off, only used when {@link #isUnlit()} is true.
+     * @return the ARGB colour of an unlit pixel.
+     */
+    public int getUnlitColour() {
+        return UNLIT_COLOUR;
+    }
+
     /**
      * The size in pixels of this matrix.
      * @return the size in pixels of this matrix.
@@ -105,6 +137,25 @@ public class Dmd {
     public String toString() {
         return  "pixels:" + pixels +
                 " margin:" + margin +
-                " enabled:" + enabled;
+                " enabled:" + enabled +
+                " unlit:" + unlit;
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        if (this == other) {
+            return true;
+        }
+        if (other instanceof Dmd) {
+            Dmd d = (Dmd)other;
+            return pixels == d.pixels && margin == d.margin && enabled == d.enabled &&
+                   round == d.round && unlit == d.unlit;
+        }
+        return false;
+    }
+
+    @Override
+    public int hashCode() {
+        return (enabled ? 1 : 0) + (round ? 2 : 0) + (unlit ? 4 : 0);
     }
 }
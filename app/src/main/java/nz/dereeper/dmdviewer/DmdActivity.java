@@ -27,6 +27,9 @@ package nz.dereeper.dmdviewer;
 
 import android.graphics.Bitmap;
 import android.os.Bundle;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
 import android.view.View;
 import android.widget.ImageView;
 import android.widget.Toast;
@@ -36,46 +39,147 @@ import androidx.appcompat.app.AppCompatActivity;
 
 import org.java_websocket.server.WebSocketServer;
 
-import java.io.DataInputStream;
+import java.io.File;
 import java.io.IOException;
-import java.util.Arrays;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import timber.log.Timber;
 
-import static android.graphics.Bitmap.createBitmap;
 import static android.view.WindowManager.LayoutParams.FLAG_KEEP_SCREEN_ON;
-import static androidx.core.graphics.ColorUtils.colorToHSL;
-import static java.lang.Integer.toHexString;
-import static nz.dereeper.dmdviewer.Frame.FrameType.COLORED_GRAY_2;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
 import static nz.dereeper.dmdviewer.Frame.FrameType.GRAY_2_PLANES;
 import static nz.dereeper.dmdviewer.ImageUtils.toRawImage;
-import static nz.dereeper.dmdviewer.ImageUtils.toRawImageFromRgb24;
 import static nz.dereeper.dmdviewer.MainActivity.DMD_ROUND_PIXEL;
+import static nz.dereeper.dmdviewer.MainActivity.DMD_UNLIT_PIXEL;
+import static nz.dereeper.dmdviewer.MainActivity.DMD_BRIGHTNESS;
+import static nz.dereeper.dmdviewer.MainActivity.DMD_CONTRAST;
+import static nz.dereeper.dmdviewer.MainActivity.DMD_GAMMA;
 import static nz.dereeper.dmdviewer.MainActivity.DMD_WS_PORT;
 import static nz.dereeper.dmdviewer.MainActivity.DMD_ENABLED;
+import static nz.dereeper.dmdviewer.MainActivity.DMD_GLOW;
+import static nz.dereeper.dmdviewer.MainActivity.DMD_PERSISTENCE;
+import static nz.dereeper.dmdviewer.MainActivity.DMD_HTTP_PORT;
+import static nz.dereeper.dmdviewer.MainActivity.DMD_IDLE_STATIC;
+import static nz.dereeper.dmdviewer.MainActivity.DMD_IDLE_TRAFFIC;
+import static nz.dereeper.dmdviewer.MainActivity.DMD_UDP_PORT;
+import static nz.dereeper.dmdviewer.MainActivity.DMD_COLOURISATION;
+import static nz.dereeper.dmdviewer.MainActivity.DMD_PIPELINED;
+import static nz.dereeper.dmdviewer.MainActivity.DMD_MAX_MESSAGE_KB;
+import static nz.dereeper.dmdviewer.MainActivity.DMD_FRAME_MEMORY_MB;
+import static nz.dereeper.dmdviewer.MainActivity.DMD_NATIVE_RESOLUTION;
 
 
-public class DmdActivity extends AppCompatActivity implements Processing, Metadata {
+public class DmdActivity extends AppCompatActivity
+        implements Processing, Metadata, IdleDetector.Listener {
 
     private static final int DEFAULT_COLOUR = 0xec843d;
+    private static final long EFFECTS_INTERVAL_MILLIS = 16;
+    private static final int PERSISTENCE_HALF_LIFE_MILLIS = 40;
+    private static final long HISTORY_BYTES = 4 * 1024 * 1024;
     private static final int viewUISettings = View.SYSTEM_UI_FLAG_LOW_PROFILE |
                                               View.SYSTEM_UI_FLAG_FULLSCREEN |
                                               View.SYSTEM_UI_FLAG_LAYOUT_STABLE |
                                               View.SYSTEM_UI_FLAG_LAYOUT_HIDE_NAVIGATION |
                                               View.SYSTEM_UI_FLAG_HIDE_NAVIGATION;
     private ImageView dmdView;
-    private Bitmap dmdImage;
+    private volatile Bitmap dmdImage;
+    // Only used on the UI thread, the bitmap the view was last given.
+    private Bitmap shownImage;
+    private final BitmapPool bitmapPool = new BitmapPool();
     private int dmdImageWidth;
     private int dmdImageHeight;
     private WebSocketServer webSocketServer;
-    private Dimensions dimensions = null;
+    private FrameEncoder frameEncoder;
+    private MjpegServer httpServer;
+    // The last few seconds of frames, for /replay.gif, null without the HTTP server.
+    private FrameHistory frameHistory;
+    private DmdUdpServer udpServer;
+    // Shared by the receivers, so the budget for frames in flight covers both.
+    private FrameLimits frameLimits;
     private String gameName;
-    private float[] hsl = new float[3];
-    private int[] palette;
+    // The frame types, duplicates and the state frames are drawn with, drawing is done here.
+    private FrameProcessor frameProcessor;
+    // Where colourisation databases are kept, null if colourisation is off.
+    private File colourisationDir;
+    private volatile Colouriser colouriser;
+    // The game the colouriser was loaded for.
+    private String colouriserGame;
     private Dmd dmd;
-    private Frame previousFrame;
-    private Frame openingFrame;
+    private ColourAdjust colourAdjust;
+    private Rasteriser rasteriser;
+    // The version of the render state the rasteriser was made for, anything drawn with an
+    // earlier one is the wrong size.
+    private long sizeVersion;
+    private BitmapRenderTarget renderTarget;
+    // Draw at the size the view shows the image, rather than have the view scale it.
+    private boolean nativeResolution;
+    // The size of the view, 0 until it has been laid out.
+    private int viewWidth;
+    private int viewHeight;
+    // Enlarges each image to the view, null when the view scales it.
+    private Scaler scaler;
+    // The last image shown, so it can be scaled again when the view changes size.
+    private int[] lastImage;
+    private PostProcessor postProcessor;
+    // Only when frames are drawn on several threads.
+    private PipelinedRenderer pipeline;
+    private final OpeningFrame.Source openingFrameSource = new OpeningFrame.Source() {
+        @Override
+        public InputStream open() {
+            return getResources().openRawResource(R.raw.openingframe);
+        }
+    };
+    private Warmup warmup;
+    // When the activity was created, until the first frame from a source has been shown.
+    private long firstFrameStart;
     private boolean closingDown;
+    private IdleDetector idleDetector;
+    private FlowControl flowControl;
+    private final AtomicBoolean presentPending = new AtomicBoolean();
+    private volatile LatencyProbe presentProbe;
+    private volatile int presentTimeStamp;
+    private volatile Frame.FrameType presentType;
+    private final Runnable present = new Runnable() {
+        @Override
+        public void run() {
+            final long start = Tracer.begin();
+            presentPending.set(false);
+            final Bitmap image = dmdImage;
+            dmdView.setImageBitmap(image);
+            if (image != shownImage) {
+                if (shownImage != null) {
+                    bitmapPool.release(shownImage);
+                }
+                shownImage = image;
+            }
+            final LatencyProbe probe = presentProbe;
+            if (probe != null) {
+                probe.onPresented(presentTimeStamp, LatencyProbe.now());
+            }
+            Tracer.end(Tracer.PRESENT, start, presentType);
+        }
+    };
+    private final Handler handler = new Handler(Looper.getMainLooper());
+    private HandlerThread effectsThread;
+    private Handler effectsHandler;
+    private final Runnable effectsTick = new Runnable() {
+        @Override
+        public void run() {
+            advanceEffects();
+        }
+    };
+    private final Runnable idleCheck = new Runnable() {
+        @Override
+        public void run() {
+            final long delay = idleDetector.check(System.nanoTime());
+            if (delay >= 0) {
+                handler.postDelayed(this, delay);
+            }
+        }
+    };
 
     @Override
     public Dmd getDmd() {
@@ -84,12 +188,17 @@ public class DmdActivity extends AppCompatActivity implements Processing, Metada
 
     @Override
     public Dimensions getDimensions() {
-        return dimensions;
+        return frameProcessor.getRenderState().dimensions;
     }
 
     @Override
     public float[] getHsl() {
-        return hsl;
+        return frameProcessor.getRenderState().getHsl();
+    }
+
+    @Override
+    public Rasteriser getRasteriser() {
+        return rasteriser;
     }
 
     @Override
@@ -111,55 +220,53 @@ public class DmdActivity extends AppCompatActivity implements Processing, Metada
     }
 
     @Override
-    public void processFrame(final Frame frame) {
-        switch (frame.getFrameType()) {
-            case COLORED_GRAY_4:
-            case COLORED_GRAY_2:
-            case GRAY_2_PLANES:
-            case GRAY_4_PLANES:
-            case RGB24:
-                if (isNewFrame(frame)) {
-                    Timber.v("%s, timestamp:%s", frame.getFrameType(), frame.getTimeStamp());
-                    if (renderFrame(frame)) {
-                        // If this frame resulted in an image being generated,
-                        // keep track of the previous frame so it can be compared against
-                        // the next one to avoid processing a duplicate.
-                        previousFrame = frame;
-                    }
-                } else {
-                    Timber.v("Skipping duplicate frame of type: %s", frame.getFrameType());
-                }
-                break;
-            case COLOUR:
-                Timber.i("Colour frame: 0x%s", toHexString(frame.getColour()));
-                setColour(frame.getColour());
-                break;
-            case PALETTE:
-                palette = frame.getPalette();
-                Timber.i("Palette frame of length: %s", palette.length);
-                break;
-            case DIMENSIONS:
-                setDimensions(frame.getDimensions());
-                break;
-            case CLEAR_COLOUR:
-                Timber.i("Clear colour frame");
-                setColour(DEFAULT_COLOUR);
-                break;
-            case CLEAR_PALETTE:
-                Timber.i("Clear palette frame");
-                palette = null;
-                break;
-            case GAME_NAME:
-                gameName = frame.getGameName();
-                Timber.i("Game name frame: %s", gameName);
-                break;
-            case UNKNOWN:
-                Timber.i("Binary message received is unknown type");
+    public void onIdle(final boolean noTraffic) {
+        Timber.i("Going idle, %s", noTraffic ? "nothing received" : "content has not changed");
+        // Rendering is synchronized on this, so the buffers can't be released mid frame.
+        synchronized (this) {
+            // Nothing is being drawn, so let go of the buffers used to draw each frame.
+            postProcessor.reset();
+            if (rasteriser != null) {
+                rasteriser.release();
+            }
+            if (pipeline != null) {
+                pipeline.release();
+            }
+            bitmapPool.clear();
+            lastImage = null;
+            if (frameHistory != null) {
+                frameHistory.clear();
+            }
         }
+        // The screen is kept on, letting it turn off would pause the activity and stop the
+        // servers, so nothing could arrive to make the display active again.
+    }
+
+    @Override
+    public void onActive(final long idleMillis) {
+        Timber.i("Active again after being idle for %sms", idleMillis);
+        runOnUiThread(new Runnable() {
+            @Override
+            public void run() {
+                handler.removeCallbacks(idleCheck);
+                idleCheck.run();
+            }
+        });
+    }
+
+    @Override
+    public void processFrame(final Frame frame) {
+        frameProcessor.processFrame(frame);
+    }
+
+    @Override
+    public void duplicateFrame() {
+        frameProcessor.duplicateFrame();
     }
 
     @Override
     public void clientDisconnected() {
+        flowControl.reset();
         runOnUiThread(new Runnable() {
             @Override
             public void run() {
@@ -173,12 +280,114 @@ public class DmdActivity extends AppCompatActivity implements Processing, Metada
         super.onCreate(savedInstanceState);
         setContentView(R.layout.activity_dmd);
         dmdView = findViewById(R.id.dmdView);
+        nativeResolution = getIntent().getBooleanExtra(DMD_NATIVE_RESOLUTION, false);
+        if (nativeResolution) {
+            dmdView.addOnLayoutChangeListener(new View.OnLayoutChangeListener() {
+                @Override
+                public void onLayoutChange(final View view,
+                                           final int left,
+                                           final int top,
+                                           final int right,
+                                           final int bottom,
+                                           final int oldLeft,
+                                           final int oldTop,
+                                           final int oldRight,
+                                           final int oldBottom) {
+                    final int width = right - left;
+                    final int height = bottom - top;
+                    if (width != oldRight - oldLeft || height != oldBottom - oldTop) {
+                        // Not during layout, and not holding up the UI thread.
+                        effectsHandler.post(new Runnable() {
+                            @Override
+                            public void run() {
+                                setViewSize(width, height);
+                            }
+                        });
+                    }
+                }
+            });
+        }
         getWindow().addFlags(FLAG_KEEP_SCREEN_ON);
-        setColour(DEFAULT_COLOUR);
         dmd = new Dmd(getIntent().getBooleanExtra(DMD_ENABLED, true),
-                      getIntent().getBooleanExtra(DMD_ROUND_PIXEL, false));
+                      getIntent().getBooleanExtra(DMD_ROUND_PIXEL, false),
+                      getIntent().getBooleanExtra(DMD_UNLIT_PIXEL, false));
         Timber.i("DMD: %s", dmd);
-        openingFrame = createOpeningFrame();
+        colourAdjust = new ColourAdjust(getIntent().getIntExtra(DMD_BRIGHTNESS, 0),
+                                        getIntent().getIntExtra(DMD_CONTRAST, 100),
+                                        getIntent().getFloatExtra(DMD_GAMMA, 1.0f));
+        Timber.i("Colour adjustment: %s", colourAdjust);
+        firstFrameStart = System.nanoTime();
+        final boolean glow = getIntent().getBooleanExtra(DMD_GLOW, false);
+        final boolean persistence = getIntent().getBooleanExtra(DMD_PERSISTENCE, false);
+        postProcessor = createPostProcessor(glow, persistence, true);
+        // The effects keep state between frames, so the warm-up has its own.
+        warmup = new Warmup(OpeningFrame.DIMENSIONS, dmd, colourAdjust, BitmapRenderTarget.ABGR,
+                            createPostProcessor(glow, persistence, false));
+        warmup.start();
+        effectsThread = new HandlerThread("Effects");
+        effectsThread.start();
+        effectsHandler = new Handler(effectsThread.getLooper());
+        flowControl = new FlowControl(new FlowControl.Sender() {
+            @Override
+            public void sendHint(final String hint) {
+                final WebSocketServer server = webSocketServer;
+                if (server != null) {
+                    server.broadcast(hint);
+                }
+            }
+        });
+        if (getIntent().getBooleanExtra(DMD_PIPELINED, false)) {
+            // Leave a core for the socket and UI threads.
+            final int threads = Math.min(4, Runtime.getRuntime().availableProcessors() - 1);
+            if (threads >= 2) {
+                Timber.i("Drawing frames on %s threads", threads);
+                pipeline = new PipelinedRenderer(threads, dmd, colourAdjust,
+                        BitmapRenderTarget.ABGR, new PipelinedRenderer.Presenter() {
+                            @Override
+                            public void present(final int[] image,
+                                                final int width,
+                                                final int height,
+                                                final Frame frame,
+                                                final RenderState state) {
+                                presentDrawn(image, width, height, frame, state);
+                            }
+                        });
+            } else {
+                Timber.i("Not enough cores to draw frames on several threads");
+            }
+        }
+        if (getIntent().getBooleanExtra(DMD_COLOURISATION, false)) {
+            colourisationDir = getExternalFilesDir("colourisation");
+            Timber.i("Colourisation databases are read from: %s", colourisationDir);
+        }
+        frameLimits = new FrameLimits(getIntent().getIntExtra(DMD_MAX_MESSAGE_KB, 512) * 1024,
+                FrameLimits.MAX_PALETTE_COLOURS, FrameLimits.MAX_WIDTH, FrameLimits.MAX_HEIGHT,
+                getIntent().getIntExtra(DMD_FRAME_MEMORY_MB, 16) * 1024L * 1024L);
+        idleDetector = new IdleDetector(getIntent().getLongExtra(DMD_IDLE_STATIC, 0),
+                                        getIntent().getLongExtra(DMD_IDLE_TRAFFIC, 0), this);
+        // Drawing holds the activity's lock, as does everything else touching the image.
+        frameProcessor = new FrameProcessor(DEFAULT_COLOUR, idleDetector, this,
+                new FrameProcessor.Renderer() {
+                    @Override
+                    public boolean renderFrame(final Frame frame, final RenderState state) {
+                        return DmdActivity.this.renderFrame(frame, state);
+                    }
+
+                    @Override
+                    public void resize(final RenderState state) {
+                        setDimensions(state);
+                    }
+
+                    @Override
+                    public void gameName(final String name) {
+                        gameName = name;
+                        loadColouriser(name);
+                    }
+                });
+        if (getIntent().getIntExtra(DMD_HTTP_PORT, 0) > 0) {
+            frameEncoder = new FrameEncoder();
+            frameHistory = new FrameHistory(HISTORY_BYTES);
+        }
         ActionBar actionBar = getSupportActionBar();
         if (actionBar != null) {
             actionBar.setDisplayHomeAsUpEnabled(true);
@@ -194,14 +403,31 @@ public class DmdActivity extends AppCompatActivity implements Processing, Metada
     @Override
     protected void onPause() {
         super.onPause();
+        handler.removeCallbacks(idleCheck);
         // No point in running the server if we are being paused.
         stopServer();
     }
 
     @Override
     protected void onResume() {
-        webSocketServer = new DmdWebSocketServer(this, getIntent().getIntExtra(DMD_WS_PORT, 9090));
+        if (pipeline != null) {
+            // Stopped by the last pause, started again before any frames can arrive.
+            pipeline.start();
+        }
+        webSocketServer = new DmdWebSocketServer(this, getIntent().getIntExtra(DMD_WS_PORT, 9090),
+                                                 frameLimits);
         webSocketServer.start();
+        final int udpPort = getIntent().getIntExtra(DMD_UDP_PORT, 0);
+        if (udpPort > 0) {
+            udpServer = new DmdUdpServer(this, udpPort, frameLimits);
+            udpServer.start();
+        }
+        if (frameEncoder != null) {
+            frameEncoder.start();
+            httpServer = new MjpegServer(getIntent().getIntExtra(DMD_HTTP_PORT, 0), frameEncoder,
+                                         frameHistory);
+            httpServer.start();
+        }
         closingDown = false;
         super.onResume();
         // Hide elements of the UI since we are working in fullscreen mode
@@ -235,12 +461,17 @@ public class DmdActivity extends AppCompatActivity implements Processing, Metada
                     }
                 });
         showOpeningFrame();
+        idleDetector.reset(System.nanoTime());
+        handler.removeCallbacks(idleCheck);
+        idleCheck.run();
     }
 
     @Override
     protected void onDestroy() {
         super.onDestroy();
         closeDown(null);
+        warmup.stop();
+        effectsThread.quit();
     }
 
     private void stopServer() {
@@ -255,24 +486,33 @@ public class DmdActivity extends AppCompatActivity implements Processing, Metada
             }
             webSocketServer = null;
         }
+        if (udpServer != null) {
+            Timber.i("Stopping the UDP Server");
+            udpServer.stop();
+            udpServer = null;
+        }
+        if (pipeline != null) {
+            pipeline.shutdown();
+        }
+        if (httpServer != null) {
+            Timber.i("Stopping the HTTP Server");
+            httpServer.stop();
+            httpServer = null;
+            frameEncoder.stop();
+        }
     }
 
-    private void setColour(final int c) {
-        colorToHSL(c, hsl);
-    }
-
-    private void setDimensions(final Dimensions dimensions) {
-        this.dimensions = dimensions;
-        if (dmd.isEnabled()) {
-            dmdImageWidth = dimensions.width * dmd.getCombined();
-            dmdImageHeight = dimensions.height * dmd.getCombined();
-        } else {
-            dmdImageWidth = dimensions.width;
-            dmdImageHeight = dimensions.height;
+    // Called by the frame processor holding the render lock, once the new size is published.
+    private void setDimensions(final RenderState state) {
+        final Dimensions dimensions = state.dimensions;
+        sizeVersion = state.version;
+        if (rasteriser == null || !rasteriser.matches(dimensions, dmd, colourAdjust)) {
+            // Work out how to draw for these dimensions once, rather than for every frame.
+            rasteriser = new Rasteriser(dimensions, dmd, colourAdjust, BitmapRenderTarget.ABGR);
         }
-        dmdImage = createBitmap(dmdImageWidth, dmdImageHeight, Bitmap.Config.ARGB_8888);
-        dmdImage.setHasAlpha(false);
-        Timber.i("Dimensions frame: %s", dimensions);
+        dmdImageWidth = rasteriser.getOutputWidth();
+        dmdImageHeight = rasteriser.getOutputHeight();
+        sizeShownImage();
         final ActionBar actionBar = getSupportActionBar();
         if (actionBar != null) {
             runOnUiThread(new Runnable() {
@@ -288,86 +528,226 @@ public class DmdActivity extends AppCompatActivity implements Processing, Metada
         }
     }
 
-    private boolean isNewFrame(final Frame currentFrame) {
-        if (previousFrame == null) {
+    // Called whenever the view changes size, only with native resolution on.
+    private synchronized void setViewSize(final int width, final int height) {
+        viewWidth = width;
+        viewHeight = height;
+        if (rasteriser != null) {
+            // Still the rasteriser's size, only the shown size is changing.
+            final int[] image = lastImage;
+            sizeShownImage();
+            if (image != null && !closingDown) {
+                // Nothing else may arrive for a while, so show what is there at the new size.
+                show(image, null);
+            }
+        }
+    }
+
+    // Size the bitmap and render target for the image as it will be shown, called holding the
+    // render lock whenever the rasteriser or the view changes size.
+    private void sizeShownImage() {
+        int width = dmdImageWidth;
+        int height = dmdImageHeight;
+        if (nativeResolution && viewWidth > 0 && viewHeight > 0 &&
+            (scaler == null || !scaler.matches(width, height, viewWidth, viewHeight))) {
+            // Work out the scaling once for each size, rather than for every frame.
+            scaler = new Scaler(width, height, viewWidth, viewHeight);
+            if (scaler.enlarges()) {
+                Timber.i("Drawing %sx%s images at %sx%s", width, height,
+                         scaler.getOutputWidth(), scaler.getOutputHeight());
+            } else {
+                Timber.i("The view is smaller than %sx%s images, it scales them", width, height);
+                scaler = null;
+            }
+        }
+        if (scaler != null) {
+            width = scaler.getOutputWidth();
+            height = scaler.getOutputHeight();
+        }
+        final Bitmap current = dmdImage;
+        if (current == null || current.getWidth() != width || current.getHeight() != height) {
+            // The UI thread gives the old bitmap back once it is showing the new one.
+            dmdImage = bitmapPool.acquire(width, height);
+        }
+        if (renderTarget == null || !renderTarget.fits(width, height)) {
+            renderTarget = new BitmapRenderTarget(width, height);
+        }
+        // With no effects or scaling the rasteriser can draw straight into the render target.
+        rasteriser.setTarget(postProcessor.isEmpty() && scaler == null ? renderTarget : null);
+        lastImage = null;
+    }
+
+    // Map the colourisation database for the game, if there is one. Mapping doesn't read the
+    // file, so it is fine to do on the thread the game name arrived on.
+    private void loadColouriser(final String game) {
+        final Colouriser current = colouriser;
+        if (current != null && game.equals(colouriserGame)) {
+            // The same game starting again, the database is already mapped.
+            synchronized (this) {
+                current.reset();
+            }
+            return;
+        }
+        Colouriser loaded = null;
+        if (colourisationDir != null && !game.isEmpty()) {
+            final File file = new File(colourisationDir,
+                    game.replaceAll("[^A-Za-z0-9_.-]", "_") + ".dmdc");
+            try {
+                loaded = Colouriser.open(file);
+                Timber.i(loaded != null ? "Colourising from: %s" : "No colourisation at: %s", file);
+            } catch (IOException e) {
+                Timber.e(e, "Unable to load the colourisation database: %s", file);
+            }
+        }
+        colouriser = loaded;
+        colouriserGame = game;
+    }
+
+    // Called by the frame processor holding the render lock, once the size is known.
+    private boolean renderFrame(final Frame frame, final RenderState state) {
+        final long start = System.nanoTime();
+        final Colouriser colouriser = this.colouriser;
+        final int[] colours = colouriser != null ? colouriser.paletteFor(frame) : null;
+        if (frameHistory != null) {
+            frameHistory.record(frame, state, colours, start);
+        }
+        if (pipeline != null) {
+            // Drawn and presented on the pipeline's threads, in the order submitted.
+            if (!pipeline.submit(frame, state, colours)) {
+                flowControl.onDropped();
+            }
             return true;
         }
-        // Flagged as a new frame if they are different frame types or they don't contain the exact
-        // same set of planes data.
-        return !currentFrame.getFrameType().equals(previousFrame.getFrameType()) ||
-               !Arrays.equals(currentFrame.getPlanes(), previousFrame.getPlanes());
+        final long rasterise = Tracer.begin();
+        final int[] rawImage = colours != null ?
+                toRawImage(frame.getPlanes(), colours,
+                        frame.getFrameType() == GRAY_2_PLANES ? 2 : 4, this) :
+                toRawImage(frame, state, this);
+        Tracer.end(Tracer.RASTERISE, rasterise, frame.getFrameType());
+        if (rawImage != null) {
+            final int[] image = postProcessor.process(rawImage, dmdImageWidth, dmdImageHeight);
+            if (!show(image, frame)) {
+                flowControl.onDropped();
+            }
+            final long end = System.nanoTime();
+            flowControl.onRendered(end, end - start);
+            timeFirstFrame(end);
+            Stats.reportIfDue();
+            return true;
+        }
+        return false;
     }
 
-    private boolean renderFrame(final Frame frame) {
-        // Don't try to process any frames that may come before we know the size of the display
-        if (dimensions != null) {
-            final int[] rawImage;
-            switch (frame.getFrameType()) {
-                case GRAY_2_PLANES:
-                case GRAY_4_PLANES:
-                    final int numberOfGrays = frame.getFrameType().equals(GRAY_2_PLANES) ? 2 : 4;
-                    final int expectedPaletteSize = numberOfGrays * 4;
-                    // If we don't have a valid palette to match the required size,
-                    // fall-back to HSL colour.
-                    if (palette != null && palette.length == expectedPaletteSize) {
-                        rawImage = toRawImage(frame.getPlanes(), palette, numberOfGrays, this);
-                    } else {
-                        rawImage = toRawImage(frame.getPlanes(), expectedPaletteSize, numberOfGrays, this);
-                    }
-                    break;
-                case COLORED_GRAY_2:
-                case COLORED_GRAY_4:
-                    final int numberOfColours = frame.getFrameType().equals(COLORED_GRAY_2) ? 2 : 4;
-                    rawImage = toRawImage(frame.getPlanes(), frame.getPalette(), numberOfColours, this);
-                    break;
-                case RGB24:
-                    rawImage = toRawImageFromRgb24(frame.getPlanes(), this);
-                    break;
-                default:
-                    rawImage = null;
-                    break;
+    // Called in frame order by the pipeline once a frame has been drawn on one of its threads.
+    private synchronized void presentDrawn(final int[] rawImage,
+                                           final int width,
+                                           final int height,
+                                           final Frame frame,
+                                           final RenderState state) {
+        if (closingDown || state.version < sizeVersion) {
+            // Drawn for a display size that has changed since.
+            return;
+        }
+        final long start = System.nanoTime();
+        final int[] image = postProcessor.process(rawImage, width, height);
+        if (!show(image, frame)) {
+            flowControl.onDropped();
+        }
+        final long end = System.nanoTime();
+        flowControl.onRendered(end, end - start);
+        timeFirstFrame(end);
+        Stats.reportIfDue();
+    }
+
+    // Keep effects such as persistence moving between frames, until they have settled.
+    private synchronized void advanceEffects() {
+        if (dmdImage != null && !closingDown) {
+            final int[] image = postProcessor.advance();
+            if (image != null) {
+                show(image, null);
             }
-            if (rawImage != null) {
-                // Overwrite the existing image with our new raw image values.
-                dmdImage.setPixels(rawImage, 0, dmdImageWidth, 0, 0, dmdImageWidth, dmdImageHeight);
-                runOnUiThread(new Runnable() {
-                    @Override
-                    public void run() {
-                        dmdView.setImageBitmap(dmdImage);
-                    }
-                });
-                return true;
+        }
+    }
+
+    // Returns false if the UI thread had not shown the previous image yet, it will show this one
+    // instead. The frame is null for images that didn't come from a source.
+    private boolean show(final int[] image, final Frame frame) {
+        final Frame.FrameType type = frame != null ? frame.getFrameType() : null;
+        final long upload = Tracer.begin();
+        if (scaler != null) {
+            scaler.scale(image, renderTarget.pixels);
+            if (pipeline == null) {
+                // Kept until the next frame is drawn into it, the pipeline reuses its images.
+                lastImage = image;
             }
+        } else {
+            // Overwrite the existing image with our new raw image values.
+            renderTarget.write(image);
+        }
+        renderTarget.upload(dmdImage);
+        Tracer.end(Tracer.UPLOAD, upload, type);
+        if (frameEncoder != null) {
+            frameEncoder.offer(renderTarget);
+        }
+        if (postProcessor.isAnimating()) {
+            effectsHandler.removeCallbacks(effectsTick);
+            effectsHandler.postDelayed(effectsTick, EFFECTS_INTERVAL_MILLIS);
+        }
+        presentProbe = frame != null ? frame.getLatencyProbe() : null;
+        presentTimeStamp = frame != null ? frame.getTimeStamp() : 0;
+        presentType = type;
+        // Only one present is ever waiting for the UI thread, if it hasn't got to the
+        // last one yet it will show this frame instead.
+        if (presentPending.compareAndSet(false, true)) {
+            runOnUiThread(present);
+            return true;
         }
         return false;
     }
 
-    private void showOpeningFrame() {
-        if (openingFrame != null && !closingDown) {
-            // We know the dimensions of the opening frame, trigger the creation of the bitmap.
-            setDimensions(new Dimensions(128, 32));
-            renderFrame(openingFrame);
+    private synchronized void showOpeningFrame() {
+        if (!closingDown) {
+            // Drawn once for the process, only the effects are applied each time it is shown.
+            final int[] image = OpeningFrame.image(openingFrameSource, dmd, colourAdjust,
+                                                   BitmapRenderTarget.ABGR);
+            if (image != null) {
+                // We know the dimensions of the opening frame, trigger the creation of the bitmap.
+                frameProcessor.setDimensions(OpeningFrame.DIMENSIONS);
+                show(postProcessor.process(image, dmdImageWidth, dmdImageHeight), null);
+            }
         }
     }
 
-    private Frame createOpeningFrame() {
-        DataInputStream frameStream = null;
-        try {
-            frameStream = new DataInputStream(getResources().openRawResource(R.raw.openingframe));
-            byte[] openingFrameBytes = new byte[frameStream.available()];
-            frameStream.readFully(openingFrameBytes);
-            return new Frame(openingFrameBytes);
-        } catch (IOException e) {
-            Timber.w(e, "There was an issue creating the opening frame");
-        } finally {
-            if (frameStream != null) {
-                try {
-                    frameStream.close();
-                } catch (IOException e) {
-                    // We tried, ignore.
-                }
+    // Called with the render lock held once a frame from a source is on its way to the screen.
+    private void timeFirstFrame(final long now) {
+        if (firstFrameStart != 0) {
+            final long nanos = now - firstFrameStart;
+            firstFrameStart = 0;
+            Stats.timer("firstFrame").record(nanos);
+            Timber.i("First frame shown %sms after starting, warm-up drew %s frames",
+                     NANOSECONDS.toMillis(nanos), warmup.getFrames());
+        }
+    }
+
+    private PostProcessor createPostProcessor(final boolean glow,
+                                              final boolean persistence,
+                                              final boolean log) {
+        final List<Effect> effects = new ArrayList<>();
+        if (persistence) {
+            if (log) {
+                Timber.i("Persistence effect enabled, half life: %sms",
+                         PERSISTENCE_HALF_LIFE_MILLIS);
+            }
+            effects.add(new PersistenceEffect(PERSISTENCE_HALF_LIFE_MILLIS));
+        }
+        if (glow) {
+            // Spread the glow across the gap between the LED pixels when the DMD effect is on.
+            final int radius = dmd.isEnabled() ? dmd.getCombined() : 1;
+            if (log) {
+                Timber.i("Glow effect enabled, radius: %s", radius);
             }
+            effects.add(new GlowEffect(radius, 160));
         }
-        return null;
+        return new PostProcessor(effects.toArray(new Effect[0]));
     }
 }
@@ -0,0 +1,316 @@
+/*
+ * Copyright 2021 Mark de Reeper
+ *
+ *  Permission is hereby granted, free of charge, to any person
+ *  obtaining a copy of this software and associated documentation
+ *  files (the "Software"), to deal in the Software without
+ *  restriction, including without limitation the rights to use,
+ *  copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the
+ *  Software is furnished to do so, subject to the following
+ *  conditions:
+ *
+ *  The above copyright notice and this permission notice shall be
+ *  included in all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ *  EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ *  OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ *  NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ *  HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ *  WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ *  FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ *  OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package nz.dereeper.dmdviewer;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetSocketAddress;
+import java.net.SocketException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import timber.log.Timber;
+
+import static java.nio.ByteOrder.LITTLE_ENDIAN;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static nz.dereeper.dmdviewer.LogFlags.LOG_FRAMES;
+
+/**
+ * An alternative to the {@link DmdWebSocketServer} that receives the same dmdext binary messages
+ * over UDP, so a lost packet only loses the frame it was part of rather than holding up every
+ * frame after it while TCP retransmits. Messages are split into fragments, each datagram holding:
+ * <pre>
+ *   int   sequence         increases by one for each message sent
+ *   short fragment index
+ *   short fragment count
+ *   int   offset           where this fragment's data goes in the message
+ *   int   message length
+ *   int   send time        sender's clock in milliseconds, used for latency on a shared clock
+ *   ...   fragment data
+ * </pre>
+ * All values are little endian. Taken in index order the fragments have to fill the message from
+ * start to end, without gaps or overlaps. Only the newest message is ever assembled, any message
+ * that is older than one already handled, or that is still missing fragments when a newer one
+ * starts arriving, is dropped. A sequence that jumps a long way back, or anything after a quiet
+ * spell, is taken to be a sender that has started again rather than late. Senders are expected to
+ * repeat control messages every so often so the state still ends up right when one of those is
+ * lost.
+ */
+class DmdUdpServer implements Runnable {
+
+    static final int HEADER_SIZE = 20;
+    static final int MAX_DATAGRAM_SIZE = 65507;
+    // Further back than this is a new sequence, not a message overtaken on the way.
+    static final int MAX_REORDER = 64;
+    // Quiet for this long and the sender may have started again.
+    static final long RESTART_MILLIS = 1000;
+
+    private final Processing processing;
+    private final int port;
+    private final byte[] datagram = new byte[MAX_DATAGRAM_SIZE];
+    private final Stats.Counter received = Stats.counter("udpMessages");
+    private final Stats.Counter late = Stats.counter("udpLate");
+    private final Stats.Counter incomplete = Stats.counter("udpIncomplete");
+    private final Stats.Counter lost = Stats.counter("udpLost");
+    private final Stats.Timer latency = Stats.timer("udpLatency");
+    private final FrameLimits limits;
+    private final DuplicateFilter duplicates = new DuplicateFilter();
+    private volatile DatagramSocket socket;
+    private volatile boolean running;
+    private byte[] message = new byte[16 * 1024];
+    // Wraps message, so repeated frames can be dropped without allocating anything.
+    private ByteBuffer messageBuffer = ByteBuffer.wrap(message).order(LITTLE_ENDIAN);
+    private boolean[] fragments = new boolean[16];
+    // Where each fragment's data starts and ends in the message.
+    private int[] fragmentStarts = new int[16];
+    private int[] fragmentEnds = new int[16];
+    private boolean assembling;
+    // The message with the current sequence was too large, so its fragments are ignored.
+    private boolean refused;
+    private boolean delivered;
+    private int sequence;
+    private int fragmentCount;
+    private int fragmentsReceived;
+    private int messageLength;
+    private int lastDelivered;
+    private long lastDatagram;
+    // Messages since the last one delivered that were seen but dropped, so aren't lost as well.
+    private int dropped;
+
+    DmdUdpServer(final Processing processing, final int port) {
+        this(processing, port, FrameLimits.DEFAULT);
+    }
+
+    DmdUdpServer(final Processing processing, final int port, final FrameLimits limits) {
+        this.processing = processing;
+        this.port = port;
+        this.limits = limits;
+    }
+
+    void start() {
+        running = true;
+        final Thread thread = new Thread(this, "dmd-udp");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    void stop() {
+        running = false;
+        final DatagramSocket datagramSocket = socket;
+        if (datagramSocket != null) {
+            datagramSocket.close();
+        }
+    }
+
+    /**
+     * Get the port being listened on, useful when started on port 0.
+     * @return the local port, or -1 if not listening.
+     */
+    int getLocalPort() {
+        final DatagramSocket datagramSocket = socket;
+        return datagramSocket != null ? datagramSocket.getLocalPort() : -1;
+    }
+
+    @Override
+    public void run() {
+        try {
+            final DatagramSocket datagramSocket = new DatagramSocket(null);
+            datagramSocket.setReuseAddress(true);
+            datagramSocket.bind(new InetSocketAddress(port));
+            socket = datagramSocket;
+            Timber.i("Starting the UDP Server on port: %s", datagramSocket.getLocalPort());
+            final DatagramPacket packet = new DatagramPacket(datagram, datagram.length);
+            while (running) {
+                packet.setLength(datagram.length);
+                datagramSocket.receive(packet);
+                onDatagram(packet.getLength(), System.currentTimeMillis());
+            }
+        } catch (SocketException e) {
+            if (running) {
+                Timber.e(e, "UDP Server socket failed");
+            }
+        } catch (IOException e) {
+            Timber.e(e, "UDP Server failed on port: %s", port);
+        } finally {
+            stop();
+            Timber.i("UDP Server stopped");
+        }
+    }
+
+    // Package private so it can be driven directly by tests.
+    void onDatagram(final int length, final long now) {
+        if (length < HEADER_SIZE) {
+            Timber.w("UDP datagram too short: %s(bytes)", length);
+            return;
+        }
+        final ByteBuffer header = ByteBuffer.wrap(datagram, 0, HEADER_SIZE).order(LITTLE_ENDIAN);
+        final int seq = header.getInt();
+        final int index = header.getShort() & 0xFFFF;
+        final int count = header.getShort() & 0xFFFF;
+        final int offset = header.getInt();
+        final int total = header.getInt();
+        final int sendTime = header.getInt();
+        final int dataLength = length - HEADER_SIZE;
+        if (count == 0 || index >= count || offset < 0 || dataLength > total - offset) {
+            Timber.w("UDP datagram header not valid, fragment %s of %s, offset: %s, length: %s",
+                    index, count, offset, total);
+            return;
+        }
+        if ((delivered || assembling || refused) &&
+            (now - lastDatagram >= RESTART_MILLIS || seq - sequence < -MAX_REORDER)) {
+            Timber.i("UDP sequence started again at %s", seq);
+            restart();
+        }
+        lastDatagram = now;
+        if (delivered && seq - lastDelivered <= 0) {
+            // Older than, or the same as, what has already been handled.
+            late.increment();
+            return;
+        }
+        if (refused && seq == sequence) {
+            return;
+        }
+        if (!assembling || seq - sequence > 0) {
+            if (assembling) {
+                // Never going to finish the one we were working on.
+                incomplete.increment();
+                dropped++;
+            }
+            if (!startMessage(seq, count, total)) {
+                return;
+            }
+        } else if (seq != sequence) {
+            // Part of a message older than the one being assembled.
+            late.increment();
+            return;
+        }
+        if (count != fragmentCount || total != messageLength || fragments[index]) {
+            // Either a repeat or doesn't agree with the other fragments.
+            return;
+        }
+        fragments[index] = true;
+        fragmentStarts[index] = offset;
+        fragmentEnds[index] = offset + dataLength;
+        fragmentsReceived++;
+        System.arraycopy(datagram, HEADER_SIZE, message, offset, dataLength);
+        if (fragmentsReceived == fragmentCount) {
+            assembling = false;
+            if (!fragmentsFillMessage()) {
+                Timber.w("UDP message %s has gaps or overlaps between its fragments", seq);
+                incomplete.increment();
+                dropped++;
+                return;
+            }
+            if (delivered && seq - lastDelivered > 1) {
+                // Only those never seen, the dropped ones have been counted already.
+                lost.add(Math.max(0, seq - lastDelivered - 1 - dropped));
+            }
+            dropped = 0;
+            delivered = true;
+            lastDelivered = seq;
+            received.increment();
+            latency.record(MILLISECONDS.toNanos((int) now - sendTime));
+            if (LOG_FRAMES) {
+                Timber.v("UDP message %s received", seq);
+            }
+            final long start = Tracer.begin();
+            messageBuffer.limit(messageLength).position(0);
+            final boolean duplicate = duplicates.isDuplicate(messageBuffer);
+            Tracer.end(Tracer.DEDUPE, start, null);
+            if (duplicate) {
+                processing.duplicateFrame();
+                Tracer.end(Tracer.RECEIVE, start, null);
+            } else {
+                final long parse = Tracer.begin();
+                final Frame frame = new Frame(messageBuffer, limits);
+                Tracer.end(Tracer.PARSE, parse, frame.getFrameType());
+                if (frame.getFrameType() == Frame.FrameType.INVALID) {
+                    duplicates.rejected();
+                }
+                try {
+                    processing.processFrame(frame);
+                } finally {
+                    frame.release();
+                    Tracer.end(Tracer.RECEIVE, start, frame.getFrameType());
+                }
+            }
+        }
+    }
+
+    // Package private for tests.
+    byte[] datagramBuffer() {
+        return datagram;
+    }
+
+    // Forget the old sequence, so nothing from a sender that started again is taken as late.
+    private void restart() {
+        delivered = false;
+        assembling = false;
+        refused = false;
+        dropped = 0;
+        duplicates.reset();
+    }
+
+    // Taken in index order, the fragments must each start where the one before ended.
+    private boolean fragmentsFillMessage() {
+        int end = 0;
+        for (int i = 0; i < fragmentCount; i++) {
+            if (fragmentStarts[i] != end) {
+                return false;
+            }
+            end = fragmentEnds[i];
+        }
+        return end == messageLength;
+    }
+
+    // Returns false if the message is too large to assemble.
+    private boolean startMessage(final int seq, final int count, final int total) {
+        sequence = seq;
+        // Checked before the message buffer is grown to fit it.
+        refused = !limits.messageFits(total);
+        assembling = !refused;
+        if (refused) {
+            dropped++;
+            return false;
+        }
+        fragmentCount = count;
+        fragmentsReceived = 0;
+        messageLength = total;
+        if (message.length < total) {
+            message = new byte[total];
+            messageBuffer = ByteBuffer.wrap(message).order(LITTLE_ENDIAN);
+        }
+        if (fragments.length < count) {
+            fragments = new boolean[count];
+            fragmentStarts = new int[count];
+            fragmentEnds = new int[count];
+        } else {
+            Arrays.fill(fragments, 0, count, false);
+        }
+        return true;
+    }
+}
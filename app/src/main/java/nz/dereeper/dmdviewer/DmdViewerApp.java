@@ -41,16 +41,32 @@ public class DmdViewerApp extends Application {
             Timber.plant(new Timber.DebugTree());
         } else {
             Timber.plant(new CrashCatcherTree());
+            final Thread.UncaughtExceptionHandler defaultHandler =
+                    Thread.getDefaultUncaughtExceptionHandler();
+            Thread.setDefaultUncaughtExceptionHandler(new Thread.UncaughtExceptionHandler() {
+                @Override
+                public void uncaughtException(@NonNull Thread thread, @NonNull Throwable t) {
+                    // Get the recent history into the system log before going down.
+                    Log.e("DMDViewer", "Uncaught exception, recent log entries:\n" +
+                            CrashCatcher.dump(), t);
+                    if (defaultHandler != null) {
+                        defaultHandler.uncaughtException(thread, t);
+                    }
+                }
+            });
         }
     }
 
     /** Catch any serious logs in released DMDViewer app. */
     private static class CrashCatcherTree extends Timber.Tree {
+        @Override
+        protected boolean isLoggable(String tag, int priority) {
+            // Checked before the message is formatted, so dropped logs cost next to nothing.
+            return priority != Log.VERBOSE && priority != Log.DEBUG;
+        }
+
         @Override
         protected void log(int priority, String tag, @NonNull String message, Throwable t) {
-            if (priority == Log.VERBOSE || priority == Log.DEBUG) {
-                return;
-            }
             CrashCatcher.log(priority, tag, message);
             if (t != null) {
                 if (priority == Log.ERROR) {
@@ -26,44 +26,103 @@
 package nz.dereeper.dmdviewer;
 
 import org.java_websocket.WebSocket;
+import org.java_websocket.drafts.Draft;
+import org.java_websocket.drafts.Draft_6455;
+import org.java_websocket.extensions.IExtension;
 import org.java_websocket.handshake.ClientHandshake;
 import org.java_websocket.server.WebSocketServer;
 
 import java.net.InetSocketAddress;
 import java.nio.ByteBuffer;
+import java.util.Collections;
 
 import timber.log.Timber;
 
 import static java.nio.ByteOrder.LITTLE_ENDIAN;
+import static nz.dereeper.dmdviewer.LogFlags.LOG_FRAMES;
 
 public class DmdWebSocketServer extends WebSocketServer {
 
     private final Processing processing;
+    private final FrameLimits limits;
+    private final DuplicateFilter duplicates = new DuplicateFilter();
 
     DmdWebSocketServer(final Processing processing, final int port) {
-        super(new InetSocketAddress(port));
+        this(processing, port, FrameLimits.DEFAULT);
+    }
+
+    DmdWebSocketServer(final Processing processing, final int port, final FrameLimits limits) {
+        // Messages over the limit are refused as they arrive, before they have been buffered.
+        super(new InetSocketAddress(port), Collections.<Draft>singletonList(
+                new Draft_6455(Collections.<IExtension>emptyList(), limits.getMaxMessageBytes())));
         this.processing = processing;
+        this.limits = limits;
     }
 
     @Override
     public void onMessage(final WebSocket webSocket, final ByteBuffer message) {
-        Timber.v("Binary message received from client");
-        processing.processFrame(new Frame(message.order(LITTLE_ENDIAN)));
+        final long start = Tracer.begin();
+        if (LOG_FRAMES) {
+            Timber.v("Binary message received from client");
+        }
+        final boolean duplicate = duplicates.isDuplicate(message.order(LITTLE_ENDIAN));
+        Tracer.end(Tracer.DEDUPE, start, null);
+        if (duplicate) {
+            processing.duplicateFrame();
+            Tracer.end(Tracer.RECEIVE, start, null);
+            return;
+        }
+        final long parse = Tracer.begin();
+        final Frame frame = new Frame(message, limits);
+        Tracer.end(Tracer.PARSE, parse, frame.getFrameType());
+        if (frame.getFrameType() == Frame.FrameType.INVALID) {
+            duplicates.rejected();
+        }
+        final LatencyProbe probe = webSocket.getAttachment();
+        if (probe != null) {
+            frame.setLatencyProbe(probe);
+            final String ping = probe.pingIfDue(LatencyProbe.now());
+            if (ping != null) {
+                webSocket.send(ping);
+            }
+        }
+        try {
+            processing.processFrame(frame);
+        } finally {
+            frame.release();
+            Tracer.end(Tracer.RECEIVE, start, frame.getFrameType());
+        }
     }
 
     @Override
     public void onMessage(final WebSocket webSocket, final String message) {
+        final LatencyProbe probe = webSocket.getAttachment();
+        if (message.startsWith(LatencyProbe.PONG) && probe != null) {
+            if (probe.onPong(message, LatencyProbe.now())) {
+                Timber.d("Latency estimate: %s", probe);
+            }
+            return;
+        }
         Timber.d("Text message: %s received from client", message);
     }
 
     @Override
     public void onOpen(final WebSocket webSocket, final ClientHandshake clientHandshake) {
         Timber.i("A new client connected");
+        duplicates.reset();
+        // Senders that don't answer pings are left alone apart from the occasional ping.
+        final InetSocketAddress address = webSocket.getRemoteSocketAddress();
+        webSocket.setAttachment(new LatencyProbe(
+                address.getAddress().getHostAddress() + ":" + address.getPort()));
     }
 
     @Override
     public void onClose(final WebSocket webSocket, final int i, final String s, final boolean b) {
         Timber.i("A client disconnected");
+        final LatencyProbe probe = webSocket.getAttachment();
+        if (probe != null) {
+            probe.close();
+        }
         processing.clientDisconnected();
     }
 
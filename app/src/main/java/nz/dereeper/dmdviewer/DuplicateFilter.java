@@ -0,0 +1,153 @@
+/*
+ * Copyright 2021 Mark de Reeper
+ *
+ *  Permission is hereby granted, free of charge, to any person
+ *  obtaining a copy of this software and associated documentation
+ *  files (the "Software"), to deal in the Software without
+ *  restriction, including without limitation the rights to use,
+ *  copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the
+ *  Software is furnished to do so, subject to the following
+ *  conditions:
+ *
+ *  The above copyright notice and this permission notice shall be
+ *  included in all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ *  EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ *  OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ *  NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ *  HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ *  WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ *  FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ *  OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package nz.dereeper.dmdviewer;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+
+/**
+ * Spots image messages that repeat the last image while they are still raw bytes, so a repeat
+ * never gets a {@link Frame} or a copy of its planes. Everything after the time stamp is hashed,
+ * which includes the palette of the coloured frame types, and compared with the hash of the last
+ * image that got through and was accepted. Only the last image is kept, whatever its type, as an
+ * image of another type in between has been drawn over it. Any other message lets the next image
+ * through, as a new palette or colour changes how the same planes look.
+ * <p>
+ * Two different messages only get mistaken for each other if they have the same length and the
+ * same 64 bit hash. Each receiver keeps its own.
+ */
+class DuplicateFilter {
+
+    private static final Charset ASCII = Charset.forName("US-ASCII");
+    // The image frames that have a time stamp, and the names they are sent with.
+    private static final byte[][] NAMES = {
+            name(Frame.FrameType.GRAY_2_PLANES), name(Frame.FrameType.GRAY_4_PLANES),
+            name(Frame.FrameType.COLORED_GRAY_2), name(Frame.FrameType.COLORED_GRAY_4),
+            name(Frame.FrameType.RGB24)
+    };
+    private static final int TIME_STAMP_BYTES = 4;
+    private static final Stats.Counter DUPLICATES = Stats.counter("duplicates");
+
+    // The last image let through, -1 if there is none to compare with.
+    private int lastType = -1;
+    private long lastHash;
+    private int lastLength;
+    // Whether the last message checked was an image that got through, so rejected() applies.
+    private boolean letThrough;
+
+    /**
+     * Check a message before it is parsed. The position of the message is left where it was.
+     * @param message the binary message, in little-endian order.
+     * @return true if the message repeats the last image and can be dropped.
+     */
+    synchronized boolean isDuplicate(final ByteBuffer message) {
+        int start = message.position();
+        final int limit = message.limit();
+        // Frame skips any nulls in front of the name, so the same is done here.
+        while (start < limit && message.get(start) == 0) {
+            start++;
+        }
+        final int type = imageType(message, start, limit);
+        letThrough = false;
+        if (type < 0) {
+            reset();
+            return false;
+        }
+        final int from = start + NAMES[type].length + 1 + TIME_STAMP_BYTES;
+        if (from > limit) {
+            reset();
+            return false;
+        }
+        final long hash = hash(message, from, limit);
+        final int length = limit - from;
+        if (lastType == type && lastHash == hash && lastLength == length) {
+            DUPLICATES.increment();
+            return true;
+        }
+        lastType = type;
+        lastHash = hash;
+        lastLength = length;
+        letThrough = true;
+        return false;
+    }
+
+    /**
+     * The last message let through was not accepted, such as when it could not be parsed or there
+     * was no room for it, so a resend of it is let through too.
+     */
+    synchronized void rejected() {
+        if (letThrough) {
+            lastType = -1;
+            letThrough = false;
+        }
+    }
+
+    /**
+     * Let the next image through, for when a sender connects or something about how images are
+     * shown changes.
+     */
+    synchronized void reset() {
+        lastType = -1;
+    }
+
+    // Which of NAMES the message starts with, followed by the null byte, or -1 if none of them.
+    private static int imageType(final ByteBuffer message, final int start, final int limit) {
+        for (int type = 0; type < NAMES.length; type++) {
+            final byte[] name = NAMES[type];
+            if (start + name.length < limit && message.get(start + name.length) == 0) {
+                int i = 0;
+                while (i < name.length && message.get(start + i) == name[i]) {
+                    i++;
+                }
+                if (i == name.length) {
+                    return type;
+                }
+            }
+        }
+        return -1;
+    }
+
+    // Hash eight bytes at a time straight from the buffer, in whatever order it is in.
+    static long hash(final ByteBuffer message, final int from, final int limit) {
+        long hash = 0x9E3779B97F4A7C15L;
+        int i = from;
+        for (; i + 8 <= limit; i += 8) {
+            final long word = message.getLong(i);
+            hash = Long.rotateLeft(hash ^ word * 0xC2B2AE3D27D4EB4FL, 31) * 0x9E3779B97F4A7C15L;
+        }
+        for (; i < limit; i++) {
+            hash = Long.rotateLeft(hash ^ (message.get(i) & 0xFFL) * 0xC2B2AE3D27D4EB4FL, 31) *
+                   0x9E3779B97F4A7C15L;
+        }
+        hash = (hash ^ (hash >>> 33)) * 0xFF51AFD7ED558CCDL;
+        hash = (hash ^ (hash >>> 33)) * 0xC4CEB9FE1A85EC53L;
+        return hash ^ (hash >>> 33);
+    }
+
+    private static byte[] name(final Frame.FrameType type) {
+        return type.toString().getBytes(ASCII);
+    }
+}
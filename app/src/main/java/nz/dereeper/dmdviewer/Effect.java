@@ -0,0 +1,62 @@
+/*
+ * Copyright 2021 Mark de Reeper
+ *
+ *  Permission is hereby granted, free of charge, to any person
+ *  obtaining a copy of this software and associated documentation
+ *  files (the "Software"), to deal in the Software without
+ *  restriction, including without limitation the rights to use,
+ *  copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the
+ *  Software is furnished to do so, subject to the following
+ *  conditions:
+ *
+ *  The above copyright notice and this permission notice shall be
+ *  included in all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ *  EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ *  OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ *  NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ *  HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ *  WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ *  FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ *  OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package nz.dereeper.dmdviewer;
+
+/**
+ * A post-processing effect that is applied to the raw image after it has been rasterised.
+ */
+interface Effect {
+
+    /**
+     * The name used when reporting the cost of this effect.
+     * @return the name of the effect.
+     */
+    String getName();
+
+    /**
+     * Apply the effect to the changed part of an image. Effects keep their own output between
+     * frames so only the region affected by the change needs to be recalculated.
+     * @param source the image to apply the effect to, not modified.
+     * @param width the width of the image.
+     * @param height the height of the image.
+     * @param dirty on entry the region of the source that changed, on exit the region of the
+     *              output that changed.
+     * @return the output of the effect, owned by the effect and valid until the next call.
+     */
+    int[] apply(int[] source, int width, int height, DirtyRegion dirty);
+
+    /**
+     * Return true if the output will keep changing without the source changing, such as while
+     * something fades out, so the effect needs applying again.
+     * @return true if the effect is still animating.
+     */
+    boolean isAnimating();
+
+    /**
+     * Drop any state held by the effect, such as output buffers.
+     */
+    void reset();
+}
@@ -0,0 +1,78 @@
+/*
+ * Copyright 2021 Mark de Reeper
+ *
+ *  Permission is hereby granted, free of charge, to any person
+ *  obtaining a copy of this software and associated documentation
+ *  files (the "Software"), to deal in the Software without
+ *  restriction, including without limitation the rights to use,
+ *  copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the
+ *  Software is furnished to do so, subject to the following
+ *  conditions:
+ *
+ *  The above copyright notice and this permission notice shall be
+ *  included in all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ *  EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ *  OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ *  NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ *  HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ *  WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ *  FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ *  OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package nz.dereeper.dmdviewer;
+
+/**
+ * {@link Metadata} for drawing with one {@link RenderState} and {@link Rasteriser}, for anything
+ * that draws frames away from the display, with a rasteriser of its own.
+ */
+class FixedMetadata implements Metadata {
+
+    private final Dmd dmd;
+    private final RenderState state;
+    private final Rasteriser rasteriser;
+
+    /**
+     * @param dmd how the pixels are drawn.
+     * @param state the state to draw with, which also gives the dimensions.
+     * @param rasteriser the rasteriser to draw with.
+     */
+    FixedMetadata(final Dmd dmd, final RenderState state, final Rasteriser rasteriser) {
+        this.dmd = dmd;
+        this.state = state;
+        this.rasteriser = rasteriser;
+    }
+
+    /**
+     * Check whether this can be used again, rather than making a new one for every frame.
+     * @param state the state the next frame is drawn with.
+     * @param rasteriser the rasteriser the next frame is drawn with.
+     * @return true if this is for the same state and rasteriser.
+     */
+    boolean isFor(final RenderState state, final Rasteriser rasteriser) {
+        return this.state == state && this.rasteriser == rasteriser;
+    }
+
+    @Override
+    public Dmd getDmd() {
+        return dmd;
+    }
+
+    @Override
+    public Dimensions getDimensions() {
+        return state.dimensions;
+    }
+
+    @Override
+    public float[] getHsl() {
+        return state.getHsl();
+    }
+
+    @Override
+    public Rasteriser getRasteriser() {
+        return rasteriser;
+    }
+}
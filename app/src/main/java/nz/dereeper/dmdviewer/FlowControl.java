@@ -0,0 +1,169 @@
+/*
+ * Copyright 2021 Mark de Reeper
+ *
+ *  Permission is hereby granted, free of charge, to any person
+ *  obtaining a copy of this software and associated documentation
+ *  files (the "Software"), to deal in the Software without
+ *  restriction, including without limitation the rights to use,
+ *  copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the
+ *  Software is furnished to do so, subject to the following
+ *  conditions:
+ *
+ *  The above copyright notice and this permission notice shall be
+ *  included in all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ *  EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ *  OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ *  NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ *  HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ *  WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ *  FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ *  OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package nz.dereeper.dmdviewer;
+
+import java.util.Locale;
+
+import timber.log.Timber;
+
+import static java.util.concurrent.TimeUnit.SECONDS;
+
+/**
+ * Works out when the viewer can't keep up and tells the sender to slow down, so frames are not
+ * left queueing in the socket buffers adding lag. Once a second it looks at how much of the time
+ * was spent rendering and how many frames were replaced before the screen showed them. If either
+ * is too high the sender is asked for fewer frames with {@code "max <n> fps"}, and if rendering
+ * never stopped, so frames must be backing up, it is also asked to {@code "pause frames <ms>"}
+ * while the backlog clears. The pause runs out by itself so a lost hint can't stop the display.
+ * When things have been quiet for a while the limit is raised again, {@code "max 0 fps"} means
+ * no limit.
+ */
+class FlowControl {
+
+    /**
+     * Where to send the hints, usually every connected sender.
+     */
+    interface Sender {
+        void sendHint(String hint);
+    }
+
+    static final String MAX = "max";
+    static final String PAUSE = "pause";
+    static final int PAUSE_MILLIS = 500;
+    private static final long WINDOW_NANOS = SECONDS.toNanos(1);
+    // Fraction of the time spent rendering above which frames are likely to start queueing.
+    private static final double BUSY = 0.8;
+    // Fraction of the time spent rendering that means frames are already queued up.
+    private static final double BACKLOG = 0.98;
+    // Fraction of the time spent rendering below which the limit can be raised.
+    private static final double RELAXED = 0.4;
+    private static final int RELAXED_WINDOWS = 3;
+    // How much of what could be managed to ask for, leaving room for the odd slow frame.
+    private static final double HEADROOM = 0.7;
+    private static final int MIN_FPS = 5;
+    // Raising the limit past this is the same as no limit.
+    private static final int MAX_FPS = 60;
+
+    private final Sender sender;
+    private final Stats.Counter hints = Stats.counter("flowHints");
+    private final Stats.Counter dropped = Stats.counter("framesDropped");
+    private long windowStart = -1;
+    private int windowRendered;
+    private int windowDropped;
+    private long windowBusyNanos;
+    private int maxFps;
+    private int relaxedWindows;
+
+    FlowControl(final Sender sender) {
+        this.sender = sender;
+    }
+
+    /**
+     * A rendered frame replaced one that had not been shown yet.
+     */
+    synchronized void onDropped() {
+        windowDropped++;
+        dropped.increment();
+    }
+
+    /**
+     * A frame has been rendered.
+     * @param nowNanos when rendering finished.
+     * @param renderNanos how long rendering took.
+     */
+    synchronized void onRendered(final long nowNanos, final long renderNanos) {
+        if (windowStart < 0) {
+            windowStart = nowNanos - renderNanos;
+        }
+        windowRendered++;
+        windowBusyNanos += renderNanos;
+        final long elapsed = nowNanos - windowStart;
+        if (elapsed >= WINDOW_NANOS) {
+            evaluate(elapsed);
+            windowStart = nowNanos;
+            windowRendered = 0;
+            windowDropped = 0;
+            windowBusyNanos = 0;
+        }
+    }
+
+    /**
+     * Forget any limit, the sender it was for has gone.
+     */
+    synchronized void reset() {
+        windowStart = -1;
+        windowRendered = 0;
+        windowDropped = 0;
+        windowBusyNanos = 0;
+        maxFps = 0;
+        relaxedWindows = 0;
+    }
+
+    /**
+     * The limit the sender was last asked for.
+     * @return the frames per second, or 0 for no limit.
+     */
+    synchronized int getMaxFps() {
+        return maxFps;
+    }
+
+    private void evaluate(final long elapsedNanos) {
+        final double busy = (double) windowBusyNanos / elapsedNanos;
+        final double rate = windowRendered * (double) WINDOW_NANOS / elapsedNanos;
+        final boolean dropping = windowDropped * 10 > windowRendered;
+        if (busy >= BACKLOG) {
+            send(PAUSE + " frames " + PAUSE_MILLIS);
+        }
+        if (busy > BUSY || dropping) {
+            relaxedWindows = 0;
+            final double capacity = windowBusyNanos > 0 ?
+                    windowRendered * (double) WINDOW_NANOS / windowBusyNanos : rate;
+            final int target = Math.max(MIN_FPS, (int) (Math.min(capacity, rate) * HEADROOM));
+            if (maxFps == 0 || target < maxFps) {
+                setMaxFps(target);
+            }
+        } else if (maxFps > 0 && busy < RELAXED && windowDropped == 0) {
+            if (++relaxedWindows >= RELAXED_WINDOWS) {
+                relaxedWindows = 0;
+                final int raised = maxFps * 3 / 2;
+                setMaxFps(raised >= MAX_FPS ? 0 : raised);
+            }
+        } else {
+            relaxedWindows = 0;
+        }
+    }
+
+    private void setMaxFps(final int fps) {
+        maxFps = fps;
+        send(String.format(Locale.ROOT, "%s %d fps", MAX, fps));
+    }
+
+    private void send(final String hint) {
+        Timber.i("Flow control hint: %s", hint);
+        hints.increment();
+        sender.sendHint(hint);
+    }
+}
@@ -43,8 +43,13 @@ class Frame {
     private Dimensions dimensions;
     private String gameName;
     private int timeStamp;
+    private LatencyProbe latencyProbe;
     private int colour;
     private int[] palette;
+    private final FrameLimits limits;
+    // Bytes taken from the limits' budget, and how many holders need to release the frame.
+    private int reserved;
+    private int references = 1;
 
     public enum FrameType {
         COLORED_GRAY_4("coloredGray4"),
@@ -62,6 +67,9 @@ class Frame {
         // For the case where we have a known type but the data is not as expected.
         INVALID("invalid");
 
+        // values() copies the array every time, keep one copy for parsing each message.
+        private static final FrameType[] TYPES = values();
+
         private final String type;
 
         FrameType(String type) {
@@ -70,7 +78,7 @@ class Frame {
 
         public static FrameType getEnum(final String type) {
             if (!type.isEmpty()) {
-                for (FrameType frameType : FrameType.values()) {
+                for (FrameType frameType : TYPES) {
                     if (frameType.type.equals(type)) {
                         return frameType;
                     }
@@ -92,6 +100,21 @@ class Frame {
      * @param data the binary message from dmdext.
      */
     Frame(ByteBuffer data) {
+        this(data, FrameLimits.DEFAULT);
+    }
+
+    /**
+     * Create a {@link Frame} from a dmdext binary WS message, a message that breaks the limits
+     * becomes an INVALID frame without anything being allocated for it.
+     * @param data the binary message from dmdext.
+     * @param limits what the message is allowed to allocate.
+     */
+    Frame(ByteBuffer data, FrameLimits limits) {
+        this.limits = limits;
+        if (!limits.messageFits(data.remaining())) {
+            frameType = INVALID;
+            return;
+        }
         frameType = getEnum(stringFromData(data, true));
         if (!frameType.equals(UNKNOWN)) {
             deserialize(data);
@@ -103,6 +126,7 @@ class Frame {
      * @param bgrData the pre-defined set of BGR data.
      */
     Frame(byte[] bgrData) {
+        this.limits = FrameLimits.DEFAULT;
         this.frameType = FrameType.RGB24;
         this.planes = bgrData;
         this.timeStamp = 0;
@@ -124,6 +148,18 @@ class Frame {
         return timeStamp;
     }
 
+    /**
+     * The probe for the connection the frame arrived on, if its latency can be measured.
+     * @return the {@link LatencyProbe} or null.
+     */
+    LatencyProbe getLatencyProbe() {
+        return latencyProbe;
+    }
+
+    void setLatencyProbe(final LatencyProbe latencyProbe) {
+        this.latencyProbe = latencyProbe;
+    }
+
     int getColour() {
         return colour;
     }
@@ -132,10 +168,33 @@ class Frame {
         return planes;
     }
 
+    /**
+     * The palette of a PALETTE or coloured frame, shared with other frames with the same colours.
+     * @return the palette, which must not be changed.
+     */
     int[] getPalette() {
         return palette;
     }
 
+    /**
+     * Keep hold of the frame after the call it was handed to returns, such as to draw it on
+     * another thread. Each retain needs its own {@link #release()}.
+     */
+    synchronized void retain() {
+        references++;
+    }
+
+    /**
+     * Finished with the frame. Once every holder has released it the bytes it took from the
+     * {@link FrameLimits} budget are given back, the frame can still be read afterwards.
+     */
+    synchronized void release() {
+        if (references > 0 && --references == 0 && reserved > 0) {
+            limits.release(reserved);
+            reserved = 0;
+        }
+    }
+
     // Attempt to construct the additional data based on the type of frame we are
     private void deserialize(ByteBuffer frameData) {
         final int remainingFrameData = frameData.remaining();
@@ -145,29 +204,44 @@ class Frame {
                     gameName = stringFromData(frameData, false);
                     break;
                 case DIMENSIONS:
-                    dimensions = new Dimensions(frameData.getInt(), frameData.getInt());
+                    final int width = frameData.getInt();
+                    final int height = frameData.getInt();
+                    if (limits.dimensionsFit(width, height)) {
+                        dimensions = new Dimensions(width, height);
+                    } else {
+                        frameType = INVALID;
+                    }
                     break;
                 case COLORED_GRAY_2:
                 case COLORED_GRAY_4:
                     timeStamp = frameData.getInt();
                     palette = paletteFromData(frameData);
-                    // The remainder of the data contains the planes.
-                    planes = new byte[frameData.remaining()];
-                    frameData.get(planes);
+                    if (palette != null) {
+                        // The remainder of the data contains the planes.
+                        planes = planesFromData(frameData);
+                    }
+                    if (planes == null) {
+                        frameType = INVALID;
+                    }
                     break;
                 case RGB24:
                 case GRAY_2_PLANES:
                 case GRAY_4_PLANES:
                     timeStamp = frameData.getInt();
                     // The remainder of the data contains the planes.
-                    planes = new byte[frameData.remaining()];
-                    frameData.get(planes);
+                    planes = planesFromData(frameData);
+                    if (planes == null) {
+                        frameType = INVALID;
+                    }
                     break;
                 case COLOUR:
                     colour = frameData.getInt();
                     break;
                 case PALETTE:
                     palette = paletteFromData(frameData);
+                    if (palette == null) {
+                        frameType = INVALID;
+                    }
                     break;
             }
         } catch (BufferUnderflowException e) {
@@ -205,11 +279,21 @@ class Frame {
     }
 
     private int[] paletteFromData(final ByteBuffer data) {
-        // First int is how many palette items to expect
-        int[] palette = new int[data.getInt()];
-        for (int i = 0; i < palette.length; i++) {
-            palette[i] = data.getInt();
+        // First int is how many palette items to expect, the same colours get the same array.
+        if (data.remaining() >= 4 && !limits.paletteFits(data.getInt(data.position()))) {
+            return null;
         }
-        return palette;
+        return Palettes.read(data);
+    }
+
+    private byte[] planesFromData(final ByteBuffer data) {
+        final int length = data.remaining();
+        if (!limits.reserve(length)) {
+            return null;
+        }
+        reserved = length;
+        final byte[] planes = new byte[length];
+        data.get(planes);
+        return planes;
     }
 }
@@ -0,0 +1,222 @@
+/*
+ * Copyright 2021 Mark de Reeper
+ *
+ *  Permission is hereby granted, free of charge, to any person
+ *  obtaining a copy of this software and associated documentation
+ *  files (the "Software"), to deal in the Software without
+ *  restriction, including without limitation the rights to use,
+ *  copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the
+ *  Software is furnished to do so, subject to the following
+ *  conditions:
+ *
+ *  The above copyright notice and this permission notice shall be
+ *  included in all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ *  EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ *  OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ *  NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ *  HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ *  WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ *  FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ *  OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package nz.dereeper.dmdviewer;
+
+import android.graphics.Bitmap;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.IntBuffer;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import timber.log.Timber;
+
+import static android.graphics.Bitmap.createBitmap;
+
+/**
+ * Encodes rendered frames as JPEGs on a background thread so they can be shared with any number
+ * of network viewers. Each frame is encoded at most once and the same encoded bytes are handed to
+ * every viewer. Only the latest offered frame is kept, if encoding falls behind the older frames
+ * are skipped, so offering a frame never waits on the encoder.
+ */
+class FrameEncoder implements Runnable {
+
+    private static final int JPEG_QUALITY = 90;
+
+    /**
+     * A single encoded frame, shared between all viewers so must not be modified.
+     */
+    static class EncodedFrame {
+        final byte[] jpeg;
+        final long sequence;
+
+        private EncodedFrame(final byte[] jpeg, final long sequence) {
+            this.jpeg = jpeg;
+            this.sequence = sequence;
+        }
+    }
+
+    private final Object pendingLock = new Object();
+    private final Object encodedLock = new Object();
+    private final AtomicInteger viewers = new AtomicInteger();
+    private final Stats.Timer encodeTimer = Stats.timer("jpeg");
+    private final Stats.Counter skipped = Stats.counter("jpegSkipped");
+    private int[] pending = new int[0];
+    private int pendingWidth;
+    private int pendingHeight;
+    private boolean pendingAbgr;
+    private boolean hasPending;
+    private volatile boolean running;
+    private EncodedFrame latest;
+    private long sequence;
+    private volatile Thread thread;
+
+    /**
+     * Start the background encoding thread.
+     */
+    synchronized void start() {
+        if (thread == null) {
+            synchronized (pendingLock) {
+                running = true;
+            }
+            thread = new Thread(this, "dmd-frame-encoder");
+            thread.setDaemon(true);
+            thread.start();
+        }
+    }
+
+    /**
+     * Stop the background encoding thread, any waiting viewers are woken up.
+     */
+    synchronized void stop() {
+        if (thread != null) {
+            synchronized (pendingLock) {
+                running = false;
+                pendingLock.notifyAll();
+            }
+            synchronized (encodedLock) {
+                encodedLock.notifyAll();
+            }
+            thread = null;
+        }
+    }
+
+    /**
+     * Offer a newly rendered frame for encoding. This only copies the pixels, and does nothing at
+     * all if there is no one watching.
+     * @param target the {@link RenderTarget} holding the frame.
+     */
+    void offer(final RenderTarget target) {
+        if (viewers.get() == 0) {
+            return;
+        }
+        synchronized (pendingLock) {
+            if (hasPending) {
+                // The encoder has not got to the last frame yet, it will now never see it.
+                skipped.increment();
+            }
+            final int area = target.getWidth() * target.getHeight();
+            if (pending.length != area) {
+                pending = new int[area];
+            }
+            System.arraycopy(target.pixels, 0, pending, 0, area);
+            pendingWidth = target.getWidth();
+            pendingHeight = target.getHeight();
+            pendingAbgr = target.isAbgr();
+            hasPending = true;
+            pendingLock.notifyAll();
+        }
+    }
+
+    void addViewer() {
+        viewers.incrementAndGet();
+    }
+
+    void removeViewer() {
+        viewers.decrementAndGet();
+    }
+
+    /**
+     * Wait for a frame newer than the given sequence number to be encoded.
+     * @param afterSequence the sequence number of the last frame seen, or -1 for none.
+     * @param timeoutMillis the most time to wait.
+     * @return the newer frame, or null if there wasn't one in time or the encoder was stopped.
+     * @throws InterruptedException if the waiting thread was interrupted.
+     */
+    EncodedFrame awaitFrame(final long afterSequence, final long timeoutMillis)
+            throws InterruptedException {
+        final long deadline = System.currentTimeMillis() + timeoutMillis;
+        synchronized (encodedLock) {
+            while (latest == null || latest.sequence <= afterSequence) {
+                final long remaining = deadline - System.currentTimeMillis();
+                if (remaining <= 0 || !running) {
+                    return null;
+                }
+                encodedLock.wait(remaining);
+            }
+            return latest;
+        }
+    }
+
+    @Override
+    public void run() {
+        final Thread self = Thread.currentThread();
+        final ByteArrayOutputStream jpegStream = new ByteArrayOutputStream(32 * 1024);
+        Bitmap bitmap = null;
+        int[] working = new int[0];
+        while (true) {
+            final int width;
+            final int height;
+            final boolean abgr;
+            synchronized (pendingLock) {
+                while (running && thread == self && !hasPending) {
+                    try {
+                        pendingLock.wait();
+                    } catch (InterruptedException e) {
+                        Timber.w(e, "Frame encoder interrupted");
+                        break;
+                    }
+                }
+                if (!running || thread != self || !hasPending) {
+                    // Stopped, or stopped and restarted with a new thread.
+                    break;
+                }
+                // Swap buffers so the next frame can be offered while this one is encoded.
+                final int[] frame = pending;
+                pending = working;
+                working = frame;
+                width = pendingWidth;
+                height = pendingHeight;
+                abgr = pendingAbgr;
+                hasPending = false;
+            }
+            final long start = System.nanoTime();
+            if (bitmap == null || bitmap.getWidth() != width || bitmap.getHeight() != height) {
+                if (bitmap != null) {
+                    bitmap.recycle();
+                }
+                bitmap = createBitmap(width, height, Bitmap.Config.ARGB_8888);
+            }
+            if (abgr) {
+                // Already in the bitmap's own byte order.
+                bitmap.copyPixelsFromBuffer(IntBuffer.wrap(working, 0, width * height));
+            } else {
+                bitmap.setPixels(working, 0, width, 0, 0, width, height);
+            }
+            jpegStream.reset();
+            bitmap.compress(Bitmap.CompressFormat.JPEG, JPEG_QUALITY, jpegStream);
+            final byte[] jpeg = jpegStream.toByteArray();
+            encodeTimer.record(System.nanoTime() - start);
+            synchronized (encodedLock) {
+                latest = new EncodedFrame(jpeg, sequence++);
+                encodedLock.notifyAll();
+            }
+        }
+        if (bitmap != null) {
+            bitmap.recycle();
+        }
+        Timber.i("Frame encoder stopped");
+    }
+}
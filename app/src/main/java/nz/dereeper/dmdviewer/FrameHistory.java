@@ -0,0 +1,194 @@
+/*
+ * Copyright 2021 Mark de Reeper
+ *
+ *  Permission is hereby granted, free of charge, to any person
+ *  obtaining a copy of this software and associated documentation
+ *  files (the "Software"), to deal in the Software without
+ *  restriction, including without limitation the rights to use,
+ *  copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the
+ *  Software is furnished to do so, subject to the following
+ *  conditions:
+ *
+ *  The above copyright notice and this permission notice shall be
+ *  included in all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ *  EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ *  OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ *  NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ *  HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ *  WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ *  FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ *  OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package nz.dereeper.dmdviewer;
+
+/**
+ * The last few seconds of frames, kept as they arrived so a moment such as a jackpot animation
+ * can be saved afterwards. Frames are kept as their planes and the palette they were drawn with,
+ * both already made for the frame so keeping them copies nothing, rather than as drawn pixels
+ * which would take far more room. A frame that repeats is shown until the next different frame,
+ * so repeats never make a new entry.
+ * <p>
+ * The ring is allocated once and recording a frame only stores a few references, so it is cheap
+ * enough for the render thread. The oldest frames are dropped once there are {@link #CAPACITY}
+ * of them, or their planes take more than the given number of bytes.
+ */
+class FrameHistory {
+
+    // Around 17 seconds at 60 frames a second.
+    static final int CAPACITY = 1024;
+
+    private final long maxBytes;
+    private final long[] starts = new long[CAPACITY];
+    private final Frame.FrameType[] types = new Frame.FrameType[CAPACITY];
+    private final Dimensions[] dimensions = new Dimensions[CAPACITY];
+    private final byte[][] planes = new byte[CAPACITY][];
+    private final int[][] colours = new int[CAPACITY][];
+    private int first;
+    private int count;
+    private long bytes;
+
+    /**
+     * A copy of part of the history, for encoding away from the render thread.
+     */
+    static class Replay {
+        final Dimensions dimensions;
+        final Frame.FrameType[] types;
+        final byte[][] planes;
+        final int[][] colours;
+        /** When each frame was first shown, in nanoseconds. */
+        final long[] starts;
+        /** When the last frame stopped being shown, in nanoseconds. */
+        final long end;
+
+        private Replay(final Dimensions dimensions, final int size, final long end) {
+            this.dimensions = dimensions;
+            types = new Frame.FrameType[size];
+            planes = new byte[size][];
+            colours = new int[size][];
+            starts = new long[size];
+            this.end = end;
+        }
+
+        int size() {
+            return starts.length;
+        }
+    }
+
+    /**
+     * @param maxBytes the most bytes the kept planes can take together.
+     */
+    FrameHistory(final long maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * Keep a frame that is about to be drawn.
+     * @param frame the image frame.
+     * @param state the state it is drawn with.
+     * @param colourised the colourisation palette it is drawn with, or null.
+     * @param now when it was drawn, from {@link System#nanoTime()}.
+     */
+    synchronized void record(final Frame frame,
+                             final RenderState state,
+                             final int[] colourised,
+                             final long now) {
+        final byte[] framePlanes = frame.getPlanes();
+        if (framePlanes == null) {
+            return;
+        }
+        while (count > 0 && (count == CAPACITY || bytes + framePlanes.length > maxBytes)) {
+            dropOldest();
+        }
+        final int i = (first + count) % CAPACITY;
+        starts[i] = now;
+        types[i] = frame.getFrameType();
+        dimensions[i] = state.dimensions;
+        planes[i] = framePlanes;
+        colours[i] = colourised != null ? colourised : coloursFor(frame, state);
+        bytes += framePlanes.length;
+        count++;
+    }
+
+    /**
+     * Copy the frames shown in the last part of the history. Only frames the same size as the
+     * latest one are included.
+     * @param windowNanos how far back to go.
+     * @param now the end of the window, from {@link System#nanoTime()}.
+     * @return the frames, or null if there are none.
+     */
+    synchronized Replay replay(final long windowNanos, final long now) {
+        if (count == 0) {
+            return null;
+        }
+        final Dimensions size = dimensions[(first + count - 1) % CAPACITY];
+        final long from = now - windowNanos;
+        // The first frame is the one that was showing when the window starts.
+        int start = count - 1;
+        while (start > 0 && starts[(first + start) % CAPACITY] > from) {
+            start--;
+        }
+        int included = 0;
+        for (int e = start; e < count; e++) {
+            if (size.equals(dimensions[(first + e) % CAPACITY])) {
+                included++;
+            }
+        }
+        final Replay replay = new Replay(size, included, now);
+        int r = 0;
+        for (int e = start; e < count; e++) {
+            final int i = (first + e) % CAPACITY;
+            if (size.equals(dimensions[i])) {
+                replay.types[r] = types[i];
+                replay.planes[r] = planes[i];
+                replay.colours[r] = colours[i];
+                replay.starts[r] = Math.max(starts[i], from);
+                r++;
+            }
+        }
+        return replay;
+    }
+
+    /**
+     * Let go of every frame, such as when going idle.
+     */
+    synchronized void clear() {
+        while (count > 0) {
+            dropOldest();
+        }
+    }
+
+    synchronized int size() {
+        return count;
+    }
+
+    // The palette the rasteriser uses for the frame, see ImageUtils.
+    private static int[] coloursFor(final Frame frame, final RenderState state) {
+        switch (frame.getFrameType()) {
+            case GRAY_2_PLANES:
+            case GRAY_4_PLANES:
+                final int bitLength = frame.getFrameType() == Frame.FrameType.GRAY_2_PLANES ? 2 : 4;
+                if (state.palette != null && state.palette.length == bitLength * 4) {
+                    return state.palette;
+                }
+                return state.getShades(bitLength);
+            case COLORED_GRAY_2:
+            case COLORED_GRAY_4:
+                return frame.getPalette();
+            default:
+                return null;
+        }
+    }
+
+    private void dropOldest() {
+        bytes -= planes[first].length;
+        planes[first] = null;
+        colours[first] = null;
+        dimensions[first] = null;
+        first = (first + 1) % CAPACITY;
+        count--;
+    }
+}
@@ -0,0 +1,142 @@
+/*
+ * Copyright 2021 Mark de Reeper
+ *
+ *  Permission is hereby granted, free of charge, to any person
+ *  obtaining a copy of this software and associated documentation
+ *  files (the "Software"), to deal in the Software without
+ *  restriction, including without limitation the rights to use,
+ *  copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the
+ *  Software is furnished to do so, subject to the following
+ *  conditions:
+ *
+ *  The above copyright notice and this permission notice shall be
+ *  included in all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ *  EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ *  OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ *  NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ *  HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ *  WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ *  FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ *  OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package nz.dereeper.dmdviewer;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import timber.log.Timber;
+
+/**
+ * Limits on what a sender can make the viewer allocate, checked while a message is parsed and
+ * before anything is allocated for it. A message that breaks a limit becomes an INVALID frame.
+ * <p>
+ * As well as limits on each message there can be a budget for the bytes held by frames that have
+ * been parsed but not yet finished with, shared by everything receiving frames. Frames take from
+ * the budget when they are parsed and give it back when released, see {@link Frame#release()}.
+ */
+class FrameLimits {
+
+    static final int MAX_MESSAGE_BYTES = 512 * 1024;
+    // The rasteriser's colour tables have room for 256 colours.
+    static final int MAX_PALETTE_COLOURS = 256;
+    static final int MAX_WIDTH = 512;
+    static final int MAX_HEIGHT = 256;
+    /** Big enough for any frame, but no budget for frames in flight. */
+    static final FrameLimits DEFAULT = new FrameLimits(MAX_MESSAGE_BYTES, MAX_PALETTE_COLOURS,
+            MAX_WIDTH, MAX_HEIGHT, 0);
+
+    private static final Stats.Counter REJECTED = Stats.counter("framesRejected");
+
+    private final int maxMessageBytes;
+    private final int maxPaletteColours;
+    private final int maxWidth;
+    private final int maxHeight;
+    private final long budget;
+    private final AtomicLong inFlight = new AtomicLong();
+
+    /**
+     * @param maxMessageBytes the largest message accepted.
+     * @param maxPaletteColours the most colours in a palette.
+     * @param maxWidth the widest display accepted.
+     * @param maxHeight the tallest display accepted.
+     * @param budget the most bytes frames in flight can hold together, 0 for no limit.
+     */
+    FrameLimits(final int maxMessageBytes,
+                final int maxPaletteColours,
+                final int maxWidth,
+                final int maxHeight,
+                final long budget) {
+        this.maxMessageBytes = maxMessageBytes;
+        this.maxPaletteColours = maxPaletteColours;
+        this.maxWidth = maxWidth;
+        this.maxHeight = maxHeight;
+        this.budget = budget;
+    }
+
+    int getMaxMessageBytes() {
+        return maxMessageBytes;
+    }
+
+    // Anything about the message is only formatted once it has been rejected, so accepting a
+    // message allocates nothing.
+
+    boolean messageFits(final int bytes) {
+        return bytes <= maxMessageBytes || reject("Message of %s(bytes) is too large", bytes);
+    }
+
+    boolean paletteFits(final int colours) {
+        return colours <= maxPaletteColours ||
+               reject("Palette of %s colours is too large", colours);
+    }
+
+    boolean dimensionsFit(final int width, final int height) {
+        return width > 0 && height > 0 && width <= maxWidth && height <= maxHeight ||
+               reject("Dimensions of %s are not allowed", width + "x" + height);
+    }
+
+    /**
+     * Take bytes from the budget for a frame.
+     * @param bytes the number of bytes the frame needs.
+     * @return true if they fit, false if the frame should be dropped.
+     */
+    boolean reserve(final int bytes) {
+        if (budget <= 0) {
+            return true;
+        }
+        long current;
+        do {
+            current = inFlight.get();
+            if (current + bytes > budget) {
+                return reject("No room for a frame of %s(bytes)", bytes);
+            }
+        } while (!inFlight.compareAndSet(current, current + bytes));
+        return true;
+    }
+
+    /**
+     * Give back bytes taken by {@link #reserve(int)}.
+     * @param bytes the number of bytes reserved.
+     */
+    void release(final int bytes) {
+        if (budget > 0) {
+            inFlight.addAndGet(-bytes);
+        }
+    }
+
+    /**
+     * The bytes held by frames in flight, only counted when there is a budget.
+     * @return the number of bytes.
+     */
+    long getInFlight() {
+        return inFlight.get();
+    }
+
+    private static boolean reject(final String message, final Object value) {
+        REJECTED.increment();
+        Timber.w(message, value);
+        return false;
+    }
+}
@@ -0,0 +1,222 @@
+/*
+ * Copyright 2021 Mark de Reeper
+ *
+ *  Permission is hereby granted, free of charge, to any person
+ *  obtaining a copy of this software and associated documentation
+ *  files (the "Software"), to deal in the Software without
+ *  restriction, including without limitation the rights to use,
+ *  copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the
+ *  Software is furnished to do so, subject to the following
+ *  conditions:
+ *
+ *  The above copyright notice and this permission notice shall be
+ *  included in all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ *  EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ *  OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ *  NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ *  HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ *  WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ *  FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ *  OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package nz.dereeper.dmdviewer;
+
+import java.util.Arrays;
+
+import timber.log.Timber;
+
+import static nz.dereeper.dmdviewer.LogFlags.LOG_FRAMES;
+
+/**
+ * Handles each parsed frame the way the display does, whatever draws it. Image frames that differ
+ * from the last one drawn are handed to the {@link Renderer} with the {@link RenderState} of the
+ * moment, control frames update that state. The activity and the soak harness both use this, so
+ * the harness measures the same path.
+ */
+class FrameProcessor {
+
+    /**
+     * Draws what the frames describe.
+     */
+    interface Renderer {
+        /**
+         * Draw an image frame, called holding the render lock.
+         * @param frame the image frame.
+         * @param state the state to draw it with.
+         * @return true if an image was drawn.
+         */
+        boolean renderFrame(Frame frame, RenderState state);
+
+        /**
+         * The display has changed size, called holding the render lock after the new size has
+         * been published.
+         * @param state the state with the new size, any state with an earlier version is for an
+         *              old size.
+         */
+        void resize(RenderState state);
+
+        /**
+         * The sender has said which game is running.
+         * @param gameName the game's name.
+         */
+        void gameName(String gameName);
+    }
+
+    private final int defaultColour;
+    private final IdleDetector idleDetector;
+    private final Object renderLock;
+    private final Renderer renderer;
+    // Replaced as a whole by control frames, each frame is drawn with the one it started with.
+    private volatile RenderState renderState;
+    // Control frames can come from more than one receiver, so they make their changes in turn.
+    private final Object stateLock = new Object();
+    private Frame previousFrame;
+
+    /**
+     * Create a frame processor.
+     * @param defaultColour the colour to draw with until told otherwise.
+     * @param idleDetector told about the traffic and the changes.
+     * @param renderLock held while drawing and while changing size, so neither sees half of the
+     *                   other.
+     * @param renderer draws the frames.
+     */
+    FrameProcessor(final int defaultColour,
+                   final IdleDetector idleDetector,
+                   final Object renderLock,
+                   final Renderer renderer) {
+        this.defaultColour = defaultColour;
+        this.idleDetector = idleDetector;
+        this.renderLock = renderLock;
+        this.renderer = renderer;
+        renderState = RenderState.forColour(defaultColour);
+    }
+
+    /**
+     * @return the state the next frame will be drawn with.
+     */
+    RenderState getRenderState() {
+        return renderState;
+    }
+
+    /**
+     * Handle a parsed frame.
+     * @param frame the frame.
+     */
+    void processFrame(final Frame frame) {
+        final long now = System.nanoTime();
+        idleDetector.onTraffic(now);
+        switch (frame.getFrameType()) {
+            case COLORED_GRAY_4:
+            case COLORED_GRAY_2:
+            case GRAY_2_PLANES:
+            case GRAY_4_PLANES:
+            case RGB24:
+                if (isNewFrame(frame)) {
+                    idleDetector.onChange(now);
+                    if (LOG_FRAMES) {
+                        Timber.v("%s, timestamp:%s", frame.getFrameType(), frame.getTimeStamp());
+                    }
+                    if (renderFrame(frame)) {
+                        // If this frame resulted in an image being generated,
+                        // keep track of the previous frame so it can be compared against
+                        // the next one to avoid processing a duplicate.
+                        previousFrame = frame;
+                    }
+                } else if (LOG_FRAMES) {
+                    Timber.v("Skipping duplicate frame of type: %s", frame.getFrameType());
+                }
+                break;
+            case COLOUR:
+                Timber.i("Colour frame: 0x%06x", frame.getColour());
+                setColour(frame.getColour());
+                break;
+            case PALETTE:
+                setPalette(frame.getPalette());
+                Timber.i("Palette frame of length: %s", frame.getPalette().length);
+                break;
+            case DIMENSIONS:
+                // Senders may repeat control frames, no need to start again if nothing changed.
+                if (!frame.getDimensions().equals(renderState.dimensions)) {
+                    Timber.i("Dimensions frame: %s", frame.getDimensions());
+                    setDimensions(frame.getDimensions());
+                }
+                break;
+            case CLEAR_COLOUR:
+                Timber.i("Clear colour frame");
+                setColour(defaultColour);
+                break;
+            case CLEAR_PALETTE:
+                Timber.i("Clear palette frame");
+                setPalette(null);
+                break;
+            case GAME_NAME:
+                Timber.i("Game name frame: %s", frame.getGameName());
+                renderer.gameName(frame.getGameName());
+                break;
+            case UNKNOWN:
+                Timber.i("Binary message received is unknown type");
+        }
+    }
+
+    /**
+     * A receiver dropped a repeated message before parsing it.
+     */
+    void duplicateFrame() {
+        idleDetector.onTraffic(System.nanoTime());
+        if (LOG_FRAMES) {
+            Timber.v("Dropped a duplicate message before parsing");
+        }
+    }
+
+    /**
+     * Change the size of the display, for frames from a sender or for something shown locally.
+     * @param dimensions the new size.
+     */
+    void setDimensions(final Dimensions dimensions) {
+        synchronized (renderLock) {
+            final RenderState state;
+            // Published under the lock, so a frame never sees the new size before the renderer.
+            synchronized (stateLock) {
+                state = renderState.withDimensions(dimensions);
+                renderState = state;
+            }
+            renderer.resize(state);
+        }
+    }
+
+    private void setColour(final int c) {
+        synchronized (stateLock) {
+            renderState = renderState.withColour(c);
+        }
+    }
+
+    private void setPalette(final int[] palette) {
+        synchronized (stateLock) {
+            renderState = renderState.withPalette(palette);
+        }
+    }
+
+    private boolean isNewFrame(final Frame currentFrame) {
+        if (previousFrame == null) {
+            return true;
+        }
+        // Flagged as a new frame if they are different frame types or they don't contain the exact
+        // same set of planes data. The receivers drop most repeats before they are parsed, this
+        // still catches the same frame arriving over both the WebSocket and UDP.
+        return !currentFrame.getFrameType().equals(previousFrame.getFrameType()) ||
+               !Arrays.equals(currentFrame.getPlanes(), previousFrame.getPlanes());
+    }
+
+    private boolean renderFrame(final Frame frame) {
+        synchronized (renderLock) {
+            // The whole frame is drawn with this state, whatever control frames arrive meanwhile.
+            final RenderState state = renderState;
+            // Don't try to process any frames that may come before we know the size of the display
+            return state.dimensions != null && renderer.renderFrame(frame, state);
+        }
+    }
+}
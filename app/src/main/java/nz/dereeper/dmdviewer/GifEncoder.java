@@ -0,0 +1,303 @@
+/*
+ * Copyright 2021 Mark de Reeper
+ *
+ *  Permission is hereby granted, free of charge, to any person
+ *  obtaining a copy of this software and associated documentation
+ *  files (the "Software"), to deal in the Software without
+ *  restriction, including without limitation the rights to use,
+ *  copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the
+ *  Software is furnished to do so, subject to the following
+ *  conditions:
+ *
+ *  The above copyright notice and this permission notice shall be
+ *  included in all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ *  EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ *  OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ *  NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ *  HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ *  WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ *  FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ *  OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package nz.dereeper.dmdviewer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+/**
+ * Turns a {@link FrameHistory.Replay} into an animated GIF. Frames with a palette are written
+ * with that palette as their colour table and their pixel values as the indexes, so nothing has
+ * to be quantised. RGB24 frames get a table of the colours they use, only falling back to a fixed
+ * table of 256 colours if they use more than that.
+ */
+class GifEncoder {
+
+    // The smallest delay browsers honour, in hundredths of a second.
+    private static final int MIN_DELAY = 2;
+    private static final int MAX_CODES = 4096;
+
+    private final int scale;
+    private final OutputStream out;
+    // Reused for every frame.
+    private byte[] indexes;
+    private final int[] table = new int[256];
+    private final int[] hashKeys = new int[8192];
+    private final short[] hashCodes = new short[8192];
+    private final byte[] block = new byte[255];
+    private int blockLength;
+    private int bits;
+    private int bitCount;
+
+    private GifEncoder(final OutputStream out, final int scale) {
+        this.out = out;
+        this.scale = scale;
+    }
+
+    /**
+     * Encode frames as a GIF that loops forever.
+     * @param replay the frames.
+     * @param scale how many times larger to make each pixel.
+     * @return the GIF.
+     */
+    static byte[] encode(final FrameHistory.Replay replay, final int scale) {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try {
+            new GifEncoder(out, scale).write(replay);
+        } catch (IOException e) {
+            // Can't happen writing to memory.
+            throw new IllegalStateException(e);
+        }
+        return out.toByteArray();
+    }
+
+    private void write(final FrameHistory.Replay replay) throws IOException {
+        final int width = replay.dimensions.width * scale;
+        final int height = replay.dimensions.height * scale;
+        indexes = new byte[width * height];
+        out.write(new byte[] { 'G', 'I', 'F', '8', '9', 'a' });
+        writeShort(width);
+        writeShort(height);
+        // No global colour table, every frame has its own.
+        out.write(new byte[] { 0, 0, 0 });
+        // Loop forever.
+        out.write(new byte[] { 0x21, (byte) 0xFF, 11 });
+        out.write(new byte[] { 'N', 'E', 'T', 'S', 'C', 'A', 'P', 'E', '2', '.', '0' });
+        out.write(new byte[] { 3, 1, 0, 0, 0 });
+        // A frame shown too briefly for a GIF gives its place to the frame after it.
+        final long origin = replay.starts.length > 0 ? replay.starts[0] : replay.end;
+        int shown = -1;
+        long shownAt = 0;
+        for (int f = 0; f < replay.size(); f++) {
+            final long at = centis(replay.starts[f] - origin);
+            if (shown < 0 || at - shownAt >= MIN_DELAY) {
+                if (shown >= 0) {
+                    writeFrame(replay, shown, (int) (at - shownAt));
+                }
+                shownAt = at;
+            }
+            shown = f;
+        }
+        if (shown >= 0) {
+            final long end = centis(replay.end - origin);
+            writeFrame(replay, shown, (int) Math.max(MIN_DELAY, end - shownAt));
+        }
+        out.write(0x3B);
+    }
+
+    private static long centis(final long nanos) {
+        return (nanos + 5000000) / 10000000;
+    }
+
+    private void writeFrame(final FrameHistory.Replay replay, final int f, final int delay)
+            throws IOException {
+        final Dimensions dimensions = replay.dimensions;
+        final int colours = replay.colours[f] != null ?
+                planeIndexes(replay.planes[f], replay.colours[f], dimensions) :
+                rgbIndexes(replay.planes[f], dimensions);
+        int tableBits = 1;
+        while (1 << tableBits < colours) {
+            tableBits++;
+        }
+        // Graphic control, leave the frame in place and wait before the next.
+        out.write(new byte[] { 0x21, (byte) 0xF9, 4, 0x04 });
+        writeShort(Math.min(delay, 0xFFFF));
+        out.write(new byte[] { 0, 0 });
+        // Image descriptor with a local colour table.
+        out.write(0x2C);
+        writeShort(0);
+        writeShort(0);
+        writeShort(dimensions.width * scale);
+        writeShort(dimensions.height * scale);
+        out.write(0x80 | (tableBits - 1));
+        for (int c = 0; c < 1 << tableBits; c++) {
+            final int colour = table[c];
+            out.write(colour >> 16);
+            out.write(colour >> 8);
+            out.write(colour);
+        }
+        compress(Math.max(2, tableBits));
+    }
+
+    // Each pixel's value indexes the palette, the table is the palette.
+    private int planeIndexes(final byte[] planes, final int[] palette, final Dimensions dimensions) {
+        final int area = dimensions.area;
+        final int planeBytes = area / 8;
+        final int bitLength = Math.min(8, planeBytes > 0 ? planes.length / planeBytes : 0);
+        final int colours = 1 << bitLength;
+        Arrays.fill(table, 0);
+        System.arraycopy(palette, 0, table, 0, Math.min(colours, palette.length));
+        final int width = dimensions.width;
+        for (int p = 0; p < area; p++) {
+            final int bit = p & 7;
+            final int offset = p >> 3;
+            int value = 0;
+            for (int plane = 0; plane < bitLength; plane++) {
+                value |= ((planes[plane * planeBytes + offset] >> bit) & 1) << plane;
+            }
+            setPixel(p % width, p / width, width, value);
+        }
+        return colours;
+    }
+
+    private int rgbIndexes(final byte[] bgr, final Dimensions dimensions) {
+        final int area = Math.min(dimensions.area, bgr.length / 3);
+        final int width = dimensions.width;
+        final int[] index = new int[area];
+        int colours = 0;
+        boolean fits = true;
+        for (int p = 0; p < area; p++) {
+            final int colour = colour(bgr, p);
+            int c = 0;
+            while (c < colours && table[c] != colour) {
+                c++;
+            }
+            if (c == colours) {
+                if (colours == table.length) {
+                    fits = false;
+                    break;
+                }
+                table[colours++] = colour;
+            }
+            index[p] = c;
+        }
+        if (!fits) {
+            // 3 bits of red and green, 2 of blue.
+            for (int c = 0; c < 256; c++) {
+                table[c] = ((c >> 5) * 255 / 7) << 16 | ((c >> 2 & 7) * 255 / 7) << 8 |
+                           (c & 3) * 255 / 3;
+            }
+            for (int p = 0; p < area; p++) {
+                final int colour = colour(bgr, p);
+                index[p] = (colour >> 16 & 0xE0) | (colour >> 11 & 0x1C) | (colour >> 6 & 0x03);
+            }
+            colours = 256;
+        }
+        for (int p = 0; p < area; p++) {
+            setPixel(p % width, p / width, width, index[p]);
+        }
+        return Math.max(colours, 2);
+    }
+
+    private static int colour(final byte[] bgr, final int p) {
+        return (bgr[p * 3 + 2] & 0xFF) << 16 | (bgr[p * 3 + 1] & 0xFF) << 8 | (bgr[p * 3] & 0xFF);
+    }
+
+    private void setPixel(final int x, final int y, final int width, final int value) {
+        final int rowLength = width * scale;
+        for (int sy = 0; sy < scale; sy++) {
+            final int row = (y * scale + sy) * rowLength + x * scale;
+            for (int sx = 0; sx < scale; sx++) {
+                indexes[row + sx] = (byte) value;
+            }
+        }
+    }
+
+    // LZW as GIF wants it, variable length codes up to 12 bits packed least significant bit first
+    // into blocks of up to 255 bytes.
+    private void compress(final int minCodeSize) throws IOException {
+        out.write(minCodeSize);
+        final int clear = 1 << minCodeSize;
+        final int endOfData = clear + 1;
+        int codeSize = minCodeSize + 1;
+        int next = clear + 2;
+        Arrays.fill(hashKeys, -1);
+        bits = 0;
+        bitCount = 0;
+        blockLength = 0;
+        writeCode(clear, codeSize);
+        int prefix = indexes[0] & 0xFF;
+        for (int i = 1; i < indexes.length; i++) {
+            final int k = indexes[i] & 0xFF;
+            final int key = prefix << 8 | k;
+            int slot = (key * 0x9E3779B1 >>> 19) & (hashKeys.length - 1);
+            while (hashKeys[slot] != -1 && hashKeys[slot] != key) {
+                slot = (slot + 1) & (hashKeys.length - 1);
+            }
+            if (hashKeys[slot] == key) {
+                prefix = hashCodes[slot];
+                continue;
+            }
+            writeCode(prefix, codeSize);
+            // The decoder makes its entry a code later, so the size goes up once it would need it.
+            if (next == 1 << codeSize && codeSize < 12) {
+                codeSize++;
+            }
+            if (next < MAX_CODES) {
+                hashKeys[slot] = key;
+                hashCodes[slot] = (short) next++;
+            } else {
+                writeCode(clear, codeSize);
+                Arrays.fill(hashKeys, -1);
+                codeSize = minCodeSize + 1;
+                next = clear + 2;
+            }
+            prefix = k;
+        }
+        writeCode(prefix, codeSize);
+        if (next == 1 << codeSize && codeSize < 12) {
+            codeSize++;
+        }
+        writeCode(endOfData, codeSize);
+        if (bitCount > 0) {
+            writeByte(bits);
+        }
+        flushBlock();
+        out.write(0);
+    }
+
+    private void writeCode(final int code, final int size) throws IOException {
+        bits |= code << bitCount;
+        bitCount += size;
+        while (bitCount >= 8) {
+            writeByte(bits);
+            bits >>>= 8;
+            bitCount -= 8;
+        }
+    }
+
+    private void writeByte(final int value) throws IOException {
+        block[blockLength++] = (byte) value;
+        if (blockLength == block.length) {
+            flushBlock();
+        }
+    }
+
+    private void flushBlock() throws IOException {
+        if (blockLength > 0) {
+            out.write(blockLength);
+            out.write(block, 0, blockLength);
+            blockLength = 0;
+        }
+    }
+
+    private void writeShort(final int value) throws IOException {
+        out.write(value);
+        out.write(value >> 8);
+    }
+}
@@ -0,0 +1,240 @@
+/*
+ * Copyright 2021 Mark de Reeper
+ *
+ *  Permission is hereby granted, free of charge, to any person
+ *  obtaining a copy of this software and associated documentation
+ *  files (the "Software"), to deal in the Software without
+ *  restriction, including without limitation the rights to use,
+ *  copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the
+ *  Software is furnished to do so, subject to the following
+ *  conditions:
+ *
+ *  The above copyright notice and this permission notice shall be
+ *  included in all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ *  EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ *  OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ *  NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ *  HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ *  WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ *  FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ *  OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package nz.dereeper.dmdviewer;
+
+/**
+ * Adds a soft glow around lit pixels, similar to the light bleed seen on a real DMD.
+ * The glow is a box blur of the image, done as a horizontal then a vertical pass, that is added
+ * back on top of the image. Red and blue are blurred together by keeping them packed in the one
+ * int, each in its own 16 bit lane, so a pixel only needs two running sums rather than three.
+ */
+class GlowEffect implements Effect {
+
+    private static final int RB_MASK = 0x00FF00FF;
+    private static final int G_MASK = 0x0000FF00;
+
+    private final int radius;
+    private final int horizontalMultiplier;
+    private final int verticalMultiplier;
+    private int width;
+    private int height;
+    private int[] output;
+    private int[] blurred;
+    private int[][] rbSums;
+    private int[][] gSums;
+    // The passes are made once rather than for every frame, they read what to blur from here.
+    private int[] passSource;
+    private int passLeft;
+    private int passRight;
+    private final ParallelRows.Task blurRowsPass = new ParallelRows.Task() {
+        @Override
+        public void run(final int band, final int from, final int to) {
+            blurRows(passSource, from, to, passLeft, passRight);
+        }
+    };
+    private final ParallelRows.Task blurColumnsPass = new ParallelRows.Task() {
+        @Override
+        public void run(final int band, final int from, final int to) {
+            blurColumnsAndAdd(passSource, rbSums[band], gSums[band], from, to, passLeft, passRight);
+        }
+    };
+
+    /**
+     * Create a glow effect.
+     * @param radius how far in pixels the glow spreads from a lit pixel.
+     * @param strength how bright the glow is, 0 for none up to 256 for full strength.
+     */
+    GlowEffect(final int radius, final int strength) {
+        this.radius = radius;
+        final int window = radius * 2 + 1;
+        // Dividing by the window size is done by multiplying by a 16 bit fixed point reciprocal,
+        // the vertical pass also takes care of scaling by the strength at the same time.
+        horizontalMultiplier = (65536 + window - 1) / window;
+        verticalMultiplier = strength * 256 / window;
+    }
+
+    @Override
+    public String getName() {
+        return "glow";
+    }
+
+    @Override
+    public int[] apply(final int[] source,
+                       final int width,
+                       final int height,
+                       final DirtyRegion dirty) {
+        if (output == null || this.width != width || this.height != height) {
+            allocate(width, height);
+            dirty.set(0, 0, width, height);
+        }
+        if (dirty.isEmpty()) {
+            return output;
+        }
+        // Any output pixel within the radius of a changed pixel could have changed, and to work
+        // those out we need the horizontal blur of the rows within the radius of them.
+        dirty.expand(radius, width, height);
+        final int top = dirty.top;
+        final int bottom = dirty.bottom;
+        passSource = source;
+        passLeft = dirty.left;
+        passRight = dirty.right;
+        ParallelRows.run(Math.max(0, top - radius), Math.min(height, bottom + radius),
+                passRight - passLeft, blurRowsPass);
+        ParallelRows.run(top, bottom, passRight - passLeft, blurColumnsPass);
+        // Not kept hold of between frames.
+        passSource = null;
+        return output;
+    }
+
+    @Override
+    public boolean isAnimating() {
+        return false;
+    }
+
+    @Override
+    public void reset() {
+        output = null;
+        blurred = null;
+        rbSums = null;
+        gSums = null;
+    }
+
+    private void allocate(final int width, final int height) {
+        this.width = width;
+        this.height = height;
+        output = new int[width * height];
+        blurred = new int[width * height];
+        rbSums = new int[ParallelRows.bands()][width];
+        gSums = new int[ParallelRows.bands()][width];
+    }
+
+    private void blurRows(final int[] source,
+                          final int from,
+                          final int to,
+                          final int left,
+                          final int right) {
+        final int multiplier = horizontalMultiplier;
+        for (int y = from; y < to; y++) {
+            final int row = y * width;
+            int rb = 0;
+            int g = 0;
+            final int windowEnd = Math.min(width - 1, left + radius);
+            for (int x = Math.max(0, left - radius); x <= windowEnd; x++) {
+                final int colour = source[row + x];
+                rb += colour & RB_MASK;
+                g += colour & G_MASK;
+            }
+            for (int x = left; x < right; x++) {
+                blurred[row + x] = scale(rb, g >>> 8, multiplier);
+                // Slide the window along one pixel.
+                if (x - radius >= 0) {
+                    final int colour = source[row + x - radius];
+                    rb -= colour & RB_MASK;
+                    g -= colour & G_MASK;
+                }
+                if (x + radius + 1 < width) {
+                    final int colour = source[row + x + radius + 1];
+                    rb += colour & RB_MASK;
+                    g += colour & G_MASK;
+                }
+            }
+        }
+    }
+
+    private void blurColumnsAndAdd(final int[] source,
+                                   final int[] rbSum,
+                                   final int[] gSum,
+                                   final int from,
+                                   final int to,
+                                   final int left,
+                                   final int right) {
+        final int multiplier = verticalMultiplier;
+        for (int x = left; x < right; x++) {
+            rbSum[x] = 0;
+            gSum[x] = 0;
+        }
+        final int windowEnd = Math.min(height - 1, from + radius);
+        for (int y = Math.max(0, from - radius); y <= windowEnd; y++) {
+            addRow(rbSum, gSum, y * width, left, right);
+        }
+        for (int y = from; y < to; y++) {
+            final int row = y * width;
+            for (int x = left; x < right; x++) {
+                final int glow = scale(rbSum[x], gSum[x] >>> 8, multiplier);
+                output[row + x] = saturatedAdd(source[row + x], glow);
+            }
+            // Slide the window down one row.
+            if (y - radius >= 0) {
+                removeRow(rbSum, gSum, (y - radius) * width, left, right);
+            }
+            if (y + radius + 1 < height) {
+                addRow(rbSum, gSum, (y + radius + 1) * width, left, right);
+            }
+        }
+    }
+
+    private void addRow(final int[] rbSum,
+                        final int[] gSum,
+                        final int row,
+                        final int left,
+                        final int right) {
+        for (int x = left; x < right; x++) {
+            final int colour = blurred[row + x];
+            rbSum[x] += colour & RB_MASK;
+            gSum[x] += colour & G_MASK;
+        }
+    }
+
+    private void removeRow(final int[] rbSum,
+                           final int[] gSum,
+                           final int row,
+                           final int left,
+                           final int right) {
+        for (int x = left; x < right; x++) {
+            final int colour = blurred[row + x];
+            rbSum[x] -= colour & RB_MASK;
+            gSum[x] -= colour & G_MASK;
+        }
+    }
+
+    // Turn the packed sums back into a colour, multiplier is a 16 bit fixed point value.
+    private static int scale(final int rb, final int g, final int multiplier) {
+        final int r = ((rb >>> 16) * multiplier) >>> 16;
+        final int b = ((rb & 0xFFFF) * multiplier) >>> 16;
+        return (r << 16) | (((g * multiplier) >>> 16) << 8) | b;
+    }
+
+    // Add two colours together per channel, clamping each channel at 255.
+    static int saturatedAdd(final int a, final int b) {
+        int rb = (a & RB_MASK) + (b & RB_MASK);
+        int overflow = rb & 0x01000100;
+        rb = (rb | (overflow - (overflow >>> 8))) & RB_MASK;
+        int g = (a & G_MASK) + (b & G_MASK);
+        overflow = g & 0x00010000;
+        g = (g | (overflow - (overflow >>> 8))) & G_MASK;
+        return 0xFF000000 | rb | g;
+    }
+}
@@ -0,0 +1,152 @@
+/*
+ * Copyright 2021 Mark de Reeper
+ *
+ *  Permission is hereby granted, free of charge, to any person
+ *  obtaining a copy of this software and associated documentation
+ *  files (the "Software"), to deal in the Software without
+ *  restriction, including without limitation the rights to use,
+ *  copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the
+ *  Software is furnished to do so, subject to the following
+ *  conditions:
+ *
+ *  The above copyright notice and this permission notice shall be
+ *  included in all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ *  EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ *  OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ *  NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ *  HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ *  WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ *  FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ *  OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package nz.dereeper.dmdviewer;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+
+/**
+ * Works out when the display has nothing to do, either because the content has not changed for
+ * a while or because nothing has been received at all. The detector does no work of its own
+ * while idle, it is up to the caller to ask {@link #check(long)} when the next check is due, and
+ * it becomes active again as soon as a changed frame is reported.
+ */
+class IdleDetector {
+
+    /**
+     * Told when the display goes idle and when it becomes active again.
+     */
+    interface Listener {
+        /**
+         * The display has gone idle.
+         * @param noTraffic true if nothing has been received, false if the content is static.
+         */
+        void onIdle(boolean noTraffic);
+
+        /**
+         * The display is active again after being idle.
+         * @param idleMillis how long the display was idle for.
+         */
+        void onActive(long idleMillis);
+    }
+
+    private final long staticWindow;
+    private final long trafficWindow;
+    private final Listener listener;
+    private final Stats.Counter idleTime = Stats.counter("idleMillis");
+    private long lastTraffic;
+    private long lastChange;
+    private long idleSince;
+    private boolean idle;
+
+    /**
+     * Create an idle detector, a window of 0 disables that check.
+     * @param staticWindowMillis how long the content can stay the same before going idle.
+     * @param trafficWindowMillis how long nothing can be received before going idle.
+     * @param listener told about idle state changes.
+     */
+    IdleDetector(final long staticWindowMillis,
+                 final long trafficWindowMillis,
+                 final Listener listener) {
+        this.staticWindow = MILLISECONDS.toNanos(staticWindowMillis);
+        this.trafficWindow = MILLISECONDS.toNanos(trafficWindowMillis);
+        this.listener = listener;
+    }
+
+    /**
+     * Start the windows again from now, such as when the display becomes visible.
+     * @param now the current {@link System#nanoTime()}.
+     */
+    synchronized void reset(final long now) {
+        lastTraffic = now;
+        lastChange = now;
+        idle = false;
+    }
+
+    /**
+     * Note that something was received.
+     * @param now the current {@link System#nanoTime()}.
+     */
+    synchronized void onTraffic(final long now) {
+        lastTraffic = now;
+    }
+
+    /**
+     * Note that a frame was received that changed what is shown, waking up if idle.
+     * @param now the current {@link System#nanoTime()}.
+     */
+    synchronized void onChange(final long now) {
+        lastTraffic = now;
+        lastChange = now;
+        if (idle) {
+            idle = false;
+            final long idleMillis = NANOSECONDS.toMillis(now - idleSince);
+            idleTime.add(idleMillis);
+            listener.onActive(idleMillis);
+        }
+    }
+
+    /**
+     * Check if the display should now be idle.
+     * @param now the current {@link System#nanoTime()}.
+     * @return how many milliseconds until the next check is due, or -1 when idle or there is
+     * nothing to check, in which case there is no need to check again until a changed frame.
+     */
+    synchronized long check(final long now) {
+        if (idle || (staticWindow <= 0 && trafficWindow <= 0)) {
+            return -1;
+        }
+        long next = Long.MAX_VALUE;
+        if (trafficWindow > 0) {
+            final long remaining = lastTraffic + trafficWindow - now;
+            if (remaining <= 0) {
+                goIdle(true, now);
+                return -1;
+            }
+            next = remaining;
+        }
+        if (staticWindow > 0) {
+            final long remaining = lastChange + staticWindow - now;
+            if (remaining <= 0) {
+                goIdle(false, now);
+                return -1;
+            }
+            next = Math.min(next, remaining);
+        }
+        // Round up so we don't wake up just before the window ends.
+        return NANOSECONDS.toMillis(next) + 1;
+    }
+
+    synchronized boolean isIdle() {
+        return idle;
+    }
+
+    private void goIdle(final boolean noTraffic, final long now) {
+        idle = true;
+        idleSince = now;
+        listener.onIdle(noTraffic);
+    }
+}
@@ -25,15 +25,16 @@
 
 package nz.dereeper.dmdviewer;
 
-import android.graphics.Color;
-
 import timber.log.Timber;
 
-import static androidx.core.graphics.ColorUtils.HSLToColor;
+import static nz.dereeper.dmdviewer.Frame.FrameType.COLORED_GRAY_2;
+import static nz.dereeper.dmdviewer.Frame.FrameType.GRAY_2_PLANES;
+import static nz.dereeper.dmdviewer.Frame.FrameType.GRAY_4_PLANES;
 
 /**
  * A set of static methods that support generating a raw image depending on the FrameType.
  * Borrowed heavily from the code/algorithms in https://github.com/freezy/dmd-extensions
+ * The actual pixel work is done by the {@link Rasteriser} for the current {@link Metadata}.
  */
 class ImageUtils {
 
@@ -41,27 +42,62 @@ class ImageUtils {
         // Just statics
     }
 
-    static int[] toRawImageFromRgb24(final byte[] colours, final Metadata metadata) {
-        if (colours.length % 3 == 0) {
-            final int width = metadata.getDimensions().width;
-            final int height = metadata.getDimensions().height;
-            // Calculate this now rather than every time we want to set a pixel when DMD enabled.
-            final int extraWidth = extraWidthCalc(metadata);
-            final int[] rawImage = createRawImage(metadata);
-            for (int y = 0; y < height; y++) {
-                int yWidth = y * width;
-                for (int x = 0; x < width; x++) {
-                    final int index = (yWidth + x) * 3;
-                    // RGB24 is in BGR order
-                    final int b = (0xFF & colours[index]);
-                    final int g = (0xFF & colours[index + 1]);
-                    final int r = (0xFF & colours[index + 2]);
-                    setPixel(rawImage, x, y, Color.rgb(r, g, b), metadata, extraWidth);
+    /**
+     * Rasterise an image frame, working out how from the type of frame.
+     * @param frame the image frame.
+     * @param palette the palette from the last PALETTE frame, or null if there isn't one.
+     * @param metadata the current {@link Metadata}.
+     * @return the raw image, or null if the frame could not be rasterised.
+     */
+    static int[] toRawImage(final Frame frame, final int[] palette, final Metadata metadata) {
+        switch (frame.getFrameType()) {
+            case GRAY_2_PLANES:
+            case GRAY_4_PLANES:
+                final int numberOfGrays = frame.getFrameType().equals(GRAY_2_PLANES) ? 2 : 4;
+                final int expectedPaletteSize = numberOfGrays * 4;
+                // If we don't have a valid palette to match the required size,
+                // fall-back to HSL colour.
+                if (palette != null && palette.length == expectedPaletteSize) {
+                    return toRawImage(frame.getPlanes(), palette, numberOfGrays, metadata);
                 }
+                return toRawImage(frame.getPlanes(), expectedPaletteSize, numberOfGrays, metadata);
+            case COLORED_GRAY_2:
+            case COLORED_GRAY_4:
+                final int numberOfColours = frame.getFrameType().equals(COLORED_GRAY_2) ? 2 : 4;
+                return toRawImage(frame.getPlanes(), frame.getPalette(), numberOfColours, metadata);
+            case RGB24:
+                return toRawImageFromRgb24(frame.getPlanes(), metadata);
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * Rasterise an image frame with everything taken from one {@link RenderState}, gray frames
+     * without a palette use the shades already worked out by the state.
+     * @param frame the image frame.
+     * @param state the state to draw the frame with.
+     * @param metadata the current {@link Metadata}, only used for the rasteriser.
+     * @return the raw image, or null if the frame could not be rasterised.
+     */
+    static int[] toRawImage(final Frame frame, final RenderState state, final Metadata metadata) {
+        final Frame.FrameType type = frame.getFrameType();
+        if (type.equals(GRAY_2_PLANES) || type.equals(GRAY_4_PLANES)) {
+            final int numberOfGrays = type.equals(GRAY_2_PLANES) ? 2 : 4;
+            if (state.palette == null || state.palette.length != numberOfGrays * 4) {
+                return toRawImage(frame.getPlanes(), state.getShades(numberOfGrays),
+                                  numberOfGrays, metadata);
             }
-            return rawImage;
+        }
+        return toRawImage(frame, state.palette, metadata);
+    }
+
+    static int[] toRawImageFromRgb24(final byte[] colours, final Metadata metadata) {
+        final Rasteriser rasteriser = metadata.getRasteriser();
+        if (colours.length % 3 == 0 && colours.length / 3 >= rasteriser.getDimensions().area) {
+            return rasteriser.fromRgb24(colours);
         } else {
-            Timber.e("Planes length not a multiple of 3 in RGB24: %s", colours.length);
+            Timber.e("Planes length not a multiple of 3 or too short in RGB24: %s", colours.length);
             return null;
         }
     }
@@ -70,23 +106,12 @@ class ImageUtils {
                             final int[] palette,
                             final int bitLength,
                             final Metadata metadata) {
-        if (planesAreValid(planes, bitLength, metadata.getDimensions())) {
-            final int width = metadata.getDimensions().width;
-            final int height = metadata.getDimensions().height;
-            // Calculate this now rather than every time we want to set a pixel when DMD enabled.
-            final int extraWidth = extraWidthCalc(metadata);
-            final int[] rawImage = createRawImage(metadata);
-            final byte[] plane = joinPlanes(planes, bitLength, metadata.getDimensions());
-            for (int y = 0; y < height; y++) {
-                int yWidth = y * width;
-                for (int x = 0; x < width; x++) {
-                    setPixel(rawImage, x, y, palette[plane[yWidth + x]], metadata, extraWidth);
-                }
-            }
-            return rawImage;
+        final Rasteriser rasteriser = metadata.getRasteriser();
+        if (planesAreValid(planes, bitLength, rasteriser.getDimensions())) {
+            return rasteriser.fromPlanes(planes, palette, bitLength);
         }
         Timber.w("Planes data was not valid, bitLength: %s, planes length: %s, area: %s",
-                bitLength, planes.length, metadata.getDimensions().area);
+                bitLength, planes.length, rasteriser.getDimensions().area);
         return null;
     }
 
@@ -94,133 +119,136 @@ class ImageUtils {
                             final float numberOfColours,
                             final int bitLength,
                             final Metadata metadata) {
-        if (planesAreValid(planes, bitLength, metadata.getDimensions())) {
-            final int width = metadata.getDimensions().width;
-            final int height = metadata.getDimensions().height;
-            // Calculate this now rather than every time we want to set a pixel when DMD enabled.
-            final int extraWidth = extraWidthCalc(metadata);
-            final int[] rawImage = createRawImage(metadata);
-            final byte[] plane = joinPlanes(planes, bitLength, metadata.getDimensions());
-            final float[] hsl = metadata.getHsl();
-            final float[] newHsl = new float[3];
-            newHsl[0] = hsl[0];
-            newHsl[1] = hsl[1];
-            for (int y = 0; y < height; y++) {
-                for (int x = 0; x < width; x++) {
-                    newHsl[2] = hsl[2] * (plane[y * width + x] / numberOfColours); // Lum value
-                    setPixel(rawImage, x, y, HSLToColor(newHsl), metadata, extraWidth);
-                }
-            }
-            return rawImage;
+        final Rasteriser rasteriser = metadata.getRasteriser();
+        if (planesAreValid(planes, bitLength, rasteriser.getDimensions())) {
+            return rasteriser.fromPlanes(planes, metadata.getHsl(), numberOfColours, bitLength);
         }
         Timber.w("Planes data was not valid, bitLength: %s, planes length: %s, area: %s",
-                bitLength, planes.length, metadata.getDimensions().area);
+                bitLength, planes.length, rasteriser.getDimensions().area);
         return null;
     }
 
-    private static boolean planesAreValid(final byte[] planes,
-                                          final int bitLength,
-                                          final Dimensions dimensions) {
-        // Sanity check that we have a valid set of planes data compared to expected values
-        return dimensions.area % 8 == 0 &&
-               planes.length % bitLength == 0 &&
-               planes.length / bitLength == dimensions.area / 8;
-    }
-
-    private static int[] createRawImage(final Metadata metadata) {
-        final Dmd dmd = metadata.getDmd();
-        final int width = metadata.getDimensions().width;
-        final int height = metadata.getDimensions().height;
-        if (dmd.isEnabled()) {
-            return new int[(width * dmd.getCombined()) * (height * dmd.getCombined())];
-        } else {
-            return new int[width * height];
+    /**
+     * Work out the shades of a colour used for each pixel value when there is no palette.
+     * @param hsl the colour in HSL form.
+     * @param numberOfColours a pixel value of v gets the lightness of hsl scaled by
+     *                        v / numberOfColours.
+     * @param count the number of shades to work out.
+     * @param shades where to put the shades.
+     */
+    static void hslShades(final float[] hsl,
+                          final float numberOfColours,
+                          final int count,
+                          final int[] shades) {
+        final float[] newHsl = new float[3];
+        newHsl[0] = hsl[0];
+        newHsl[1] = hsl[1];
+        for (int i = 0; i < count; i++) {
+            newHsl[2] = hsl[2] * (i / numberOfColours); // Lum value
+            shades[i] = hslToColour(newHsl);
         }
     }
 
-    private static void setPixel(final int[] rawImage,
-                                 final int x,
-                                 final int y,
-                                 final int colour,
-                                 final Metadata metadata,
-                                 final int extraWidth) {
-        // Not much point in painting a black pixel
-        if (colour != Color.BLACK) {
-            if (metadata.getDmd().isEnabled()) {
-                drawLedMatrixPixels(x, y, colour, rawImage, metadata, extraWidth);
+    // The colour conversions are the same as androidx ColorUtils, done here so they also work
+    // off the device where the Android colour methods are only stubs.
+
+    /**
+     * Convert a colour to hue, saturation and lightness.
+     * @param colour the RGB colour.
+     * @param hsl where to put the hue (0 to 360), saturation and lightness (0 to 1).
+     */
+    static void colourToHsl(final int colour, final float[] hsl) {
+        final float r = ((colour >> 16) & 0xFF) / 255f;
+        final float g = ((colour >> 8) & 0xFF) / 255f;
+        final float b = (colour & 0xFF) / 255f;
+        final float max = Math.max(r, Math.max(g, b));
+        final float min = Math.min(r, Math.min(g, b));
+        final float delta = max - min;
+        final float l = (max + min) / 2f;
+        float h;
+        float s;
+        if (max == min) {
+            h = 0f;
+            s = 0f;
+        } else {
+            if (max == r) {
+                h = ((g - b) / delta) % 6f;
+            } else if (max == g) {
+                h = ((b - r) / delta) + 2f;
             } else {
-                // Calc the index into the array based on the X and Y values using the width to
-                // determine the column.
-                rawImage[y * extraWidth + x] = colour;
+                h = ((r - g) / delta) + 4f;
             }
-        } else {
-            Timber.v("Skipping black pixel");
+            s = delta / (1f - Math.abs(2f * l - 1f));
         }
-    }
-
-    private static void drawLedMatrixPixels(final int x,
-                                            final int y,
-                                            final int colour,
-                                            final int[] rawImage,
-                                            final Metadata metadata,
-                                            final int extraWidth) {
-        final Dmd dmd = metadata.getDmd();
-        final Dimensions dimensions = metadata.getDimensions();
-        final boolean[][] pixelShape = dmd.getShape();
-        // Based on ideas from https://github.com/sallar/led-matrix/blob/master/src/index.ts
-        final int index = y * dimensions.width + x;
-        final int dy = index / dimensions.width;
-        final int dx = index - dy * dimensions.width;
-        final int newX = dx * dmd.getCombined();
-        final int newY = dy * dmd.getCombined();
-        // Draw the actual shape for this pixel
-        for (int i = 0; i < dmd.getPixels(); i++) {
-            int newI = (newY + i) * extraWidth + newX;
-            for (int j = 0; j < dmd.getPixels(); j++) {
-                // Calc the index into the array based on the new X and Y values, compensating for
-                // the additional width we need for the extra pixels in the DMD.
-                if (pixelShape[i][j]) {
-                    rawImage[newI + j] = colour;
-                }
-            }
+        h = (h * 60f) % 360f;
+        if (h < 0) {
+            h += 360f;
         }
+        hsl[0] = Math.max(0f, Math.min(360f, h));
+        hsl[1] = Math.max(0f, Math.min(1f, s));
+        hsl[2] = Math.max(0f, Math.min(1f, l));
     }
 
-    private static byte[] joinPlanes(final byte[] planes,
-                                     final int bitLength,
-                                     final Dimensions dimensions) {
-        final byte[] plane = new byte[dimensions.area];
-        final int bytes = dimensions.area / 8;
-        // From my understanding....
-        // The frame is made up of a width x height / 8 (number of bits in a byte) items across
-        // bitLength number of planes.
-        // To work out the colour of any one of the width x height pixels we need to grab the same
-        // column value from each plane and then split them into bits to get a combined value that
-        // represents the colour palette lookup value, most significant bit first.
-        // For 2 planes we have a colour palette of 4, for 4 planes we have 16.
-        for (int bytePos = 0; bytePos < bytes; bytePos++) {
-            for (int bitPos = 7; bitPos >= 0; bitPos--) {
-                for (int planePos = 0; planePos < bitLength; planePos++) {
-                    final int bit = theBit(planes[bytes * planePos + bytePos], bitPos);
-                    plane[bytePos * 8 + bitPos] |= (bit << planePos);
-                }
-            }
+    /**
+     * Convert hue, saturation and lightness to an opaque colour.
+     * @param hsl the hue (0 to 360), saturation and lightness (0 to 1).
+     * @return the ARGB colour.
+     */
+    static int hslToColour(final float[] hsl) {
+        final float h = hsl[0];
+        final float s = hsl[1];
+        final float l = hsl[2];
+        final float c = (1f - Math.abs(2 * l - 1f)) * s;
+        final float m = l - 0.5f * c;
+        final float x = c * (1f - Math.abs((h / 60f % 2f) - 1f));
+        int r = 0;
+        int g = 0;
+        int b = 0;
+        switch ((int) h / 60) {
+            case 0:
+                r = Math.round(255 * (c + m));
+                g = Math.round(255 * (x + m));
+                b = Math.round(255 * m);
+                break;
+            case 1:
+                r = Math.round(255 * (x + m));
+                g = Math.round(255 * (c + m));
+                b = Math.round(255 * m);
+                break;
+            case 2:
+                r = Math.round(255 * m);
+                g = Math.round(255 * (c + m));
+                b = Math.round(255 * (x + m));
+                break;
+            case 3:
+                r = Math.round(255 * m);
+                g = Math.round(255 * (x + m));
+                b = Math.round(255 * (c + m));
+                break;
+            case 4:
+                r = Math.round(255 * (x + m));
+                g = Math.round(255 * m);
+                b = Math.round(255 * (c + m));
+                break;
+            case 5:
+            case 6:
+                r = Math.round(255 * (c + m));
+                g = Math.round(255 * m);
+                b = Math.round(255 * (x + m));
+                break;
         }
-        return plane;
+        r = Math.max(0, Math.min(255, r));
+        g = Math.max(0, Math.min(255, g));
+        b = Math.max(0, Math.min(255, b));
+        return 0xFF000000 | (r << 16) | (g << 8) | b;
     }
 
-    private static int theBit(final byte b, final int pos) {
-        if (b == 0) {
-            return 0;
-        }
-        return (b & (1 << pos)) != 0 ? 1 : 0;
-    }
-
-    private static int extraWidthCalc(final Metadata metadata) {
-        // If DMD effect is enabled then the extra width needs to take this into account.
-        if (metadata.getDmd().isEnabled()) {
-            return metadata.getDimensions().width * metadata.getDmd().getCombined();
-        }
-        return metadata.getDimensions().width;
+    private static boolean planesAreValid(final byte[] planes,
+                                          final int bitLength,
+                                          final Dimensions dimensions) {
+        // Sanity check that we have a valid set of planes data compared to expected values
+        return dimensions.area % 8 == 0 &&
+               planes.length % bitLength == 0 &&
+               planes.length / bitLength == dimensions.area / 8;
     }
 }
@@ -0,0 +1,208 @@
+/*
+ * Copyright 2021 Mark de Reeper
+ *
+ *  Permission is hereby granted, free of charge, to any person
+ *  obtaining a copy of this software and associated documentation
+ *  files (the "Software"), to deal in the Software without
+ *  restriction, including without limitation the rights to use,
+ *  copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the
+ *  Software is furnished to do so, subject to the following
+ *  conditions:
+ *
+ *  The above copyright notice and this permission notice shall be
+ *  included in all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ *  EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ *  OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ *  NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ *  HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ *  WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ *  FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ *  OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package nz.dereeper.dmdviewer;
+
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import timber.log.Timber;
+
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+
+/**
+ * Measures the latency from a sender to the screen for one connection. The viewer sends
+ * {@code "ping <t1>"} over the text channel with its own time in milliseconds, and a sender that
+ * supports it replies {@code "pong <t1> <t2> <t3>"} where t2 and t3 are when it received the ping
+ * and sent the pong, on the same clock as its frame time stamps. As with NTP the round trip is
+ * {@code (t4 - t1) - (t3 - t2)} and the clock offset is {@code ((t2 - t1) + (t3 - t4)) / 2}, the
+ * sample with the shortest round trip out of the last few is trusted most. With the offset, the
+ * time stamp of a frame can be compared against when it was shown to get the real latency.
+ * Everything is published through atomics so the socket and UI threads never wait on each other.
+ * Each connection records into its own pair of histograms, which are removed again by
+ * {@link #close()} so senders coming and going don't leave stats behind.
+ */
+class LatencyProbe {
+
+    static final String PING = "ping";
+    static final String PONG = "pong";
+    private static final long PING_INTERVAL_MILLIS = 2000;
+    private static final int SAMPLES = 8;
+
+    /**
+     * The clock offset and round trip worked out from the recent samples. Never changed once
+     * created, a new one is published for each sample.
+     */
+    static class Estimate {
+        // Sender time minus viewer time, in sender milliseconds which may wrap.
+        final int offset;
+        final int roundTrip;
+        private final int[] offsets;
+        private final int[] roundTrips;
+        private final int samples;
+
+        private Estimate(final int[] offsets, final int[] roundTrips, final int samples) {
+            this.offsets = offsets;
+            this.roundTrips = roundTrips;
+            this.samples = samples;
+            int best = 0;
+            for (int i = 1; i < Math.min(samples, SAMPLES); i++) {
+                if (roundTrips[i] < roundTrips[best]) {
+                    best = i;
+                }
+            }
+            offset = offsets[best];
+            roundTrip = roundTrips[best];
+        }
+
+        private Estimate add(final int offset, final int roundTrip) {
+            final int[] newOffsets = offsets.clone();
+            final int[] newRoundTrips = roundTrips.clone();
+            newOffsets[samples % SAMPLES] = offset;
+            newRoundTrips[samples % SAMPLES] = roundTrip;
+            return new Estimate(newOffsets, newRoundTrips, samples + 1);
+        }
+    }
+
+    private static final long NEVER = Long.MIN_VALUE;
+    private final AtomicLong lastPing = new AtomicLong(NEVER);
+    private final AtomicReference<Estimate> estimate = new AtomicReference<>();
+    private final Stats.Histogram latency;
+    private final Stats.Histogram roundTrip;
+    private final String name;
+
+    /**
+     * Create a probe for a single connection.
+     * @param name what to report the stats for this connection under, such as its address.
+     */
+    LatencyProbe(final String name) {
+        this.name = name;
+        latency = Stats.histogram("latency@" + name);
+        roundTrip = Stats.histogram("rtt@" + name);
+    }
+
+    /**
+     * The connection has closed, stop reporting its stats.
+     */
+    void close() {
+        Stats.remove(latency);
+        Stats.remove(roundTrip);
+    }
+
+    /**
+     * The viewer clock used for pings and presenting frames.
+     * @return the current time in milliseconds, only useful for working out differences.
+     */
+    static long now() {
+        return NANOSECONDS.toMillis(System.nanoTime());
+    }
+
+    /**
+     * Get a ping to send if it is time for the next one.
+     * @param nowMillis the current viewer time.
+     * @return the ping message to send, or null if one was sent recently.
+     */
+    String pingIfDue(final long nowMillis) {
+        final long last = lastPing.get();
+        if ((last == NEVER || nowMillis - last >= PING_INTERVAL_MILLIS) &&
+            lastPing.compareAndSet(last, nowMillis)) {
+            return PING + " " + nowMillis;
+        }
+        return null;
+    }
+
+    /**
+     * Handle a pong from the sender.
+     * @param message the text message.
+     * @param nowMillis the viewer time it was received.
+     * @return true if it was a valid pong.
+     */
+    boolean onPong(final String message, final long nowMillis) {
+        final String[] parts = message.trim().split("\\s+");
+        if (parts.length != 4 || !PONG.equals(parts[0])) {
+            return false;
+        }
+        final long sent;
+        final int received;
+        final int replied;
+        try {
+            sent = Long.parseLong(parts[1]);
+            received = (int) Long.parseLong(parts[2]);
+            replied = (int) Long.parseLong(parts[3]);
+        } catch (NumberFormatException e) {
+            Timber.w("Invalid pong: %s", message);
+            return false;
+        }
+        final int rtt = (int) (nowMillis - sent) - (replied - received);
+        if (rtt < 0 || sent > nowMillis) {
+            Timber.w("Ignoring pong with a negative round trip: %s", message);
+            return false;
+        }
+        // Sender times wrap as ints, so only ever subtract times on the same clock and halve the
+        // small difference between the two offsets rather than adding two large ones.
+        final int there = received - (int) sent;
+        final int back = replied - (int) nowMillis;
+        final int offset = there + (back - there) / 2;
+        roundTrip.record(rtt);
+        Estimate current;
+        Estimate next;
+        do {
+            current = estimate.get();
+            next = current == null ?
+                    new Estimate(new int[SAMPLES], new int[SAMPLES], 0).add(offset, rtt) :
+                    current.add(offset, rtt);
+        } while (!estimate.compareAndSet(current, next));
+        return true;
+    }
+
+    /**
+     * Get the current estimate of the clock offset and round trip.
+     * @return the estimate, or null if no pongs have been received.
+     */
+    Estimate getEstimate() {
+        return estimate.get();
+    }
+
+    /**
+     * A frame has been shown, record how long it took from when the sender stamped it.
+     * @param timeStamp the time stamp from the frame, on the sender clock.
+     * @param nowMillis the viewer time the frame was shown.
+     */
+    void onPresented(final int timeStamp, final long nowMillis) {
+        final Estimate current = estimate.get();
+        if (current != null) {
+            latency.record(((int) nowMillis + current.offset) - timeStamp);
+        }
+    }
+
+    @Override
+    public String toString() {
+        final Estimate current = estimate.get();
+        return current == null ? name + " no estimate" :
+               String.format(Locale.ROOT, "%s offset:%dms rtt:%dms", name, current.offset,
+                       current.roundTrip);
+    }
+}
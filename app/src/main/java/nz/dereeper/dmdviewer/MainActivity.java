@@ -52,6 +52,7 @@ import static android.content.pm.PackageManager.PERMISSION_GRANTED;
 import static android.view.View.inflate;
 import static android.widget.Toast.LENGTH_LONG;
 import static android.widget.Toast.makeText;
+import static java.lang.Float.parseFloat;
 import static java.lang.Integer.parseInt;
 
 
@@ -60,6 +61,21 @@ public class MainActivity extends AppCompatActivity {
     static final String DMD_WS_PORT = "WS_PORT";
     static final String DMD_ENABLED = "DMD_ENABLED";
     static final String DMD_ROUND_PIXEL = "PIXEL_ROUND";
+    static final String DMD_GLOW = "GLOW";
+    static final String DMD_PERSISTENCE = "PERSISTENCE";
+    static final String DMD_UNLIT_PIXEL = "PIXEL_UNLIT";
+    static final String DMD_BRIGHTNESS = "BRIGHTNESS";
+    static final String DMD_CONTRAST = "CONTRAST";
+    static final String DMD_GAMMA = "GAMMA";
+    static final String DMD_HTTP_PORT = "HTTP_PORT";
+    static final String DMD_IDLE_STATIC = "IDLE_STATIC";
+    static final String DMD_IDLE_TRAFFIC = "IDLE_TRAFFIC";
+    static final String DMD_UDP_PORT = "UDP_PORT";
+    static final String DMD_COLOURISATION = "COLOURISATION";
+    static final String DMD_PIPELINED = "PIPELINED";
+    static final String DMD_MAX_MESSAGE_KB = "MAX_MESSAGE_KB";
+    static final String DMD_FRAME_MEMORY_MB = "FRAME_MEMORY_MB";
+    static final String DMD_NATIVE_RESOLUTION = "NATIVE_RESOLUTION";
 
     private final int PERMISSIONS_REQUEST_ACCESS_WIFI_STATE = 0;
     private final int PERMISSIONS_REQUEST_INTERNET = 1;
@@ -76,12 +92,52 @@ public class MainActivity extends AppCompatActivity {
         final int port = parseInt(prefs.getString("websocket_port", "9090"));
         final boolean enabled = prefs.getBoolean("dmd_effect", true);
         final boolean round = prefs.getBoolean("round_pixel", false);
+        final boolean unlit = prefs.getBoolean("unlit_pixel", false);
+        final boolean glow = prefs.getBoolean("glow_effect", false);
+        final boolean persistence = prefs.getBoolean("persistence_effect", false);
+        final int brightness = parseInt(prefs.getString("brightness", "0"));
+        final int contrast = parseInt(prefs.getString("contrast", "100"));
+        final float gamma = parseFloat(prefs.getString("gamma", "1.0"));
+        // A port of 0 tells the DMD screen not to start the HTTP stream.
+        final int httpPort = prefs.getBoolean("http_stream", false) ?
+                parseInt(prefs.getString("http_port", "8080")) : 0;
+        // A port of 0 tells the DMD screen not to start the UDP receiver.
+        final int udpPort = prefs.getBoolean("udp_enabled", false) ?
+                parseInt(prefs.getString("udp_port", "9091")) : 0;
+        final boolean colourisation = prefs.getBoolean("colourisation", false);
+        final boolean pipelined = prefs.getBoolean("pipelined_render", false);
+        final boolean nativeResolution = prefs.getBoolean("native_resolution", false);
+        final int maxMessageKb = parseInt(prefs.getString("max_message_kb", "512"));
+        final int frameMemoryMb = parseInt(prefs.getString("frame_memory_mb", "16"));
+        final long idleStatic = parseInt(prefs.getString("idle_static_seconds", "0")) * 1000L;
+        final long idleTraffic = parseInt(prefs.getString("idle_traffic_seconds", "0")) * 1000L;
         final Intent intent = new Intent(this, DmdActivity.class);
         intent.putExtra(DMD_WS_PORT, port);
         intent.putExtra(DMD_ENABLED, enabled);
         intent.putExtra(DMD_ROUND_PIXEL, round);
-        Timber.i("Opening DMD screen, passing port: %s enable DMD effect: %s, round: %s",
-                port, enabled, round);
+        intent.putExtra(DMD_UNLIT_PIXEL, unlit);
+        intent.putExtra(DMD_GLOW, glow);
+        intent.putExtra(DMD_PERSISTENCE, persistence);
+        intent.putExtra(DMD_BRIGHTNESS, brightness);
+        intent.putExtra(DMD_CONTRAST, contrast);
+        intent.putExtra(DMD_GAMMA, gamma);
+        intent.putExtra(DMD_HTTP_PORT, httpPort);
+        intent.putExtra(DMD_IDLE_STATIC, idleStatic);
+        intent.putExtra(DMD_IDLE_TRAFFIC, idleTraffic);
+        intent.putExtra(DMD_UDP_PORT, udpPort);
+        intent.putExtra(DMD_COLOURISATION, colourisation);
+        intent.putExtra(DMD_PIPELINED, pipelined);
+        intent.putExtra(DMD_NATIVE_RESOLUTION, nativeResolution);
+        intent.putExtra(DMD_MAX_MESSAGE_KB, maxMessageKb);
+        intent.putExtra(DMD_FRAME_MEMORY_MB, frameMemoryMb);
+        Timber.i("Opening DMD screen, passing port: %s enable DMD effect: %s, round: %s," +
+                " unlit: %s, glow: %s, persistence: %s, brightness: %s, contrast: %s, gamma: %s," +
+                " HTTP port: %s, idle after static: %sms, idle after no traffic: %sms," +
+                " UDP port: %s, colourisation: %s, pipelined: %s, native resolution: %s," +
+                " max message: %sKB, frame memory: %sMB",
+                port, enabled, round, unlit, glow, persistence, brightness, contrast, gamma,
+                httpPort, idleStatic, idleTraffic, udpPort, colourisation, pipelined,
+                nativeResolution, maxMessageKb, frameMemoryMb);
         startActivity(intent);
     }
 
@@ -43,4 +43,10 @@ public interface Metadata {
      * @return A 3 element float array representing the HSL of the current colour.
      */
     float[] getHsl();
+
+    /**
+     * Get the {@link Rasteriser} for the current {@link Dimensions} and {@link Dmd}.
+     * @return the current {@link Rasteriser}
+     */
+    Rasteriser getRasteriser();
 }
@@ -0,0 +1,299 @@
+/*
+ * Copyright 2021 Mark de Reeper
+ *
+ *  Permission is hereby granted, free of charge, to any person
+ *  obtaining a copy of this software and associated documentation
+ *  files (the "Software"), to deal in the Software without
+ *  restriction, including without limitation the rights to use,
+ *  copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the
+ *  Software is furnished to do so, subject to the following
+ *  conditions:
+ *
+ *  The above copyright notice and this permission notice shall be
+ *  included in all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ *  EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ *  OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ *  NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ *  HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ *  WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ *  FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ *  OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package nz.dereeper.dmdviewer;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.charset.Charset;
+import java.util.concurrent.Semaphore;
+
+import timber.log.Timber;
+
+/**
+ * A very small HTTP server that lets a browser on the LAN watch the DMD. It serves the encoded
+ * frames from a {@link FrameEncoder} as a MJPEG stream, with a simple page to show it on.
+ * Each viewer gets its own thread that just waits for the next encoded frame, so a slow viewer
+ * only misses frames, it never holds up the display or the other viewers. There are only so many
+ * of those threads, connections past {@link #MAX_CONNECTIONS} are turned away. The recent events
+ * from the {@link Tracer} can be fetched from /trace.json, to open in a trace viewer, and the
+ * last few seconds from the {@link FrameHistory} as an animated GIF from /replay.gif.
+ */
+class MjpegServer implements Runnable {
+
+    private static final Charset ASCII = Charset.forName("US-ASCII");
+    private static final String BOUNDARY = "dmdframe";
+    private static final int MAX_REQUEST_SIZE = 8 * 1024;
+    // CR LF CR LF
+    private static final int END_OF_HEADERS = 0x0D0A0D0A;
+    private static final long FRAME_WAIT_MILLIS = 5000;
+    private static final int REQUEST_TIMEOUT_MILLIS = 10000;
+    // Refusing is done on the accepting thread, so it waits less for the request.
+    private static final int REFUSE_TIMEOUT_MILLIS = 1000;
+    static final int MAX_CONNECTIONS = 8;
+    private static final long REPLAY_NANOS = 10L * 1000 * 1000 * 1000;
+    private static final int REPLAY_SCALE = 4;
+    private static final String INDEX_PAGE = "<!DOCTYPE html><html>" +
+            "<head><title>DMD Viewer</title><style>body{margin:0;background:#000}" +
+            "img{width:100vw;height:100vh;object-fit:contain;image-rendering:pixelated}</style>" +
+            "</head><body><img src=\"/stream.mjpg\"></body></html>";
+
+    private final int port;
+    private final FrameEncoder encoder;
+    private final FrameHistory history;
+    private final Semaphore connections = new Semaphore(MAX_CONNECTIONS);
+    // Encoding a replay takes a while, only one is done at a time.
+    private final Semaphore replays = new Semaphore(1);
+    private volatile ServerSocket serverSocket;
+    private volatile boolean running;
+
+    MjpegServer(final int port, final FrameEncoder encoder, final FrameHistory history) {
+        this.port = port;
+        this.encoder = encoder;
+        this.history = history;
+    }
+
+    void start() {
+        running = true;
+        final Thread thread = new Thread(this, "dmd-http-accept");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    void stop() {
+        running = false;
+        final ServerSocket socket = serverSocket;
+        if (socket != null) {
+            try {
+                socket.close();
+            } catch (IOException e) {
+                // We tried, ignore.
+            }
+        }
+    }
+
+    /**
+     * @return the port being listened on, or -1 until the server socket is open.
+     */
+    int getLocalPort() {
+        final ServerSocket socket = serverSocket;
+        return socket != null ? socket.getLocalPort() : -1;
+    }
+
+    @Override
+    public void run() {
+        try {
+            serverSocket = new ServerSocket(port);
+            Timber.i("Starting the HTTP Server on port: %s", port);
+            while (running) {
+                final Socket socket = serverSocket.accept();
+                if (!connections.tryAcquire()) {
+                    refuse(socket);
+                    continue;
+                }
+                final Thread viewer = new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            serve(socket);
+                        } finally {
+                            connections.release();
+                        }
+                    }
+                }, "dmd-http-viewer");
+                viewer.setDaemon(true);
+                viewer.start();
+            }
+        } catch (SocketException e) {
+            if (running) {
+                Timber.e(e, "HTTP Server socket failed");
+            }
+        } catch (IOException e) {
+            Timber.e(e, "HTTP Server failed on port: %s", port);
+        } finally {
+            stop();
+            Timber.i("HTTP Server stopped");
+        }
+    }
+
+    private static void refuse(final Socket socket) {
+        Timber.w("Too many HTTP viewers, turning one away");
+        try {
+            socket.setSoTimeout(REFUSE_TIMEOUT_MILLIS);
+            // Read first, closing with the request unread can reset the connection instead.
+            readRequestPath(socket.getInputStream());
+            writeResponse(new BufferedOutputStream(socket.getOutputStream()),
+                    "503 Service Unavailable", "text/plain", "Too many viewers".getBytes(ASCII));
+        } catch (IOException e) {
+            Timber.i("Turned away HTTP viewer went away: %s", e.getMessage());
+        } finally {
+            try {
+                socket.close();
+            } catch (IOException e) {
+                // We tried, ignore.
+            }
+        }
+    }
+
+    private void serve(final Socket socket) {
+        try {
+            socket.setSoTimeout(REQUEST_TIMEOUT_MILLIS);
+            final String path = readRequestPath(socket.getInputStream());
+            final OutputStream out = new BufferedOutputStream(socket.getOutputStream());
+            if ("/".equals(path)) {
+                writeResponse(out, "200 OK", "text/html", INDEX_PAGE.getBytes(ASCII));
+            } else if ("/stream.mjpg".equals(path)) {
+                streamFrames(out);
+            } else if ("/trace.json".equals(path)) {
+                final StringBuilder trace = new StringBuilder(256 * 1024);
+                Tracer.writeChromeTrace(trace);
+                writeResponse(out, "200 OK", "application/json",
+                        trace.toString().getBytes(ASCII));
+            } else if ("/replay.gif".equals(path)) {
+                writeReplay(out);
+            } else if ("/frame.jpg".equals(path)) {
+                encoder.addViewer();
+                try {
+                    final FrameEncoder.EncodedFrame frame =
+                            encoder.awaitFrame(-1, FRAME_WAIT_MILLIS);
+                    if (frame != null) {
+                        writeResponse(out, "200 OK", "image/jpeg", frame.jpeg);
+                    } else {
+                        writeResponse(out, "503 Service Unavailable", "text/plain",
+                                "No frame available".getBytes(ASCII));
+                    }
+                } finally {
+                    encoder.removeViewer();
+                }
+            } else {
+                writeResponse(out, "404 Not Found", "text/plain", "Not found".getBytes(ASCII));
+            }
+        } catch (IOException e) {
+            Timber.i("HTTP viewer went away: %s", e.getMessage());
+        } catch (InterruptedException e) {
+            Timber.w(e, "HTTP viewer interrupted");
+        } finally {
+            try {
+                socket.close();
+            } catch (IOException e) {
+                // We tried, ignore.
+            }
+        }
+    }
+
+    private void writeReplay(final OutputStream out) throws IOException {
+        if (!replays.tryAcquire()) {
+            writeResponse(out, "503 Service Unavailable", "text/plain",
+                    "Busy with another replay".getBytes(ASCII));
+            return;
+        }
+        final byte[] gif;
+        try {
+            // Encoded here on the viewer's thread, the history is only copied.
+            final FrameHistory.Replay replay = history != null ?
+                    history.replay(REPLAY_NANOS, System.nanoTime()) : null;
+            gif = replay != null && replay.size() > 0 ?
+                    GifEncoder.encode(replay, REPLAY_SCALE) : null;
+        } finally {
+            replays.release();
+        }
+        if (gif != null) {
+            writeResponse(out, "200 OK", "image/gif", gif);
+        } else {
+            writeResponse(out, "503 Service Unavailable", "text/plain",
+                    "No frames to replay".getBytes(ASCII));
+        }
+    }
+
+    private void streamFrames(final OutputStream out) throws IOException, InterruptedException {
+        out.write(("HTTP/1.0 200 OK\r\n" +
+                   "Cache-Control: no-cache\r\n" +
+                   "Connection: close\r\n" +
+                   "Content-Type: multipart/x-mixed-replace; boundary=" + BOUNDARY + "\r\n\r\n")
+                .getBytes(ASCII));
+        out.flush();
+        encoder.addViewer();
+        Timber.i("HTTP viewer started streaming");
+        try {
+            long lastSequence = -1;
+            while (running) {
+                final FrameEncoder.EncodedFrame frame = encoder.awaitFrame(lastSequence,
+                        FRAME_WAIT_MILLIS);
+                if (frame == null) {
+                    continue;
+                }
+                out.write(("--" + BOUNDARY + "\r\n" +
+                           "Content-Type: image/jpeg\r\n" +
+                           "Content-Length: " + frame.jpeg.length + "\r\n\r\n").getBytes(ASCII));
+                out.write(frame.jpeg);
+                out.write("\r\n".getBytes(ASCII));
+                out.flush();
+                lastSequence = frame.sequence;
+            }
+        } finally {
+            encoder.removeViewer();
+        }
+    }
+
+    private static void writeResponse(final OutputStream out,
+                                      final String status,
+                                      final String contentType,
+                                      final byte[] body) throws IOException {
+        out.write(("HTTP/1.0 " + status + "\r\n" +
+                   "Cache-Control: no-cache\r\n" +
+                   "Connection: close\r\n" +
+                   "Content-Type: " + contentType + "\r\n" +
+                   "Content-Length: " + body.length + "\r\n\r\n").getBytes(ASCII));
+        out.write(body);
+        out.flush();
+    }
+
+    // Read the request headers and return the path from the request line, ignoring any query.
+    static String readRequestPath(final InputStream in) throws IOException {
+        final StringBuilder request = new StringBuilder();
+        // The last four bytes read, the headers end at a blank line.
+        int last = 0;
+        int b;
+        while (request.length() < MAX_REQUEST_SIZE && (b = in.read()) != -1) {
+            request.append((char) b);
+            last = last << 8 | b;
+            if (last == END_OF_HEADERS) {
+                break;
+            }
+        }
+        final String[] requestLine = request.toString().split(" ");
+        if (requestLine.length < 2 || !"GET".equals(requestLine[0])) {
+            return "";
+        }
+        final String target = requestLine[1];
+        final int query = target.indexOf('?');
+        return query >= 0 ? target.substring(0, query) : target;
+    }
+}
@@ -0,0 +1,136 @@
+/*
+ * Copyright 2021 Mark de Reeper
+ *
+ *  Permission is hereby granted, free of charge, to any person
+ *  obtaining a copy of this software and associated documentation
+ *  files (the "Software"), to deal in the Software without
+ *  restriction, including without limitation the rights to use,
+ *  copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the
+ *  Software is furnished to do so, subject to the following
+ *  conditions:
+ *
+ *  The above copyright notice and this permission notice shall be
+ *  included in all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ *  EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ *  OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ *  NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ *  HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ *  WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ *  FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ *  OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package nz.dereeper.dmdviewer;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import timber.log.Timber;
+
+/**
+ * The frame shown while waiting for a source to connect. It is read and drawn once for the life
+ * of the process, rather than every time the viewer is opened or a source disconnects, and only
+ * drawn again if the DMD settings change.
+ */
+class OpeningFrame {
+
+    static final Dimensions DIMENSIONS = new Dimensions(128, 32);
+
+    /**
+     * Where the opening frame is read from.
+     */
+    interface Source {
+        InputStream open() throws IOException;
+    }
+
+    private static boolean read;
+    private static Frame frame;
+    private static int[] image;
+    private static Dmd imageDmd;
+    private static ColourAdjust imageAdjust;
+    private static boolean imageAbgr;
+
+    private OpeningFrame() {
+        // Just statics
+    }
+
+    /**
+     * Get the opening frame, read from the source the first time it is asked for.
+     * @param source where to read the frame from.
+     * @return the frame, or null if it couldn't be read.
+     */
+    static synchronized Frame get(final Source source) {
+        if (!read) {
+            read = true;
+            frame = read(source);
+        }
+        return frame;
+    }
+
+    /**
+     * Get the opening frame drawn for {@link #DIMENSIONS}, drawn the first time it is asked for
+     * with these settings.
+     * @param source where to read the frame from.
+     * @param dmd how to draw each pixel.
+     * @param adjust the adjustment to make to every colour.
+     * @param abgr true to have red and blue swapped, see {@link RenderTarget#isAbgr()}.
+     * @return the raw image, which must not be changed, or null if there isn't one.
+     */
+    static synchronized int[] image(final Source source,
+                                    final Dmd dmd,
+                                    final ColourAdjust adjust,
+                                    final boolean abgr) {
+        if (image == null || !dmd.equals(imageDmd) || !adjust.equals(imageAdjust) ||
+            abgr != imageAbgr) {
+            final Frame opening = get(source);
+            if (opening == null) {
+                return null;
+            }
+            // A rasteriser of its own, so the image isn't overwritten by the next frame drawn.
+            final Rasteriser rasteriser = new Rasteriser(DIMENSIONS, dmd, adjust, abgr);
+            final RenderState state = RenderState.forColour(0).withDimensions(DIMENSIONS);
+            final int[] drawn = ImageUtils.toRawImage(opening, state,
+                    new FixedMetadata(dmd, state, rasteriser));
+            if (drawn == null) {
+                return null;
+            }
+            image = drawn;
+            imageDmd = dmd;
+            imageAdjust = adjust;
+            imageAbgr = abgr;
+        }
+        return image;
+    }
+
+    // Package private for tests.
+    static synchronized void reset() {
+        read = false;
+        frame = null;
+        image = null;
+    }
+
+    private static Frame read(final Source source) {
+        DataInputStream frameStream = null;
+        try {
+            frameStream = new DataInputStream(source.open());
+            byte[] openingFrameBytes = new byte[frameStream.available()];
+            frameStream.readFully(openingFrameBytes);
+            return new Frame(openingFrameBytes);
+        } catch (IOException e) {
+            Timber.w(e, "There was an issue creating the opening frame");
+        } finally {
+            if (frameStream != null) {
+                try {
+                    frameStream.close();
+                } catch (IOException e) {
+                    // We tried, ignore.
+                }
+            }
+        }
+        return null;
+    }
+}
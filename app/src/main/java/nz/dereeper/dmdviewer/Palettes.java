@@ -0,0 +1,147 @@
+/*
+ * Copyright 2021 Mark de Reeper
+ *
+ *  Permission is hereby granted, free of charge, to any person
+ *  obtaining a copy of this software and associated documentation
+ *  files (the "Software"), to deal in the Software without
+ *  restriction, including without limitation the rights to use,
+ *  copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the
+ *  Software is furnished to do so, subject to the following
+ *  conditions:
+ *
+ *  The above copyright notice and this permission notice shall be
+ *  included in all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ *  EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ *  OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ *  NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ *  HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ *  WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ *  FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ *  OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package nz.dereeper.dmdviewer;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Keeps one copy of each recently seen palette. Coloured frames carry their palette in every
+ * message even though it hardly ever changes, reading it through here gives every frame with the
+ * same colours the same array, so anything worked out from a palette can be kept against the
+ * array rather than compared colour by colour. Palettes handed out by this class are shared and
+ * must never be changed. The table is small and the oldest palette makes way for a new one.
+ */
+class Palettes {
+
+    static final int CAPACITY = 16;
+
+    private static final Object lock = new Object();
+    private static final Stats.Counter added = Stats.counter("palettesAdded");
+    // Guarded by lock, the array is replaced rather than changed so it can be published.
+    private static int[][] entries = new int[CAPACITY][];
+    private static final int[] hashes = new int[CAPACITY];
+    private static int next;
+    // The same as entries, for checking without taking the lock.
+    private static volatile int[][] published = entries;
+
+    private Palettes() {
+        // Just statics
+    }
+
+    /**
+     * Read a palette from a message, a count of colours followed by that many colours.
+     * @param data the message, positioned at the count. Left after the last colour.
+     * @return the shared palette with those colours.
+     * @throws BufferUnderflowException if the message is too short for the count.
+     */
+    static int[] read(final ByteBuffer data) {
+        final int count = data.getInt();
+        if (count < 0 || count > data.remaining() / 4) {
+            throw new BufferUnderflowException();
+        }
+        final int start = data.position();
+        int hash = count;
+        for (int i = 0; i < count; i++) {
+            hash = 31 * hash + data.getInt(start + i * 4);
+        }
+        synchronized (lock) {
+            for (int e = 0; e < CAPACITY; e++) {
+                final int[] entry = entries[e];
+                if (entry != null && hashes[e] == hash && entry.length == count &&
+                    matches(entry, data, start)) {
+                    data.position(start + count * 4);
+                    return entry;
+                }
+            }
+            final int[] palette = new int[count];
+            for (int i = 0; i < count; i++) {
+                palette[i] = data.getInt();
+            }
+            add(palette, hash);
+            return palette;
+        }
+    }
+
+    /**
+     * Find the shared palette with the same colours.
+     * @param colours the colours, which are copied if they are not already shared.
+     * @return the shared palette.
+     */
+    static int[] intern(final int[] colours) {
+        int hash = colours.length;
+        for (int colour : colours) {
+            hash = 31 * hash + colour;
+        }
+        synchronized (lock) {
+            for (int e = 0; e < CAPACITY; e++) {
+                final int[] entry = entries[e];
+                if (entry == colours ||
+                    entry != null && hashes[e] == hash && Arrays.equals(entry, colours)) {
+                    return entry;
+                }
+            }
+            final int[] palette = colours.clone();
+            add(palette, hash);
+            return palette;
+        }
+    }
+
+    /**
+     * Check whether a palette is shared, so will never change.
+     * @param palette the palette.
+     * @return true if the palette came from this class and is still in the table.
+     */
+    static boolean isInterned(final int[] palette) {
+        for (int[] entry : published) {
+            if (entry == palette) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean matches(final int[] entry, final ByteBuffer data, final int start) {
+        for (int i = 0; i < entry.length; i++) {
+            if (entry[i] != data.getInt(start + i * 4)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // Called holding the lock.
+    private static void add(final int[] palette, final int hash) {
+        final int[][] newEntries = entries.clone();
+        newEntries[next] = palette;
+        hashes[next] = hash;
+        next = (next + 1) % CAPACITY;
+        entries = newEntries;
+        published = newEntries;
+        added.increment();
+    }
+}
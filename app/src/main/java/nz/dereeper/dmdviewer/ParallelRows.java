@@ -0,0 +1,132 @@
+/*
+ * Copyright 2021 Mark de Reeper
+ *
+ *  Permission is hereby granted, free of charge, to any person
+ *  obtaining a copy of this software and associated documentation
+ *  files (the "Software"), to deal in the Software without
+ *  restriction, including without limitation the rights to use,
+ *  copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the
+ *  Software is furnished to do so, subject to the following
+ *  conditions:
+ *
+ *  The above copyright notice and this permission notice shall be
+ *  included in all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ *  EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ *  OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ *  NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ *  HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ *  WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ *  FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ *  OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package nz.dereeper.dmdviewer;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+import timber.log.Timber;
+
+/**
+ * Splits work over a range of rows across the available cores. Small amounts of work are done
+ * directly on the calling thread as handing them off would cost more than doing them.
+ */
+class ParallelRows {
+
+    /**
+     * Work to do for a band of rows.
+     */
+    interface Task {
+        /**
+         * Process the rows in the band.
+         * @param band the index of the band, from 0 to {@link #bands()} - 1.
+         * @param from the first row, inclusive.
+         * @param to the last row, exclusive.
+         */
+        void run(int band, int from, int to);
+    }
+
+    // Below this many pixels it is quicker to just do the work on the calling thread.
+    static final int MIN_PARALLEL_PIXELS = 128 * 1024;
+
+    private static final int bands = Math.max(1, Runtime.getRuntime().availableProcessors());
+    private static ExecutorService executor;
+
+    private ParallelRows() {
+        // Just statics
+    }
+
+    /**
+     * The maximum number of bands work will be split into.
+     * @return the maximum number of bands.
+     */
+    static int bands() {
+        return bands;
+    }
+
+    /**
+     * Run the task over the rows, splitting them into bands when there are enough pixels to make
+     * this worthwhile. Returns once all rows have been processed.
+     * @param from the first row, inclusive.
+     * @param to the last row, exclusive.
+     * @param rowWidth the number of pixels processed per row.
+     * @param task the work to do.
+     */
+    static void run(final int from, final int to, final int rowWidth, final Task task) {
+        final int rows = to - from;
+        if (rows <= 0) {
+            return;
+        }
+        if (bands == 1 || rows < bands || rows * rowWidth < MIN_PARALLEL_PIXELS) {
+            task.run(0, from, to);
+            return;
+        }
+        final int rowsPerBand = (rows + bands - 1) / bands;
+        final CountDownLatch done = new CountDownLatch(bands - 1);
+        final ExecutorService workers = executor();
+        for (int band = 1; band < bands; band++) {
+            final int bandIndex = band;
+            final int bandFrom = Math.min(to, from + band * rowsPerBand);
+            final int bandTo = Math.min(to, bandFrom + rowsPerBand);
+            workers.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        task.run(bandIndex, bandFrom, bandTo);
+                    } finally {
+                        done.countDown();
+                    }
+                }
+            });
+        }
+        // The calling thread does the first band rather than sitting idle.
+        task.run(0, from, Math.min(to, from + rowsPerBand));
+        try {
+            done.await();
+        } catch (InterruptedException e) {
+            Timber.w(e, "Interrupted waiting for row bands to complete");
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static synchronized ExecutorService executor() {
+        if (executor == null) {
+            executor = Executors.newFixedThreadPool(bands - 1, new ThreadFactory() {
+                private int count;
+
+                @Override
+                public Thread newThread(final Runnable runnable) {
+                    final Thread thread = new Thread(runnable, "dmd-rows-" + count++);
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+        return executor;
+    }
+}
@@ -0,0 +1,164 @@
+/*
+ * Copyright 2021 Mark de Reeper
+ *
+ *  Permission is hereby granted, free of charge, to any person
+ *  obtaining a copy of this software and associated documentation
+ *  files (the "Software"), to deal in the Software without
+ *  restriction, including without limitation the rights to use,
+ *  copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the
+ *  Software is furnished to do so, subject to the following
+ *  conditions:
+ *
+ *  The above copyright notice and this permission notice shall be
+ *  included in all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ *  EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ *  OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ *  NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ *  HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ *  WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ *  FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ *  OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package nz.dereeper.dmdviewer;
+
+/**
+ * Makes pixels fade out rather than switch off instantly, like the phosphor of a real DMD.
+ * Each frame the previous output is decayed and every channel of the new image is the brighter
+ * of it and the decayed value. Colours are handled two channels at a time, red with blue and
+ * alpha with green, each in its own 16 bit lane of an int, so decaying is a multiply and taking
+ * the brighter of two is a subtract and a mask. Only pixels that changed or are still fading are
+ * touched, once everything has faded the effect costs nothing until the image changes.
+ */
+class PersistenceEffect implements Effect {
+
+    private static final int LANES = 0x00FF00FF;
+    // Set in each lane before subtracting, whether it is still set says which was bigger.
+    private static final int CARRY = 0x01000100;
+
+    private final double halfLifeMillis;
+    private final DirtyRegion fading = new DirtyRegion();
+    private int width;
+    private int height;
+    private int[] output;
+    private long lastNanos;
+
+    /**
+     * Create a persistence effect.
+     * @param halfLifeMillis how long it takes a pixel that has switched off to fade to half its
+     *                       brightness.
+     */
+    PersistenceEffect(final int halfLifeMillis) {
+        this.halfLifeMillis = halfLifeMillis;
+    }
+
+    @Override
+    public String getName() {
+        return "persistence";
+    }
+
+    @Override
+    public int[] apply(final int[] source,
+                       final int width,
+                       final int height,
+                       final DirtyRegion dirty) {
+        return apply(source, width, height, dirty, System.nanoTime());
+    }
+
+    int[] apply(final int[] source,
+                final int width,
+                final int height,
+                final DirtyRegion dirty,
+                final long nowNanos) {
+        if (output == null || this.width != width || this.height != height) {
+            this.width = width;
+            this.height = height;
+            output = source.clone();
+            fading.setEmpty();
+            lastNanos = nowNanos;
+            dirty.set(0, 0, width, height);
+            return output;
+        }
+        dirty.union(fading);
+        if (dirty.isEmpty()) {
+            lastNanos = nowNanos;
+            return output;
+        }
+        // The decay depends on the time since the last frame, so the fade takes as long
+        // whatever rate frames arrive at. It always decays a little so pixels do fade out.
+        final double elapsedMillis = (nowNanos - lastNanos) / 1000000.0;
+        final int decay = Math.min(255, (int) (256 * Math.pow(0.5, elapsedMillis / halfLifeMillis)));
+        lastNanos = nowNanos;
+        blend(source, dirty, decay);
+        return output;
+    }
+
+    /**
+     * Return true while pixels are still fading out.
+     * @return true if the output will change without the source changing.
+     */
+    @Override
+    public boolean isAnimating() {
+        return !fading.isEmpty();
+    }
+
+    @Override
+    public void reset() {
+        output = null;
+        fading.setEmpty();
+    }
+
+    private void blend(final int[] source, final DirtyRegion region, final int decay) {
+        final int[] out = output;
+        int fadeLeft = width;
+        int fadeTop = height;
+        int fadeRight = 0;
+        int fadeBottom = 0;
+        for (int y = region.top; y < region.bottom; y++) {
+            final int row = y * width;
+            for (int x = region.left; x < region.right; x++) {
+                final int s = source[row + x];
+                final int o = out[row + x];
+                if (o == s) {
+                    continue;
+                }
+                final int blended = brighter(s, o, decay);
+                out[row + x] = blended;
+                if (blended != s) {
+                    fadeLeft = Math.min(fadeLeft, x);
+                    fadeRight = Math.max(fadeRight, x + 1);
+                    fadeTop = Math.min(fadeTop, y);
+                    fadeBottom = y + 1;
+                }
+            }
+        }
+        if (fadeRight > fadeLeft) {
+            fading.set(fadeLeft, fadeTop, fadeRight, fadeBottom);
+        } else {
+            fading.setEmpty();
+        }
+    }
+
+    /**
+     * Decay the previous colour and take the brighter of it and the new one for each channel.
+     * @param colour the new colour.
+     * @param previous the previous colour.
+     * @param decay how much of the previous colour is left, out of 256.
+     * @return the blended colour.
+     */
+    static int brighter(final int colour, final int previous, final int decay) {
+        final int rb = max(colour & LANES, ((previous & LANES) * decay >>> 8) & LANES);
+        final int ag = max((colour >>> 8) & LANES, (((previous >>> 8) & LANES) * decay >>> 8) & LANES);
+        return rb | (ag << 8);
+    }
+
+    // The larger of each 8 bit value in the two 16 bit lanes. Setting the ninth bit first means
+    // a lane can't borrow from the next, and it is still set afterwards only where a >= b.
+    private static int max(final int a, final int b) {
+        final int select = ((((a | CARRY) - b) & CARRY) >>> 8) * 0xFF;
+        return (a & select) | (b & ~select & LANES);
+    }
+}
@@ -0,0 +1,305 @@
+/*
+ * Copyright 2021 Mark de Reeper
+ *
+ *  Permission is hereby granted, free of charge, to any person
+ *  obtaining a copy of this software and associated documentation
+ *  files (the "Software"), to deal in the Software without
+ *  restriction, including without limitation the rights to use,
+ *  copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the
+ *  Software is furnished to do so, subject to the following
+ *  conditions:
+ *
+ *  The above copyright notice and this permission notice shall be
+ *  included in all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ *  EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ *  OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ *  NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ *  HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ *  WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ *  FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ *  OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package nz.dereeper.dmdviewer;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import timber.log.Timber;
+
+/**
+ * Rasterises consecutive image frames at the same time on a small pool of threads, for when one
+ * core can't keep up with large frames. Each frame keeps the {@link RenderState} it arrived with,
+ * and the images are handed to the {@link Presenter} strictly in the order the frames arrived.
+ * <p>
+ * Every frame in flight holds a slot with its own {@link Rasteriser}, as the image it draws has to
+ * stay put until it is presented. There is one slot per thread. When they are all busy only the
+ * newest frame waits for the next free slot and any frame it replaces is skipped, so the display
+ * never falls behind the sender but still ends up showing the last frame sent.
+ */
+class PipelinedRenderer {
+
+    /**
+     * Takes the images in the order their frames arrived, never called by two threads at once.
+     */
+    interface Presenter {
+        /**
+         * Show an image.
+         * @param image the raw image, only valid until this returns.
+         * @param width the width of the image.
+         * @param height the height of the image.
+         * @param frame the frame the image was drawn from.
+         * @param state the state it was drawn with.
+         */
+        void present(int[] image, int width, int height, Frame frame, RenderState state);
+    }
+
+    private final Dmd dmd;
+    private final ColourAdjust adjust;
+    private final boolean abgr;
+    private final Presenter presenter;
+    private final int threads;
+    private final AtomicInteger threadCount = new AtomicInteger();
+    // Replaced each time the renderer is started again, guarded by this.
+    private ExecutorService executor;
+    private final Deque<Slot> freeSlots = new ArrayDeque<>();
+    // Frames in the order they arrived, guarded by this.
+    private final Deque<Job> inFlight = new ArrayDeque<>();
+    // The newest frame that arrived while every slot was busy, guarded by this.
+    private Job waiting;
+    // Held while presenting so images go out one at a time.
+    private final Object presentLock = new Object();
+    private final Stats.Counter skipped = Stats.counter("pipelineSkipped");
+
+    private static class Slot {
+        Rasteriser rasteriser;
+        // Made again only when the state or the rasteriser changes.
+        FixedMetadata metadata;
+    }
+
+    private class Job implements Runnable {
+        final Frame frame;
+        final RenderState state;
+        final int[] colours;
+        Slot slot;
+        int[] image;
+        // Both guarded by the renderer, a job is either presented or abandoned by a shutdown.
+        boolean done;
+        boolean abandoned;
+
+        Job(final Frame frame, final RenderState state, final int[] colours) {
+            this.frame = frame;
+            this.state = state;
+            this.colours = colours;
+        }
+
+        @Override
+        public void run() {
+            final long start = Tracer.begin();
+            try {
+                if (slot.rasteriser == null ||
+                    !slot.rasteriser.matches(state.dimensions, dmd, adjust)) {
+                    slot.rasteriser = new Rasteriser(state.dimensions, dmd, adjust, abgr);
+                }
+                if (slot.metadata == null || !slot.metadata.isFor(state, slot.rasteriser)) {
+                    slot.metadata = new FixedMetadata(dmd, state, slot.rasteriser);
+                }
+                image = colours != null ?
+                        ImageUtils.toRawImage(frame.getPlanes(), colours,
+                                grayBitLength(frame), slot.metadata) :
+                        ImageUtils.toRawImage(frame, state, slot.metadata);
+            } catch (RuntimeException e) {
+                Timber.e(e, "Unable to rasterise a %s frame", frame.getFrameType());
+            } finally {
+                Tracer.end(Tracer.RASTERISE, start, frame.getFrameType());
+                if (finish(this)) {
+                    presentReady();
+                }
+            }
+        }
+    }
+
+    private static int grayBitLength(final Frame frame) {
+        return frame.getFrameType() == Frame.FrameType.GRAY_2_PLANES ? 2 : 4;
+    }
+
+    /**
+     * Create the renderer and start its threads.
+     * @param threads how many frames can be drawn at once.
+     * @param dmd how to draw the pixels.
+     * @param adjust the colour adjustment.
+     * @param abgr true to draw with red and blue swapped, see {@link RenderTarget}.
+     * @param presenter where the images go.
+     */
+    PipelinedRenderer(final int threads,
+                      final Dmd dmd,
+                      final ColourAdjust adjust,
+                      final boolean abgr,
+                      final Presenter presenter) {
+        this.dmd = dmd;
+        this.adjust = adjust;
+        this.abgr = abgr;
+        this.presenter = presenter;
+        this.threads = threads;
+        for (int i = 0; i < threads; i++) {
+            freeSlots.add(new Slot());
+        }
+        start();
+    }
+
+    /**
+     * Start the threads again after a {@link #shutdown()}, does nothing if they are running.
+     */
+    synchronized void start() {
+        if (executor != null && !executor.isShutdown()) {
+            return;
+        }
+        executor = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+            @Override
+            public Thread newThread(final Runnable runnable) {
+                final Thread thread = new Thread(runnable,
+                        "Rasteriser-" + threadCount.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    /**
+     * Start drawing a frame.
+     * @param frame the image frame.
+     * @param state the control state when it arrived.
+     * @param colours a colourisation palette for a gray frame, or null to draw it as it came.
+     * @return false if an earlier frame waiting for a free slot was skipped for this one.
+     */
+    synchronized boolean submit(final Frame frame, final RenderState state, final int[] colours) {
+        // Kept until it has been presented, or skipped.
+        frame.retain();
+        final Job job = new Job(frame, state, colours);
+        final Slot slot = freeSlots.poll();
+        if (slot == null) {
+            final boolean replaced = waiting != null;
+            if (replaced) {
+                skipped.increment();
+                waiting.frame.release();
+            }
+            waiting = job;
+            return !replaced;
+        }
+        start(job, slot);
+        return true;
+    }
+
+    // Called holding the lock on this.
+    private void start(final Job job, final Slot slot) {
+        job.slot = slot;
+        inFlight.add(job);
+        try {
+            executor.execute(job);
+        } catch (RejectedExecutionException e) {
+            // Shut down, nothing more will be drawn.
+            inFlight.removeLast();
+            freeSlots.add(slot);
+            job.frame.release();
+        }
+    }
+
+    /**
+     * Stop the threads, frames still in flight are not presented. The renderer can be started
+     * again with {@link #start()}.
+     */
+    synchronized void shutdown() {
+        if (waiting != null) {
+            waiting.frame.release();
+            waiting = null;
+        }
+        final List<Runnable> neverRan = executor.shutdownNow();
+        for (Job job : inFlight) {
+            if (job.done || neverRan.contains(job)) {
+                // Nothing more will happen to it, so give back its frame and slot now.
+                abandon(job);
+            } else {
+                // Still being drawn, given back when it finishes.
+                job.abandoned = true;
+            }
+        }
+        inFlight.clear();
+    }
+
+    // Called by a job when it has been drawn, returns true if it is to be presented.
+    private synchronized boolean finish(final Job job) {
+        if (job.abandoned) {
+            abandon(job);
+            return false;
+        }
+        job.done = true;
+        return true;
+    }
+
+    // Called holding the lock on this.
+    private void abandon(final Job job) {
+        job.frame.release();
+        freeSlot(job.slot);
+    }
+
+    // Called holding the lock on this, a frame that arrived after a restart may be waiting.
+    private void freeSlot(final Slot slot) {
+        if (waiting != null) {
+            final Job next = waiting;
+            waiting = null;
+            start(next, slot);
+        } else {
+            freeSlots.add(slot);
+        }
+    }
+
+    /**
+     * Let go of the rasterisers' buffers while nothing is being drawn, for when the display is
+     * idle. They are created again with the next frame.
+     */
+    synchronized void release() {
+        for (Slot slot : freeSlots) {
+            if (slot.rasteriser != null) {
+                slot.rasteriser.release();
+            }
+        }
+    }
+
+    // Present every frame at the front that has been drawn, called each time a frame finishes.
+    private void presentReady() {
+        synchronized (presentLock) {
+            while (true) {
+                final Job job;
+                synchronized (this) {
+                    job = inFlight.peek();
+                    if (job == null || !job.done) {
+                        return;
+                    }
+                    inFlight.poll();
+                }
+                try {
+                    if (job.image != null) {
+                        presenter.present(job.image, job.slot.rasteriser.getOutputWidth(),
+                                job.slot.rasteriser.getOutputHeight(), job.frame, job.state);
+                    }
+                } catch (RuntimeException e) {
+                    Timber.e(e, "Unable to present a %s frame", job.frame.getFrameType());
+                } finally {
+                    job.frame.release();
+                    synchronized (this) {
+                        freeSlot(job.slot);
+                    }
+                }
+            }
+        }
+    }
+}
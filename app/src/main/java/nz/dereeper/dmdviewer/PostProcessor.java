@@ -0,0 +1,174 @@
+/*
+ * Copyright 2021 Mark de Reeper
+ *
+ *  Permission is hereby granted, free of charge, to any person
+ *  obtaining a copy of this software and associated documentation
+ *  files (the "Software"), to deal in the Software without
+ *  restriction, including without limitation the rights to use,
+ *  copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the
+ *  Software is furnished to do so, subject to the following
+ *  conditions:
+ *
+ *  The above copyright notice and this permission notice shall be
+ *  included in all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ *  EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ *  OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ *  NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ *  HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ *  WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ *  FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ *  OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package nz.dereeper.dmdviewer;
+
+/**
+ * Runs the raw image from {@link ImageUtils} through a chain of {@link Effect}s. Only the region
+ * that changed since the previous image is passed on to the effects, and the time taken by each
+ * effect is recorded in the {@link Stats}.
+ */
+class PostProcessor {
+
+    private final Effect[] effects;
+    private final Stats.Timer[] timers;
+    private final DirtyRegion dirty = new DirtyRegion();
+    private int[] previous;
+    private int width;
+    private int height;
+
+    PostProcessor(final Effect... effects) {
+        this.effects = effects;
+        timers = new Stats.Timer[effects.length];
+        for (int i = 0; i < effects.length; i++) {
+            timers[i] = Stats.timer(effects[i].getName());
+        }
+    }
+
+    /**
+     * Return true if there are no effects to apply.
+     * @return true if there are no effects to apply.
+     */
+    boolean isEmpty() {
+        return effects.length == 0;
+    }
+
+    /**
+     * Apply the effects to a newly rasterised image.
+     * @param rawImage the image as generated by {@link ImageUtils}.
+     * @param width the width of the image.
+     * @param height the height of the image.
+     * @return the image with all effects applied, this may be the same array passed in when
+     * there are no effects. Only valid until the next call.
+     */
+    int[] process(final int[] rawImage, final int width, final int height) {
+        if (isEmpty()) {
+            return rawImage;
+        }
+        findDirtyRegion(rawImage, width, height);
+        return applyEffects(rawImage);
+    }
+
+    private int[] applyEffects(final int[] rawImage) {
+        int[] image = rawImage;
+        for (int i = 0; i < effects.length; i++) {
+            final long start = System.nanoTime();
+            image = effects[i].apply(image, width, height, dirty);
+            timers[i].record(System.nanoTime() - start);
+        }
+        return image;
+    }
+
+    /**
+     * Return true if any of the effects will change the image without a new raw image, in which
+     * case {@link #advance()} should be called until it isn't.
+     * @return true if the effects are still animating.
+     */
+    boolean isAnimating() {
+        for (Effect effect : effects) {
+            if (effect.isAnimating()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Apply the effects again to the last raw image, moving on any animation.
+     * @return the image with all effects applied, or null if there is no previous image.
+     * Only valid until the next call.
+     */
+    int[] advance() {
+        if (previous == null) {
+            return null;
+        }
+        dirty.setEmpty();
+        return applyEffects(previous);
+    }
+
+    /**
+     * Drop any state held by the effects, such as when the display is no longer visible.
+     */
+    void reset() {
+        previous = null;
+        for (Effect effect : effects) {
+            effect.reset();
+        }
+    }
+
+    // Work out the bounds of what changed, keeping a copy of the image to compare with next time.
+    private void findDirtyRegion(final int[] rawImage, final int width, final int height) {
+        if (previous == null || this.width != width || this.height != height) {
+            this.width = width;
+            this.height = height;
+            previous = rawImage.clone();
+            dirty.set(0, 0, width, height);
+            return;
+        }
+        int top = 0;
+        while (top < height && rowMatches(rawImage, top)) {
+            top++;
+        }
+        if (top == height) {
+            dirty.setEmpty();
+            return;
+        }
+        int bottom = height;
+        while (rowMatches(rawImage, bottom - 1)) {
+            bottom--;
+        }
+        int left = width;
+        int right = 0;
+        for (int y = top; y < bottom; y++) {
+            final int row = y * width;
+            for (int x = 0; x < left; x++) {
+                if (rawImage[row + x] != previous[row + x]) {
+                    left = x;
+                    break;
+                }
+            }
+            for (int x = width - 1; x >= right; x--) {
+                if (rawImage[row + x] != previous[row + x]) {
+                    right = x + 1;
+                    break;
+                }
+            }
+        }
+        dirty.set(left, top, right, bottom);
+        final int start = top * width;
+        System.arraycopy(rawImage, start, previous, start, (bottom - top) * width);
+    }
+
+    private boolean rowMatches(final int[] rawImage, final int y) {
+        final int start = y * width;
+        final int end = start + width;
+        for (int i = start; i < end; i++) {
+            if (rawImage[i] != previous[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
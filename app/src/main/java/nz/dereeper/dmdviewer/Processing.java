@@ -33,6 +33,12 @@ public interface Processing {
      */
     void processFrame(Frame frame);
 
+    /**
+     * A binary message was dropped without being parsed as it repeated the last image of its
+     * type, the client is still sending.
+     */
+    void duplicateFrame();
+
     /**
      * A client has disconnected.
      */
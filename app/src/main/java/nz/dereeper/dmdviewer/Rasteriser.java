@@ -0,0 +1,499 @@
+/*
+ * Copyright 2021 Mark de Reeper
+ *
+ *  Permission is hereby granted, free of charge, to any person
+ *  obtaining a copy of this software and associated documentation
+ *  files (the "Software"), to deal in the Software without
+ *  restriction, including without limitation the rights to use,
+ *  copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the
+ *  Software is furnished to do so, subject to the following
+ *  conditions:
+ *
+ *  The above copyright notice and this permission notice shall be
+ *  included in all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ *  EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ *  OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ *  NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ *  HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ *  WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ *  FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ *  OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package nz.dereeper.dmdviewer;
+
+import java.util.Arrays;
+
+/**
+ * Turns the data from an image frame into a raw ARGB image for one combination of
+ * {@link Dimensions} and {@link Dmd}. Everything that depends on that combination is worked out
+ * once when the rasteriser is created, so should be replaced whenever either of them change.
+ * Planes are decoded straight into colours a byte at a time, with a loop specialised for each bit
+ * depth. Without the DMD effect the colours are written straight to the output, with it each
+ * source row is decoded into a small row buffer and then expanded into the LED pixel shape.
+ * When the DMD shows unlit pixels a template holding every pixel as an unlit dot is drawn once,
+ * each row of output starts as a copy of it and only the lit pixels are drawn over the top.
+ * Colours can be put out with red and blue swapped to suit a {@link RenderTarget}, that is done
+ * to the colour table so costs nothing per pixel.
+ */
+class Rasteriser {
+
+    private static final int OPAQUE = 0xFF000000;
+    // How many shared palettes keep their colour table, enough for a colourisation's switching.
+    private static final int CACHED_PALETTES = 8;
+
+    private final Dimensions dimensions;
+    private final Dmd dmd;
+    private final ColourAdjust adjust;
+    private final boolean abgr;
+    private final boolean led;
+    private final int width;
+    private final int height;
+    private final int outputWidth;
+    private final int outputHeight;
+    private final int combined;
+    // Where the lit part of each row of the LED pixel shape starts and ends.
+    private final int[] shapeStart;
+    private final int[] shapeEnd;
+    private final int[] row;
+    // Every pixel drawn unlit, null unless the DMD shows unlit pixels.
+    private final int[] template;
+    // For HSL shades and palettes that are not shared, rebuilt when what it was built from changes.
+    private final int[] ownTable = new int[256];
+    // The colours for each pixel value of the frame being drawn, the own table or a cached one.
+    private int[] colourTable = ownTable;
+    // Tables for shared palettes from Palettes, kept against the palette array as it never changes.
+    private final int[][] cachedPalettes = new int[CACHED_PALETTES][];
+    private final int[] cachedColours = new int[CACHED_PALETTES];
+    private final int[][] cachedTables = new int[CACHED_PALETTES][];
+    private int nextCached;
+    // The shared palette the colour table is for, null when it is the own table.
+    private int[] tableSource;
+    private int tableSourceColours;
+    // What the own table was last built from, so it is only adjusted when that changes.
+    private final int[] tablePalette = new int[256];
+    private int tablePaletteLength = -1;
+    private int tablePaletteColours;
+    private final float[] tableHsl = new float[3];
+    private float tableNumberOfColours;
+    private int tableBitLength;
+    private int[] output;
+    private RenderTarget target;
+
+    Rasteriser(final Dimensions dimensions, final Dmd dmd) {
+        this(dimensions, dmd, ColourAdjust.NONE, false);
+    }
+
+    /**
+     * Create a rasteriser.
+     * @param dimensions the size of the frames.
+     * @param dmd how to draw each pixel.
+     * @param adjust the adjustment to make to every colour.
+     * @param abgr true to output pixels with red and blue swapped, see
+     *             {@link RenderTarget#isAbgr()}.
+     */
+    Rasteriser(final Dimensions dimensions,
+               final Dmd dmd,
+               final ColourAdjust adjust,
+               final boolean abgr) {
+        this.dimensions = dimensions;
+        this.dmd = dmd;
+        this.adjust = adjust;
+        this.abgr = abgr;
+        led = dmd.isEnabled();
+        width = dimensions.width;
+        height = dimensions.height;
+        combined = led ? dmd.getCombined() : 1;
+        outputWidth = width * combined;
+        outputHeight = height * combined;
+        row = new int[width];
+        final boolean[][] shape = dmd.getShape();
+        shapeStart = new int[dmd.getPixels()];
+        shapeEnd = new int[dmd.getPixels()];
+        for (int i = 0; i < shapeStart.length; i++) {
+            int start = 0;
+            while (start < dmd.getPixels() && !shape[i][start]) {
+                start++;
+            }
+            int end = dmd.getPixels();
+            while (end > start && !shape[i][end - 1]) {
+                end--;
+            }
+            shapeStart[i] = start;
+            shapeEnd[i] = end;
+        }
+        template = led && dmd.isUnlit() ? createTemplate(order(adjust.apply(dmd.getUnlitColour()))) : null;
+    }
+
+    // Only the shape is drawn, so the unlit dots match the shape of the lit ones.
+    private int[] createTemplate(final int unlitColour) {
+        final boolean[][] shape = dmd.getShape();
+        final int[] pixels = new int[outputWidth * outputHeight];
+        for (int y = 0; y < outputHeight; y++) {
+            final int shapeY = y % combined;
+            if (shapeY >= shape.length) {
+                continue;
+            }
+            for (int x = 0; x < outputWidth; x++) {
+                final int shapeX = x % combined;
+                if (shapeX < shape[shapeY].length && shape[shapeY][shapeX]) {
+                    pixels[y * outputWidth + x] = unlitColour;
+                }
+            }
+        }
+        return pixels;
+    }
+
+    /**
+     * Return true if this rasteriser was created for the given dimensions and DMD.
+     * @param dimensions the {@link Dimensions} to check.
+     * @param dmd the {@link Dmd} to check.
+     * @param adjust the {@link ColourAdjust} to check.
+     * @return true if this rasteriser can be used for them.
+     */
+    boolean matches(final Dimensions dimensions, final Dmd dmd, final ColourAdjust adjust) {
+        return this.dimensions.equals(dimensions) && this.dmd == dmd && this.adjust == adjust;
+    }
+
+    Dimensions getDimensions() {
+        return dimensions;
+    }
+
+    int getOutputWidth() {
+        return outputWidth;
+    }
+
+    int getOutputHeight() {
+        return outputHeight;
+    }
+
+    /**
+     * Rasterise a set of planes using a palette. Any palette entries missing for the bit depth
+     * are shown as black.
+     * @param planes the planes, bitLength planes each of width x height / 8 bytes.
+     * @param palette the colours to use for each value a pixel can have.
+     * @param bitLength the number of planes.
+     * @return the raw image, only valid until the next call.
+     */
+    int[] fromPlanes(final byte[] planes, final int[] palette, final int bitLength) {
+        final int colours = 1 << bitLength;
+        if (palette == tableSource && colours == tableSourceColours) {
+            // The same shared palette as the last frame, nothing to do.
+            return fromPlanes(planes, bitLength);
+        }
+        if (Palettes.isInterned(palette)) {
+            colourTable = cachedTable(palette, colours);
+            tableSource = palette;
+            tableSourceColours = colours;
+        } else {
+            if (!tableHoldsPalette(palette, colours)) {
+                fillTable(palette, colours, ownTable);
+                final int length = Math.min(palette.length, colours);
+                System.arraycopy(palette, 0, tablePalette, 0, length);
+                tablePaletteLength = length;
+                tablePaletteColours = colours;
+                // The table no longer holds HSL shades.
+                tableBitLength = 0;
+            }
+            useOwnTable();
+        }
+        return fromPlanes(planes, bitLength);
+    }
+
+    // Find the table for a shared palette, building it the first time it is seen.
+    private int[] cachedTable(final int[] palette, final int colours) {
+        for (int i = 0; i < CACHED_PALETTES; i++) {
+            if (cachedPalettes[i] == palette && cachedColours[i] == colours) {
+                return cachedTables[i];
+            }
+        }
+        final int slot = nextCached;
+        nextCached = (nextCached + 1) % CACHED_PALETTES;
+        if (cachedTables[slot] == null || cachedTables[slot].length < colours) {
+            cachedTables[slot] = new int[Math.max(16, colours)];
+        }
+        fillTable(palette, colours, cachedTables[slot]);
+        cachedPalettes[slot] = palette;
+        cachedColours[slot] = colours;
+        return cachedTables[slot];
+    }
+
+    private void fillTable(final int[] palette, final int colours, final int[] table) {
+        for (int i = 0; i < colours; i++) {
+            table[i] = order(adjust.apply(i < palette.length ? palette[i] : 0));
+        }
+    }
+
+    private void useOwnTable() {
+        colourTable = ownTable;
+        tableSource = null;
+    }
+
+    // Palettes that are not shared may be changed in place, so compare what is in them.
+    private boolean tableHoldsPalette(final int[] palette, final int colours) {
+        if (tablePaletteColours != colours ||
+            tablePaletteLength != Math.min(palette.length, colours)) {
+            return false;
+        }
+        for (int i = 0; i < tablePaletteLength; i++) {
+            if (tablePalette[i] != palette[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Rasterise a set of planes as shades of a single colour.
+     * @param planes the planes, bitLength planes each of width x height / 8 bytes.
+     * @param hsl the colour to use.
+     * @param numberOfColours a pixel value of v is shown with the lightness of hsl scaled by
+     *                        v / numberOfColours.
+     * @param bitLength the number of planes.
+     * @return the raw image, only valid until the next call.
+     */
+    int[] fromPlanes(final byte[] planes,
+                     final float[] hsl,
+                     final float numberOfColours,
+                     final int bitLength) {
+        if (tableBitLength != bitLength ||
+            tableNumberOfColours != numberOfColours ||
+            !Arrays.equals(tableHsl, hsl)) {
+            // Only need to work out the shades when the colour changes.
+            final int colours = 1 << bitLength;
+            ImageUtils.hslShades(hsl, numberOfColours, colours, ownTable);
+            for (int i = 0; i < colours; i++) {
+                ownTable[i] = order(adjust.apply(ownTable[i]));
+            }
+            tablePaletteLength = -1;
+            System.arraycopy(hsl, 0, tableHsl, 0, 3);
+            tableNumberOfColours = numberOfColours;
+            tableBitLength = bitLength;
+        }
+        useOwnTable();
+        return fromPlanes(planes, bitLength);
+    }
+
+    /**
+     * Rasterise a frame of 24 bit colours, each channel is adjusted through a lookup table.
+     * @param bgr the colours, 3 bytes per pixel in blue, green, red order.
+     * @return the raw image, only valid until the next call.
+     */
+    int[] fromRgb24(final byte[] bgr) {
+        final int[] out = output();
+        final int[] dest = led ? row : out;
+        int d = 0;
+        int index = 0;
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                dest[d++] = abgr ?
+                            adjust.apply(bgr[index] & 0xFF,
+                                         bgr[index + 1] & 0xFF,
+                                         bgr[index + 2] & 0xFF) :
+                            adjust.apply(bgr[index + 2] & 0xFF,
+                                         bgr[index + 1] & 0xFF,
+                                         bgr[index] & 0xFF);
+                index += 3;
+            }
+            if (led) {
+                expandRow(y, out);
+                d = 0;
+            }
+        }
+        return out;
+    }
+
+    private int[] fromPlanes(final byte[] planes, final int bitLength) {
+        final int[] out = output();
+        switch (bitLength) {
+            case 2:
+                decode2(planes, out);
+                break;
+            case 4:
+                decode4(planes, out);
+                break;
+            default:
+                decodeAny(planes, bitLength, out);
+                break;
+        }
+        return out;
+    }
+
+    // Each byte of a plane holds one bit for 8 pixels, least significant bit first. The first
+    // plane gives the least significant bit of the pixel value.
+    private void decode2(final byte[] planes, final int[] out) {
+        final int bytes = planes.length / 2;
+        final int[] colours = colourTable;
+        final int[] dest = led ? row : out;
+        int d = 0;
+        int x = 0;
+        int y = 0;
+        for (int i = 0; i < bytes; i++) {
+            final int p0 = planes[i];
+            final int p1 = planes[bytes + i] << 1;
+            for (int bit = 0; bit < 8; bit++) {
+                dest[d++] = colours[((p0 >> bit) & 1) | ((p1 >> bit) & 2)];
+                if (++x == width) {
+                    if (led) {
+                        expandRow(y, out);
+                        d = 0;
+                    }
+                    x = 0;
+                    y++;
+                }
+            }
+        }
+    }
+
+    private void decode4(final byte[] planes, final int[] out) {
+        final int bytes = planes.length / 4;
+        final int[] colours = colourTable;
+        final int[] dest = led ? row : out;
+        int d = 0;
+        int x = 0;
+        int y = 0;
+        for (int i = 0; i < bytes; i++) {
+            final int p0 = planes[i];
+            final int p1 = planes[bytes + i] << 1;
+            final int p2 = planes[bytes * 2 + i] << 2;
+            final int p3 = planes[bytes * 3 + i] << 3;
+            for (int bit = 0; bit < 8; bit++) {
+                dest[d++] = colours[((p0 >> bit) & 1) | ((p1 >> bit) & 2) |
+                                    ((p2 >> bit) & 4) | ((p3 >> bit) & 8)];
+                if (++x == width) {
+                    if (led) {
+                        expandRow(y, out);
+                        d = 0;
+                    }
+                    x = 0;
+                    y++;
+                }
+            }
+        }
+    }
+
+    private void decodeAny(final byte[] planes, final int bitLength, final int[] out) {
+        final int bytes = planes.length / bitLength;
+        final int[] colours = colourTable;
+        final int[] dest = led ? row : out;
+        int d = 0;
+        int x = 0;
+        int y = 0;
+        for (int i = 0; i < bytes; i++) {
+            for (int bit = 0; bit < 8; bit++) {
+                int value = 0;
+                for (int plane = 0; plane < bitLength; plane++) {
+                    value |= ((planes[bytes * plane + i] >> bit) & 1) << plane;
+                }
+                dest[d++] = colours[value];
+                if (++x == width) {
+                    if (led) {
+                        expandRow(y, out);
+                        d = 0;
+                    }
+                    x = 0;
+                    y++;
+                }
+            }
+        }
+    }
+
+    // Draw the LED pixel shape for each colour in the row buffer. Every output pixel is written,
+    // so the output does not need clearing between frames.
+    private void expandRow(final int y, final int[] out) {
+        final int firstRow = y * combined * outputWidth;
+        if (template != null) {
+            expandRowOverTemplate(firstRow, out);
+            return;
+        }
+        for (int i = 0; i < shapeStart.length; i++) {
+            final int rowStart = firstRow + i * outputWidth;
+            final int start = shapeStart[i];
+            final int end = shapeEnd[i];
+            if (i > 0 && start == shapeStart[i - 1] && end == shapeEnd[i - 1]) {
+                // Same as the row above, so just copy it.
+                System.arraycopy(out, rowStart - outputWidth, out, rowStart, outputWidth);
+                continue;
+            }
+            int o = rowStart;
+            for (int x = 0; x < width; x++) {
+                final int colour = row[x];
+                int j = 0;
+                for (; j < start; j++) {
+                    out[o + j] = 0;
+                }
+                for (; j < end; j++) {
+                    out[o + j] = colour;
+                }
+                for (; j < combined; j++) {
+                    out[o + j] = 0;
+                }
+                o += combined;
+            }
+        }
+        // The margin below the pixels.
+        final int marginStart = firstRow + shapeStart.length * outputWidth;
+        Arrays.fill(out, marginStart, firstRow + combined * outputWidth, 0);
+    }
+
+    // Black pixels are left as the unlit dot from the template, which already has the margins.
+    private void expandRowOverTemplate(final int firstRow, final int[] out) {
+        final int rows = combined * outputWidth;
+        System.arraycopy(template, firstRow, out, firstRow, rows);
+        for (int i = 0; i < shapeStart.length; i++) {
+            final int rowStart = firstRow + i * outputWidth;
+            final int start = shapeStart[i];
+            final int end = shapeEnd[i];
+            if (i > 0 && start == shapeStart[i - 1] && end == shapeEnd[i - 1]) {
+                System.arraycopy(out, rowStart - outputWidth, out, rowStart, outputWidth);
+                continue;
+            }
+            int o = rowStart;
+            for (int x = 0; x < width; x++) {
+                final int colour = row[x];
+                if (colour != OPAQUE) {
+                    for (int j = start; j < end; j++) {
+                        out[o + j] = colour;
+                    }
+                }
+                o += combined;
+            }
+        }
+    }
+
+    /**
+     * Render straight into a target rather than a buffer of our own, saving a copy when nothing
+     * else needs to be done to the image.
+     * @param target the target, in the same pixel order and size as this rasteriser, or null to
+     *               go back to using our own buffer.
+     */
+    void setTarget(final RenderTarget target) {
+        if (target != null &&
+            (!target.fits(outputWidth, outputHeight) || target.isAbgr() != abgr)) {
+            throw new IllegalArgumentException("Render target does not match the rasteriser");
+        }
+        this.target = target;
+        output = null;
+    }
+
+    /**
+     * Let go of the output buffer, it will be created again on the next frame.
+     */
+    void release() {
+        output = null;
+    }
+
+    private int[] output() {
+        if (output == null) {
+            output = target != null ? target.pixels : new int[outputWidth * outputHeight];
+        }
+        return output;
+    }
+
+    private int order(final int colour) {
+        return abgr ? RenderTarget.swapRedAndBlue(colour) : colour;
+    }
+}
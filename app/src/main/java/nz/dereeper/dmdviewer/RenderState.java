@@ -0,0 +1,157 @@
+/*
+ * Copyright 2021 Mark de Reeper
+ *
+ *  Permission is hereby granted, free of charge, to any person
+ *  obtaining a copy of this software and associated documentation
+ *  files (the "Software"), to deal in the Software without
+ *  restriction, including without limitation the rights to use,
+ *  copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the
+ *  Software is furnished to do so, subject to the following
+ *  conditions:
+ *
+ *  The above copyright notice and this permission notice shall be
+ *  included in all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ *  EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ *  OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ *  NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ *  HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ *  WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ *  FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ *  OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package nz.dereeper.dmdviewer;
+
+/**
+ * Everything the control frames say about how image frames are drawn: the dimensions, palette and
+ * colour. Never changed once created, a control frame makes a new state with the next version
+ * which is published with a single volatile write. A frame being drawn keeps hold of one state
+ * from start to finish, so a colour or palette that arrives part way through can't leave it half
+ * drawn in one colour and half in another, and nothing needs locking to read it.
+ * <p>
+ * Anything worked out from the colour is worked out once for each colour, by the first frame that
+ * needs it, and carried over to states that only change something else. The shades used for gray
+ * frames without a palette are shared palettes from {@link Palettes} so the rasteriser keeps a
+ * table for each.
+ */
+class RenderState {
+
+    /** Goes up by one with every change, so a state can be told from an earlier one. */
+    final long version;
+    /** The dimensions of the display, null until they are known. */
+    final Dimensions dimensions;
+    /** Shared from {@link Palettes}, or null for no palette. */
+    final int[] palette;
+    private final int colour;
+    // Worked out when first needed, a frame that races another just works them out again.
+    private volatile float[] hsl;
+    private volatile int[] shades2;
+    private volatile int[] shades4;
+
+    /**
+     * @param dimensions the dimensions of the display.
+     * @param palette the palette from the last PALETTE frame, never changed afterwards, or null.
+     * @param hsl the colour in HSL form, copied.
+     */
+    RenderState(final Dimensions dimensions, final int[] palette, final float[] hsl) {
+        this(0, dimensions, palette, ImageUtils.hslToColour(hsl), hsl.clone(), null, null);
+    }
+
+    private RenderState(final long version,
+                        final Dimensions dimensions,
+                        final int[] palette,
+                        final int colour,
+                        final float[] hsl,
+                        final int[] shades2,
+                        final int[] shades4) {
+        this.version = version;
+        this.dimensions = dimensions;
+        this.palette = palette;
+        this.colour = colour;
+        this.hsl = hsl;
+        this.shades2 = shades2;
+        this.shades4 = shades4;
+    }
+
+    /**
+     * The state before any control frames have arrived.
+     * @param colour the colour to draw gray frames in.
+     * @return the state.
+     */
+    static RenderState forColour(final int colour) {
+        return new RenderState(0, null, null, colour, null, null, null);
+    }
+
+    // Senders repeat control frames, only an actual change makes a new state.
+
+    RenderState withColour(final int newColour) {
+        if (newColour == colour) {
+            return this;
+        }
+        return new RenderState(version + 1, dimensions, palette, newColour, null, null, null);
+    }
+
+    RenderState withPalette(final int[] newPalette) {
+        if (newPalette == palette) {
+            return this;
+        }
+        return new RenderState(version + 1, dimensions, newPalette, colour, hsl, shades2, shades4);
+    }
+
+    RenderState withDimensions(final Dimensions newDimensions) {
+        if (newDimensions.equals(dimensions)) {
+            return this;
+        }
+        return new RenderState(version + 1, newDimensions, palette, colour, hsl, shades2, shades4);
+    }
+
+    /**
+     * The colour in HSL form, which must not be changed.
+     * @return the colour.
+     */
+    float[] getHsl() {
+        float[] colourHsl = hsl;
+        if (colourHsl == null) {
+            colourHsl = new float[3];
+            ImageUtils.colourToHsl(colour, colourHsl);
+            hsl = colourHsl;
+        }
+        return colourHsl;
+    }
+
+    /**
+     * The shades of the colour for a gray frame without a palette.
+     * @param bitLength the number of planes, 2 or 4.
+     * @return the shared palette of shades, or null for any other number of planes.
+     */
+    int[] getShades(final int bitLength) {
+        if (bitLength == 2) {
+            int[] shades = shades2;
+            if (shades == null) {
+                shades = shades(getHsl(), 2);
+                shades2 = shades;
+            }
+            return shades;
+        }
+        if (bitLength == 4) {
+            int[] shades = shades4;
+            if (shades == null) {
+                shades = shades(getHsl(), 4);
+                shades4 = shades;
+            }
+            return shades;
+        }
+        return null;
+    }
+
+    // The same shades as drawing with the colour, where a gray frame of n planes has the lightness
+    // of its pixels scaled by value / (n * 4).
+    private static int[] shades(final float[] hsl, final int bitLength) {
+        final int[] shades = new int[1 << bitLength];
+        ImageUtils.hslShades(hsl, bitLength * 4, shades.length, shades);
+        return Palettes.intern(shades);
+    }
+}
@@ -0,0 +1,101 @@
+/*
+ * Copyright 2021 Mark de Reeper
+ *
+ *  Permission is hereby granted, free of charge, to any person
+ *  obtaining a copy of this software and associated documentation
+ *  files (the "Software"), to deal in the Software without
+ *  restriction, including without limitation the rights to use,
+ *  copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the
+ *  Software is furnished to do so, subject to the following
+ *  conditions:
+ *
+ *  The above copyright notice and this permission notice shall be
+ *  included in all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ *  EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ *  OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ *  NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ *  HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ *  WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ *  FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ *  OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package nz.dereeper.dmdviewer;
+
+/**
+ * Where a rendered image is written. The pixels are kept in the order the destination wants
+ * them, so once rendered they can be handed over without converting each pixel. This plain
+ * version keeps ARGB ints, as used by tests and anything else that just wants the pixels.
+ */
+class RenderTarget {
+
+    private final int width;
+    private final int height;
+    private final boolean abgr;
+    final int[] pixels;
+
+    /**
+     * Create a target that keeps ARGB pixels.
+     * @param width the width of the image.
+     * @param height the height of the image.
+     */
+    RenderTarget(final int width, final int height) {
+        this(width, height, false);
+    }
+
+    RenderTarget(final int width, final int height, final boolean abgr) {
+        this.width = width;
+        this.height = height;
+        this.abgr = abgr;
+        pixels = new int[width * height];
+    }
+
+    int getWidth() {
+        return width;
+    }
+
+    int getHeight() {
+        return height;
+    }
+
+    /**
+     * Return true if red and blue are swapped, so an int is 0xAABBGGRR. On a little endian CPU
+     * that puts the bytes in memory in the same order as an ARGB_8888 bitmap.
+     * @return true if the pixels are in ABGR order.
+     */
+    boolean isAbgr() {
+        return abgr;
+    }
+
+    /**
+     * Return true if the target can be rendered into for the given size.
+     * @param width the width of the image.
+     * @param height the height of the image.
+     * @return true if the target is that size.
+     */
+    boolean fits(final int width, final int height) {
+        return this.width == width && this.height == height;
+    }
+
+    /**
+     * Copy a finished image into the target, for when it was not rendered straight into it.
+     * @param image the image, in the same order as the target.
+     */
+    void write(final int[] image) {
+        if (image != pixels) {
+            System.arraycopy(image, 0, pixels, 0, pixels.length);
+        }
+    }
+
+    /**
+     * Swap the red and blue channels of a colour, going between ARGB and ABGR.
+     * @param colour the colour to swap.
+     * @return the colour with red and blue swapped.
+     */
+    static int swapRedAndBlue(final int colour) {
+        return (colour & 0xFF00FF00) | ((colour >> 16) & 0xFF) | ((colour & 0xFF) << 16);
+    }
+}
@@ -0,0 +1,152 @@
+/*
+ * Copyright 2021 Mark de Reeper
+ *
+ *  Permission is hereby granted, free of charge, to any person
+ *  obtaining a copy of this software and associated documentation
+ *  files (the "Software"), to deal in the Software without
+ *  restriction, including without limitation the rights to use,
+ *  copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the
+ *  Software is furnished to do so, subject to the following
+ *  conditions:
+ *
+ *  The above copyright notice and this permission notice shall be
+ *  included in all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ *  EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ *  OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ *  NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ *  HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ *  WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ *  FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ *  OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package nz.dereeper.dmdviewer;
+
+/**
+ * Enlarges a rendered image to the size it is shown at, so the view shows it pixel for pixel
+ * rather than filtering it up on every draw, which blurs the LED pixels. The image keeps its
+ * shape, filling the view one way or the other.
+ * <p>
+ * Which source pixel every output column and row comes from is worked out once for each image
+ * and view size, by stepping through the source a fraction at a time rather than dividing, so
+ * sizes that are not a whole multiple work just as well. Drawing a frame is then only a lookup
+ * per output pixel, and rows that come from the same source row are copied whole.
+ */
+class Scaler {
+
+    private final int sourceWidth;
+    private final int sourceHeight;
+    private final int viewWidth;
+    private final int viewHeight;
+    private final int outputWidth;
+    private final int outputHeight;
+    // The source column for each output column.
+    private final int[] columns;
+    // The index of the start of the source row for each output row.
+    private final int[] rows;
+
+    /**
+     * Work out the scaling from one size to another.
+     * @param sourceWidth the width of the rendered image.
+     * @param sourceHeight the height of the rendered image.
+     * @param viewWidth the width it is shown at.
+     * @param viewHeight the height it is shown at.
+     */
+    Scaler(final int sourceWidth,
+           final int sourceHeight,
+           final int viewWidth,
+           final int viewHeight) {
+        this.sourceWidth = sourceWidth;
+        this.sourceHeight = sourceHeight;
+        this.viewWidth = viewWidth;
+        this.viewHeight = viewHeight;
+        // The gap either side is kept to whole pixels, so centring the image doesn't put it
+        // between pixels where the view would filter it.
+        if ((long) viewWidth * sourceHeight <= (long) viewHeight * sourceWidth) {
+            outputWidth = viewWidth;
+            final int height = Math.max(1, (int) ((long) viewWidth * sourceHeight / sourceWidth));
+            outputHeight = height + ((viewHeight - height) & 1);
+        } else {
+            final int width = Math.max(1, (int) ((long) viewHeight * sourceWidth / sourceHeight));
+            outputWidth = width + ((viewWidth - width) & 1);
+            outputHeight = viewHeight;
+        }
+        columns = map(sourceWidth, outputWidth, 1);
+        rows = map(sourceHeight, outputHeight, sourceWidth);
+    }
+
+    // The source pixel under the centre of each output pixel, times the stride. Counts in halves
+    // of an output pixel so the centres are whole numbers.
+    private static int[] map(final int source, final int output, final int stride) {
+        final int[] map = new int[output];
+        int index = 0;
+        long remainder = source;
+        for (int i = 0; i < output; i++) {
+            while (remainder >= 2L * output) {
+                remainder -= 2L * output;
+                index++;
+            }
+            map[i] = Math.min(index, source - 1) * stride;
+            remainder += 2L * source;
+        }
+        return map;
+    }
+
+    /**
+     * Return true if this scaler was made for the given sizes.
+     * @param sourceWidth the width of the rendered image.
+     * @param sourceHeight the height of the rendered image.
+     * @param viewWidth the width it is shown at.
+     * @param viewHeight the height it is shown at.
+     * @return true if it can be used for them.
+     */
+    boolean matches(final int sourceWidth,
+                    final int sourceHeight,
+                    final int viewWidth,
+                    final int viewHeight) {
+        return this.sourceWidth == sourceWidth && this.sourceHeight == sourceHeight &&
+               this.viewWidth == viewWidth && this.viewHeight == viewHeight;
+    }
+
+    /**
+     * Return true if the output is at least as large as the source. Shrinking an image by
+     * picking pixels drops whole rows and columns of the LED pixels, so is better left to the
+     * view's filtering.
+     * @return true if the image is enlarged.
+     */
+    boolean enlarges() {
+        return outputWidth >= sourceWidth && outputHeight >= sourceHeight;
+    }
+
+    int getOutputWidth() {
+        return outputWidth;
+    }
+
+    int getOutputHeight() {
+        return outputHeight;
+    }
+
+    /**
+     * Scale an image.
+     * @param source the image, the source size given when created.
+     * @param out where to put the scaled image, at least the output size.
+     */
+    void scale(final int[] source, final int[] out) {
+        int o = 0;
+        for (int y = 0; y < outputHeight; y++) {
+            final int rowStart = rows[y];
+            if (y > 0 && rowStart == rows[y - 1]) {
+                // Same source row as the row above, so just copy it.
+                System.arraycopy(out, o - outputWidth, out, o, outputWidth);
+            } else {
+                for (int x = 0; x < outputWidth; x++) {
+                    out[o + x] = source[rowStart + columns[x]];
+                }
+            }
+            o += outputWidth;
+        }
+    }
+}
@@ -0,0 +1,308 @@
+/*
+ * Copyright 2021 Mark de Reeper
+ *
+ *  Permission is hereby granted, free of charge, to any person
+ *  obtaining a copy of this software and associated documentation
+ *  files (the "Software"), to deal in the Software without
+ *  restriction, including without limitation the rights to use,
+ *  copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the
+ *  Software is furnished to do so, subject to the following
+ *  conditions:
+ *
+ *  The above copyright notice and this permission notice shall be
+ *  included in all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ *  EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ *  OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ *  NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ *  HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ *  WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ *  FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ *  OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package nz.dereeper.dmdviewer;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import timber.log.Timber;
+
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+import static java.util.concurrent.TimeUnit.SECONDS;
+
+/**
+ * Simple named timers, histograms and counters for the frame pipeline, the current values are
+ * periodically written to the log so they can be checked on a running viewer.
+ */
+class Stats {
+
+    private static final long REPORT_INTERVAL = SECONDS.toNanos(10);
+    private static final List<Timer> timers = new CopyOnWriteArrayList<>();
+    private static final List<Counter> counters = new CopyOnWriteArrayList<>();
+    private static final List<Histogram> histograms = new CopyOnWriteArrayList<>();
+    private static final AtomicLong lastReport = new AtomicLong(System.nanoTime());
+
+    /**
+     * Keeps track of how many times something happened and how long it took.
+     */
+    static class Timer {
+        private final String name;
+        private final AtomicLong count = new AtomicLong();
+        private final AtomicLong totalNanos = new AtomicLong();
+        private final AtomicLong maxNanos = new AtomicLong();
+
+        private Timer(final String name) {
+            this.name = name;
+        }
+
+        /**
+         * Record a single timing.
+         * @param nanos how long it took in nanoseconds.
+         */
+        void record(final long nanos) {
+            count.incrementAndGet();
+            totalNanos.addAndGet(nanos);
+            long max = maxNanos.get();
+            while (nanos > max && !maxNanos.compareAndSet(max, nanos)) {
+                max = maxNanos.get();
+            }
+        }
+
+        long getCount() {
+            return count.get();
+        }
+
+        long getTotalNanos() {
+            return totalNanos.get();
+        }
+
+        private void reset() {
+            count.set(0);
+            totalNanos.set(0);
+            maxNanos.set(0);
+        }
+
+        private void appendTo(final StringBuilder sb) {
+            final long n = count.get();
+            if (n > 0) {
+                sb.append(' ').append(name)
+                  .append("[n:").append(n)
+                  .append(" avg:").append(NANOSECONDS.toMicros(totalNanos.get() / n))
+                  .append("us max:").append(NANOSECONDS.toMicros(maxNanos.get()))
+                  .append("us]");
+            }
+        }
+    }
+
+    /**
+     * A simple count of events.
+     */
+    static class Counter {
+        private final String name;
+        private final AtomicLong value = new AtomicLong();
+
+        private Counter(final String name) {
+            this.name = name;
+        }
+
+        void increment() {
+            value.incrementAndGet();
+        }
+
+        void add(final long delta) {
+            value.addAndGet(delta);
+        }
+
+        long get() {
+            return value.get();
+        }
+
+        private void appendTo(final StringBuilder sb) {
+            sb.append(' ').append(name).append(':').append(value.get());
+        }
+    }
+
+    /**
+     * A distribution of values, such as latencies in milliseconds. Values are counted in buckets
+     * that double in size so recording is a single atomic increment, percentiles are reported as
+     * the top of the bucket they fall in.
+     */
+    static class Histogram {
+        private static final int BUCKETS = 32;
+        private final String name;
+        private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+
+        private Histogram(final String name) {
+            this.name = name;
+        }
+
+        /**
+         * Record a single value, negative values are counted as 0.
+         * @param value the value to record.
+         */
+        void record(final long value) {
+            buckets.incrementAndGet(bucket(value));
+        }
+
+        long getCount() {
+            long count = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                count += buckets.get(i);
+            }
+            return count;
+        }
+
+        /**
+         * Get the value that the given fraction of recorded values are at or below.
+         * @param fraction between 0 and 1, 0.5 for the median.
+         * @return the top of the bucket the percentile falls in, or -1 if nothing was recorded.
+         */
+        long percentile(final double fraction) {
+            final long count = getCount();
+            if (count == 0) {
+                return -1;
+            }
+            final long target = Math.max(1, (long) Math.ceil(count * fraction));
+            long seen = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                seen += buckets.get(i);
+                if (seen >= target) {
+                    return upperBound(i);
+                }
+            }
+            return upperBound(BUCKETS - 1);
+        }
+
+        // Bucket 0 holds 0, bucket n holds 2^(n-1) to 2^n - 1.
+        private static int bucket(final long value) {
+            if (value <= 0) {
+                return 0;
+            }
+            return Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(value));
+        }
+
+        private static long upperBound(final int bucket) {
+            return bucket == 0 ? 0 : (1L << bucket) - 1;
+        }
+
+        private void reset() {
+            for (int i = 0; i < BUCKETS; i++) {
+                buckets.set(i, 0);
+            }
+        }
+
+        private void appendTo(final StringBuilder sb) {
+            final long n = getCount();
+            if (n > 0) {
+                sb.append(' ').append(name)
+                  .append("[n:").append(n)
+                  .append(" p50:").append(percentile(0.5))
+                  .append(" p90:").append(percentile(0.9))
+                  .append(" p99:").append(percentile(0.99))
+                  .append(']');
+            }
+        }
+    }
+
+    private Stats() {
+        // Just statics
+    }
+
+    /**
+     * Get the {@link Timer} with the given name, creating it if it does not exist yet.
+     * @param name the name to report the timer under.
+     * @return the {@link Timer} for the name.
+     */
+    static synchronized Timer timer(final String name) {
+        for (Timer timer : timers) {
+            if (timer.name.equals(name)) {
+                return timer;
+            }
+        }
+        final Timer timer = new Timer(name);
+        timers.add(timer);
+        return timer;
+    }
+
+    /**
+     * Get the {@link Counter} with the given name, creating it if it does not exist yet.
+     * @param name the name to report the counter under.
+     * @return the {@link Counter} for the name.
+     */
+    static synchronized Counter counter(final String name) {
+        for (Counter counter : counters) {
+            if (counter.name.equals(name)) {
+                return counter;
+            }
+        }
+        final Counter counter = new Counter(name);
+        counters.add(counter);
+        return counter;
+    }
+
+    /**
+     * Get the {@link Histogram} with the given name, creating it if it does not exist yet.
+     * @param name the name to report the histogram under.
+     * @return the {@link Histogram} for the name.
+     */
+    static synchronized Histogram histogram(final String name) {
+        for (Histogram histogram : histograms) {
+            if (histogram.name.equals(name)) {
+                return histogram;
+            }
+        }
+        final Histogram histogram = new Histogram(name);
+        histograms.add(histogram);
+        return histogram;
+    }
+
+    /**
+     * Stop reporting a {@link Histogram}, for one that belongs to something that has gone away.
+     * @param histogram the {@link Histogram} to remove.
+     */
+    static synchronized void remove(final Histogram histogram) {
+        histograms.remove(histogram);
+    }
+
+    /**
+     * Get a single line summary of all of the timers, histograms and counters.
+     * @return a summary of all timers, histograms and counters.
+     */
+    static String summary() {
+        final StringBuilder sb = new StringBuilder("Stats:");
+        for (Timer timer : timers) {
+            timer.appendTo(sb);
+        }
+        for (Histogram histogram : histograms) {
+            histogram.appendTo(sb);
+        }
+        for (Counter counter : counters) {
+            counter.appendTo(sb);
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Log the summary if enough time has passed since the last time it was logged. Timers and
+     * histograms are reset after each report so they reflect the latest interval, counters keep
+     * counting.
+     */
+    static void reportIfDue() {
+        final long now = System.nanoTime();
+        final long last = lastReport.get();
+        if (now - last >= REPORT_INTERVAL && lastReport.compareAndSet(last, now)) {
+            Timber.i(summary());
+            for (Timer timer : timers) {
+                timer.reset();
+            }
+            for (Histogram histogram : histograms) {
+                histogram.reset();
+            }
+        }
+    }
+}
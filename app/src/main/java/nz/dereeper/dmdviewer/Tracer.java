@@ -0,0 +1,170 @@
+/*
+ * Copyright 2021 Mark de Reeper
+ *
+ *  Permission is hereby granted, free of charge, to any person
+ *  obtaining a copy of this software and associated documentation
+ *  files (the "Software"), to deal in the Software without
+ *  restriction, including without limitation the rights to use,
+ *  copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the
+ *  Software is furnished to do so, subject to the following
+ *  conditions:
+ *
+ *  The above copyright notice and this permission notice shall be
+ *  included in all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ *  EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ *  OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ *  NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ *  HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ *  WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ *  FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ *  OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package nz.dereeper.dmdviewer;
+
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Records when each stage of handling a frame started and how long it took, so a single stutter
+ * can be looked at rather than just the averages in {@link Stats}. Events go into a ring that is
+ * allocated once and holds the last {@link #CAPACITY} events, recording one is a couple of clock
+ * reads and array writes so it is always on. The ring can be written out as Chrome trace JSON,
+ * which opens in chrome://tracing or Perfetto.
+ * <p>
+ * Nothing is locked, an event being recorded while the ring is written out can come out half
+ * written. That's fine for looking at what happened, it isn't used for anything else.
+ */
+class Tracer {
+
+    static final int RECEIVE = 0;
+    static final int PARSE = 1;
+    static final int DEDUPE = 2;
+    static final int RASTERISE = 3;
+    static final int UPLOAD = 4;
+    static final int PRESENT = 5;
+    private static final String[] NAMES = {
+            "receive", "parse", "dedupe", "rasterise", "upload", "present"
+    };
+
+    // A power of two, about half a minute of events at 60 frames a second.
+    static final int CAPACITY = 8192;
+    private static final Frame.FrameType[] TYPES = Frame.FrameType.values();
+    private static final long[] starts = new long[CAPACITY];
+    private static final long[] durations = new long[CAPACITY];
+    private static final long[] threads = new long[CAPACITY];
+    private static final byte[] events = new byte[CAPACITY];
+    private static final byte[] types = new byte[CAPACITY];
+    private static final AtomicLong next = new AtomicLong();
+
+    private Tracer() {
+        // Just statics
+    }
+
+    /**
+     * Start timing an event.
+     * @return the start time to pass to {@link #end(int, long, Frame.FrameType)}.
+     */
+    static long begin() {
+        return System.nanoTime();
+    }
+
+    /**
+     * Record an event that has just finished.
+     * @param event what happened, such as {@link #PARSE}.
+     * @param start the time from {@link #begin()}.
+     * @param type the type of frame, or null if it isn't known.
+     */
+    static void end(final int event, final long start, final Frame.FrameType type) {
+        final long now = System.nanoTime();
+        final int i = (int) (next.getAndIncrement() & (CAPACITY - 1));
+        starts[i] = start;
+        durations[i] = now - start;
+        threads[i] = Thread.currentThread().getId();
+        events[i] = (byte) event;
+        types[i] = (byte) (type != null ? type.ordinal() : -1);
+    }
+
+    /**
+     * Write the events in the ring as Chrome trace JSON, oldest first.
+     * @param out where to write the JSON.
+     */
+    static void writeChromeTrace(final StringBuilder out) {
+        final long last = next.get();
+        final long first = Math.max(0, last - CAPACITY);
+        // Events are recorded as they end, so the earliest start isn't always the first event.
+        long origin = Long.MAX_VALUE;
+        for (long e = first; e < last; e++) {
+            origin = Math.min(origin, starts[(int) (e & (CAPACITY - 1))]);
+        }
+        out.append("{\"traceEvents\":[");
+        boolean comma = false;
+        // Name the threads that are still around, so the viewer shows more than their ids.
+        for (Thread thread : Thread.getAllStackTraces().keySet()) {
+            comma = separate(out, comma);
+            out.append("{\"name\":\"thread_name\",\"ph\":\"M\",\"pid\":1,\"tid\":")
+               .append(thread.getId())
+               .append(",\"args\":{\"name\":\"");
+            appendEscaped(out, thread.getName());
+            out.append("\"}}");
+        }
+        for (long e = first; e < last; e++) {
+            final int i = (int) (e & (CAPACITY - 1));
+            final int event = events[i];
+            if (event < 0 || event >= NAMES.length) {
+                continue;
+            }
+            comma = separate(out, comma);
+            out.append("{\"name\":\"").append(NAMES[event])
+               .append("\",\"cat\":\"frame\",\"ph\":\"X\",\"pid\":1,\"tid\":").append(threads[i])
+               .append(",\"ts\":").append(micros(starts[i] - origin))
+               .append(",\"dur\":").append(micros(durations[i]));
+            final int type = types[i];
+            if (type >= 0 && type < TYPES.length) {
+                out.append(",\"args\":{\"type\":\"").append(TYPES[type]).append("\"}");
+            }
+            out.append('}');
+        }
+        out.append("],\"displayTimeUnit\":\"ms\"}");
+    }
+
+    /**
+     * The number of events recorded since starting, including those no longer in the ring.
+     * @return the number of events.
+     */
+    static long getCount() {
+        return next.get();
+    }
+
+    // Package private for tests.
+    static void reset() {
+        next.set(0);
+    }
+
+    private static boolean separate(final StringBuilder out, final boolean comma) {
+        if (comma) {
+            out.append(',');
+        }
+        return true;
+    }
+
+    private static String micros(final long nanos) {
+        return String.format(Locale.ROOT, "%.3f", nanos / 1000.0);
+    }
+
+    private static void appendEscaped(final StringBuilder out, final String value) {
+        for (int i = 0; i < value.length(); i++) {
+            final char c = value.charAt(i);
+            if (c == '"' || c == '\\') {
+                out.append('\\').append(c);
+            } else if (c < 0x20) {
+                out.append(String.format(Locale.ROOT, "\\u%04x", (int) c));
+            } else {
+                out.append(c);
+            }
+        }
+    }
+}
@@ -0,0 +1,164 @@
+/*
+ * Copyright 2021 Mark de Reeper
+ *
+ *  Permission is hereby granted, free of charge, to any person
+ *  obtaining a copy of this software and associated documentation
+ *  files (the "Software"), to deal in the Software without
+ *  restriction, including without limitation the rights to use,
+ *  copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the
+ *  Software is furnished to do so, subject to the following
+ *  conditions:
+ *
+ *  The above copyright notice and this permission notice shall be
+ *  included in all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ *  EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ *  OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ *  NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ *  HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ *  WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ *  FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ *  OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package nz.dereeper.dmdviewer;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+import timber.log.Timber;
+
+import static java.nio.ByteOrder.LITTLE_ENDIAN;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+import static java.util.concurrent.TimeUnit.SECONDS;
+
+/**
+ * Pushes made up frames of every image type through parsing, rasterising and the effects on a
+ * background thread when the viewer starts. The first frames from a real source then run code
+ * that has already been compiled, rather than being interpreted while the source waits.
+ * Everything is drawn with its own rasteriser and effects, so nothing is shared with the frames
+ * being shown.
+ */
+class Warmup implements Runnable {
+
+    static final int FRAMES_PER_TYPE = 200;
+    private static final long MAX_NANOS = SECONDS.toNanos(2);
+    private static final String[] TYPES = {
+            "gray2Planes", "gray4Planes", "coloredGray2", "coloredGray4", "rgb24"
+    };
+
+    private final Dimensions dimensions;
+    private final Dmd dmd;
+    private final ColourAdjust adjust;
+    private final boolean abgr;
+    private final PostProcessor postProcessor;
+    private volatile boolean stopped;
+    private volatile int frames;
+
+    /**
+     * @param dimensions the size of the frames to draw.
+     * @param dmd how to draw each pixel.
+     * @param adjust the adjustment to make to every colour.
+     * @param abgr true to have red and blue swapped, see {@link RenderTarget#isAbgr()}.
+     * @param postProcessor effects only used for the warm-up, as they keep state between frames.
+     */
+    Warmup(final Dimensions dimensions,
+           final Dmd dmd,
+           final ColourAdjust adjust,
+           final boolean abgr,
+           final PostProcessor postProcessor) {
+        this.dimensions = dimensions;
+        this.dmd = dmd;
+        this.adjust = adjust;
+        this.abgr = abgr;
+        this.postProcessor = postProcessor;
+    }
+
+    void start() {
+        final Thread thread = new Thread(this, "dmd-warmup");
+        thread.setDaemon(true);
+        thread.setPriority(Thread.MIN_PRIORITY);
+        thread.start();
+    }
+
+    /**
+     * Stop early, such as when the viewer is closing.
+     */
+    void stop() {
+        stopped = true;
+    }
+
+    /**
+     * The number of frames drawn so far.
+     * @return the number of frames.
+     */
+    int getFrames() {
+        return frames;
+    }
+
+    @Override
+    public void run() {
+        final long start = System.nanoTime();
+        final byte[][] messages = messages(new Random(1));
+        final Rasteriser rasteriser = new Rasteriser(dimensions, dmd, adjust, abgr);
+        final RenderTarget target = new RenderTarget(rasteriser.getOutputWidth(),
+                rasteriser.getOutputHeight(), abgr);
+        final RenderState state = RenderState.forColour(0xec843d).withDimensions(dimensions);
+        final Metadata metadata = new FixedMetadata(dmd, state, rasteriser);
+        try {
+            for (int i = 0; i < FRAMES_PER_TYPE && !stopped; i++) {
+                for (byte[] message : messages) {
+                    final Frame frame = new Frame(ByteBuffer.wrap(message).order(LITTLE_ENDIAN));
+                    final int[] image = ImageUtils.toRawImage(frame, state, metadata);
+                    if (image != null) {
+                        target.write(postProcessor.process(image, target.getWidth(),
+                                target.getHeight()));
+                    }
+                    frames++;
+                }
+                if (System.nanoTime() - start > MAX_NANOS) {
+                    // Slow enough that it's holding up more than it helps.
+                    break;
+                }
+            }
+        } catch (RuntimeException e) {
+            // Only ever a missed chance to speed things up.
+            Timber.w(e, "Warm-up failed");
+        }
+        Timber.i("Warm-up drew %s frames in %sms", frames,
+                NANOSECONDS.toMillis(System.nanoTime() - start));
+    }
+
+    // One message of each image type, with random pixels so every colour gets looked up.
+    private byte[][] messages(final Random random) {
+        final byte[][] messages = new byte[TYPES.length][];
+        final int area = dimensions.area;
+        for (int t = 0; t < TYPES.length; t++) {
+            final String type = TYPES[t];
+            final boolean rgb = type.equals("rgb24");
+            final int bitLength = type.contains("2") ? 2 : 4;
+            final int colours = type.startsWith("colored") ? 1 << bitLength : 0;
+            final int data = rgb ? area * 3 : area / 8 * bitLength;
+            final ByteBuffer message = ByteBuffer.allocate(type.length() + 1 + 4 +
+                    (colours > 0 ? 4 + colours * 4 : 0) + data).order(LITTLE_ENDIAN);
+            for (int i = 0; i < type.length(); i++) {
+                message.put((byte) type.charAt(i));
+            }
+            message.put((byte) 0);
+            message.putInt(0);
+            if (colours > 0) {
+                message.putInt(colours);
+                for (int c = 0; c < colours; c++) {
+                    message.putInt(random.nextInt(0x1000000));
+                }
+            }
+            final byte[] pixels = new byte[data];
+            random.nextBytes(pixels);
+            message.put(pixels);
+            messages[t] = message.array();
+        }
+        return messages;
+    }
+}
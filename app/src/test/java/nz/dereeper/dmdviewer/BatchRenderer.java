@@ -0,0 +1,390 @@
+/*
+ * Copyright 2021 Mark de Reeper
+ *
+ *  Permission is hereby granted, free of charge, to any person
+ *  obtaining a copy of this software and associated documentation
+ *  files (the "Software"), to deal in the Software without
+ *  restriction, including without limitation the rights to use,
+ *  copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the
+ *  Software is furnished to do so, subject to the following
+ *  conditions:
+ *
+ *  The above copyright notice and this permission notice shall be
+ *  included in all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ *  EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ *  OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ *  NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ *  HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ *  WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ *  FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ *  OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package nz.dereeper.dmdviewer;
+
+import java.awt.image.BufferedImage;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import javax.imageio.ImageIO;
+
+import static java.nio.ByteOrder.LITTLE_ENDIAN;
+
+/**
+ * Renders a recorded session of dmdext messages on the desktop, for checking colourisations and
+ * rendering changes over a long session. The file holds each binary message as it was received,
+ * with a 4 byte little endian length in front of it. Control messages are replayed in order and
+ * image frames are rasterised across all cores with the same {@link Frame} and
+ * {@link ImageUtils} code as the app, then written in order as a PNG sequence or as a raw BGRA
+ * stream that ffmpeg can read with {@code -f rawvideo -pix_fmt bgra -s <width>x<height>}.
+ * Messages are read as they are needed, so a recording of any length fits in memory. Frames that
+ * can't be drawn are left out, and a raw stream refuses a change of size part way through.
+ * <p>
+ * Run it with {@code ./gradlew renderBatch --args='<messages> <output dir or .raw file>'},
+ * optionally followed by {@code --threads <n>}, {@code --no-dmd} or {@code --round}.
+ */
+class BatchRenderer {
+
+    // How many frames each thread can be ahead of the one being written.
+    private static final int AHEAD_PER_THREAD = 4;
+
+    private final Dmd dmd;
+    private final int threads;
+    private final boolean raw;
+    // Only touched by the thread writing the frames.
+    private int skipped;
+    private final List<WorkerStats> workerStats =
+            Collections.synchronizedList(new ArrayList<WorkerStats>());
+    private final ThreadLocal<WorkerStats> stats = new ThreadLocal<WorkerStats>() {
+        @Override
+        protected WorkerStats initialValue() {
+            final WorkerStats workerStats = new WorkerStats(Thread.currentThread().getName());
+            BatchRenderer.this.workerStats.add(workerStats);
+            return workerStats;
+        }
+    };
+    // The rasteriser is not thread safe, so each thread keeps its own.
+    private final ThreadLocal<Rasteriser> rasteriser = new ThreadLocal<>();
+
+    private static class WorkerStats {
+        final String name;
+        long frames;
+        long nanos;
+
+        WorkerStats(final String name) {
+            this.name = name;
+        }
+    }
+
+    /**
+     * Create a renderer.
+     * @param dmd how to draw the pixels.
+     * @param threads how many threads to render on.
+     * @param raw true to put out raw BGRA frames, otherwise PNG.
+     */
+    BatchRenderer(final Dmd dmd, final int threads, final boolean raw) {
+        this.dmd = dmd;
+        this.threads = threads;
+        this.raw = raw;
+    }
+
+    /**
+     * Where the rendered frames go, called in the order of the frames.
+     */
+    interface Output {
+        void write(int index, byte[] encoded) throws IOException;
+    }
+
+    /**
+     * Reads messages one at a time, each with a 4 byte little endian length in front.
+     */
+    static class MessageReader {
+
+        private final DataInputStream data;
+        private final byte[] lengthBytes = new byte[4];
+        private long count;
+
+        MessageReader(final InputStream in) {
+            data = new DataInputStream(new BufferedInputStream(in));
+        }
+
+        /**
+         * @return the next message, or null at the end of the stream.
+         * @throws IOException if reading failed or the stream ended part way through a message.
+         */
+        byte[] next() throws IOException {
+            try {
+                data.readFully(lengthBytes);
+            } catch (EOFException e) {
+                return null;
+            }
+            final int length = ByteBuffer.wrap(lengthBytes).order(LITTLE_ENDIAN).getInt();
+            if (length < 0) {
+                throw new IOException("Invalid message length: " + length);
+            }
+            final byte[] message = new byte[length];
+            data.readFully(message);
+            count++;
+            return message;
+        }
+
+        /**
+         * @return how many messages have been read.
+         */
+        long getCount() {
+            return count;
+        }
+    }
+
+    /**
+     * Render all of the messages.
+     * @param messages the dmdext binary messages.
+     * @param output where to write each frame.
+     * @return the number of frames written.
+     * @throws IOException if reading or writing failed, or the size changed in a raw stream.
+     * @throws InterruptedException if interrupted waiting for a frame.
+     */
+    int render(final MessageReader messages, final Output output)
+            throws IOException, InterruptedException {
+        final ExecutorService executor = Executors.newFixedThreadPool(threads);
+        final Deque<Future<byte[]>> inFlight = new ArrayDeque<>();
+        RenderState state = RenderState.forColour(0xec843d);
+        // The size of the frames drawn so far, a raw stream has no way to say it changed.
+        Dimensions drawn = null;
+        int written = 0;
+        try {
+            byte[] message;
+            while ((message = messages.next()) != null) {
+                final Frame frame = new Frame(ByteBuffer.wrap(message).order(LITTLE_ENDIAN));
+                switch (frame.getFrameType()) {
+                    case COLORED_GRAY_4:
+                    case COLORED_GRAY_2:
+                    case GRAY_2_PLANES:
+                    case GRAY_4_PLANES:
+                    case RGB24:
+                        if (state.dimensions != null) {
+                            if (raw && drawn != null && !drawn.equals(state.dimensions)) {
+                                throw new IOException("The size changed from " + drawn + " to " +
+                                        state.dimensions + " after " + written +
+                                        " frames, a raw stream has to keep to one size");
+                            }
+                            drawn = state.dimensions;
+                            if (inFlight.size() >= threads * AHEAD_PER_THREAD) {
+                                written = writeNext(inFlight, output, written);
+                            }
+                            inFlight.add(executor.submit(job(frame, state)));
+                        }
+                        break;
+                    case COLOUR:
+                        // Jobs already submitted keep the old state.
+                        state = state.withColour(frame.getColour());
+                        break;
+                    case PALETTE:
+                        state = state.withPalette(frame.getPalette());
+                        break;
+                    case DIMENSIONS:
+                        state = state.withDimensions(frame.getDimensions());
+                        break;
+                    case CLEAR_COLOUR:
+                        state = state.withColour(0xec843d);
+                        break;
+                    case CLEAR_PALETTE:
+                        state = state.withPalette(null);
+                        break;
+                    default:
+                        break;
+                }
+            }
+            while (!inFlight.isEmpty()) {
+                written = writeNext(inFlight, output, written);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        return written;
+    }
+
+    // Write the oldest frame in flight unless it couldn't be drawn, returning the frames written.
+    private int writeNext(final Deque<Future<byte[]>> inFlight,
+                          final Output output,
+                          final int written) throws IOException, InterruptedException {
+        final byte[] encoded;
+        try {
+            encoded = inFlight.remove().get();
+        } catch (ExecutionException e) {
+            throw new IOException("Rendering a frame failed", e.getCause());
+        }
+        if (encoded == null) {
+            skipped++;
+            return written;
+        }
+        output.write(written, encoded);
+        return written + 1;
+    }
+
+    private Callable<byte[]> job(final Frame frame, final RenderState state) {
+        return new Callable<byte[]>() {
+            @Override
+            public byte[] call() throws IOException {
+                final long start = System.nanoTime();
+                Rasteriser current = rasteriser.get();
+                if (current == null || !current.matches(state.dimensions, dmd, ColourAdjust.NONE)) {
+                    current = new Rasteriser(state.dimensions, dmd);
+                    rasteriser.set(current);
+                }
+                final Rasteriser forFrame = current;
+                final int[] image = ImageUtils.toRawImage(frame, state,
+                        new FixedMetadata(dmd, state, forFrame));
+                // Left out rather than written as an image of the wrong size.
+                final byte[] encoded = image == null ? null :
+                        encode(image, forFrame.getOutputWidth(), forFrame.getOutputHeight());
+                final WorkerStats worker = stats.get();
+                worker.frames++;
+                worker.nanos += System.nanoTime() - start;
+                return encoded;
+            }
+        };
+    }
+
+    private byte[] encode(final int[] image, final int width, final int height) throws IOException {
+        if (raw) {
+            final ByteBuffer bgra = ByteBuffer.allocate(image.length * 4).order(LITTLE_ENDIAN);
+            bgra.asIntBuffer().put(image);
+            return bgra.array();
+        }
+        final BufferedImage png = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        png.setRGB(0, 0, width, height, image, 0, width);
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ImageIO.write(png, "png", out);
+        return out.toByteArray();
+    }
+
+    /**
+     * Describe how fast each thread rendered.
+     * @return a line per thread with its frames per second while it was busy.
+     */
+    String report() {
+        final StringBuilder sb = new StringBuilder();
+        if (skipped > 0) {
+            sb.append(String.format(Locale.ROOT, "%d frames could not be drawn%n", skipped));
+        }
+        synchronized (workerStats) {
+            for (WorkerStats worker : workerStats) {
+                final double seconds = worker.nanos / 1e9;
+                sb.append(String.format(Locale.ROOT, "%s: %d frames, %.1f fps%n", worker.name,
+                        worker.frames, seconds > 0 ? worker.frames / seconds : 0));
+            }
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Write a message with a 4 byte little endian length in front, as read by
+     * {@link MessageReader}.
+     * @param out the stream to write to.
+     * @param message the message.
+     * @throws IOException if writing failed.
+     */
+    static void writeMessage(final OutputStream out, final byte[] message) throws IOException {
+        out.write(ByteBuffer.allocate(4).order(LITTLE_ENDIAN).putInt(message.length).array());
+        out.write(message);
+    }
+
+    public static void main(final String[] args) throws Exception {
+        if (args.length < 2) {
+            System.err.println("Usage: BatchRenderer <messages> <output dir or .raw file>" +
+                    " [--threads <n>] [--no-dmd] [--round]");
+            System.exit(1);
+        }
+        int threads = Runtime.getRuntime().availableProcessors();
+        boolean enabled = true;
+        boolean round = false;
+        for (int i = 2; i < args.length; i++) {
+            if ("--threads".equals(args[i])) {
+                threads = Integer.parseInt(args[++i]);
+            } else if ("--no-dmd".equals(args[i])) {
+                enabled = false;
+            } else if ("--round".equals(args[i])) {
+                round = true;
+            }
+        }
+        final File target = new File(args[1]);
+        final boolean raw = target.getName().endsWith(".raw");
+        final BatchRenderer renderer = new BatchRenderer(new Dmd(enabled, round), threads, raw);
+        final long start = System.nanoTime();
+        final InputStream in = new FileInputStream(args[0]);
+        final MessageReader messages = new MessageReader(in);
+        final int frames;
+        try {
+            frames = renderTo(renderer, messages, target, raw);
+        } finally {
+            in.close();
+        }
+        final double seconds = (System.nanoTime() - start) / 1e9;
+        System.out.printf(Locale.ROOT, "Rendered %d frames from %d messages in %.1fs," +
+                " %.1f fps on %d threads%n", frames, messages.getCount(), seconds,
+                frames / seconds, threads);
+        System.out.print(renderer.report());
+    }
+
+    private static int renderTo(final BatchRenderer renderer,
+                                final MessageReader messages,
+                                final File target,
+                                final boolean raw) throws IOException, InterruptedException {
+        final int frames;
+        if (raw) {
+            final OutputStream out = new BufferedOutputStream(new FileOutputStream(target));
+            try {
+                frames = renderer.render(messages, new Output() {
+                    @Override
+                    public void write(final int index, final byte[] encoded) throws IOException {
+                        out.write(encoded);
+                    }
+                });
+            } finally {
+                out.close();
+            }
+        } else {
+            if (!target.isDirectory() && !target.mkdirs()) {
+                throw new IOException("Could not create " + target);
+            }
+            frames = renderer.render(messages, new Output() {
+                @Override
+                public void write(final int index, final byte[] encoded) throws IOException {
+                    final String name = String.format(Locale.ROOT, "frame-%06d.png", index);
+                    final OutputStream out = new FileOutputStream(new File(target, name));
+                    try {
+                        out.write(encoded);
+                    } finally {
+                        out.close();
+                    }
+                }
+            });
+        }
+        return frames;
+    }
+}
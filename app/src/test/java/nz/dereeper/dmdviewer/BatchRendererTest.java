@@ -0,0 +1,169 @@
+/*
+ * Copyright 2021 Mark de Reeper
+ *
+ *  Permission is hereby granted, free of charge, to any person
+ *  obtaining a copy of this software and associated documentation
+ *  files (the "Software"), to deal in the Software without
+ *  restriction, including without limitation the rights to use,
+ *  copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the
+ *  Software is furnished to do so, subject to the following
+ *  conditions:
+ *
+ *  The above copyright notice and this permission notice shall be
+ *  included in all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ *  EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ *  OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ *  NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ *  HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ *  WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ *  FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ *  OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package nz.dereeper.dmdviewer;
+
+import org.testng.annotations.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static java.nio.ByteOrder.LITTLE_ENDIAN;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
+
+
+public class BatchRendererTest {
+
+    private static final int WIDTH = 128;
+    private static final int HEIGHT = 32;
+
+    @Test
+    public void testParallelOutputMatchesSingleThreadInOrder() throws Exception {
+        final List<byte[]> messages = session();
+        final List<byte[]> single = render(messages, 1);
+        final List<byte[]> parallel = render(messages, 3);
+        assertEquals(single.size(), 20);
+        assertEquals(parallel.size(), single.size());
+        for (int i = 0; i < single.size(); i++) {
+            assertEquals(parallel.get(i), single.get(i), "frame " + i);
+        }
+        // Every frame was different, and the colour change was picked up in order.
+        assertFalse(Arrays.equals(single.get(0), single.get(1)));
+        assertEquals(pixel(single.get(9)) & 0x00FFFF, 0);
+        assertTrue((pixel(single.get(9)) & 0xFF0000) != 0);
+        assertEquals(pixel(single.get(10)) & 0xFFFF00, 0);
+        assertTrue((pixel(single.get(10)) & 0x0000FF) != 0);
+    }
+
+    @Test
+    public void testMessagesRoundTrip() throws Exception {
+        final List<byte[]> messages = session();
+        final BatchRenderer.MessageReader reader = reader(messages);
+        for (byte[] message : messages) {
+            assertEquals(reader.next(), message);
+        }
+        assertNull(reader.next());
+        assertEquals(reader.getCount(), messages.size());
+    }
+
+    @Test
+    public void testFramesThatCantBeDrawnAreLeftOut() throws Exception {
+        final List<byte[]> messages = session();
+        // Far too short for the size of the display.
+        messages.add(5, message("rgb24", ByteBuffer.allocate(16).order(LITTLE_ENDIAN)
+                .putInt(100).array()));
+        final List<byte[]> frames = render(messages, 2);
+        assertEquals(frames.size(), 20);
+        for (byte[] frame : frames) {
+            assertEquals(frame.length, WIDTH * HEIGHT * 4);
+        }
+    }
+
+    @Test
+    public void testRawStreamRefusesAChangeOfSize() throws Exception {
+        final List<byte[]> messages = session();
+        messages.add(12, message("dimensions", ByteBuffer.allocate(8).order(LITTLE_ENDIAN)
+                .putInt(WIDTH * 2).putInt(HEIGHT).array()));
+        try {
+            render(messages, 2);
+            fail("Should not have changed size part way through a raw stream");
+        } catch (IOException expected) {
+            assertTrue(expected.getMessage().contains("256x32"), expected.getMessage());
+        }
+    }
+
+    private static BatchRenderer.MessageReader reader(final List<byte[]> messages)
+            throws IOException {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (byte[] message : messages) {
+            BatchRenderer.writeMessage(out, message);
+        }
+        return new BatchRenderer.MessageReader(new ByteArrayInputStream(out.toByteArray()));
+    }
+
+    private static List<byte[]> render(final List<byte[]> messages, final int threads)
+            throws Exception {
+        final List<byte[]> frames = new ArrayList<>();
+        final BatchRenderer renderer = new BatchRenderer(new Dmd(false, false), threads, true);
+        final int written = renderer.render(reader(messages), new BatchRenderer.Output() {
+            @Override
+            public void write(final int index, final byte[] encoded) {
+                assertEquals(index, frames.size());
+                frames.add(encoded);
+            }
+        });
+        assertEquals(written, frames.size());
+        return frames;
+    }
+
+    // The first pixel that is lit in every frame, as ARGB.
+    private static int pixel(final byte[] bgra) {
+        return ByteBuffer.wrap(bgra).order(LITTLE_ENDIAN).getInt(0);
+    }
+
+    // Ten frames in red, then ten in blue.
+    private static List<byte[]> session() throws IOException {
+        final List<byte[]> messages = new ArrayList<>();
+        messages.add(message("dimensions", ByteBuffer.allocate(8).order(LITTLE_ENDIAN)
+                .putInt(WIDTH).putInt(HEIGHT).array()));
+        messages.add(message("color", ByteBuffer.allocate(4).order(LITTLE_ENDIAN)
+                .putInt(0xFF0000).array()));
+        final Random random = new Random(5);
+        for (int i = 0; i < 20; i++) {
+            if (i == 10) {
+                messages.add(message("color", ByteBuffer.allocate(4).order(LITTLE_ENDIAN)
+                        .putInt(0x0000FF).array()));
+            }
+            final byte[] planes = new byte[WIDTH * HEIGHT / 8 * 4];
+            random.nextBytes(planes);
+            // Light up the first pixel fully in every plane.
+            for (int plane = 0; plane < 4; plane++) {
+                planes[plane * WIDTH * HEIGHT / 8] |= 1;
+            }
+            final ByteBuffer data = ByteBuffer.allocate(4 + planes.length).order(LITTLE_ENDIAN);
+            data.putInt(i).put(planes);
+            messages.add(message("gray4Planes", data.array()));
+        }
+        return messages;
+    }
+
+    private static byte[] message(final String type, final byte[] data) throws IOException {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write(type.getBytes("US-ASCII"));
+        out.write(0);
+        out.write(data);
+        return out.toByteArray();
+    }
+}
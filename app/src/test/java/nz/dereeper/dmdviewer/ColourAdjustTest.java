@@ -0,0 +1,79 @@
+/*
+ * Copyright 2021 Mark de Reeper
+ *
+ *  Permission is hereby granted, free of charge, to any person
+ *  obtaining a copy of this software and associated documentation
+ *  files (the "Software"), to deal in the Software without
+ *  restriction, including without limitation the rights to use,
+ *  copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the
+ *  Software is furnished to do so, subject to the following
+ *  conditions:
+ *
+ *  The above copyright notice and this permission notice shall be
+ *  included in all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ *  EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ *  OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ *  NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ *  HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ *  WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ *  FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ *  OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package nz.dereeper.dmdviewer;
+
+import org.testng.annotations.Test;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+
+public class ColourAdjustTest {
+
+    private static final Dimensions DIMENSIONS = new Dimensions(16, 8);
+
+    @Test
+    public void testNoneLeavesColoursAlone() {
+        assertTrue(ColourAdjust.NONE.isIdentity());
+        assertEquals(ColourAdjust.NONE.apply(0x123456), 0xFF123456);
+        assertEquals(ColourAdjust.NONE.apply(0x12, 0x34, 0x56), 0xFF123456);
+    }
+
+    @Test
+    public void testBrightnessClamps() {
+        final ColourAdjust adjust = new ColourAdjust(50, 100, 1.0f);
+        assertFalse(adjust.isIdentity());
+        assertEquals(adjust.apply(0x000000), 0xFF808080);
+        assertEquals(adjust.apply(0xFF00FF), 0xFFFF80FF);
+    }
+
+    @Test
+    public void testGammaAndContrast() {
+        final ColourAdjust gamma = new ColourAdjust(0, 100, 2.2f);
+        // Ends stay where they are, the middle gets lighter.
+        assertEquals(gamma.apply(0x00FF80), 0xFF00FFBA);
+        final ColourAdjust contrast = new ColourAdjust(0, 200, 1.0f);
+        assertEquals(contrast.apply(0x406080), 0xFF004080);
+    }
+
+    @Test
+    public void testPaletteIsAdjustedAndFollowsChanges() {
+        final ColourAdjust adjust = new ColourAdjust(0, 100, 2.2f);
+        final Rasteriser rasteriser = new Rasteriser(DIMENSIONS, new Dmd(false, false), adjust,
+                false);
+        final byte[] planes = new byte[DIMENSIONS.area / 8 * 2];
+        // Every pixel has the value 1.
+        for (int i = 0; i < DIMENSIONS.area / 8; i++) {
+            planes[i] = (byte) 0xFF;
+        }
+        final int[] palette = { 0x000000, 0x404040, 0x808080, 0xFFFFFF };
+        assertEquals(rasteriser.fromPlanes(planes, palette, 2)[0], adjust.apply(0x404040));
+        // Frame palettes can change without being a new array.
+        palette[1] = 0x102030;
+        assertEquals(rasteriser.fromPlanes(planes, palette, 2)[0], adjust.apply(0x102030));
+    }
+}
@@ -0,0 +1,147 @@
+/*
+ * Copyright 2021 Mark de Reeper
+ *
+ *  Permission is hereby granted, free of charge, to any person
+ *  obtaining a copy of this software and associated documentation
+ *  files (the "Software"), to deal in the Software without
+ *  restriction, including without limitation the rights to use,
+ *  copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the
+ *  Software is furnished to do so, subject to the following
+ *  conditions:
+ *
+ *  The above copyright notice and this permission notice shall be
+ *  included in all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ *  EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ *  OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ *  NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ *  HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ *  WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ *  FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ *  OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package nz.dereeper.dmdviewer;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static java.nio.ByteOrder.LITTLE_ENDIAN;
+
+/**
+ * Builds colourisation databases in the format read by {@link Colouriser}, for tests and for
+ * making synthetic databases to benchmark against.
+ */
+class ColourisationDbBuilder {
+
+    private final int planeLength;
+    private final List<int[]> palettes = new ArrayList<>();
+    private final List<byte[]> masks = new ArrayList<>();
+    private long[] hashes = new long[64];
+    private int[] entryPalettes = new int[64];
+    private int[] entryFlags = new int[64];
+    private int entries;
+
+    /**
+     * @param planeLength the length of one plane of the frames the masks are for.
+     */
+    ColourisationDbBuilder(final int planeLength) {
+        this.planeLength = planeLength;
+    }
+
+    int addPalette(final int[] colours) {
+        palettes.add(Arrays.copyOf(colours, Colouriser.PALETTE_COLOURS));
+        return palettes.size() - 1;
+    }
+
+    int addMask(final byte[] mask) {
+        if (mask.length != planeLength) {
+            throw new IllegalArgumentException("Mask length must be " + planeLength);
+        }
+        masks.add(mask.clone());
+        return masks.size() - 1;
+    }
+
+    /**
+     * Colour the frame with these planes.
+     * @param planes the planes of the frame.
+     * @param bitLength the number of planes.
+     * @param mask the mask the frame is matched through, or -1 for the whole frame.
+     * @param palette the palette to use.
+     * @param switchPalette true to keep using the palette for the frames that follow.
+     */
+    void addFrame(final byte[] planes,
+                  final int bitLength,
+                  final int mask,
+                  final int palette,
+                  final boolean switchPalette) {
+        final long hash = mask < 0 ?
+                Colouriser.hash(planes, bitLength, null, -1, 0, 0) :
+                Colouriser.hash(planes, bitLength, ByteBuffer.wrap(masks.get(mask)).order(LITTLE_ENDIAN),
+                        0, planeLength, mask + 1);
+        addHash(hash, palette, switchPalette ? Colouriser.SWITCH : 0);
+    }
+
+    void addHash(final long hash, final int palette, final int flags) {
+        if (entries == hashes.length) {
+            hashes = Arrays.copyOf(hashes, entries * 2);
+            entryPalettes = Arrays.copyOf(entryPalettes, entries * 2);
+            entryFlags = Arrays.copyOf(entryFlags, entries * 2);
+        }
+        hashes[entries] = hash;
+        entryPalettes[entries] = palette;
+        entryFlags[entries] = flags;
+        entries++;
+    }
+
+    ByteBuffer build() {
+        // Keep the table at most half full so misses find an empty slot quickly.
+        final int slotCount = Math.max(16, Integer.highestOneBit(Math.max(1, entries) * 2 - 1) << 1);
+        final ByteBuffer db = ByteBuffer.allocate(Colouriser.HEADER_BYTES +
+                slotCount * Colouriser.SLOT_BYTES +
+                palettes.size() * Colouriser.PALETTE_COLOURS * 4 +
+                masks.size() * planeLength).order(LITTLE_ENDIAN);
+        db.putInt(Colouriser.MAGIC).putInt(Colouriser.VERSION).putInt(slotCount)
+                .putInt(palettes.size()).putInt(masks.size()).putInt(planeLength);
+        for (int i = 0; i < entries; i++) {
+            int index = (int) (hashes[i] ^ (hashes[i] >>> 32)) & (slotCount - 1);
+            while (db.getLong(slot(index)) != 0 && db.getLong(slot(index)) != hashes[i]) {
+                index = (index + 1) & (slotCount - 1);
+            }
+            db.putLong(slot(index), hashes[i]);
+            db.putInt(slot(index) + 8, entryPalettes[i]);
+            db.putInt(slot(index) + 12, entryFlags[i]);
+        }
+        db.position(Colouriser.HEADER_BYTES + slotCount * Colouriser.SLOT_BYTES);
+        for (int[] palette : palettes) {
+            for (int colour : palette) {
+                db.putInt(colour);
+            }
+        }
+        for (byte[] mask : masks) {
+            db.put(mask);
+        }
+        db.flip();
+        return db;
+    }
+
+    void writeTo(final File file) throws IOException {
+        final FileOutputStream out = new FileOutputStream(file);
+        try {
+            out.getChannel().write(build());
+        } finally {
+            out.close();
+        }
+    }
+
+    private static int slot(final int index) {
+        return Colouriser.HEADER_BYTES + index * Colouriser.SLOT_BYTES;
+    }
+}
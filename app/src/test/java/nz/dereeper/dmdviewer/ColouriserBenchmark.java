@@ -0,0 +1,152 @@
+/*
+ * Copyright 2021 Mark de Reeper
+ *
+ *  Permission is hereby granted, free of charge, to any person
+ *  obtaining a copy of this software and associated documentation
+ *  files (the "Software"), to deal in the Software without
+ *  restriction, including without limitation the rights to use,
+ *  copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the
+ *  Software is furnished to do so, subject to the following
+ *  conditions:
+ *
+ *  The above copyright notice and this permission notice shall be
+ *  included in all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ *  EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ *  OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ *  NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ *  HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ *  WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ *  FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ *  OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package nz.dereeper.dmdviewer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+
+import static java.nio.ByteOrder.LITTLE_ENDIAN;
+
+/**
+ * Times colourisation lookups against synthetic databases of growing size, to check the cost per
+ * frame stays the same however many frames the database holds.
+ */
+class ColouriserBenchmark {
+
+    static final int WIDTH = 128;
+    static final int HEIGHT = 32;
+    static final int PLANE_LENGTH = WIDTH * HEIGHT / 8;
+
+    // Keeps the lookups from being optimised away.
+    private static volatile int found;
+
+    private ColouriserBenchmark() {
+        // Just statics
+    }
+
+    /**
+     * Write a database with random entries plus a switch for every other frame given.
+     * @param file where to write it.
+     * @param entries how many random entries to add.
+     * @param masks how many masks to add, the lookups of frames that miss try each of them.
+     * @param frames frames to add to the database.
+     * @param seed for the random entries.
+     */
+    static void synthetic(final File file,
+                          final int entries,
+                          final int masks,
+                          final List<Frame> frames,
+                          final long seed) throws Exception {
+        final Random random = new Random(seed);
+        final ColourisationDbBuilder builder = new ColourisationDbBuilder(PLANE_LENGTH);
+        final int[] colours = new int[Colouriser.PALETTE_COLOURS];
+        for (int i = 0; i < 64; i++) {
+            for (int j = 0; j < colours.length; j++) {
+                colours[j] = 0xFF000000 | random.nextInt(0x1000000);
+            }
+            builder.addPalette(colours);
+        }
+        for (int i = 0; i < masks; i++) {
+            final byte[] mask = new byte[PLANE_LENGTH];
+            random.nextBytes(mask);
+            builder.addMask(mask);
+        }
+        for (int i = 0; i < entries; i++) {
+            final long hash = random.nextLong();
+            builder.addHash(hash != 0 ? hash : 1, random.nextInt(64), random.nextInt(2));
+        }
+        for (int i = 0; i < frames.size(); i++) {
+            builder.addFrame(frames.get(i).getPlanes(), 4, -1, i % 64, i % 2 == 0);
+        }
+        builder.writeTo(file);
+    }
+
+    static List<Frame> randomFrames(final int count, final long seed) throws Exception {
+        final Random random = new Random(seed);
+        final List<Frame> frames = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            final byte[] planes = new byte[PLANE_LENGTH * 4];
+            random.nextBytes(planes);
+            frames.add(grayFrame("gray4Planes", planes));
+        }
+        return frames;
+    }
+
+    static Frame grayFrame(final String type, final byte[] planes) throws Exception {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write(type.getBytes("US-ASCII"));
+        out.write(0);
+        out.write(new byte[4]);
+        out.write(planes);
+        return new Frame(ByteBuffer.wrap(out.toByteArray()).order(LITTLE_ENDIAN));
+    }
+
+    static double nanosPerLookup(final Colouriser colouriser,
+                                 final List<Frame> frames,
+                                 final int rounds) {
+        final long start = System.nanoTime();
+        int hits = 0;
+        for (int round = 0; round < rounds; round++) {
+            for (Frame frame : frames) {
+                if (colouriser.paletteFor(frame) != null) {
+                    hits++;
+                }
+            }
+        }
+        final long nanos = System.nanoTime() - start;
+        found = hits;
+        return nanos / (double) (rounds * frames.size());
+    }
+
+    public static void main(final String[] args) throws Exception {
+        final List<Frame> known = randomFrames(256, 1);
+        final List<Frame> unknown = randomFrames(256, 2);
+        for (int entries : new int[] { 1000, 100000, 1000000, 4000000 }) {
+            final File file = File.createTempFile("colourisation", ".dmdc");
+            try {
+                synthetic(file, entries, 4, known, entries);
+                final Colouriser colouriser = Colouriser.open(file);
+                // Warm up before timing.
+                nanosPerLookup(colouriser, known, 200);
+                nanosPerLookup(colouriser, unknown, 200);
+                System.out.println(String.format(Locale.ROOT,
+                        "%,10d entries (%,d KB mapped): hit %.0fns, miss with 4 masks %.0fns",
+                        entries, file.length() / 1024,
+                        nanosPerLookup(colouriser, known, 1000),
+                        nanosPerLookup(colouriser, unknown, 1000)));
+            } finally {
+                if (!file.delete()) {
+                    file.deleteOnExit();
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,182 @@
+/*
+ * Copyright 2021 Mark de Reeper
+ *
+ *  Permission is hereby granted, free of charge, to any person
+ *  obtaining a copy of this software and associated documentation
+ *  files (the "Software"), to deal in the Software without
+ *  restriction, including without limitation the rights to use,
+ *  copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the
+ *  Software is furnished to do so, subject to the following
+ *  conditions:
+ *
+ *  The above copyright notice and this permission notice shall be
+ *  included in all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ *  EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ *  OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ *  NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ *  HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ *  WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ *  FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ *  OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package nz.dereeper.dmdviewer;
+
+import org.testng.annotations.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static java.nio.ByteOrder.LITTLE_ENDIAN;
+import static nz.dereeper.dmdviewer.ColouriserBenchmark.PLANE_LENGTH;
+import static nz.dereeper.dmdviewer.ColouriserBenchmark.grayFrame;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNotNull;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertSame;
+import static org.testng.Assert.fail;
+
+
+public class ColouriserTest {
+
+    private static final int[] RED = palette(0xFFFF0000);
+    private static final int[] GREEN = palette(0xFF00FF00);
+    private static final int[] BLUE = palette(0xFF0000FF);
+
+    @Test
+    public void testFramePaletteAndSwitch() throws Exception {
+        final byte[] plain = planes(1, 4);
+        final byte[] coloured = planes(2, 4);
+        final byte[] scene = planes(3, 4);
+        final ColourisationDbBuilder builder = new ColourisationDbBuilder(PLANE_LENGTH);
+        final int red = builder.addPalette(RED);
+        final int green = builder.addPalette(GREEN);
+        builder.addFrame(coloured, 4, -1, red, false);
+        builder.addFrame(scene, 4, -1, green, true);
+        final Colouriser colouriser = new Colouriser(builder.build());
+
+        assertNull(colouriser.paletteFor(grayFrame("gray4Planes", plain)));
+        assertEquals(colouriser.paletteFor(grayFrame("gray4Planes", coloured)), RED);
+        assertNull(colouriser.paletteFor(grayFrame("gray4Planes", plain)));
+        assertEquals(colouriser.paletteFor(grayFrame("gray4Planes", scene)), GREEN);
+        // The switch sticks for frames not in the database, but not over a frame palette.
+        assertEquals(colouriser.paletteFor(grayFrame("gray4Planes", plain)), GREEN);
+        assertEquals(colouriser.paletteFor(grayFrame("gray4Planes", coloured)), RED);
+        assertEquals(colouriser.paletteFor(grayFrame("gray4Planes", plain)), GREEN);
+        colouriser.reset();
+        assertNull(colouriser.paletteFor(grayFrame("gray4Planes", plain)));
+    }
+
+    @Test
+    public void testPlaneCountIsPartOfTheHash() throws Exception {
+        final byte[] planes = planes(4, 4);
+        final ColourisationDbBuilder builder = new ColourisationDbBuilder(PLANE_LENGTH);
+        builder.addFrame(planes, 4, -1, builder.addPalette(RED), false);
+        final Colouriser colouriser = new Colouriser(builder.build());
+        assertEquals(colouriser.paletteFor(grayFrame("gray4Planes", planes)), RED);
+        assertNull(colouriser.paletteFor(grayFrame("gray2Planes", planes)));
+        assertNull(colouriser.paletteFor(grayFrame("rgb24", planes)));
+    }
+
+    @Test
+    public void testMaskIgnoresChangingPixels() throws Exception {
+        final byte[] planes = planes(5, 2);
+        final byte[] mask = new byte[PLANE_LENGTH];
+        // Only the first half of each plane decides the colour, the rest is the score.
+        Arrays.fill(mask, 0, PLANE_LENGTH / 2, (byte) 0xFF);
+        final ColourisationDbBuilder builder = new ColourisationDbBuilder(PLANE_LENGTH);
+        final int blue = builder.addPalette(BLUE);
+        builder.addFrame(planes, 2, builder.addMask(mask), blue, false);
+        final Colouriser colouriser = new Colouriser(builder.build());
+
+        final byte[] newScore = planes.clone();
+        newScore[PLANE_LENGTH - 1] ^= 0x10;
+        newScore[PLANE_LENGTH * 2 - 3] ^= 0x01;
+        assertEquals(colouriser.paletteFor(grayFrame("gray2Planes", planes)), BLUE);
+        assertEquals(colouriser.paletteFor(grayFrame("gray2Planes", newScore)), BLUE);
+        final byte[] newScene = planes.clone();
+        newScene[3] ^= 0x01;
+        assertNull(colouriser.paletteFor(grayFrame("gray2Planes", newScene)));
+    }
+
+    @Test
+    public void testLargeMappedDatabase() throws Exception {
+        final List<Frame> known = ColouriserBenchmark.randomFrames(64, 6);
+        final List<Frame> unknown = ColouriserBenchmark.randomFrames(64, 7);
+        final File file = File.createTempFile("colourisation", ".dmdc");
+        try {
+            ColouriserBenchmark.synthetic(file, 500000, 4, known, 8);
+            final Colouriser colouriser = Colouriser.open(file);
+            assertNotNull(colouriser);
+            for (int i = 0; i < known.size(); i++) {
+                assertNotNull(colouriser.paletteFor(known.get(i)), "frame " + i);
+                colouriser.reset();
+            }
+            for (Frame frame : unknown) {
+                assertNull(colouriser.paletteFor(frame));
+            }
+        } finally {
+            if (!file.delete()) {
+                file.deleteOnExit();
+            }
+        }
+    }
+
+    @Test
+    public void testMissingAndBadDatabases() throws Exception {
+        assertNull(Colouriser.open(new File("no-such-colourisation.dmdc")));
+        final ByteBuffer db = new ColourisationDbBuilder(PLANE_LENGTH).build();
+        assertNotNull(new Colouriser(db));
+        assertRejected(ByteBuffer.wrap(new byte[8]));
+        final ByteBuffer truncated = db.duplicate();
+        truncated.limit(Colouriser.HEADER_BYTES + 8);
+        assertRejected(truncated.slice());
+        final ByteBuffer notPowerOfTwo = ByteBuffer.wrap(db.array().clone());
+        notPowerOfTwo.put(8, (byte) 15);
+        assertRejected(notPowerOfTwo);
+        // 2^28 slots of 16 bytes would wrap around to no slots at all in an int.
+        final ByteBuffer wrapsAround = ByteBuffer.wrap(db.array().clone()).order(LITTLE_ENDIAN);
+        wrapsAround.putInt(8, 1 << 28);
+        assertRejected(wrapsAround);
+    }
+
+    @Test
+    public void testPalettesAreReused() throws Exception {
+        final byte[] planes = planes(9, 4);
+        final ColourisationDbBuilder builder = new ColourisationDbBuilder(PLANE_LENGTH);
+        builder.addFrame(planes, 4, -1, builder.addPalette(RED), false);
+        final Colouriser colouriser = new Colouriser(builder.build());
+        final Frame frame = grayFrame("gray4Planes", planes);
+        assertSame(colouriser.paletteFor(frame), colouriser.paletteFor(frame));
+    }
+
+    private static void assertRejected(final ByteBuffer db) {
+        try {
+            new Colouriser(db);
+            fail("Should not have accepted the database");
+        } catch (IOException expected) {
+            // As expected
+        }
+    }
+
+    private static byte[] planes(final long seed, final int bitLength) {
+        final byte[] planes = new byte[PLANE_LENGTH * bitLength];
+        new Random(seed).nextBytes(planes);
+        return planes;
+    }
+
+    private static int[] palette(final int colour) {
+        final int[] palette = new int[Colouriser.PALETTE_COLOURS];
+        for (int i = 0; i < palette.length; i++) {
+            palette[i] = 0xFF000000 | (colour & 0xFFFFFF) / 15 * i;
+        }
+        return palette;
+    }
+}
@@ -0,0 +1,105 @@
+/*
+ * Copyright 2021 Mark de Reeper
+ *
+ *  Permission is hereby granted, free of charge, to any person
+ *  obtaining a copy of this software and associated documentation
+ *  files (the "Software"), to deal in the Software without
+ *  restriction, including without limitation the rights to use,
+ *  copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the
+ *  Software is furnished to do so, subject to the following
+ *  conditions:
+ *
+ *  The above copyright notice and this permission notice shall be
+ *  included in all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ *  EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ *  OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ *  NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ *  HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ *  WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ *  FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ *  OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package nz.dereeper.dmdviewer;
+
+import android.util.Log;
+
+import org.testng.annotations.Test;
+
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+
+public class CrashCatcherTest {
+
+    @Test
+    public void testDumpKeepsMostRecentEntries() {
+        for (int i = 0; i < CrashCatcher.CAPACITY * 2; i++) {
+            CrashCatcher.log(Log.INFO, "Test", "entry-" + i + ".");
+        }
+        final String dump = CrashCatcher.dump();
+        assertTrue(dump.contains("I/Test: entry-" + (CrashCatcher.CAPACITY * 2 - 1) + "."));
+        assertTrue(dump.contains("entry-" + CrashCatcher.CAPACITY + "."));
+        assertFalse(dump.contains("entry-" + (CrashCatcher.CAPACITY - 1) + "."));
+    }
+
+    @Test
+    public void testThrowableFormattedOnDump() {
+        CrashCatcher.logError(new IllegalStateException("Broken"));
+        assertTrue(CrashCatcher.dump().contains("java.lang.IllegalStateException: Broken"));
+    }
+
+    @Test
+    public void testConcurrentWriters() throws InterruptedException {
+        final Thread[] writers = new Thread[4];
+        for (int t = 0; t < writers.length; t++) {
+            writers[t] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (int i = 0; i < 10000; i++) {
+                        CrashCatcher.log(Log.WARN, "Writer", "message");
+                    }
+                }
+            });
+            writers[t].start();
+        }
+        for (Thread writer : writers) {
+            writer.join();
+        }
+        final String dump = CrashCatcher.dump();
+        assertTrue(dump.split("\n").length >= CrashCatcher.CAPACITY - writers.length);
+    }
+
+    @Test
+    public void testDumpWhileWritingSeesWholeEntries() throws InterruptedException {
+        final Thread[] writers = new Thread[4];
+        for (int t = 0; t < writers.length; t++) {
+            final int id = t;
+            writers[t] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (int i = 0; i < 10000; i++) {
+                        CrashCatcher.log(Log.WARN, "Dumped" + id, "from-" + id);
+                    }
+                }
+            });
+            writers[t].start();
+        }
+        for (int i = 0; i < 50; i++) {
+            for (String line : CrashCatcher.dump().split("\n")) {
+                final int tag = line.indexOf("W/Dumped");
+                if (tag >= 0) {
+                    // The tag and message of an entry always come from the same call.
+                    final char id = line.charAt(tag + "W/Dumped".length());
+                    assertTrue(line.endsWith("from-" + id), line);
+                }
+            }
+        }
+        for (Thread writer : writers) {
+            writer.join();
+        }
+    }
+}
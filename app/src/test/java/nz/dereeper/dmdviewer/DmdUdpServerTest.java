@@ -0,0 +1,243 @@
+/*
+ * Copyright 2021 Mark de Reeper
+ *
+ *  Permission is hereby granted, free of charge, to any person
+ *  obtaining a copy of this software and associated documentation
+ *  files (the "Software"), to deal in the Software without
+ *  restriction, including without limitation the rights to use,
+ *  copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the
+ *  Software is furnished to do so, subject to the following
+ *  conditions:
+ *
+ *  The above copyright notice and this permission notice shall be
+ *  included in all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ *  EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ *  OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ *  NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ *  HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ *  WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ *  FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ *  OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package nz.dereeper.dmdviewer;
+
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+
+import static java.nio.ByteOrder.LITTLE_ENDIAN;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static nz.dereeper.dmdviewer.Frame.FrameType.DIMENSIONS;
+import static nz.dereeper.dmdviewer.Frame.FrameType.RGB24;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNotNull;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+
+
+public class DmdUdpServerTest {
+
+    private final BlockingQueue<Frame> frames = new LinkedBlockingQueue<>();
+    private DmdUdpServer server;
+    private UdpTestSender sender;
+
+    @BeforeMethod
+    public void startServer() throws Exception {
+        // The test instance is shared, so nothing left by one test may reach the next.
+        frames.clear();
+        server = new DmdUdpServer(new Processing() {
+            @Override
+            public void processFrame(final Frame frame) {
+                frames.add(frame);
+            }
+
+            @Override
+            public void duplicateFrame() {
+            }
+
+            @Override
+            public void clientDisconnected() {
+            }
+
+            @Override
+            public void closeDown(final String errorMessage) {
+            }
+        }, 0);
+        server.start();
+        for (int i = 0; i < 100 && server.getLocalPort() <= 0; i++) {
+            Thread.sleep(10);
+        }
+        final InetSocketAddress address =
+                new InetSocketAddress(InetAddress.getLoopbackAddress(), server.getLocalPort());
+        sender = new UdpTestSender(address, 1000);
+    }
+
+    @AfterMethod
+    public void stopServer() {
+        sender.close();
+        server.stop();
+    }
+
+    @Test
+    public void testFragmentedMessagesOverLoopback() throws Exception {
+        sender.sendControl(dimensionsMessage(128, 32));
+        final Frame dimensions = frames.poll(5, SECONDS);
+        assertNotNull(dimensions);
+        assertEquals(dimensions.getFrameType(), DIMENSIONS);
+        assertEquals(dimensions.getDimensions(), new Dimensions(128, 32));
+
+        final byte[] rgb = new byte[128 * 32 * 3];
+        rgb[rgb.length - 1] = 42;
+        sender.send(rgb24Message(rgb));
+        final Frame frame = frames.poll(5, SECONDS);
+        assertNotNull(frame);
+        assertEquals(frame.getFrameType(), RGB24);
+        assertEquals(frame.getPlanes().length, rgb.length);
+        assertEquals(frame.getPlanes()[rgb.length - 1], 42);
+    }
+
+    @Test
+    public void testIncompleteMessageDroppedAndControlRepeated() throws Exception {
+        final Stats.Counter incomplete = Stats.counter("udpIncomplete");
+        final Stats.Counter lost = Stats.counter("udpLost");
+        final long incompleteBefore = incomplete.get();
+        final long lostBefore = lost.get();
+        sender.send(dimensionsMessage(128, 32));
+        assertNotNull(frames.poll(5, SECONDS));
+        sender.dropNextFragment(0);
+        sender.sendControl(dimensionsMessage(192, 64));
+        final byte[] rgb = new byte[192 * 64 * 3];
+        sender.dropNextFragment(3);
+        sender.send(rgb24Message(rgb));
+        // The lost dimensions message turns up when the control messages are repeated.
+        sender.repeatControl();
+        final Frame frame = frames.poll(5, SECONDS);
+        assertNotNull(frame);
+        assertEquals(frame.getFrameType(), DIMENSIONS);
+        assertEquals(frame.getDimensions(), new Dimensions(192, 64));
+        assertNull(frames.poll(100, MILLISECONDS));
+        // The dimensions were lost outright, the image was incomplete, each is counted once.
+        assertEquals(incomplete.get() - incompleteBefore, 1);
+        assertEquals(lost.get() - lostBefore, 1);
+    }
+
+    @Test
+    public void testLateMessageDropped() throws Exception {
+        final ByteBuffer datagram = ByteBuffer.wrap(server.datagramBuffer()).order(LITTLE_ENDIAN);
+        final byte[] message = dimensionsMessage(128, 32);
+        final Stats.Counter late = Stats.counter("udpLate");
+        final long lateBefore = late.get();
+        for (int seq : new int[] { 5, 4, 6 }) {
+            datagram.clear();
+            datagram.putInt(seq).putShort((short) 0).putShort((short) 1)
+                    .putInt(0).putInt(message.length).putInt(0).put(message);
+            server.onDatagram(datagram.position(), 0);
+        }
+        assertEquals(frames.size(), 2);
+        assertEquals(late.get() - lateBefore, 1);
+    }
+
+    @Test
+    public void testSenderStartingAgainDelivered() throws Exception {
+        final ByteBuffer datagram = ByteBuffer.wrap(server.datagramBuffer()).order(LITTLE_ENDIAN);
+        final byte[] message = dimensionsMessage(128, 32);
+        // Back to 0 from a long way on, then back to 0 after a quiet spell, then a repeat of it.
+        final long quiet = 30 + DmdUdpServer.RESTART_MILLIS;
+        final int[] seqs = { 5000, 0, 1, 0, 0 };
+        final long[] times = { 0, 10, 20, quiet, quiet + 10 };
+        for (int i = 0; i < seqs.length; i++) {
+            datagram.clear();
+            datagram.putInt(seqs[i]).putShort((short) 0).putShort((short) 1)
+                    .putInt(0).putInt(message.length).putInt(0).put(message);
+            server.onDatagram(datagram.position(), times[i]);
+        }
+        assertEquals(frames.size(), 4);
+    }
+
+    @Test
+    public void testFragmentsWithAGapDropped() throws Exception {
+        final ByteBuffer datagram = ByteBuffer.wrap(server.datagramBuffer()).order(LITTLE_ENDIAN);
+        final byte[] message = dimensionsMessage(128, 32);
+        final int half = message.length / 2;
+        // Both fragments say they start at the beginning, so the end is never filled in.
+        for (int index = 0; index < 2; index++) {
+            datagram.clear();
+            datagram.putInt(1).putShort((short) index).putShort((short) 2)
+                    .putInt(0).putInt(message.length).putInt(0).put(message, 0, half);
+            server.onDatagram(datagram.position(), 0);
+        }
+        assertEquals(frames.size(), 0);
+        for (int index = 0; index < 2; index++) {
+            datagram.clear();
+            datagram.putInt(2).putShort((short) index).putShort((short) 2)
+                    .putInt(index * half).putInt(message.length).putInt(0)
+                    .put(message, index * half, index == 0 ? half : message.length - half);
+            server.onDatagram(datagram.position(), 0);
+        }
+        assertEquals(frames.size(), 1);
+        assertEquals(frames.poll().getDimensions(), new Dimensions(128, 32));
+    }
+
+    @Test
+    public void testMessageOverTheLimitRefused() throws Exception {
+        final DmdUdpServer limited = new DmdUdpServer(new Processing() {
+            @Override
+            public void processFrame(final Frame frame) {
+                frames.add(frame);
+            }
+
+            @Override
+            public void duplicateFrame() {
+            }
+
+            @Override
+            public void clientDisconnected() {
+            }
+
+            @Override
+            public void closeDown(final String errorMessage) {
+            }
+        }, 0, new FrameLimits(64, 16, 512, 256, 0));
+        final ByteBuffer datagram = ByteBuffer.wrap(limited.datagramBuffer()).order(LITTLE_ENDIAN);
+        final byte[] message = dimensionsMessage(128, 32);
+        // Claims to be part of a message far larger than the limit.
+        datagram.putInt(1).putShort((short) 0).putShort((short) 2)
+                .putInt(0).putInt(1024 * 1024).putInt(0).put(message);
+        limited.onDatagram(datagram.position(), 0);
+        datagram.clear();
+        datagram.putInt(2).putShort((short) 0).putShort((short) 1)
+                .putInt(0).putInt(message.length).putInt(0).put(message);
+        limited.onDatagram(datagram.position(), 0);
+        assertEquals(frames.size(), 1);
+        assertEquals(frames.poll().getFrameType(), DIMENSIONS);
+    }
+
+    private static byte[] dimensionsMessage(final int width, final int height) throws Exception {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write("dimensions".getBytes("US-ASCII"));
+        out.write(0);
+        out.write(ByteBuffer.allocate(8).order(LITTLE_ENDIAN).putInt(width).putInt(height).array());
+        return out.toByteArray();
+    }
+
+    private static byte[] rgb24Message(final byte[] rgb) throws Exception {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write("rgb24".getBytes("US-ASCII"));
+        out.write(0);
+        out.write(ByteBuffer.allocate(4).order(LITTLE_ENDIAN).putInt(1234).array());
+        out.write(rgb);
+        return out.toByteArray();
+    }
+}
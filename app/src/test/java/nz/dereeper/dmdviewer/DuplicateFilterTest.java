@@ -0,0 +1,155 @@
+/*
+ * Copyright 2021 Mark de Reeper
+ *
+ *  Permission is hereby granted, free of charge, to any person
+ *  obtaining a copy of this software and associated documentation
+ *  files (the "Software"), to deal in the Software without
+ *  restriction, including without limitation the rights to use,
+ *  copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the
+ *  Software is furnished to do so, subject to the following
+ *  conditions:
+ *
+ *  The above copyright notice and this permission notice shall be
+ *  included in all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ *  EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ *  OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ *  NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ *  HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ *  WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ *  FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ *  OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package nz.dereeper.dmdviewer;
+
+import org.testng.annotations.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+import static java.nio.ByteOrder.LITTLE_ENDIAN;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+
+public class DuplicateFilterTest {
+
+    private static final byte[] PLANES = planes(1);
+
+    @Test
+    public void testRepeatDroppedWhateverTheTimeStamp() throws Exception {
+        final DuplicateFilter filter = new DuplicateFilter();
+        assertFalse(filter.isDuplicate(message("gray4Planes", 1, PLANES)));
+        assertTrue(filter.isDuplicate(message("gray4Planes", 1, PLANES)));
+        assertTrue(filter.isDuplicate(message("gray4Planes", 2, PLANES)));
+        assertFalse(filter.isDuplicate(message("gray4Planes", 3, planes(2))));
+        assertFalse(filter.isDuplicate(message("gray4Planes", 4, PLANES)));
+    }
+
+    @Test
+    public void testNewPaletteIsNotADuplicate() throws Exception {
+        final DuplicateFilter filter = new DuplicateFilter();
+        final byte[] red = palette(0xFF0000);
+        final byte[] blue = palette(0x0000FF);
+        assertFalse(filter.isDuplicate(message("coloredGray4", 1, red, PLANES)));
+        assertTrue(filter.isDuplicate(message("coloredGray4", 2, red, PLANES)));
+        assertFalse(filter.isDuplicate(message("coloredGray4", 3, blue, PLANES)));
+    }
+
+    @Test
+    public void testImageOfAnotherTypeInBetweenLetsARepeatThrough() throws Exception {
+        final DuplicateFilter filter = new DuplicateFilter();
+        assertFalse(filter.isDuplicate(message("gray4Planes", 1, PLANES)));
+        assertFalse(filter.isDuplicate(message("rgb24", 1, planes(3))));
+        assertFalse(filter.isDuplicate(message("gray4Planes", 2, PLANES)));
+        assertTrue(filter.isDuplicate(message("gray4Planes", 3, PLANES)));
+        // The same bytes sent as another type are not a repeat either.
+        assertFalse(filter.isDuplicate(message("gray2Planes", 4, PLANES)));
+    }
+
+    @Test
+    public void testOtherMessagesLetTheNextImageThrough() throws Exception {
+        final DuplicateFilter filter = new DuplicateFilter();
+        assertFalse(filter.isDuplicate(message("gray2Planes", 1, PLANES)));
+        assertFalse(filter.isDuplicate(message("palette", 0, palette(0x00FF00))));
+        assertFalse(filter.isDuplicate(message("gray2Planes", 1, PLANES)));
+        assertTrue(filter.isDuplicate(message("gray2Planes", 1, PLANES)));
+        filter.reset();
+        assertFalse(filter.isDuplicate(message("gray2Planes", 1, PLANES)));
+    }
+
+    @Test
+    public void testMessageLeftAsItWas() throws Exception {
+        final DuplicateFilter filter = new DuplicateFilter();
+        final ByteBuffer message = message("rgb24", 7, planes(3));
+        message.position(0);
+        final ByteBuffer padded = ByteBuffer.allocate(message.capacity() + 2).order(LITTLE_ENDIAN);
+        padded.put((byte) 0).put((byte) 0).put(message).flip();
+        assertFalse(filter.isDuplicate(padded));
+        assertEquals(padded.position(), 0);
+        assertTrue(filter.isDuplicate(message("rgb24", 8, planes(3))));
+        final Frame frame = new Frame(padded);
+        assertEquals(frame.getFrameType(), Frame.FrameType.RGB24);
+        assertEquals(frame.getTimeStamp(), 7);
+    }
+
+    @Test
+    public void testResendOfARejectedMessageLetThrough() throws Exception {
+        final DuplicateFilter filter = new DuplicateFilter();
+        final FrameLimits noRoom = new FrameLimits(FrameLimits.MAX_MESSAGE_BYTES,
+                FrameLimits.MAX_PALETTE_COLOURS, FrameLimits.MAX_WIDTH, FrameLimits.MAX_HEIGHT, 16);
+        final ByteBuffer message = message("gray4Planes", 1, PLANES);
+        assertFalse(filter.isDuplicate(message));
+        assertEquals(new Frame(message, noRoom).getFrameType(), Frame.FrameType.INVALID);
+        filter.rejected();
+        assertFalse(filter.isDuplicate(message("gray4Planes", 2, PLANES)));
+        assertTrue(filter.isDuplicate(message("gray4Planes", 3, PLANES)));
+        // Only the last message let through is forgotten.
+        assertTrue(filter.isDuplicate(message("gray4Planes", 4, PLANES)));
+        filter.rejected();
+        assertTrue(filter.isDuplicate(message("gray4Planes", 5, PLANES)));
+    }
+
+    @Test
+    public void testShortMessagesPassedOn() throws Exception {
+        final DuplicateFilter filter = new DuplicateFilter();
+        final ByteBuffer shortMessage = ByteBuffer.wrap("gray2Planes\0\1".getBytes("US-ASCII"));
+        assertFalse(filter.isDuplicate(shortMessage));
+        assertFalse(filter.isDuplicate(shortMessage));
+        assertFalse(filter.isDuplicate(ByteBuffer.wrap("gray2Planes".getBytes("US-ASCII"))));
+    }
+
+    private static ByteBuffer message(final String type,
+                                      final int timeStamp,
+                                      final byte[]... parts) throws Exception {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write(type.getBytes("US-ASCII"));
+        out.write(0);
+        if (!"palette".equals(type)) {
+            out.write(ByteBuffer.allocate(4).order(LITTLE_ENDIAN).putInt(timeStamp).array());
+        }
+        for (byte[] part : parts) {
+            out.write(part);
+        }
+        return ByteBuffer.wrap(out.toByteArray()).order(LITTLE_ENDIAN);
+    }
+
+    private static byte[] palette(final int colour) {
+        final ByteBuffer palette = ByteBuffer.allocate(4 * 17).order(LITTLE_ENDIAN).putInt(16);
+        for (int i = 0; i < 16; i++) {
+            palette.putInt(colour / 15 * i);
+        }
+        return palette.array();
+    }
+
+    private static byte[] planes(final long seed) {
+        final byte[] planes = new byte[128 * 32 / 8 * 4];
+        new Random(seed).nextBytes(planes);
+        return planes;
+    }
+}
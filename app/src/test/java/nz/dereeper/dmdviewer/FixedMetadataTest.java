@@ -0,0 +1,61 @@
+/*
+ * Copyright 2021 Mark de Reeper
+ *
+ *  Permission is hereby granted, free of charge, to any person
+ *  obtaining a copy of this software and associated documentation
+ *  files (the "Software"), to deal in the Software without
+ *  restriction, including without limitation the rights to use,
+ *  copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the
+ *  Software is furnished to do so, subject to the following
+ *  conditions:
+ *
+ *  The above copyright notice and this permission notice shall be
+ *  included in all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ *  EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ *  OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ *  NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ *  HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ *  WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ *  FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ *  OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package nz.dereeper.dmdviewer;
+
+import org.testng.annotations.Test;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertSame;
+import static org.testng.Assert.assertTrue;
+
+
+public class FixedMetadataTest {
+
+    private static final Dimensions DIMENSIONS = new Dimensions(128, 32);
+    private static final Dmd DMD = new Dmd(true, false);
+
+    @Test
+    public void testDrawsWithTheStateAndRasteriser() {
+        final RenderState state = RenderState.forColour(0x3dec84).withDimensions(DIMENSIONS);
+        final Rasteriser rasteriser = new Rasteriser(DIMENSIONS, DMD);
+        final FixedMetadata metadata = new FixedMetadata(DMD, state, rasteriser);
+        assertSame(metadata.getDmd(), DMD);
+        assertEquals(metadata.getDimensions(), DIMENSIONS);
+        assertSame(metadata.getHsl(), state.getHsl());
+        assertSame(metadata.getRasteriser(), rasteriser);
+    }
+
+    @Test
+    public void testOnlyForTheSameStateAndRasteriser() {
+        final RenderState state = RenderState.forColour(0x3dec84).withDimensions(DIMENSIONS);
+        final Rasteriser rasteriser = new Rasteriser(DIMENSIONS, DMD);
+        final FixedMetadata metadata = new FixedMetadata(DMD, state, rasteriser);
+        assertTrue(metadata.isFor(state, rasteriser));
+        assertFalse(metadata.isFor(state.withColour(0xec843d), rasteriser));
+        assertFalse(metadata.isFor(state, new Rasteriser(DIMENSIONS, DMD)));
+    }
+}
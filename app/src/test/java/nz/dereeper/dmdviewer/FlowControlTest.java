@@ -0,0 +1,108 @@
+/*
+ * Copyright 2021 Mark de Reeper
+ *
+ *  Permission is hereby granted, free of charge, to any person
+ *  obtaining a copy of this software and associated documentation
+ *  files (the "Software"), to deal in the Software without
+ *  restriction, including without limitation the rights to use,
+ *  copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the
+ *  Software is furnished to do so, subject to the following
+ *  conditions:
+ *
+ *  The above copyright notice and this permission notice shall be
+ *  included in all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ *  EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ *  OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ *  NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ *  HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ *  WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ *  FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ *  OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package nz.dereeper.dmdviewer;
+
+import org.testng.annotations.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+
+public class FlowControlTest {
+
+    private static class RecordingSender implements FlowControl.Sender {
+        final List<String> hints = new ArrayList<>();
+
+        @Override
+        public void sendHint(final String hint) {
+            hints.add(hint);
+        }
+    }
+
+    @Test
+    public void testQueueStaysBoundedWhenRenderingIsSlow() {
+        final RecordingSender hints = new RecordingSender();
+        final FlowControl flowControl = new FlowControl(hints);
+        final FlowTestSender sender = new FlowTestSender(60);
+        // Rendering takes 50ms so only 20 frames a second can be shown.
+        final long renderMillis = 50;
+        int queued = 0;
+        int maxQueued = 0;
+        long busyUntil = 0;
+        int sentHints = 0;
+        for (long now = 0; now < 30000; now++) {
+            while (sentHints < hints.hints.size()) {
+                sender.onHint(hints.hints.get(sentHints++), now);
+            }
+            if (sender.shouldSend(now)) {
+                queued++;
+            }
+            if (now >= busyUntil && queued > 0) {
+                queued--;
+                busyUntil = now + renderMillis;
+                flowControl.onRendered(ms(busyUntil), ms(renderMillis));
+            }
+            maxQueued = Math.max(maxQueued, queued);
+        }
+        assertTrue(maxQueued < 60, "max queued: " + maxQueued);
+        assertTrue(queued <= 1, "queued: " + queued);
+        final int maxFps = flowControl.getMaxFps();
+        assertTrue(maxFps > 0 && maxFps <= 20, "max fps: " + maxFps);
+    }
+
+    @Test
+    public void testDropsLimitAndQuietRaises() {
+        final RecordingSender hints = new RecordingSender();
+        final FlowControl flowControl = new FlowControl(hints);
+        // 30 frames a second, quick to render but half of them never get shown.
+        long now = 0;
+        for (int i = 0; i < 32; i++) {
+            now += 33;
+            if (i % 2 == 0) {
+                flowControl.onDropped();
+            }
+            flowControl.onRendered(ms(now), ms(1));
+        }
+        assertEquals(hints.hints.size(), 1);
+        assertEquals(hints.hints.get(0), "max 21 fps");
+        // Once it has been quiet for a few seconds the limit goes up.
+        for (int i = 0; i < 3 * 21; i++) {
+            now += 48;
+            flowControl.onRendered(ms(now), ms(1));
+        }
+        assertEquals(hints.hints.get(hints.hints.size() - 1), "max 31 fps");
+        flowControl.reset();
+        assertEquals(flowControl.getMaxFps(), 0);
+    }
+
+    private static long ms(final long millis) {
+        return MILLISECONDS.toNanos(millis);
+    }
+}
@@ -0,0 +1,76 @@
+/*
+ * Copyright 2021 Mark de Reeper
+ *
+ *  Permission is hereby granted, free of charge, to any person
+ *  obtaining a copy of this software and associated documentation
+ *  files (the "Software"), to deal in the Software without
+ *  restriction, including without limitation the rights to use,
+ *  copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the
+ *  Software is furnished to do so, subject to the following
+ *  conditions:
+ *
+ *  The above copyright notice and this permission notice shall be
+ *  included in all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ *  EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ *  OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ *  NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ *  HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ *  WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ *  FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ *  OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package nz.dereeper.dmdviewer;
+
+import java.util.Locale;
+
+/**
+ * A stand in for a sender that honours the hints from {@link FlowControl}, used to check that
+ * the feedback loop settles.
+ */
+class FlowTestSender {
+
+    private final int fps;
+    private int maxFps;
+    private long pausedUntil;
+    private long lastSent = Long.MIN_VALUE / 2;
+
+    /**
+     * Create a sender that would send at a fixed rate.
+     * @param fps how fast frames would be sent without any hints.
+     */
+    FlowTestSender(final int fps) {
+        this.fps = fps;
+    }
+
+    void onHint(final String hint, final long nowMillis) {
+        final String[] parts = hint.split(" ");
+        if (FlowControl.MAX.equals(parts[0])) {
+            maxFps = Integer.parseInt(parts[1]);
+        } else if (FlowControl.PAUSE.equals(parts[0])) {
+            pausedUntil = nowMillis + Integer.parseInt(parts[2]);
+        } else {
+            throw new IllegalArgumentException(String.format(Locale.ROOT, "Hint: %s", hint));
+        }
+    }
+
+    /**
+     * Return true if a frame should be sent now, if so it counts as sent.
+     * @param nowMillis the current time.
+     * @return true to send a frame.
+     */
+    boolean shouldSend(final long nowMillis) {
+        if (nowMillis < pausedUntil) {
+            return false;
+        }
+        final int rate = maxFps > 0 ? Math.min(fps, maxFps) : fps;
+        if (nowMillis - lastSent >= 1000 / rate) {
+            lastSent = nowMillis;
+            return true;
+        }
+        return false;
+    }
+}
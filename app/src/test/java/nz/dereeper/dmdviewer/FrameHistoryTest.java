@@ -0,0 +1,115 @@
+/*
+ * Copyright 2021 Mark de Reeper
+ *
+ *  Permission is hereby granted, free of charge, to any person
+ *  obtaining a copy of this software and associated documentation
+ *  files (the "Software"), to deal in the Software without
+ *  restriction, including without limitation the rights to use,
+ *  copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the
+ *  Software is furnished to do so, subject to the following
+ *  conditions:
+ *
+ *  The above copyright notice and this permission notice shall be
+ *  included in all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ *  EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ *  OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ *  NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ *  HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ *  WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ *  FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ *  OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package nz.dereeper.dmdviewer;
+
+import org.testng.annotations.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+
+import static java.nio.ByteOrder.LITTLE_ENDIAN;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertSame;
+
+
+public class FrameHistoryTest {
+
+    private static final Dimensions DIMENSIONS = new Dimensions(16, 8);
+    private static final long MILLIS = 1000 * 1000;
+
+    @Test
+    public void testKeepsThePlanesAndColoursEachFrameWasDrawnWith() throws Exception {
+        final FrameHistory history = new FrameHistory(1024 * 1024);
+        assertNull(history.replay(1000 * MILLIS, 0));
+        final RenderState state = RenderState.forColour(0xec843d).withDimensions(DIMENSIONS);
+        final int[] colourised = new int[4];
+        final Frame gray = frame("gray2Planes", new byte[DIMENSIONS.area / 8 * 2]);
+        final Frame rgb = frame("rgb24", new byte[DIMENSIONS.area * 3]);
+        history.record(gray, state, null, 0);
+        history.record(gray, state, colourised, 100 * MILLIS);
+        history.record(rgb, state, null, 200 * MILLIS);
+        final FrameHistory.Replay replay = history.replay(1000 * MILLIS, 300 * MILLIS);
+        assertEquals(replay.size(), 3);
+        assertSame(replay.dimensions, DIMENSIONS);
+        assertSame(replay.planes[0], gray.getPlanes());
+        assertSame(replay.colours[0], state.getShades(2));
+        assertSame(replay.colours[1], colourised);
+        assertNull(replay.colours[2]);
+        assertEquals(replay.types[2], Frame.FrameType.RGB24);
+        assertEquals(replay.starts[1], 100 * MILLIS);
+        assertEquals(replay.starts[2], 200 * MILLIS);
+        assertEquals(replay.end, 300 * MILLIS);
+    }
+
+    @Test
+    public void testReplayStartsWithTheFrameShowingAtTheStartOfTheWindow() throws Exception {
+        final FrameHistory history = new FrameHistory(1024 * 1024);
+        final RenderState state = RenderState.forColour(0xec843d).withDimensions(DIMENSIONS);
+        for (int i = 0; i < 10; i++) {
+            history.record(frame("gray4Planes", new byte[DIMENSIONS.area / 8 * 4]), state, null,
+                    i * 100 * MILLIS);
+        }
+        final FrameHistory.Replay replay = history.replay(250 * MILLIS, 1000 * MILLIS);
+        assertEquals(replay.size(), 3);
+        // Showing before the window starts, so it starts with the window.
+        assertEquals(replay.starts[0], 750 * MILLIS);
+        assertEquals(replay.starts[1], 800 * MILLIS);
+        // Frames of an earlier size are left out.
+        history.record(frame("gray4Planes", new byte[8 * 8 / 8 * 4]),
+                state.withDimensions(new Dimensions(8, 8)), null, 1000 * MILLIS);
+        assertEquals(history.replay(250 * MILLIS, 1100 * MILLIS).size(), 1);
+    }
+
+    @Test
+    public void testOldestFramesAreDroppedToStayWithinBounds() throws Exception {
+        final int frameBytes = DIMENSIONS.area / 8 * 4;
+        final FrameHistory history = new FrameHistory(frameBytes * 5);
+        final RenderState state = RenderState.forColour(0xec843d).withDimensions(DIMENSIONS);
+        for (int i = 0; i < 8; i++) {
+            history.record(frame("gray4Planes", new byte[frameBytes]), state, null, i);
+        }
+        assertEquals(history.size(), 5);
+        assertEquals(history.replay(100, 10).starts[0], 3);
+        final FrameHistory small = new FrameHistory(Long.MAX_VALUE);
+        for (int i = 0; i < FrameHistory.CAPACITY + 10; i++) {
+            small.record(frame("gray2Planes", new byte[DIMENSIONS.area / 8 * 2]), state, null, i);
+        }
+        assertEquals(small.size(), FrameHistory.CAPACITY);
+        small.clear();
+        assertEquals(small.size(), 0);
+        assertNull(small.replay(100, 10));
+    }
+
+    static Frame frame(final String type, final byte[] planes) throws Exception {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write(type.getBytes("US-ASCII"));
+        out.write(0);
+        out.write(new byte[4]);
+        out.write(planes);
+        return new Frame(ByteBuffer.wrap(out.toByteArray()).order(LITTLE_ENDIAN));
+    }
+}
@@ -0,0 +1,116 @@
+/*
+ * Copyright 2021 Mark de Reeper
+ *
+ *  Permission is hereby granted, free of charge, to any person
+ *  obtaining a copy of this software and associated documentation
+ *  files (the "Software"), to deal in the Software without
+ *  restriction, including without limitation the rights to use,
+ *  copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the
+ *  Software is furnished to do so, subject to the following
+ *  conditions:
+ *
+ *  The above copyright notice and this permission notice shall be
+ *  included in all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ *  EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ *  OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ *  NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ *  HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ *  WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ *  FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ *  OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package nz.dereeper.dmdviewer;
+
+import org.testng.annotations.Test;
+
+import java.nio.ByteBuffer;
+
+import static java.nio.ByteOrder.LITTLE_ENDIAN;
+import static nz.dereeper.dmdviewer.Frame.FrameType.DIMENSIONS;
+import static nz.dereeper.dmdviewer.Frame.FrameType.GRAY_2_PLANES;
+import static nz.dereeper.dmdviewer.Frame.FrameType.INVALID;
+import static nz.dereeper.dmdviewer.Frame.FrameType.PALETTE;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNull;
+
+
+public class FrameLimitsTest {
+
+    private static final FrameLimits LIMITS = new FrameLimits(1024, 16, 256, 64, 0);
+
+    @Test
+    public void testMessageSize() {
+        assertEquals(frame(LIMITS, "gray2Planes", 0, new byte[1000]).getFrameType(),
+                GRAY_2_PLANES);
+        final Frame tooLarge = frame(LIMITS, "gray2Planes", 0, new byte[1024]);
+        assertEquals(tooLarge.getFrameType(), INVALID);
+        assertNull(tooLarge.getPlanes());
+    }
+
+    @Test
+    public void testPaletteLength() {
+        assertEquals(frame(LIMITS, "palette", 16, new byte[16 * 4]).getFrameType(), PALETTE);
+        assertEquals(frame(LIMITS, "palette", 17, new byte[17 * 4]).getFrameType(), INVALID);
+        // Longer than the message, left for the palette reader to reject.
+        assertEquals(frame(LIMITS, "palette", 8, new byte[4]).getFrameType(), INVALID);
+        assertEquals(frame(LIMITS, "coloredGray4", 0, ints(17), new byte[17 * 4 + 64])
+                .getFrameType(), INVALID);
+    }
+
+    @Test
+    public void testDimensions() {
+        assertEquals(frame(LIMITS, "dimensions", 256, ints(64)).getFrameType(), DIMENSIONS);
+        assertEquals(frame(LIMITS, "dimensions", 257, ints(32)).getFrameType(), INVALID);
+        assertEquals(frame(LIMITS, "dimensions", 128, ints(65)).getFrameType(), INVALID);
+        assertEquals(frame(LIMITS, "dimensions", 0, ints(32)).getFrameType(), INVALID);
+        assertEquals(frame(LIMITS, "dimensions", -128, ints(32)).getFrameType(), INVALID);
+    }
+
+    @Test
+    public void testInFlightBudget() {
+        final FrameLimits limits = new FrameLimits(1024, 16, 256, 64, 1000);
+        final Frame first = frame(limits, "gray2Planes", 0, new byte[600]);
+        assertEquals(first.getFrameType(), GRAY_2_PLANES);
+        assertEquals(limits.getInFlight(), 600);
+        // Only the planes are counted, the rest of the message isn't kept.
+        assertEquals(frame(limits, "gray2Planes", 0, new byte[600]).getFrameType(), INVALID);
+        first.retain();
+        first.release();
+        assertEquals(limits.getInFlight(), 600);
+        first.release();
+        assertEquals(limits.getInFlight(), 0);
+        // Releasing again does nothing.
+        first.release();
+        assertEquals(limits.getInFlight(), 0);
+        assertEquals(frame(limits, "rgb24", 0, new byte[600]).getFrameType(),
+                Frame.FrameType.RGB24);
+    }
+
+    private static Frame frame(final FrameLimits limits,
+                               final String type,
+                               final int value,
+                               final byte[]... parts) {
+        int length = type.length() + 1 + 4;
+        for (byte[] part : parts) {
+            length += part.length;
+        }
+        final ByteBuffer message = ByteBuffer.allocate(length).order(LITTLE_ENDIAN);
+        for (int i = 0; i < type.length(); i++) {
+            message.put((byte) type.charAt(i));
+        }
+        message.put((byte) 0).putInt(value);
+        for (byte[] part : parts) {
+            message.put(part);
+        }
+        message.flip();
+        return new Frame(message, limits);
+    }
+
+    private static byte[] ints(final int value) {
+        return ByteBuffer.allocate(4).order(LITTLE_ENDIAN).putInt(value).array();
+    }
+}
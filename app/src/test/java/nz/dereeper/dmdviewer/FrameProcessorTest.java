@@ -0,0 +1,167 @@
+/*
+ * Copyright 2021 Mark de Reeper
+ *
+ *  Permission is hereby granted, free of charge, to any person
+ *  obtaining a copy of this software and associated documentation
+ *  files (the "Software"), to deal in the Software without
+ *  restriction, including without limitation the rights to use,
+ *  copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the
+ *  Software is furnished to do so, subject to the following
+ *  conditions:
+ *
+ *  The above copyright notice and this permission notice shall be
+ *  included in all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ *  EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ *  OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ *  NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ *  HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ *  WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ *  FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ *  OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package nz.dereeper.dmdviewer;
+
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static java.nio.ByteOrder.LITTLE_ENDIAN;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertSame;
+import static org.testng.Assert.assertTrue;
+
+
+public class FrameProcessorTest {
+
+    private static final int DEFAULT_COLOUR = 0xec843d;
+    private static final Dimensions DIMENSIONS = new Dimensions(128, 32);
+
+    private final List<Frame> drawn = new ArrayList<>();
+    private final List<RenderState> states = new ArrayList<>();
+    private final List<Dimensions> resizes = new ArrayList<>();
+    private final List<String> gameNames = new ArrayList<>();
+    private FrameProcessor processor;
+
+    @BeforeMethod
+    public void setUp() {
+        drawn.clear();
+        states.clear();
+        resizes.clear();
+        gameNames.clear();
+        final IdleDetector idleDetector = new IdleDetector(0, 0, new IdleDetector.Listener() {
+            @Override
+            public void onIdle(final boolean noTraffic) {
+            }
+
+            @Override
+            public void onActive(final long idleMillis) {
+            }
+        });
+        processor = new FrameProcessor(DEFAULT_COLOUR, idleDetector, this,
+                new FrameProcessor.Renderer() {
+                    @Override
+                    public boolean renderFrame(final Frame frame, final RenderState state) {
+                        drawn.add(frame);
+                        states.add(state);
+                        return true;
+                    }
+
+                    @Override
+                    public void resize(final RenderState state) {
+                        resizes.add(state.dimensions);
+                        assertSame(state, processor.getRenderState());
+                    }
+
+                    @Override
+                    public void gameName(final String gameName) {
+                        gameNames.add(gameName);
+                    }
+                });
+    }
+
+    @Test
+    public void testNothingDrawnUntilTheSizeIsKnown() throws Exception {
+        processor.processFrame(frame("gray2Planes", ints(0), new byte[DIMENSIONS.area / 8 * 2]));
+        assertEquals(drawn.size(), 0);
+        processor.processFrame(frame("dimensions", ints(128, 32)));
+        assertEquals(resizes, Arrays.asList(DIMENSIONS));
+        processor.processFrame(frame("gray2Planes", ints(0), new byte[DIMENSIONS.area / 8 * 2]));
+        assertEquals(drawn.size(), 1);
+        assertEquals(states.get(0).dimensions, DIMENSIONS);
+    }
+
+    @Test
+    public void testRepeatedFramesAreOnlyDrawnOnce() throws Exception {
+        processor.processFrame(frame("dimensions", ints(128, 32)));
+        final byte[] planes = new byte[DIMENSIONS.area / 8 * 2];
+        processor.processFrame(frame("gray2Planes", ints(0), planes));
+        processor.processFrame(frame("gray2Planes", ints(1), planes));
+        planes[0] = 1;
+        processor.processFrame(frame("gray2Planes", ints(2), planes));
+        assertEquals(drawn.size(), 2);
+        assertEquals(drawn.get(1).getTimeStamp(), 2);
+    }
+
+    @Test
+    public void testRepeatedDimensionsDontResizeAgain() throws Exception {
+        processor.processFrame(frame("dimensions", ints(128, 32)));
+        processor.processFrame(frame("dimensions", ints(128, 32)));
+        processor.processFrame(frame("dimensions", ints(192, 64)));
+        assertEquals(resizes, Arrays.asList(DIMENSIONS, new Dimensions(192, 64)));
+        assertEquals(processor.getRenderState().dimensions, new Dimensions(192, 64));
+    }
+
+    @Test
+    public void testControlFramesChangeTheState() throws Exception {
+        final float[] defaultHsl = processor.getRenderState().getHsl().clone();
+        processor.processFrame(frame("color", ints(0x3dec84)));
+        assertFalse(Arrays.equals(processor.getRenderState().getHsl(), defaultHsl));
+        processor.processFrame(frame("clearColor"));
+        assertTrue(Arrays.equals(processor.getRenderState().getHsl(), defaultHsl));
+        processor.processFrame(frame("palette", ints(4, 0x000000, 0x550000, 0xAA0000, 0xFF0000)));
+        assertEquals(processor.getRenderState().palette.length, 4);
+        processor.processFrame(frame("clearPalette"));
+        assertNull(processor.getRenderState().palette);
+        processor.processFrame(frame("gameName", "afm_113b\0".getBytes("US-ASCII")));
+        assertEquals(gameNames, Arrays.asList("afm_113b"));
+    }
+
+    @Test
+    public void testFrameDrawnWithTheStateOfItsArrival() throws Exception {
+        processor.processFrame(frame("dimensions", ints(128, 32)));
+        processor.processFrame(frame("color", ints(0x3dec84)));
+        final RenderState coloured = processor.getRenderState();
+        processor.processFrame(frame("gray2Planes", ints(0), new byte[DIMENSIONS.area / 8 * 2]));
+        processor.processFrame(frame("clearColor"));
+        assertSame(states.get(0), coloured);
+    }
+
+    private static Frame frame(final String type, final byte[]... parts) throws Exception {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write(type.getBytes("US-ASCII"));
+        out.write(0);
+        for (byte[] part : parts) {
+            out.write(part);
+        }
+        return new Frame(ByteBuffer.wrap(out.toByteArray()).order(LITTLE_ENDIAN));
+    }
+
+    private static byte[] ints(final int... values) {
+        final ByteBuffer buffer = ByteBuffer.allocate(values.length * 4).order(LITTLE_ENDIAN);
+        for (int value : values) {
+            buffer.putInt(value);
+        }
+        return buffer.array();
+    }
+}
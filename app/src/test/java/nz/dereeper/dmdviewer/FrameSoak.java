@@ -0,0 +1,371 @@
+/*
+ * Copyright 2021 Mark de Reeper
+ *
+ *  Permission is hereby granted, free of charge, to any person
+ *  obtaining a copy of this software and associated documentation
+ *  files (the "Software"), to deal in the Software without
+ *  restriction, including without limitation the rights to use,
+ *  copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the
+ *  Software is furnished to do so, subject to the following
+ *  conditions:
+ *
+ *  The above copyright notice and this permission notice shall be
+ *  included in all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ *  EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ *  OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ *  NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ *  HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ *  WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ *  FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ *  OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package nz.dereeper.dmdviewer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+
+import static java.nio.ByteOrder.LITTLE_ENDIAN;
+
+/**
+ * Pushes synthetic messages of every {@link Frame.FrameType} through {@link Frame} parsing, the
+ * same {@link FrameProcessor} as {@code DmdActivity} and {@link ImageUtils} on a plain JVM, to catch
+ * allocations creeping into the frame path. The bytes allocated for each message are read from
+ * the thread allocation counter, and the garbage collections during the run are counted.
+ * <p>
+ * Parsing a frame has to copy its planes or palette out of the message, so the budget is for what
+ * is allocated on top of the size of the message. Run it with
+ * {@code ./gradlew soakFrames --args='[--messages <n>] [--budget <bytes>] [--effects]'}.
+ */
+class FrameSoak {
+
+    static final int WIDTH = 128;
+    static final int HEIGHT = 32;
+    // Different versions of each image frame, so none of them are skipped as duplicates.
+    private static final int VARIANTS = 8;
+    private static final Frame.FrameType[] TYPES = Frame.FrameType.values();
+
+    private final com.sun.management.ThreadMXBean threads;
+    private final List<byte[]> messages;
+    private final Pipeline pipeline;
+
+    /**
+     * What a soak run found.
+     */
+    static class Result {
+        final long[] frames = new long[TYPES.length];
+        // Bytes allocated on top of the size of the messages, by frame type.
+        final long[] overBytes = new long[TYPES.length];
+        long messages;
+        long gcCount;
+        long gcMillis;
+        long nanos;
+
+        /**
+         * @return the most allocated on top of the message size per frame, by any valid type.
+         */
+        double worstOverBytesPerFrame() {
+            double worst = 0;
+            for (int i = 0; i < TYPES.length; i++) {
+                if (TYPES[i] != Frame.FrameType.INVALID && frames[i] > 0) {
+                    worst = Math.max(worst, overBytes[i] / (double) frames[i]);
+                }
+            }
+            return worst;
+        }
+
+        /**
+         * Describe the frame types over the budget. Invalid frames are left out, they carry the
+         * exception that found the message was short.
+         * @param budget the bytes allowed per frame on top of the message size.
+         * @return the frame types over the budget, or an empty string if none are.
+         */
+        String overBudget(final long budget) {
+            final StringBuilder sb = new StringBuilder();
+            for (int i = 0; i < TYPES.length; i++) {
+                if (TYPES[i] != Frame.FrameType.INVALID && frames[i] > 0 &&
+                    overBytes[i] / (double) frames[i] > budget) {
+                    sb.append(String.format(Locale.ROOT, "%s allocated %.0f bytes a frame, over %s%n",
+                            TYPES[i], overBytes[i] / (double) frames[i], budget));
+                }
+            }
+            return sb.toString();
+        }
+
+        @Override
+        public String toString() {
+            final StringBuilder sb = new StringBuilder(String.format(Locale.ROOT,
+                    "%,d messages in %.1fs, %d GCs taking %dms%n",
+                    messages, nanos / 1e9, gcCount, gcMillis));
+            for (int i = 0; i < TYPES.length; i++) {
+                if (frames[i] > 0) {
+                    sb.append(String.format(Locale.ROOT,
+                            "  %-14s %,10d frames, %6.1f bytes a frame over the message%n",
+                            TYPES[i], frames[i], overBytes[i] / (double) frames[i]));
+                }
+            }
+            return sb.toString();
+        }
+    }
+
+    /**
+     * Create a soak run.
+     * @param dmd how to draw the pixels.
+     * @param effects true to run the glow and persistence effects as well.
+     * @throws IOException if the messages could not be made.
+     */
+    FrameSoak(final Dmd dmd, final boolean effects) throws IOException {
+        threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        if (!threads.isThreadAllocatedMemorySupported()) {
+            throw new IllegalStateException("This JVM doesn't count allocated bytes per thread");
+        }
+        threads.setThreadAllocatedMemoryEnabled(true);
+        messages = messages(new Random(WIDTH));
+        pipeline = new Pipeline(dmd, effects ?
+                new PostProcessor(new PersistenceEffect(40), new GlowEffect(dmd.getCombined(), 160)) :
+                new PostProcessor());
+    }
+
+    /**
+     * Run the messages through, over and over.
+     * @param count how many messages to run.
+     * @return what was found.
+     */
+    Result run(final long count) {
+        final Result result = new Result();
+        final ByteBuffer[] buffers = new ByteBuffer[messages.size()];
+        for (int i = 0; i < buffers.length; i++) {
+            buffers[i] = ByteBuffer.wrap(messages.get(i)).order(LITTLE_ENDIAN);
+        }
+        final long thread = Thread.currentThread().getId();
+        // Anything reading the counter allocates itself is taken off each measurement.
+        long before = threads.getThreadAllocatedBytes(thread);
+        final long counterBytes = threads.getThreadAllocatedBytes(thread) - before;
+        final long gcCountBefore = gcCount();
+        final long gcMillisBefore = gcMillis();
+        final long start = System.nanoTime();
+        for (long i = 0; i < count; i++) {
+            final ByteBuffer message = buffers[(int) (i % buffers.length)];
+            message.rewind();
+            before = threads.getThreadAllocatedBytes(thread);
+            final Frame frame = new Frame(message);
+            pipeline.processFrame(frame);
+            final long allocated = threads.getThreadAllocatedBytes(thread) - before - counterBytes;
+            final int type = frame.getFrameType().ordinal();
+            result.frames[type]++;
+            result.overBytes[type] += Math.max(0, allocated - message.capacity());
+        }
+        result.nanos = System.nanoTime() - start;
+        result.messages = count;
+        result.gcCount = gcCount() - gcCountBefore;
+        result.gcMillis = gcMillis() - gcMillisBefore;
+        return result;
+    }
+
+    private static long gcCount() {
+        long total = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            total += Math.max(0, gc.getCollectionCount());
+        }
+        return total;
+    }
+
+    private static long gcMillis() {
+        long total = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            total += Math.max(0, gc.getCollectionTime());
+        }
+        return total;
+    }
+
+    /**
+     * Make a session with messages of every frame type, image frames in a few variants.
+     */
+    static List<byte[]> messages(final Random random) throws IOException {
+        final List<byte[]> messages = new ArrayList<>();
+        messages.add(message("gameName", "soak_test\0".getBytes("US-ASCII")));
+        messages.add(message("dimensions", ints(WIDTH, HEIGHT)));
+        final int area = WIDTH * HEIGHT;
+        for (int variant = 0; variant < VARIANTS; variant++) {
+            messages.add(message("gray2Planes", ints(variant), bytes(random, area / 8 * 2)));
+            messages.add(message("gray4Planes", ints(variant), bytes(random, area / 8 * 4)));
+            messages.add(message("coloredGray2", ints(variant, 4, 0x000000, 0x550000, 0xAA0000, 0xFF0000),
+                    bytes(random, area / 8 * 2)));
+            messages.add(message("coloredGray4", ints(variant), palette(random, 16),
+                    bytes(random, area / 8 * 4)));
+            messages.add(message("rgb24", ints(variant), bytes(random, area * 3)));
+            if (variant == VARIANTS / 2) {
+                messages.add(message("color", ints(0x3dec84)));
+                messages.add(message("palette", palette(random, 4)));
+            }
+        }
+        messages.add(message("clearColor"));
+        messages.add(message("clearPalette"));
+        messages.add(message("somethingNew", ints(1)));
+        // A known type without the data it should have.
+        messages.add(message("dimensions", new byte[2]));
+        return messages;
+    }
+
+    private static byte[] message(final String type, final byte[]... parts) throws IOException {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write(type.getBytes("US-ASCII"));
+        out.write(0);
+        for (byte[] part : parts) {
+            out.write(part);
+        }
+        return out.toByteArray();
+    }
+
+    private static byte[] ints(final int... values) {
+        final ByteBuffer buffer = ByteBuffer.allocate(values.length * 4).order(LITTLE_ENDIAN);
+        for (int value : values) {
+            buffer.putInt(value);
+        }
+        return buffer.array();
+    }
+
+    private static byte[] palette(final Random random, final int colours) {
+        final int[] values = new int[colours + 1];
+        values[0] = colours;
+        for (int i = 1; i < values.length; i++) {
+            values[i] = random.nextInt(0x1000000);
+        }
+        return ints(values);
+    }
+
+    private static byte[] bytes(final Random random, final int length) {
+        final byte[] bytes = new byte[length];
+        random.nextBytes(bytes);
+        return bytes;
+    }
+
+    /**
+     * The frame handling of {@code DmdActivity} without the Android parts, the image is written
+     * to a {@link RenderTarget} where the activity would upload it to the bitmap.
+     */
+    private static class Pipeline implements Processing, FrameProcessor.Renderer {
+
+        private static final int DEFAULT_COLOUR = 0xec843d;
+
+        private final Dmd dmd;
+        private final PostProcessor postProcessor;
+        private final FlowControl flowControl;
+        private final FrameProcessor frameProcessor;
+        private Rasteriser rasteriser;
+        private RenderTarget renderTarget;
+        private FixedMetadata metadata;
+
+        Pipeline(final Dmd dmd, final PostProcessor postProcessor) {
+            this.dmd = dmd;
+            this.postProcessor = postProcessor;
+            final IdleDetector idleDetector = new IdleDetector(60000, 60000,
+                    new IdleDetector.Listener() {
+                        @Override
+                        public void onIdle(final boolean noTraffic) {
+                        }
+
+                        @Override
+                        public void onActive(final long idleMillis) {
+                        }
+                    });
+            flowControl = new FlowControl(new FlowControl.Sender() {
+                @Override
+                public void sendHint(final String hint) {
+                }
+            });
+            frameProcessor = new FrameProcessor(DEFAULT_COLOUR, idleDetector, this, this);
+        }
+
+        @Override
+        public void processFrame(final Frame frame) {
+            frameProcessor.processFrame(frame);
+        }
+
+        @Override
+        public void resize(final RenderState state) {
+            final Dimensions dimensions = state.dimensions;
+            if (rasteriser == null || !rasteriser.matches(dimensions, dmd, ColourAdjust.NONE)) {
+                rasteriser = new Rasteriser(dimensions, dmd, ColourAdjust.NONE, true);
+            }
+            if (renderTarget == null ||
+                !renderTarget.fits(rasteriser.getOutputWidth(), rasteriser.getOutputHeight())) {
+                renderTarget = new RenderTarget(rasteriser.getOutputWidth(),
+                        rasteriser.getOutputHeight(), true);
+            }
+            rasteriser.setTarget(postProcessor.isEmpty() ? renderTarget : null);
+        }
+
+        @Override
+        public void gameName(final String gameName) {
+        }
+
+        @Override
+        public boolean renderFrame(final Frame frame, final RenderState state) {
+            final long start = System.nanoTime();
+            if (metadata == null || !metadata.isFor(state, rasteriser)) {
+                metadata = new FixedMetadata(dmd, state, rasteriser);
+            }
+            final int[] rawImage = ImageUtils.toRawImage(frame, state, metadata);
+            Tracer.end(Tracer.RASTERISE, start, frame.getFrameType());
+            if (rawImage == null) {
+                return false;
+            }
+            renderTarget.write(postProcessor.process(rawImage,
+                    rasteriser.getOutputWidth(), rasteriser.getOutputHeight()));
+            final long end = System.nanoTime();
+            flowControl.onRendered(end, end - start);
+            Stats.reportIfDue();
+            return true;
+        }
+
+        @Override
+        public void duplicateFrame() {
+            frameProcessor.duplicateFrame();
+        }
+
+        @Override
+        public void clientDisconnected() {
+            flowControl.reset();
+        }
+
+        @Override
+        public void closeDown(final String errorMessage) {
+        }
+    }
+
+    public static void main(final String[] args) throws Exception {
+        long count = 2000000;
+        long budget = 192;
+        boolean effects = false;
+        for (int i = 0; i < args.length; i++) {
+            if ("--messages".equals(args[i])) {
+                count = Long.parseLong(args[++i]);
+            } else if ("--budget".equals(args[i])) {
+                budget = Long.parseLong(args[++i]);
+            } else if ("--effects".equals(args[i])) {
+                effects = true;
+            }
+        }
+        final FrameSoak soak = new FrameSoak(new Dmd(true, false), effects);
+        // Let the JIT settle before measuring.
+        soak.run(Math.min(count, 50000));
+        final Result result = soak.run(count);
+        System.out.print(result);
+        final String over = result.overBudget(budget);
+        if (!over.isEmpty()) {
+            System.err.print(over);
+            System.exit(1);
+        }
+    }
+}
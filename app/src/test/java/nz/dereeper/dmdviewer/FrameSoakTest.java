@@ -0,0 +1,58 @@
+/*
+ * Copyright 2021 Mark de Reeper
+ *
+ *  Permission is hereby granted, free of charge, to any person
+ *  obtaining a copy of this software and associated documentation
+ *  files (the "Software"), to deal in the Software without
+ *  restriction, including without limitation the rights to use,
+ *  copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the
+ *  Software is furnished to do so, subject to the following
+ *  conditions:
+ *
+ *  The above copyright notice and this permission notice shall be
+ *  included in all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ *  EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ *  OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ *  NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ *  HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ *  WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ *  FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ *  OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package nz.dereeper.dmdviewer;
+
+import org.testng.annotations.Test;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+
+public class FrameSoakTest {
+
+    // Bytes a frame may allocate on top of the message it was parsed from.
+    private static final long BUDGET = 192;
+
+    @Test
+    public void testFramePathStaysWithinAllocationBudget() throws Exception {
+        final FrameSoak soak = new FrameSoak(new Dmd(true, false), false);
+        soak.run(20000);
+        final FrameSoak.Result result = soak.run(50000);
+        assertEquals(result.messages, 50000);
+        for (int i = 0; i < Frame.FrameType.values().length; i++) {
+            assertTrue(result.frames[i] > 0, Frame.FrameType.values()[i] + " never turned up");
+        }
+        assertEquals(result.overBudget(BUDGET), "", result.toString());
+    }
+
+    @Test
+    public void testEffectsStayWithinAllocationBudget() throws Exception {
+        final FrameSoak soak = new FrameSoak(new Dmd(true, true), true);
+        soak.run(5000);
+        final FrameSoak.Result result = soak.run(10000);
+        assertEquals(result.overBudget(BUDGET), "", result.toString());
+    }
+}
@@ -38,6 +38,7 @@ import static nz.dereeper.dmdviewer.Frame.FrameType.GAME_NAME;
 import static nz.dereeper.dmdviewer.Frame.FrameType.INVALID;
 import static nz.dereeper.dmdviewer.Frame.FrameType.PALETTE;
 import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertSame;
 import static org.testng.Assert.assertTrue;
 import static org.testng.Assert.fail;
 
@@ -119,4 +120,13 @@ public class FrameTest {
         final Frame invalidFrame = new Frame(wrap(rawData).order(LITTLE_ENDIAN));
         assertEquals(invalidFrame.getFrameType(), INVALID);
     }
-}
\ No newline at end of file
+
+    @Test
+    public void testSamePaletteIsShared() {
+        final byte[] rawData = (byte[]) validData()[3][1];
+        final Frame first = new Frame(wrap(rawData).order(LITTLE_ENDIAN));
+        final Frame second = new Frame(wrap(rawData.clone()).order(LITTLE_ENDIAN));
+        assertEquals(second.getFrameType(), PALETTE);
+        assertSame(second.getPalette(), first.getPalette());
+    }
+}
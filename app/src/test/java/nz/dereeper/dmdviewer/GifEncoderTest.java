@@ -0,0 +1,151 @@
+/*
+ * Copyright 2021 Mark de Reeper
+ *
+ *  Permission is hereby granted, free of charge, to any person
+ *  obtaining a copy of this software and associated documentation
+ *  files (the "Software"), to deal in the Software without
+ *  restriction, including without limitation the rights to use,
+ *  copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the
+ *  Software is furnished to do so, subject to the following
+ *  conditions:
+ *
+ *  The above copyright notice and this permission notice shall be
+ *  included in all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ *  EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ *  OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ *  NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ *  HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ *  WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ *  FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ *  OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package nz.dereeper.dmdviewer;
+
+import org.testng.annotations.Test;
+import org.w3c.dom.Node;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.util.Random;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+
+import static org.testng.Assert.assertEquals;
+
+
+public class GifEncoderTest {
+
+    private static final Dimensions DIMENSIONS = new Dimensions(128, 32);
+    private static final long MILLIS = 1000 * 1000;
+
+    @Test
+    public void testFramesDecodeToTheirPaletteColours() throws Exception {
+        final FrameHistory history = new FrameHistory(1024 * 1024);
+        final RenderState state = RenderState.forColour(0xec843d).withDimensions(DIMENSIONS);
+        final Random random = new Random(7);
+        final byte[][] planes = new byte[3][DIMENSIONS.area / 8 * 4];
+        for (int i = 0; i < planes.length; i++) {
+            random.nextBytes(planes[i]);
+            history.record(FrameHistoryTest.frame("gray4Planes", planes[i]), state, null,
+                    i * 100 * MILLIS);
+        }
+        final int[] shades = state.getShades(4);
+        final ImageReader reader = read(GifEncoder.encode(history.replay(MILLIS * 1000,
+                300 * MILLIS), 2));
+        assertEquals(reader.getNumImages(true), 3);
+        for (int f = 0; f < planes.length; f++) {
+            final BufferedImage image = reader.read(f);
+            assertEquals(image.getWidth(), DIMENSIONS.width * 2);
+            assertEquals(image.getHeight(), DIMENSIONS.height * 2);
+            assertEquals(delay(reader, f), 10);
+            for (int p = 0; p < DIMENSIONS.area; p++) {
+                int value = 0;
+                for (int plane = 0; plane < 4; plane++) {
+                    value |= ((planes[f][plane * DIMENSIONS.area / 8 + p / 8] >> (p % 8)) & 1)
+                            << plane;
+                }
+                final int x = p % DIMENSIONS.width * 2 + 1;
+                final int y = p / DIMENSIONS.width * 2 + 1;
+                assertEquals(image.getRGB(x, y) & 0xFFFFFF, shades[value] & 0xFFFFFF,
+                        "Frame " + f + " pixel " + p);
+            }
+        }
+    }
+
+    @Test
+    public void testRgbFramesKeepTheirColoursWhenFewEnough() throws Exception {
+        final FrameHistory history = new FrameHistory(1024 * 1024);
+        final RenderState state = RenderState.forColour(0xec843d).withDimensions(DIMENSIONS);
+        final byte[] few = new byte[DIMENSIONS.area * 3];
+        final byte[] many = new byte[DIMENSIONS.area * 3];
+        for (int p = 0; p < DIMENSIONS.area; p++) {
+            few[p * 3] = (byte) (p % 200);
+            few[p * 3 + 2] = (byte) 0x80;
+            many[p * 3] = (byte) p;
+            many[p * 3 + 1] = (byte) (p >> 8);
+        }
+        history.record(FrameHistoryTest.frame("rgb24", few), state, null, 0);
+        history.record(FrameHistoryTest.frame("rgb24", many), state, null, 50 * MILLIS);
+        final ImageReader reader = read(GifEncoder.encode(history.replay(MILLIS * 1000,
+                100 * MILLIS), 1));
+        assertEquals(reader.getNumImages(true), 2);
+        final BufferedImage exact = reader.read(0);
+        final BufferedImage reduced = reader.read(1);
+        for (int p = 0; p < DIMENSIONS.area; p++) {
+            final int x = p % DIMENSIONS.width;
+            final int y = p / DIMENSIONS.width;
+            assertEquals(exact.getRGB(x, y) & 0xFFFFFF, 0x800000 | p % 200);
+            // Too many colours, so 3 bits of red and green and 2 of blue.
+            final int colour = reduced.getRGB(x, y);
+            assertEquals(colour >> 6 & 3, (p & 0xFF) >> 6);
+            assertEquals(colour >> 13 & 7, (p >> 8 & 0xFF) >> 5);
+        }
+    }
+
+    @Test
+    public void testFramesTooShortToShowAreLeftOut() throws Exception {
+        final FrameHistory history = new FrameHistory(1024 * 1024);
+        final RenderState state = RenderState.forColour(0xec843d).withDimensions(DIMENSIONS);
+        final long[] starts = { 0, 5, 10, 100, 200 };
+        for (int i = 0; i < starts.length; i++) {
+            final byte[] planes = new byte[DIMENSIONS.area / 8 * 2];
+            planes[0] = (byte) i;
+            history.record(FrameHistoryTest.frame("gray2Planes", planes), state, null,
+                    starts[i] * MILLIS);
+        }
+        final ImageReader reader = read(GifEncoder.encode(history.replay(MILLIS * 1000,
+                300 * MILLIS), 1));
+        // The frames at 0ms and 5ms show for less than the shortest GIF delay, so the one at 10ms
+        // takes their place.
+        assertEquals(reader.getNumImages(true), 3);
+        final int[] shades = state.getShades(2);
+        final BufferedImage first = reader.read(0);
+        assertEquals(first.getRGB(0, 0) & 0xFFFFFF, shades[0] & 0xFFFFFF);
+        assertEquals(first.getRGB(1, 0) & 0xFFFFFF, shades[1] & 0xFFFFFF);
+        for (int f = 0; f < 3; f++) {
+            assertEquals(delay(reader, f), 10);
+        }
+    }
+
+    private static ImageReader read(final byte[] gif) throws Exception {
+        final ImageReader reader = ImageIO.getImageReadersByFormatName("gif").next();
+        final ImageInputStream in = ImageIO.createImageInputStream(new ByteArrayInputStream(gif));
+        reader.setInput(in);
+        return reader;
+    }
+
+    private static int delay(final ImageReader reader, final int frame) throws Exception {
+        final String format = "javax_imageio_gif_image_1.0";
+        Node node = reader.getImageMetadata(frame).getAsTree(format).getFirstChild();
+        while (!"GraphicControlExtension".equals(node.getNodeName())) {
+            node = node.getNextSibling();
+        }
+        return Integer.parseInt(node.getAttributes().getNamedItem("delayTime").getNodeValue());
+    }
+}
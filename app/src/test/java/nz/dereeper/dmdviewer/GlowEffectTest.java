@@ -0,0 +1,83 @@
+/*
+ * Copyright 2021 Mark de Reeper
+ *
+ *  Permission is hereby granted, free of charge, to any person
+ *  obtaining a copy of this software and associated documentation
+ *  files (the "Software"), to deal in the Software without
+ *  restriction, including without limitation the rights to use,
+ *  copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the
+ *  Software is furnished to do so, subject to the following
+ *  conditions:
+ *
+ *  The above copyright notice and this permission notice shall be
+ *  included in all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ *  EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ *  OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ *  NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ *  HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ *  WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ *  FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ *  OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package nz.dereeper.dmdviewer;
+
+import org.testng.annotations.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+
+public class GlowEffectTest {
+
+    private static final int WIDTH = 64;
+    private static final int HEIGHT = 16;
+
+    @Test
+    public void testSaturatedAdd() {
+        assertEquals(GlowEffect.saturatedAdd(0x102030, 0x010203), 0xFF112233);
+        assertEquals(GlowEffect.saturatedAdd(0xF0F0F0, 0x202020), 0xFFFFFFFF);
+        assertEquals(GlowEffect.saturatedAdd(0xFF0000, 0x01FF01), 0xFFFFFF01);
+    }
+
+    @Test
+    public void testGlowSpreadsAroundLitPixel() {
+        final int[] image = new int[WIDTH * HEIGHT];
+        image[8 * WIDTH + 32] = 0xFFFFFFFF;
+        final int[] output = new GlowEffect(2, 256).apply(image, WIDTH, HEIGHT, new DirtyRegion());
+        assertEquals(output[8 * WIDTH + 32], 0xFFFFFFFF);
+        assertTrue((output[6 * WIDTH + 30] & 0xFFFFFF) != 0, "Glow should reach the radius");
+        assertEquals(output[5 * WIDTH + 32] & 0xFFFFFF, 0, "Glow should not go past the radius");
+    }
+
+    @Test
+    public void testDirtyRegionMatchesFullUpdate() {
+        final Random random = new Random(42);
+        final int[] first = randomImage(random);
+        final int[] second = first.clone();
+        for (int y = 3; y < 6; y++) {
+            for (int x = 10; x < 20; x++) {
+                second[y * WIDTH + x] = random.nextInt();
+            }
+        }
+        final PostProcessor incremental = new PostProcessor(new GlowEffect(3, 200));
+        incremental.process(first, WIDTH, HEIGHT);
+        final int[] partial = incremental.process(second, WIDTH, HEIGHT).clone();
+        final int[] full = new PostProcessor(new GlowEffect(3, 200)).process(second, WIDTH, HEIGHT);
+        assertTrue(Arrays.equals(partial, full));
+    }
+
+    private static int[] randomImage(final Random random) {
+        final int[] image = new int[WIDTH * HEIGHT];
+        for (int i = 0; i < image.length; i++) {
+            image[i] = random.nextInt(4) == 0 ? random.nextInt() : 0;
+        }
+        return image;
+    }
+}
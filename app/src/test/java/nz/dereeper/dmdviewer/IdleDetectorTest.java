@@ -0,0 +1,94 @@
+/*
+ * Copyright 2021 Mark de Reeper
+ *
+ *  Permission is hereby granted, free of charge, to any person
+ *  obtaining a copy of this software and associated documentation
+ *  files (the "Software"), to deal in the Software without
+ *  restriction, including without limitation the rights to use,
+ *  copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the
+ *  Software is furnished to do so, subject to the following
+ *  conditions:
+ *
+ *  The above copyright notice and this permission notice shall be
+ *  included in all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ *  EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ *  OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ *  NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ *  HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ *  WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ *  FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ *  OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package nz.dereeper.dmdviewer;
+
+import org.testng.annotations.Test;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+
+public class IdleDetectorTest {
+
+    private static class RecordingListener implements IdleDetector.Listener {
+        Boolean noTraffic;
+        long idleMillis = -1;
+
+        @Override
+        public void onIdle(final boolean noTraffic) {
+            this.noTraffic = noTraffic;
+        }
+
+        @Override
+        public void onActive(final long idleMillis) {
+            this.idleMillis = idleMillis;
+        }
+    }
+
+    @Test
+    public void testStaticContentGoesIdleAndWakesOnChange() {
+        final RecordingListener listener = new RecordingListener();
+        final IdleDetector detector = new IdleDetector(1000, 5000, listener);
+        detector.reset(0);
+        // Frames keep arriving but nothing changes.
+        detector.onTraffic(ms(900));
+        assertEquals(detector.check(ms(900)), 101);
+        detector.onTraffic(ms(1000));
+        assertEquals(detector.check(ms(1000)), -1);
+        assertTrue(detector.isIdle());
+        assertEquals(listener.noTraffic, Boolean.FALSE);
+        // Duplicates do not wake it up.
+        detector.onTraffic(ms(1500));
+        assertTrue(detector.isIdle());
+        detector.onChange(ms(3000));
+        assertFalse(detector.isIdle());
+        assertEquals(listener.idleMillis, 2000);
+        assertEquals(detector.check(ms(3000)), 1001);
+    }
+
+    @Test
+    public void testNoTrafficGoesIdle() {
+        final RecordingListener listener = new RecordingListener();
+        final IdleDetector detector = new IdleDetector(0, 500, listener);
+        detector.reset(0);
+        assertEquals(detector.check(ms(500)), -1);
+        assertEquals(listener.noTraffic, Boolean.TRUE);
+    }
+
+    @Test
+    public void testDisabled() {
+        final IdleDetector detector = new IdleDetector(0, 0, new RecordingListener());
+        detector.reset(0);
+        assertEquals(detector.check(ms(1000000)), -1);
+        assertFalse(detector.isIdle());
+    }
+
+    private static long ms(final long millis) {
+        return MILLISECONDS.toNanos(millis);
+    }
+}
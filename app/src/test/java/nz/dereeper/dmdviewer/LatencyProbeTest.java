@@ -0,0 +1,116 @@
+/*
+ * Copyright 2021 Mark de Reeper
+ *
+ *  Permission is hereby granted, free of charge, to any person
+ *  obtaining a copy of this software and associated documentation
+ *  files (the "Software"), to deal in the Software without
+ *  restriction, including without limitation the rights to use,
+ *  copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the
+ *  Software is furnished to do so, subject to the following
+ *  conditions:
+ *
+ *  The above copyright notice and this permission notice shall be
+ *  included in all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ *  EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ *  OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ *  NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ *  HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ *  WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ *  FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ *  OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package nz.dereeper.dmdviewer;
+
+import org.testng.annotations.Test;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNotSame;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+
+
+public class LatencyProbeTest {
+
+    // Sender time minus viewer time, big enough to wrap the sender clock.
+    private static final int OFFSET = Integer.MAX_VALUE - 500;
+
+    @Test
+    public void testPingsAreSpacedOut() {
+        final LatencyProbe probe = new LatencyProbe("ping-test");
+        assertEquals(probe.pingIfDue(10000), "ping 10000");
+        assertNull(probe.pingIfDue(11000));
+        assertEquals(probe.pingIfDue(12000), "ping 12000");
+    }
+
+    @Test
+    public void testOffsetFromShortestRoundTrip() {
+        final LatencyProbe probe = new LatencyProbe("offset-test");
+        assertNull(probe.getEstimate());
+        // 40ms there and 10ms back, the offset is out by half the difference.
+        exchange(probe, 1000, 40, 10);
+        assertEquals(probe.getEstimate().roundTrip, 50);
+        assertEquals(probe.getEstimate().offset, OFFSET + 15);
+        // A quick exchange is trusted over the slow one.
+        exchange(probe, 3000, 2, 2);
+        assertEquals(probe.getEstimate().roundTrip, 4);
+        assertEquals(probe.getEstimate().offset, OFFSET);
+        exchange(probe, 5000, 100, 5);
+        assertEquals(probe.getEstimate().offset, OFFSET);
+    }
+
+    @Test
+    public void testPresentedLatency() {
+        final LatencyProbe probe = new LatencyProbe("present-test");
+        final Stats.Histogram latency = Stats.histogram("latency@present-test");
+        // Nothing can be worked out before there is an estimate.
+        probe.onPresented(1234, 1000);
+        assertEquals(latency.getCount(), 0);
+        exchange(probe, 1000, 1, 1);
+        // Stamped by the sender at viewer time 2000, shown 45ms later.
+        probe.onPresented(2000 + OFFSET, 2045);
+        assertEquals(latency.getCount(), 1);
+        assertEquals(latency.percentile(0.5), 63);
+        probe.close();
+    }
+
+    @Test
+    public void testStatsRemovedOnClose() {
+        final LatencyProbe probe = new LatencyProbe("close-test");
+        final Stats.Histogram latency = Stats.histogram("latency@close-test");
+        final Stats.Histogram roundTrip = Stats.histogram("rtt@close-test");
+        probe.close();
+        final Stats.Histogram newLatency = Stats.histogram("latency@close-test");
+        final Stats.Histogram newRoundTrip = Stats.histogram("rtt@close-test");
+        assertNotSame(newLatency, latency);
+        assertNotSame(newRoundTrip, roundTrip);
+        Stats.remove(newLatency);
+        Stats.remove(newRoundTrip);
+    }
+
+    @Test
+    public void testInvalidPongs() {
+        final LatencyProbe probe = new LatencyProbe("invalid-test");
+        assertFalse(probe.onPong("pong", 100));
+        assertFalse(probe.onPong("pong a b c", 100));
+        // Claims to have taken longer to reply than the whole round trip.
+        assertFalse(probe.onPong("pong 90 0 50", 100));
+        assertNull(probe.getEstimate());
+        assertNull(LatencyTestClient.pong("hello", 1, 2));
+    }
+
+    // A ping sent at viewer time sent, taking there and back milliseconds each way to arrive.
+    private static void exchange(final LatencyProbe probe,
+                                 final long sent,
+                                 final int there,
+                                 final int back) {
+        final String ping = probe.pingIfDue(sent);
+        final int received = (int) sent + there + OFFSET;
+        final String pong = LatencyTestClient.pong(ping, received, received);
+        assertTrue(probe.onPong(pong, sent + there + back));
+    }
+}
@@ -0,0 +1,133 @@
+/*
+ * Copyright 2021 Mark de Reeper
+ *
+ *  Permission is hereby granted, free of charge, to any person
+ *  obtaining a copy of this software and associated documentation
+ *  files (the "Software"), to deal in the Software without
+ *  restriction, including without limitation the rights to use,
+ *  copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the
+ *  Software is furnished to do so, subject to the following
+ *  conditions:
+ *
+ *  The above copyright notice and this permission notice shall be
+ *  included in all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ *  EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ *  OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ *  NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ *  HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ *  WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ *  FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ *  OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package nz.dereeper.dmdviewer;
+
+import org.java_websocket.client.WebSocketClient;
+import org.java_websocket.handshake.ServerHandshake;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+import static java.nio.ByteOrder.LITTLE_ENDIAN;
+
+/**
+ * A stand in for dmdext when checking latency against a running viewer. It answers pings on its
+ * own clock, which is deliberately a long way from the viewer's, and streams RGB24 frames stamped
+ * with the same clock. Run it with the viewer's WebSocket URI, e.g. {@code ws://192.168.1.20:9090},
+ * and the viewer's stats should show a latency close to what it really is.
+ */
+class LatencyTestClient extends WebSocketClient {
+
+    private static final int WIDTH = 128;
+    private static final int HEIGHT = 32;
+    private final int clockOffset;
+
+    LatencyTestClient(final URI uri, final int clockOffset) {
+        super(uri);
+        this.clockOffset = clockOffset;
+    }
+
+    /**
+     * Work out the reply to a ping.
+     * @param ping the ping message.
+     * @param received the sender time the ping was received.
+     * @param replied the sender time the pong is sent.
+     * @return the pong to send, or null if the message was not a ping.
+     */
+    static String pong(final String ping, final int received, final int replied) {
+        final String[] parts = ping.trim().split("\\s+");
+        if (parts.length != 2 || !LatencyProbe.PING.equals(parts[0])) {
+            return null;
+        }
+        return LatencyProbe.PONG + " " + parts[1] + " " + received + " " + replied;
+    }
+
+    int clock() {
+        return (int) LatencyProbe.now() + clockOffset;
+    }
+
+    @Override
+    public void onOpen(final ServerHandshake handshake) {
+        System.out.println("Connected");
+    }
+
+    @Override
+    public void onMessage(final String message) {
+        final int received = clock();
+        final String pong = pong(message, received, clock());
+        if (pong != null) {
+            send(pong);
+        }
+    }
+
+    @Override
+    public void onClose(final int code, final String reason, final boolean remote) {
+        System.out.println("Closed: " + reason);
+    }
+
+    @Override
+    public void onError(final Exception e) {
+        e.printStackTrace();
+    }
+
+    static byte[] dimensionsMessage(final int width, final int height) throws IOException {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write("dimensions".getBytes("US-ASCII"));
+        out.write(0);
+        out.write(ByteBuffer.allocate(8).order(LITTLE_ENDIAN).putInt(width).putInt(height).array());
+        return out.toByteArray();
+    }
+
+    static byte[] rgb24Message(final int timeStamp, final byte[] bgr) throws IOException {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write("rgb24".getBytes("US-ASCII"));
+        out.write(0);
+        out.write(ByteBuffer.allocate(4).order(LITTLE_ENDIAN).putInt(timeStamp).array());
+        out.write(bgr);
+        return out.toByteArray();
+    }
+
+    public static void main(final String[] args) throws Exception {
+        final LatencyTestClient client =
+                new LatencyTestClient(new URI(args[0]), new Random().nextInt());
+        if (!client.connectBlocking()) {
+            System.out.println("Could not connect to " + args[0]);
+            return;
+        }
+        client.send(dimensionsMessage(WIDTH, HEIGHT));
+        final byte[] bgr = new byte[WIDTH * HEIGHT * 3];
+        final Random random = new Random();
+        while (client.isOpen()) {
+            // Every frame is different so none are skipped as duplicates.
+            random.nextBytes(bgr);
+            client.send(rgb24Message(client.clock(), bgr));
+            Thread.sleep(33);
+        }
+    }
+}
@@ -0,0 +1,143 @@
+/*
+ * Copyright 2021 Mark de Reeper
+ *
+ *  Permission is hereby granted, free of charge, to any person
+ *  obtaining a copy of this software and associated documentation
+ *  files (the "Software"), to deal in the Software without
+ *  restriction, including without limitation the rights to use,
+ *  copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the
+ *  Software is furnished to do so, subject to the following
+ *  conditions:
+ *
+ *  The above copyright notice and this permission notice shall be
+ *  included in all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ *  EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ *  OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ *  NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ *  HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ *  WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ *  FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ *  OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package nz.dereeper.dmdviewer;
+
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.testng.Assert.assertEquals;
+
+
+public class MjpegServerTest {
+
+    private MjpegServer server;
+
+    @BeforeMethod
+    public void startServer() throws Exception {
+        // Never started, so there is never a frame to wait for.
+        server = new MjpegServer(0, new FrameEncoder(), new FrameHistory(1024 * 1024));
+        server.start();
+        for (int i = 0; i < 100 && server.getLocalPort() <= 0; i++) {
+            Thread.sleep(10);
+        }
+    }
+
+    @AfterMethod
+    public void stopServer() {
+        server.stop();
+    }
+
+    @Test
+    public void testRequestPathRead() throws Exception {
+        assertEquals(path("GET /stream.mjpg HTTP/1.1\r\nHost: dmd\r\n\r\n"), "/stream.mjpg");
+        assertEquals(path("GET /frame.jpg?t=1234 HTTP/1.1\r\n\r\n"), "/frame.jpg");
+        assertEquals(path("GET / HTTP/1.0\r\n\r\n"), "/");
+        assertEquals(path("POST /frame.jpg HTTP/1.1\r\n\r\n"), "");
+        assertEquals(path("GET"), "");
+        assertEquals(path(""), "");
+    }
+
+    @Test
+    public void testRequestReadUpToTheBlankLine() throws Exception {
+        final ByteArrayInputStream in = new ByteArrayInputStream(
+                "GET /frame.jpg HTTP/1.1\r\nHost: dmd\r\n\r\nafter".getBytes("US-ASCII"));
+        assertEquals(MjpegServer.readRequestPath(in), "/frame.jpg");
+        assertEquals(in.available(), "after".length());
+    }
+
+    @Test
+    public void testUnknownPathNotFound() throws Exception {
+        assertEquals(statusLine(request("/nothing-here")), "HTTP/1.0 404 Not Found");
+        assertEquals(statusLine(request("/")), "HTTP/1.0 200 OK");
+    }
+
+    @Test
+    public void testUnavailableWithoutFrames() throws Exception {
+        assertEquals(statusLine(request("/frame.jpg")), "HTTP/1.0 503 Service Unavailable");
+        assertEquals(statusLine(request("/replay.gif")), "HTTP/1.0 503 Service Unavailable");
+    }
+
+    @Test
+    public void testConnectionsOverTheCapTurnedAway() throws Exception {
+        final List<Socket> idle = new ArrayList<>();
+        try {
+            // Each holds a viewer thread while the server waits for its request.
+            for (int i = 0; i < MjpegServer.MAX_CONNECTIONS; i++) {
+                idle.add(new Socket(InetAddress.getLoopbackAddress(), server.getLocalPort()));
+            }
+            assertEquals(statusLine(request("/")), "HTTP/1.0 503 Service Unavailable");
+        } finally {
+            for (Socket socket : idle) {
+                socket.close();
+            }
+        }
+        // The threads go as their connections close, so there is room again.
+        String status = null;
+        for (int i = 0; i < 100; i++) {
+            status = statusLine(request("/"));
+            if (!status.contains("503")) {
+                break;
+            }
+            Thread.sleep(10);
+        }
+        assertEquals(status, "HTTP/1.0 200 OK");
+    }
+
+    private static String path(final String request) throws IOException {
+        return MjpegServer.readRequestPath(new ByteArrayInputStream(request.getBytes("US-ASCII")));
+    }
+
+    private Socket request(final String path) throws IOException {
+        final Socket socket = new Socket(InetAddress.getLoopbackAddress(), server.getLocalPort());
+        socket.setSoTimeout(10000);
+        socket.getOutputStream().write(("GET " + path + " HTTP/1.0\r\n\r\n").getBytes("US-ASCII"));
+        socket.getOutputStream().flush();
+        return socket;
+    }
+
+    private static String statusLine(final Socket socket) throws IOException {
+        try {
+            final InputStream in = socket.getInputStream();
+            final StringBuilder line = new StringBuilder();
+            int b;
+            while ((b = in.read()) != -1 && b != '\r') {
+                line.append((char) b);
+            }
+            return line.toString();
+        } finally {
+            socket.close();
+        }
+    }
+}
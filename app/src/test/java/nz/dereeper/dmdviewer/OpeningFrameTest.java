@@ -0,0 +1,100 @@
+/*
+ * Copyright 2021 Mark de Reeper
+ *
+ *  Permission is hereby granted, free of charge, to any person
+ *  obtaining a copy of this software and associated documentation
+ *  files (the "Software"), to deal in the Software without
+ *  restriction, including without limitation the rights to use,
+ *  copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the
+ *  Software is furnished to do so, subject to the following
+ *  conditions:
+ *
+ *  The above copyright notice and this permission notice shall be
+ *  included in all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ *  EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ *  OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ *  NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ *  HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ *  WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ *  FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ *  OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package nz.dereeper.dmdviewer;
+
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Random;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNotSame;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertSame;
+
+
+public class OpeningFrameTest {
+
+    private final byte[] bgr = new byte[OpeningFrame.DIMENSIONS.area * 3];
+    private int opened;
+    private final OpeningFrame.Source source = new OpeningFrame.Source() {
+        @Override
+        public InputStream open() {
+            opened++;
+            return new ByteArrayInputStream(bgr);
+        }
+    };
+
+    @BeforeMethod
+    public void setUp() {
+        OpeningFrame.reset();
+        new Random(7).nextBytes(bgr);
+        opened = 0;
+    }
+
+    @Test
+    public void testReadAndDrawnOnce() {
+        final Dmd dmd = new Dmd(true, true);
+        final int[] image = OpeningFrame.image(source, dmd, ColourAdjust.NONE, true);
+        assertSame(OpeningFrame.image(source, new Dmd(true, true), new ColourAdjust(0, 100, 1.0f),
+                true), image);
+        assertSame(OpeningFrame.get(source), OpeningFrame.get(source));
+        assertEquals(opened, 1);
+        final Rasteriser rasteriser = new Rasteriser(OpeningFrame.DIMENSIONS, dmd,
+                ColourAdjust.NONE, true);
+        assertEquals(image, rasteriser.fromRgb24(bgr));
+    }
+
+    @Test
+    public void testDrawnAgainForOtherSettings() {
+        final int[] image = OpeningFrame.image(source, new Dmd(false, false), ColourAdjust.NONE,
+                false);
+        final int[] led = OpeningFrame.image(source, new Dmd(true, false), ColourAdjust.NONE,
+                false);
+        assertNotSame(led, image);
+        assertEquals(led.length, image.length * 25);
+        assertNotSame(OpeningFrame.image(source, new Dmd(true, false), ColourAdjust.NONE, true),
+                led);
+        assertEquals(opened, 1);
+    }
+
+    @Test
+    public void testMissingFrame() {
+        final OpeningFrame.Source missing = new OpeningFrame.Source() {
+            @Override
+            public InputStream open() throws IOException {
+                opened++;
+                throw new IOException("Not there");
+            }
+        };
+        assertNull(OpeningFrame.image(missing, new Dmd(false, false), ColourAdjust.NONE, false));
+        assertNull(OpeningFrame.get(missing));
+        assertEquals(opened, 1);
+    }
+}
@@ -0,0 +1,109 @@
+/*
+ * Copyright 2021 Mark de Reeper
+ *
+ *  Permission is hereby granted, free of charge, to any person
+ *  obtaining a copy of this software and associated documentation
+ *  files (the "Software"), to deal in the Software without
+ *  restriction, including without limitation the rights to use,
+ *  copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the
+ *  Software is furnished to do so, subject to the following
+ *  conditions:
+ *
+ *  The above copyright notice and this permission notice shall be
+ *  included in all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ *  EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ *  OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ *  NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ *  HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ *  WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ *  FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ *  OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package nz.dereeper.dmdviewer;
+
+import org.testng.annotations.Test;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+
+import static java.nio.ByteOrder.LITTLE_ENDIAN;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNotSame;
+import static org.testng.Assert.assertSame;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
+
+
+public class PalettesTest {
+
+    @Test
+    public void testSameColoursGetTheSameArray() {
+        final int[] first = Palettes.read(message(0x123456, 0x654321));
+        final ByteBuffer again = message(0x123456, 0x654321);
+        final int[] second = Palettes.read(again);
+        assertSame(second, first);
+        assertEquals(again.remaining(), 0);
+        assertEquals(first, new int[] { 0x123456, 0x654321 });
+        assertTrue(Palettes.isInterned(first));
+        assertNotSame(Palettes.read(message(0x123456, 0x654322)), first);
+        assertSame(Palettes.intern(new int[] { 0x123456, 0x654321 }), first);
+    }
+
+    @Test
+    public void testInternCopiesColours() {
+        final int[] colours = { 0x0A0B0C, 0x0D0E0F };
+        final int[] shared = Palettes.intern(colours);
+        assertNotSame(shared, colours);
+        assertFalse(Palettes.isInterned(colours));
+        colours[0] = 0;
+        assertEquals(shared[0], 0x0A0B0C);
+        assertSame(Palettes.intern(shared), shared);
+    }
+
+    @Test
+    public void testOldestPaletteMakesWay() {
+        final int[] oldest = Palettes.intern(new int[] { 0x777777 });
+        for (int i = 0; i < Palettes.CAPACITY; i++) {
+            Palettes.intern(new int[] { 0x888800 + i });
+        }
+        assertFalse(Palettes.isInterned(oldest));
+        // Still usable, just no longer shared.
+        assertEquals(oldest, new int[] { 0x777777 });
+        assertNotSame(Palettes.intern(new int[] { 0x777777 }), oldest);
+    }
+
+    @Test
+    public void testCountLongerThanMessage() {
+        final ByteBuffer message = ByteBuffer.allocate(12).order(LITTLE_ENDIAN);
+        message.putInt(3).putInt(1).putInt(2).flip();
+        try {
+            Palettes.read(message);
+            fail("Should not have read past the end");
+        } catch (BufferUnderflowException expected) {
+            // As expected
+        }
+        message.clear();
+        message.putInt(-1).flip();
+        try {
+            Palettes.read(message);
+            fail("Should not have accepted a negative count");
+        } catch (BufferUnderflowException expected) {
+            // As expected
+        }
+    }
+
+    private static ByteBuffer message(final int... colours) {
+        final ByteBuffer message = ByteBuffer.allocate(4 + colours.length * 4).order(LITTLE_ENDIAN);
+        message.putInt(colours.length);
+        for (int colour : colours) {
+            message.putInt(colour);
+        }
+        message.flip();
+        return message;
+    }
+}
@@ -0,0 +1,115 @@
+/*
+ * Copyright 2021 Mark de Reeper
+ *
+ *  Permission is hereby granted, free of charge, to any person
+ *  obtaining a copy of this software and associated documentation
+ *  files (the "Software"), to deal in the Software without
+ *  restriction, including without limitation the rights to use,
+ *  copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the
+ *  Software is furnished to do so, subject to the following
+ *  conditions:
+ *
+ *  The above copyright notice and this permission notice shall be
+ *  included in all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ *  EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ *  OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ *  NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ *  HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ *  WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ *  FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ *  OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package nz.dereeper.dmdviewer;
+
+import org.testng.annotations.Test;
+
+import java.util.Random;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+
+public class PersistenceEffectTest {
+
+    private static final int WIDTH = 32;
+    private static final int HEIGHT = 8;
+
+    @Test
+    public void testBrighterMatchesPerChannel() {
+        final Random random = new Random(3);
+        for (int i = 0; i < 10000; i++) {
+            final int colour = random.nextInt();
+            final int previous = random.nextInt();
+            final int decay = random.nextInt(256);
+            int expected = 0;
+            for (int shift = 0; shift < 32; shift += 8) {
+                final int decayed = ((previous >>> shift) & 0xFF) * decay >> 8;
+                expected |= Math.max((colour >>> shift) & 0xFF, decayed) << shift;
+            }
+            assertEquals(PersistenceEffect.brighter(colour, previous, decay), expected);
+        }
+    }
+
+    @Test
+    public void testPixelFadesThenSettles() {
+        final PersistenceEffect effect = new PersistenceEffect(40);
+        final int[] image = new int[WIDTH * HEIGHT];
+        final int pixel = 3 * WIDTH + 5;
+        image[pixel] = 0xFFFFFFFF;
+        long now = 0;
+        effect.apply(image, WIDTH, HEIGHT, new DirtyRegion(), now);
+        assertFalse(effect.isAnimating());
+        // Switching the pixel off leaves it half as bright one half life later.
+        image[pixel] = 0xFF000000;
+        now += ms(40);
+        final DirtyRegion dirty = new DirtyRegion();
+        dirty.set(5, 3, 6, 4);
+        int[] output = effect.apply(image, WIDTH, HEIGHT, dirty, now);
+        assertEquals(output[pixel], 0xFF7F7F7F);
+        assertTrue(effect.isAnimating());
+        // Nothing changes in the source but the pixel keeps fading.
+        int frames = 0;
+        while (effect.isAnimating()) {
+            now += ms(16);
+            dirty.setEmpty();
+            output = effect.apply(image, WIDTH, HEIGHT, dirty, now);
+            assertEquals(dirty.left, 5);
+            assertEquals(dirty.area(), 1);
+            frames++;
+        }
+        assertEquals(output[pixel], 0xFF000000);
+        assertTrue(frames < 40, "frames: " + frames);
+        // Once settled an unchanged source has nothing to do.
+        dirty.setEmpty();
+        effect.apply(image, WIDTH, HEIGHT, dirty, now + ms(16));
+        assertTrue(dirty.isEmpty());
+    }
+
+    @Test
+    public void testPostProcessorAdvances() {
+        final PostProcessor processor = new PostProcessor(new PersistenceEffect(40));
+        final int[] image = new int[WIDTH * HEIGHT];
+        image[0] = 0xFFFF0000;
+        processor.process(image, WIDTH, HEIGHT);
+        image[0] = 0xFF000000;
+        final int[] faded = processor.process(image, WIDTH, HEIGHT);
+        assertTrue(processor.isAnimating());
+        assertTrue((faded[0] & 0xFF0000) > 0);
+        int steps = 0;
+        while (processor.isAnimating() && steps < 1000) {
+            processor.advance();
+            steps++;
+        }
+        assertFalse(processor.isAnimating());
+    }
+
+    private static long ms(final long millis) {
+        return MILLISECONDS.toNanos(millis);
+    }
+}
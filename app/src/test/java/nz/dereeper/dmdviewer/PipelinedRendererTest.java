@@ -0,0 +1,212 @@
+/*
+ * Copyright 2021 Mark de Reeper
+ *
+ *  Permission is hereby granted, free of charge, to any person
+ *  obtaining a copy of this software and associated documentation
+ *  files (the "Software"), to deal in the Software without
+ *  restriction, including without limitation the rights to use,
+ *  copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the
+ *  Software is furnished to do so, subject to the following
+ *  conditions:
+ *
+ *  The above copyright notice and this permission notice shall be
+ *  included in all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ *  EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ *  OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ *  NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ *  HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ *  WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ *  FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ *  OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package nz.dereeper.dmdviewer;
+
+import org.testng.annotations.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static java.nio.ByteOrder.LITTLE_ENDIAN;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+
+public class PipelinedRendererTest {
+
+    private static final Dimensions DIMENSIONS = new Dimensions(128, 32);
+    private static final Dmd DMD = new Dmd(true, true);
+
+    @Test
+    public void testPresentedInOrderWithTheStateTheyArrivedWith() throws Exception {
+        final int[] red = Palettes.intern(palette(0xFF0000));
+        final int[] green = Palettes.intern(palette(0x00FF00));
+        final RenderState[] states = {
+                new RenderState(DIMENSIONS, red, new float[3]),
+                new RenderState(DIMENSIONS, green, new float[3]),
+                new RenderState(DIMENSIONS, null, new float[] { 200, 0.9f, 0.5f })
+        };
+        final List<Frame> frames = new ArrayList<>();
+        final Random random = new Random(5);
+        for (int i = 0; i < 300; i++) {
+            final byte[] planes = new byte[DIMENSIONS.area / 8 * 4];
+            random.nextBytes(planes);
+            frames.add(frame(i % 2 == 0 ? "gray4Planes" : "rgb24", i,
+                    i % 2 == 0 ? planes : Arrays.copyOf(planes, DIMENSIONS.area * 3)));
+        }
+        final List<Integer> presented = Collections.synchronizedList(new ArrayList<Integer>());
+        final List<String> wrong = Collections.synchronizedList(new ArrayList<String>());
+        final CountDownLatch last = new CountDownLatch(1);
+        final PipelinedRenderer renderer = new PipelinedRenderer(3, DMD, ColourAdjust.NONE, false,
+                new PipelinedRenderer.Presenter() {
+                    private final Rasteriser reference = new Rasteriser(DIMENSIONS, DMD);
+
+                    @Override
+                    public void present(final int[] image,
+                                        final int width,
+                                        final int height,
+                                        final Frame frame,
+                                        final RenderState state) {
+                        final int index = frame.getTimeStamp();
+                        presented.add(index);
+                        if (state != states[index % states.length] ||
+                            !Arrays.equals(image, expected(reference, frame, state))) {
+                            wrong.add("frame " + index);
+                        }
+                        if (index == frames.size() - 1) {
+                            last.countDown();
+                        }
+                    }
+                });
+        int skipped = 0;
+        for (int i = 0; i < frames.size(); i++) {
+            if (!renderer.submit(frames.get(i), states[i % states.length], null)) {
+                skipped++;
+            }
+        }
+        assertTrue(last.await(10, TimeUnit.SECONDS), "The last frame should always be shown");
+        renderer.shutdown();
+        assertEquals(wrong, Collections.emptyList());
+        assertEquals(presented.size() + skipped, frames.size());
+        for (int i = 1; i < presented.size(); i++) {
+            assertTrue(presented.get(i) > presented.get(i - 1), "Out of order at " + i);
+        }
+    }
+
+    @Test
+    public void testNewestFrameWaitsWhenEveryThreadIsBusy() throws Exception {
+        final CountDownLatch release = new CountDownLatch(1);
+        final List<Integer> presented = Collections.synchronizedList(new ArrayList<Integer>());
+        final CountDownLatch done = new CountDownLatch(3);
+        final PipelinedRenderer renderer = new PipelinedRenderer(2, DMD, ColourAdjust.NONE, false,
+                new PipelinedRenderer.Presenter() {
+                    @Override
+                    public void present(final int[] image,
+                                        final int width,
+                                        final int height,
+                                        final Frame frame,
+                                        final RenderState state) {
+                        try {
+                            release.await();
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                        }
+                        presented.add(frame.getTimeStamp());
+                        done.countDown();
+                    }
+                });
+        final RenderState state = new RenderState(DIMENSIONS, null, new float[] { 0, 1, 0.5f });
+        final byte[] planes = new byte[DIMENSIONS.area / 8 * 2];
+        assertTrue(renderer.submit(frame("gray2Planes", 0, planes), state, null));
+        assertTrue(renderer.submit(frame("gray2Planes", 1, planes), state, null));
+        // Both slots are held until their frames are presented, so these wait for one.
+        assertTrue(renderer.submit(frame("gray2Planes", 2, planes), state, null));
+        for (int i = 3; i < 10; i++) {
+            assertFalse(renderer.submit(frame("gray2Planes", i, planes), state, null));
+        }
+        release.countDown();
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+        renderer.shutdown();
+        assertEquals(presented, Arrays.asList(0, 1, 9));
+    }
+
+    @Test
+    public void testFramesArePresentedAfterARestart() throws Exception {
+        final CountDownLatch release = new CountDownLatch(1);
+        final List<Integer> presented = Collections.synchronizedList(new ArrayList<Integer>());
+        final CountDownLatch restarted = new CountDownLatch(1);
+        final PipelinedRenderer renderer = new PipelinedRenderer(2, DMD, ColourAdjust.NONE, false,
+                new PipelinedRenderer.Presenter() {
+                    @Override
+                    public void present(final int[] image,
+                                        final int width,
+                                        final int height,
+                                        final Frame frame,
+                                        final RenderState state) {
+                        if (frame.getTimeStamp() < 10) {
+                            try {
+                                release.await();
+                            } catch (InterruptedException e) {
+                                Thread.currentThread().interrupt();
+                            }
+                        }
+                        presented.add(frame.getTimeStamp());
+                        if (frame.getTimeStamp() == 10 + 3) {
+                            restarted.countDown();
+                        }
+                    }
+                });
+        final RenderState state = new RenderState(DIMENSIONS, null, new float[] { 0, 1, 0.5f });
+        final byte[] planes = new byte[DIMENSIONS.area / 8 * 2];
+        final List<Frame> before = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            before.add(frame("gray2Planes", i, planes));
+            renderer.submit(before.get(i), state, null);
+        }
+        renderer.shutdown();
+        release.countDown();
+        renderer.start();
+        for (int i = 10; i < 10 + 4; i++) {
+            renderer.submit(frame("gray2Planes", i, planes), state, null);
+        }
+        assertTrue(restarted.await(10, TimeUnit.SECONDS), "Frames should show after a restart");
+        renderer.shutdown();
+        assertTrue(presented.contains(10 + 3), "The last frame should always be shown");
+    }
+
+    private static int[] expected(final Rasteriser reference,
+                                  final Frame frame,
+                                  final RenderState state) {
+        return ImageUtils.toRawImage(frame, state.palette,
+                new FixedMetadata(DMD, state, reference));
+    }
+
+    private static Frame frame(final String type, final int timeStamp, final byte[] planes)
+            throws Exception {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write(type.getBytes("US-ASCII"));
+        out.write(0);
+        out.write(ByteBuffer.allocate(4).order(LITTLE_ENDIAN).putInt(timeStamp).array());
+        out.write(planes);
+        return new Frame(ByteBuffer.wrap(out.toByteArray()).order(LITTLE_ENDIAN));
+    }
+
+    private static int[] palette(final int colour) {
+        final int[] palette = new int[16];
+        for (int i = 0; i < palette.length; i++) {
+            palette[i] = colour / 15 * i;
+        }
+        return palette;
+    }
+}
@@ -0,0 +1,191 @@
+/*
+ * Copyright 2021 Mark de Reeper
+ *
+ *  Permission is hereby granted, free of charge, to any person
+ *  obtaining a copy of this software and associated documentation
+ *  files (the "Software"), to deal in the Software without
+ *  restriction, including without limitation the rights to use,
+ *  copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the
+ *  Software is furnished to do so, subject to the following
+ *  conditions:
+ *
+ *  The above copyright notice and this permission notice shall be
+ *  included in all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ *  EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ *  OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ *  NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ *  HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ *  WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ *  FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ *  OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package nz.dereeper.dmdviewer;
+
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+
+public class RasteriserTest {
+
+    private static final Dimensions DIMENSIONS = new Dimensions(24, 8);
+    private static final int[] PALETTE = {
+            0x000000, 0x110000, 0x002200, 0x000033, 0x440000, 0x005500, 0x000066, 0x770000,
+            0x008800, 0x000099, 0xAA0000, 0x00BB00, 0x0000CC, 0xDD0000, 0x00EE00, 0x0000FF
+    };
+
+    @DataProvider
+    public static Object[][] configurations() {
+        return new Object[][] {
+                { 2, new Dmd(false, false) },
+                { 2, new Dmd(true, false) },
+                { 2, new Dmd(true, true) },
+                { 4, new Dmd(false, false) },
+                { 4, new Dmd(true, false) },
+                { 4, new Dmd(true, true) },
+                { 3, new Dmd(true, true) },
+                { 2, new Dmd(true, false, true) },
+                { 4, new Dmd(true, true, true) }
+        };
+    }
+
+    @Test(dataProvider = "configurations")
+    public void testPlanesMatchReference(final int bitLength, final Dmd dmd) {
+        final byte[] planes = new byte[DIMENSIONS.area / 8 * bitLength];
+        new Random(bitLength).nextBytes(planes);
+        final Rasteriser rasteriser = new Rasteriser(DIMENSIONS, dmd);
+        final int[] rawImage = rasteriser.fromPlanes(planes, PALETTE, bitLength);
+        final int[] values = referenceValues(planes, bitLength);
+        for (int y = 0; y < DIMENSIONS.height; y++) {
+            for (int x = 0; x < DIMENSIONS.width; x++) {
+                assertPixel(rasteriser, rawImage, dmd, x, y,
+                        0xFF000000 | PALETTE[values[y * DIMENSIONS.width + x]]);
+            }
+        }
+    }
+
+    @Test(dataProvider = "configurations")
+    public void testRgb24(final int ignored, final Dmd dmd) {
+        final byte[] bgr = new byte[DIMENSIONS.area * 3];
+        new Random(7).nextBytes(bgr);
+        final Rasteriser rasteriser = new Rasteriser(DIMENSIONS, dmd);
+        final int[] rawImage = rasteriser.fromRgb24(bgr);
+        for (int y = 0; y < DIMENSIONS.height; y++) {
+            for (int x = 0; x < DIMENSIONS.width; x++) {
+                final int i = (y * DIMENSIONS.width + x) * 3;
+                assertPixel(rasteriser, rawImage, dmd, x, y, 0xFF000000 |
+                        (bgr[i + 2] & 0xFF) << 16 | (bgr[i + 1] & 0xFF) << 8 | (bgr[i] & 0xFF));
+            }
+        }
+    }
+
+    @Test
+    public void testUnlitPixelsDoNotKeepPreviousFrame() {
+        final Dmd dmd = new Dmd(true, true, true);
+        final Rasteriser rasteriser = new Rasteriser(DIMENSIONS, dmd);
+        final byte[] lit = new byte[DIMENSIONS.area / 8 * 2];
+        Arrays.fill(lit, (byte) 0xFF);
+        rasteriser.fromPlanes(lit, PALETTE, 2);
+        final int[] rawImage = rasteriser.fromPlanes(new byte[lit.length], PALETTE, 2);
+        for (int y = 0; y < DIMENSIONS.height; y++) {
+            for (int x = 0; x < DIMENSIONS.width; x++) {
+                assertPixel(rasteriser, rawImage, dmd, x, y, 0xFF000000);
+            }
+        }
+    }
+
+    @Test(dataProvider = "configurations")
+    public void testAbgrIntoTarget(final int bitLength, final Dmd dmd) {
+        final byte[] planes = new byte[DIMENSIONS.area / 8 * bitLength];
+        new Random(bitLength).nextBytes(planes);
+        final byte[] bgr = new byte[DIMENSIONS.area * 3];
+        new Random(11).nextBytes(bgr);
+        final Rasteriser argb = new Rasteriser(DIMENSIONS, dmd);
+        final Rasteriser abgr = new Rasteriser(DIMENSIONS, dmd, ColourAdjust.NONE, true);
+        final RenderTarget target =
+                new RenderTarget(abgr.getOutputWidth(), abgr.getOutputHeight(), true);
+        abgr.setTarget(target);
+        assertSwapped(argb.fromPlanes(planes, PALETTE, bitLength),
+                abgr.fromPlanes(planes, PALETTE, bitLength), target);
+        assertSwapped(argb.fromRgb24(bgr), abgr.fromRgb24(bgr), target);
+    }
+
+    @Test
+    public void testSharedPalettesKeepTheirTables() {
+        final byte[] planes = new byte[DIMENSIONS.area / 8 * 4];
+        new Random(3).nextBytes(planes);
+        final int[] reversed = new int[PALETTE.length];
+        for (int i = 0; i < PALETTE.length; i++) {
+            reversed[i] = PALETTE[PALETTE.length - 1 - i];
+        }
+        final int[] first = Palettes.intern(PALETTE);
+        final int[] second = Palettes.intern(reversed);
+        final Dmd dmd = new Dmd(false, false);
+        final Rasteriser shared = new Rasteriser(DIMENSIONS, dmd);
+        final Rasteriser own = new Rasteriser(DIMENSIONS, dmd);
+        final float[] hsl = { 30, 0.8f, 0.5f };
+        for (int i = 0; i < 6; i++) {
+            // Switch between the two shared palettes, with HSL shades in between.
+            final int[] palette = i % 2 == 0 ? first : second;
+            assertEquals(shared.fromPlanes(planes, palette, 4).clone(),
+                    own.fromPlanes(planes, palette.clone(), 4));
+            if (i == 3) {
+                assertEquals(shared.fromPlanes(planes, hsl, 16, 4).clone(),
+                        own.fromPlanes(planes, hsl, 16, 4));
+            }
+        }
+    }
+
+    private static void assertSwapped(final int[] argb, final int[] abgr, final RenderTarget target) {
+        assertTrue(abgr == target.pixels, "Should render straight into the target");
+        for (int i = 0; i < argb.length; i++) {
+            assertEquals(abgr[i], RenderTarget.swapRedAndBlue(argb[i]));
+        }
+    }
+
+    private static void assertPixel(final Rasteriser rasteriser,
+                                    final int[] rawImage,
+                                    final Dmd dmd,
+                                    final int x,
+                                    final int y,
+                                    final int expected) {
+        if (!dmd.isEnabled()) {
+            assertEquals(rawImage[y * DIMENSIONS.width + x], expected);
+            return;
+        }
+        final int combined = dmd.getCombined();
+        final boolean[][] shape = dmd.getShape();
+        final int shown = dmd.isUnlit() && expected == 0xFF000000 ? dmd.getUnlitColour() : expected;
+        for (int i = 0; i < combined; i++) {
+            for (int j = 0; j < combined; j++) {
+                final boolean on = i < dmd.getPixels() && j < dmd.getPixels() && shape[i][j];
+                final int index = (y * combined + i) * rasteriser.getOutputWidth() + x * combined + j;
+                assertEquals(rawImage[index], on ? shown : 0, "x:" + x + " y:" + y);
+            }
+        }
+    }
+
+    // How the pixel values were originally worked out, most significant plane last.
+    private static int[] referenceValues(final byte[] planes, final int bitLength) {
+        final int[] values = new int[DIMENSIONS.area];
+        final int bytes = DIMENSIONS.area / 8;
+        for (int bytePos = 0; bytePos < bytes; bytePos++) {
+            for (int bitPos = 7; bitPos >= 0; bitPos--) {
+                for (int planePos = 0; planePos < bitLength; planePos++) {
+                    final int bit = (planes[bytes * planePos + bytePos] & (1 << bitPos)) != 0 ? 1 : 0;
+                    values[bytePos * 8 + bitPos] |= (bit << planePos);
+                }
+            }
+        }
+        return values;
+    }
+}
@@ -0,0 +1,106 @@
+/*
+ * Copyright 2021 Mark de Reeper
+ *
+ *  Permission is hereby granted, free of charge, to any person
+ *  obtaining a copy of this software and associated documentation
+ *  files (the "Software"), to deal in the Software without
+ *  restriction, including without limitation the rights to use,
+ *  copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the
+ *  Software is furnished to do so, subject to the following
+ *  conditions:
+ *
+ *  The above copyright notice and this permission notice shall be
+ *  included in all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ *  EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ *  OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ *  NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ *  HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ *  WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ *  FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ *  OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package nz.dereeper.dmdviewer;
+
+import org.testng.annotations.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+
+import static java.nio.ByteOrder.LITTLE_ENDIAN;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertSame;
+import static org.testng.Assert.assertTrue;
+
+
+public class RenderStateTest {
+
+    private static final Dimensions DIMENSIONS = new Dimensions(16, 8);
+
+    @Test
+    public void testChangesMakeNewVersions() {
+        final RenderState initial = RenderState.forColour(0xec843d);
+        assertNull(initial.dimensions);
+        final RenderState sized = initial.withDimensions(DIMENSIONS);
+        final int[] palette = Palettes.intern(new int[] { 1, 2, 3, 4 });
+        final RenderState coloured = sized.withPalette(palette).withColour(0x00FF00);
+        assertEquals(sized.version, initial.version + 1);
+        assertEquals(coloured.version, initial.version + 3);
+        assertSame(coloured.dimensions, DIMENSIONS);
+        assertSame(coloured.palette, palette);
+        // Earlier states are left as they were.
+        assertNull(initial.dimensions);
+        assertNull(sized.palette);
+        assertEquals(sized.getHsl()[0], initial.getHsl()[0], 0);
+    }
+
+    @Test
+    public void testRepeatedControlFramesKeepTheState() {
+        final RenderState state = RenderState.forColour(0xec843d).withDimensions(DIMENSIONS);
+        assertSame(state.withColour(0xec843d), state);
+        assertSame(state.withDimensions(new Dimensions(16, 8)), state);
+        assertSame(state.withPalette(null), state);
+        // Shades carry over to states that don't change the colour.
+        final int[] shades = state.getShades(2);
+        assertSame(state.withPalette(new int[4]).getShades(2), shades);
+    }
+
+    @Test
+    public void testShadesAreSharedAndMatchTheColour() {
+        final RenderState state = RenderState.forColour(0x3366FF);
+        final int[] shades = new int[16];
+        ImageUtils.hslShades(state.getHsl(), 16, 16, shades);
+        assertEquals(state.getShades(4), shades);
+        assertTrue(Palettes.isInterned(state.getShades(2)));
+        assertSame(RenderState.forColour(0x3366FF).getShades(4), state.getShades(4));
+        assertNull(state.getShades(3));
+    }
+
+    @Test
+    public void testGrayFramesDrawTheSameAsWithTheColour() throws Exception {
+        final RenderState state = RenderState.forColour(0xec843d).withDimensions(DIMENSIONS);
+        final byte[] planes = new byte[DIMENSIONS.area / 8 * 4];
+        for (int i = 0; i < planes.length; i++) {
+            planes[i] = (byte) (i * 37);
+        }
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write("gray4Planes".getBytes("US-ASCII"));
+        out.write(new byte[5]);
+        out.write(planes);
+        final Frame frame = new Frame(ByteBuffer.wrap(out.toByteArray()).order(LITTLE_ENDIAN));
+        final Metadata metadata = metadata(state);
+        final int[] fromShades = ImageUtils.toRawImage(frame, state, metadata).clone();
+        final int[] fromColour = ImageUtils.toRawImage(frame, (int[]) null, metadata);
+        assertEquals(fromShades, fromColour);
+    }
+
+    private static Metadata metadata(final RenderState state) {
+        final Dmd dmd = new Dmd(false, false);
+        final Rasteriser rasteriser = new Rasteriser(state.dimensions, dmd);
+        return new FixedMetadata(dmd, state, rasteriser);
+    }
+}
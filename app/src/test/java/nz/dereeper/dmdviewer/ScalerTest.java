@@ -0,0 +1,102 @@
+/*
+ * Copyright 2021 Mark de Reeper
+ *
+ *  Permission is hereby granted, free of charge, to any person
+ *  obtaining a copy of this software and associated documentation
+ *  files (the "Software"), to deal in the Software without
+ *  restriction, including without limitation the rights to use,
+ *  copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the
+ *  Software is furnished to do so, subject to the following
+ *  conditions:
+ *
+ *  The above copyright notice and this permission notice shall be
+ *  included in all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ *  EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ *  OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ *  NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ *  HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ *  WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ *  FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ *  OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package nz.dereeper.dmdviewer;
+
+import org.testng.annotations.Test;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+
+public class ScalerTest {
+
+    @Test
+    public void testWholeMultiplesRepeatEachPixel() {
+        final Scaler scaler = new Scaler(4, 2, 12, 100);
+        assertEquals(scaler.getOutputWidth(), 12);
+        assertEquals(scaler.getOutputHeight(), 6);
+        assertTrue(scaler.enlarges());
+        final int[] source = { 1, 2, 3, 4, 5, 6, 7, 8 };
+        final int[] out = new int[12 * 6];
+        scaler.scale(source, out);
+        for (int y = 0; y < 6; y++) {
+            for (int x = 0; x < 12; x++) {
+                assertEquals(out[y * 12 + x], source[y / 3 * 4 + x / 3]);
+            }
+        }
+    }
+
+    @Test
+    public void testOtherSizesSpreadThePixelsEvenly() {
+        // 3.75 output pixels to every source pixel.
+        final int sourceWidth = 128 * 5;
+        final int sourceHeight = 32 * 5;
+        final Scaler scaler = new Scaler(sourceWidth, sourceHeight, 2400, 1080);
+        assertEquals(scaler.getOutputWidth(), 2400);
+        assertEquals(scaler.getOutputHeight(), 600);
+        final int[] source = new int[sourceWidth * sourceHeight];
+        for (int i = 0; i < source.length; i++) {
+            source[i] = i;
+        }
+        final int[] out = new int[2400 * 600];
+        scaler.scale(source, out);
+        final int[] widths = new int[sourceWidth];
+        final int[] heights = new int[sourceHeight];
+        for (int x = 0; x < 2400; x++) {
+            widths[out[x]]++;
+        }
+        for (int y = 0; y < 600; y++) {
+            final int sourceRow = out[y * 2400] / sourceWidth;
+            heights[sourceRow]++;
+            for (int x = 0; x < 2400; x++) {
+                // Each pixel is the source pixel under its centre.
+                assertEquals(out[y * 2400 + x], sourceRow * sourceWidth +
+                        (2 * x + 1) * sourceWidth / (2 * 2400));
+            }
+        }
+        for (int width : widths) {
+            assertTrue(width == 3 || width == 4, "Width " + width);
+        }
+        for (int height : heights) {
+            assertTrue(height == 3 || height == 4, "Height " + height);
+        }
+    }
+
+    @Test
+    public void testFitsTheViewAndCentresOnWholePixels() {
+        final Scaler tall = new Scaler(128, 32, 1000, 1999);
+        assertEquals(tall.getOutputWidth(), 1000);
+        // 250 would leave half a pixel either side.
+        assertEquals(tall.getOutputHeight(), 250 + 1);
+        final Scaler wide = new Scaler(128, 32, 3000, 501);
+        assertEquals(wide.getOutputHeight(), 501);
+        assertEquals((3000 - wide.getOutputWidth()) % 2, 0);
+        assertTrue(wide.matches(128, 32, 3000, 501));
+        assertFalse(wide.matches(128, 32, 3000, 500));
+        assertFalse(new Scaler(640, 160, 320, 480).enlarges());
+    }
+}
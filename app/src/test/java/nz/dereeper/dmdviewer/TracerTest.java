@@ -0,0 +1,91 @@
+/*
+ * Copyright 2021 Mark de Reeper
+ *
+ *  Permission is hereby granted, free of charge, to any person
+ *  obtaining a copy of this software and associated documentation
+ *  files (the "Software"), to deal in the Software without
+ *  restriction, including without limitation the rights to use,
+ *  copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the
+ *  Software is furnished to do so, subject to the following
+ *  conditions:
+ *
+ *  The above copyright notice and this permission notice shall be
+ *  included in all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ *  EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ *  OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ *  NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ *  HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ *  WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ *  FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ *  OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package nz.dereeper.dmdviewer;
+
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+
+public class TracerTest {
+
+    @BeforeMethod
+    public void setUp() {
+        Tracer.reset();
+    }
+
+    @Test
+    public void testEventsAreWrittenAsChromeTrace() {
+        final long receive = Tracer.begin();
+        final long parse = Tracer.begin();
+        Tracer.end(Tracer.PARSE, parse, Frame.FrameType.GRAY_4_PLANES);
+        Tracer.end(Tracer.RECEIVE, receive, null);
+        final String json = trace();
+        assertTrue(json.startsWith("{\"traceEvents\":["));
+        assertTrue(json.endsWith("],\"displayTimeUnit\":\"ms\"}"));
+        assertTrue(json.contains("\"name\":\"parse\",\"cat\":\"frame\",\"ph\":\"X\",\"pid\":1," +
+                "\"tid\":" + Thread.currentThread().getId()));
+        assertTrue(json.contains("\"args\":{\"type\":\"gray4Planes\"}"));
+        // Receive started first so it is the origin, even though it was recorded last.
+        assertTrue(json.contains("\"name\":\"receive\",\"cat\":\"frame\",\"ph\":\"X\",\"pid\":1," +
+                "\"tid\":" + Thread.currentThread().getId() + ",\"ts\":0.000,"));
+        assertTrue(json.contains("\"name\":\"thread_name\",\"ph\":\"M\""));
+        assertEquals(Tracer.getCount(), 2);
+    }
+
+    @Test
+    public void testOnlyTheLatestEventsAreKept() {
+        for (int i = 0; i < Tracer.CAPACITY + 10; i++) {
+            Tracer.end(i < 10 ? Tracer.PRESENT : Tracer.UPLOAD, Tracer.begin(), null);
+        }
+        final String json = trace();
+        assertFalse(json.contains("\"present\""));
+        assertEquals(count(json, "\"upload\""), Tracer.CAPACITY);
+        assertEquals(Tracer.getCount(), Tracer.CAPACITY + 10);
+    }
+
+    @Test
+    public void testEmpty() {
+        assertFalse(trace().contains("\"ph\":\"X\""));
+    }
+
+    private static String trace() {
+        final StringBuilder sb = new StringBuilder();
+        Tracer.writeChromeTrace(sb);
+        return sb.toString();
+    }
+
+    private static int count(final String text, final String part) {
+        int count = 0;
+        for (int i = text.indexOf(part); i >= 0; i = text.indexOf(part, i + 1)) {
+            count++;
+        }
+        return count;
+    }
+}
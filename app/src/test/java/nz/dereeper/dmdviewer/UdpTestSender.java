@@ -0,0 +1,116 @@
+/*
+ * Copyright 2021 Mark de Reeper
+ *
+ *  Permission is hereby granted, free of charge, to any person
+ *  obtaining a copy of this software and associated documentation
+ *  files (the "Software"), to deal in the Software without
+ *  restriction, including without limitation the rights to use,
+ *  copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the
+ *  Software is furnished to do so, subject to the following
+ *  conditions:
+ *
+ *  The above copyright notice and this permission notice shall be
+ *  included in all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ *  EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ *  OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ *  NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ *  HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ *  WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ *  FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ *  OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package nz.dereeper.dmdviewer;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import static java.nio.ByteOrder.LITTLE_ENDIAN;
+import static nz.dereeper.dmdviewer.DmdUdpServer.HEADER_SIZE;
+
+/**
+ * A stand in for dmdext when testing the {@link DmdUdpServer}. Splits messages into fragments,
+ * can be told to lose some of them, and repeats the control messages it has sent on request.
+ */
+class UdpTestSender {
+
+    private final DatagramSocket socket;
+    private final InetSocketAddress target;
+    private final int fragmentSize;
+    private final List<byte[]> controlMessages = new ArrayList<>();
+    private int sequence;
+    private int dropFragment = -1;
+
+    UdpTestSender(final InetSocketAddress target, final int fragmentSize) throws IOException {
+        this.socket = new DatagramSocket();
+        this.target = target;
+        this.fragmentSize = fragmentSize;
+    }
+
+    /**
+     * Lose the given fragment of the next message sent.
+     * @param index the fragment to lose.
+     */
+    void dropNextFragment(final int index) {
+        dropFragment = index;
+    }
+
+    /**
+     * Send a control message and remember it so it can be repeated.
+     * @param message the dmdext binary message.
+     * @throws IOException if the send failed.
+     */
+    void sendControl(final byte[] message) throws IOException {
+        controlMessages.add(message);
+        send(message);
+    }
+
+    /**
+     * Send all of the control messages again, as a sender would every so often.
+     * @throws IOException if the send failed.
+     */
+    void repeatControl() throws IOException {
+        for (byte[] message : controlMessages) {
+            send(message);
+        }
+    }
+
+    /**
+     * Send a dmdext binary message.
+     * @param message the message.
+     * @throws IOException if the send failed.
+     */
+    void send(final byte[] message) throws IOException {
+        final int count = Math.max(1, (message.length + fragmentSize - 1) / fragmentSize);
+        final int seq = sequence++;
+        for (int index = 0; index < count; index++) {
+            if (index == dropFragment) {
+                continue;
+            }
+            final int offset = index * fragmentSize;
+            final int length = Math.min(fragmentSize, message.length - offset);
+            final ByteBuffer datagram = ByteBuffer.allocate(HEADER_SIZE + length).order(LITTLE_ENDIAN);
+            datagram.putInt(seq)
+                    .putShort((short) index)
+                    .putShort((short) count)
+                    .putInt(offset)
+                    .putInt(message.length)
+                    .putInt((int) System.currentTimeMillis())
+                    .put(message, offset, length);
+            socket.send(new DatagramPacket(datagram.array(), datagram.capacity(), target));
+        }
+        dropFragment = -1;
+    }
+
+    void close() {
+        socket.close();
+    }
+}
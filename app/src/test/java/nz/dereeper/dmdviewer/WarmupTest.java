@@ -0,0 +1,57 @@
+/*
+ * Copyright 2021 Mark de Reeper
+ *
+ *  Permission is hereby granted, free of charge, to any person
+ *  obtaining a copy of this software and associated documentation
+ *  files (the "Software"), to deal in the Software without
+ *  restriction, including without limitation the rights to use,
+ *  copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the
+ *  Software is furnished to do so, subject to the following
+ *  conditions:
+ *
+ *  The above copyright notice and this permission notice shall be
+ *  included in all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ *  EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ *  OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ *  NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ *  HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ *  WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ *  FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ *  OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package nz.dereeper.dmdviewer;
+
+import org.testng.annotations.Test;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+
+public class WarmupTest {
+
+    private static final Dimensions DIMENSIONS = new Dimensions(32, 8);
+
+    @Test
+    public void testDrawsEveryType() {
+        final Warmup warmup = new Warmup(DIMENSIONS, new Dmd(true, true), ColourAdjust.NONE, true,
+                new PostProcessor(new Effect[] { new GlowEffect(5, 160) }));
+        warmup.run();
+        // Every pass draws one frame of each image type.
+        assertTrue(warmup.getFrames() > 0);
+        assertEquals(warmup.getFrames() % 5, 0);
+        assertTrue(warmup.getFrames() <= Warmup.FRAMES_PER_TYPE * 5);
+    }
+
+    @Test
+    public void testStopped() {
+        final Warmup warmup = new Warmup(DIMENSIONS, new Dmd(false, false), ColourAdjust.NONE,
+                false, new PostProcessor(new Effect[0]));
+        warmup.stop();
+        warmup.run();
+        assertEquals(warmup.getFrames(), 0);
+    }
+}